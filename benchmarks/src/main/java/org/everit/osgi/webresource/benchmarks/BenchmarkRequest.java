@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request stand-in with fixed headers. Functions that are not overridden throw
+ * {@link UnsupportedOperationException}.
+ */
+public class BenchmarkRequest extends HttpServletRequestWrapper {
+
+  private static HttpServletRequest createUnsupportedRequest() {
+    return (HttpServletRequest) Proxy.newProxyInstance(BenchmarkRequest.class.getClassLoader(),
+        new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+          throw new UnsupportedOperationException(method.toString());
+        });
+  }
+
+  private final Map<String, String> headers = new HashMap<>();
+
+  private String method = "GET";
+
+  public BenchmarkRequest() {
+    super(BenchmarkRequest.createUnsupportedRequest());
+  }
+
+  @Override
+  public String getHeader(final String name) {
+    return this.headers.get(name);
+  }
+
+  @Override
+  public String getMethod() {
+    return this.method;
+  }
+
+  /**
+   * Sets a request header.
+   *
+   * @param name
+   *          The name of the header.
+   * @param value
+   *          The value of the header or <code>null</code> to remove it.
+   * @return This request.
+   */
+  public BenchmarkRequest header(final String name, final String value) {
+    if (value == null) {
+      this.headers.remove(name);
+    } else {
+      this.headers.put(name, value);
+    }
+    return this;
+  }
+
+  public BenchmarkRequest method(final String method) {
+    this.method = method;
+    return this;
+  }
+}
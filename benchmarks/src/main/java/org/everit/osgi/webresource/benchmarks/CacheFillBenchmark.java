@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.webresource.ContentEncoding;
+import org.everit.osgi.webresource.internal.ContentTypeUtil;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.internal.WebResourceImpl;
+import org.everit.osgi.webresource.internal.WebResourceMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Version;
+
+/**
+ * Benchmark of reading the content of a resource into the cache in each encoding. The cache is
+ * emptied before each invocation, so every invocation reads and encodes the content.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheFillBenchmark {
+
+  private ContentEncoding contentEncoding;
+
+  @Param({ "raw", "deflate", "gzip" })
+  public String encoding;
+
+  private WebResourceImpl resource;
+
+  @Param({ "4096", "65536", "1048576" })
+  public int size;
+
+  @Param({ "js", "png" })
+  public String type;
+
+  /**
+   * Reads the content into the cache.
+   *
+   * @return The size of the cached content.
+   */
+  @Benchmark
+  public Long fill() {
+    this.resource.evictAll();
+    this.resource.warm(this.contentEncoding);
+    return this.resource.getCacheSize(this.contentEncoding);
+  }
+
+  /**
+   * Creates the resource with synthetic content.
+   */
+  @Setup
+  public void setup() {
+    this.contentEncoding = ContentEncoding.forToken(this.encoding).get();
+    MemoryURLStreamHandler urlStreamHandler = new MemoryURLStreamHandler();
+    String fileName = "file." + this.type;
+    URL url = urlStreamHandler.addContent("/vendor/lib/" + fileName,
+        SyntheticContent.generate(this.type, this.size, this.size));
+    this.resource = new WebResourceImpl(SyntheticBundles.createBundle(1, "synthetic.lib"),
+        "vendor/lib", fileName, url, new Version(1, 0, 0), ContentTypeUtil.resolveContentType(url),
+        new WebResourceMetrics(), WebResourceConfiguration.fromSystemProperties());
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.everit.osgi.webresource.internal.WebResourceBundleIngester;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.internal.WebResourceContainerImpl;
+import org.everit.osgi.webresource.internal.WebResourceMetrics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+/**
+ * Stress test of the container that hammers lookups while synthetic bundles are added and removed
+ * on other threads. Every lookup result is checked against the versions that may legally be
+ * visible at any moment:
+ *
+ * <ul>
+ * <li>A stable bundle with version 1.0.0 is never removed, so its resources must always be found.
+ * </li>
+ * <li>Two churning bundles with version 2.0.0 and 3.0.0 provide the same resources and are added
+ * and removed continuously. A lookup may see them or not, but a removal must never hide the
+ * stable version.</li>
+ * <li>A transient bundle provides a library that disappears completely on removal.</li>
+ * </ul>
+ *
+ * <p>
+ * The lookup throughput under churn is reported, so changes of the index can be compared. The
+ * process exits with a non-zero code if any lookup returned an illegal result or failed.
+ *
+ * <p>
+ * Arguments: entries per bundle, lookup threads, duration in seconds.
+ */
+public final class ContainerStress {
+
+  private static final int ENTRY_SIZE = 64;
+
+  private static final String LIBRARY_PREFIX = "synthetic";
+
+  private static final int MAX_REPORTED_VIOLATIONS = 20;
+
+  private static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+  private static final int QUERY_TYPE_COUNT = 6;
+
+  private static final String RESOURCE_FOLDER = "META-INF/webresources";
+
+  private static final String TRANSIENT_LIBRARY_PREFIX = "transient";
+
+  private static final Version VERSION_STABLE = new Version(1, 0, 0);
+
+  private static Bundle createBundle(final long bundleId, final String libraryPrefix,
+      final Version version, final int entryCount) {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(WebResourceConstants.CAPABILITY_ATTRIBUTE_RESOURCE_FOLDER,
+        ContainerStress.RESOURCE_FOLDER);
+    attributes.put(WebResourceConstants.CAPABILITY_ATTRIBUTE_LIBRARY_PREFIX, libraryPrefix);
+    attributes.put(WebResourceConstants.CAPABILITY_ATTRIBUTE_VERSION, version);
+    Map<String, URL> entries = SyntheticEntries.createInMemory(ContainerStress.RESOURCE_FOLDER,
+        entryCount, ContainerStress.ENTRY_SIZE);
+    return SyntheticBundles.createWebResourceBundle(bundleId,
+        "synthetic.stress." + libraryPrefix + "." + version, attributes, entries);
+  }
+
+  /**
+   * Runs the stress test.
+   *
+   * @param args
+   *          See the description of the class.
+   * @throws InterruptedException
+   *           if the main thread is interrupted while waiting for the workers.
+   */
+  public static void main(final String[] args) throws InterruptedException {
+    int argIndex = 0;
+    int entryCount = Integer.parseInt(args[argIndex++]);
+    int lookupThreadCount = Integer.parseInt(args[argIndex++]);
+    int durationSeconds = Integer.parseInt(args[argIndex]);
+
+    new ContainerStress(entryCount).run(lookupThreadCount, durationSeconds);
+  }
+
+  private static String resolveFileName(final int index) {
+    String entryName = SyntheticEntries.resolveEntryName("", index);
+    return entryName.substring(entryName.lastIndexOf('/') + 1);
+  }
+
+  private static String resolveLibrary(final String libraryPrefix, final int index) {
+    String entryName = SyntheticEntries.resolveEntryName("", index);
+    return libraryPrefix + entryName.substring(0, entryName.lastIndexOf('/'));
+  }
+
+  private final Bundle[] churningBundles;
+
+  private final AtomicLong churnCycles = new AtomicLong();
+
+  private final WebResourceContainerImpl container;
+
+  private final int entryCount;
+
+  private final WebResourceBundleIngester ingester;
+
+  private final LongAdder lookups = new LongAdder();
+
+  private volatile boolean running = true;
+
+  private final Bundle stableBundle;
+
+  private final Bundle transientBundle;
+
+  private final List<String> violations = new ArrayList<>();
+
+  private final LongAdder violationCount = new LongAdder();
+
+  private ContainerStress(final int entryCount) {
+    this.entryCount = entryCount;
+    WebResourceMetrics metrics = new WebResourceMetrics();
+    this.container = new WebResourceContainerImpl(metrics);
+    this.ingester = new WebResourceBundleIngester(this.container, metrics, null,
+        WebResourceConfiguration.fromSystemProperties());
+
+    this.stableBundle = ContainerStress.createBundle(1, ContainerStress.LIBRARY_PREFIX,
+        ContainerStress.VERSION_STABLE, entryCount);
+    this.churningBundles = new Bundle[] {
+        ContainerStress.createBundle(2, ContainerStress.LIBRARY_PREFIX, new Version(2, 0, 0),
+            entryCount),
+        ContainerStress.createBundle(3, ContainerStress.LIBRARY_PREFIX, new Version(3, 0, 0),
+            entryCount) };
+    this.transientBundle = ContainerStress.createBundle(4,
+        ContainerStress.TRANSIENT_LIBRARY_PREFIX, ContainerStress.VERSION_STABLE, entryCount);
+  }
+
+  private void checkLookup(final int queryType, final int index) {
+    String library = ContainerStress.resolveLibrary(ContainerStress.LIBRARY_PREFIX, index);
+    String fileName = ContainerStress.resolveFileName(index);
+    switch (queryType) {
+      case 0:
+        // Highest version: any version, but never missing
+        verify(this.container.findWebResource(library, fileName, Optional.empty()), true,
+            "1.0.0", "2.0.0", "3.0.0");
+        break;
+      case 1:
+        // Closed range whose ceiling is a churning version
+        verify(this.container.findWebResource(library, fileName, Optional.of("[1.0.0,2.0.0]")),
+            true, "1.0.0", "2.0.0");
+        break;
+      case 2:
+        // Open range that contains the churning versions
+        verify(this.container.findWebResource(library, fileName, Optional.of("[1.0.0,4.0.0)")),
+            true, "1.0.0", "2.0.0", "3.0.0");
+        break;
+      case 3:
+        // Exact version of the stable bundle
+        verify(this.container.findWebResource(library, fileName, Optional.of("[1.0.0,1.0.0]")),
+            true, "1.0.0");
+        break;
+      case 4:
+        // Only churning versions are in the range
+        verify(this.container.findWebResource(library, fileName, Optional.of("2.0.0")), false,
+            "2.0.0", "3.0.0");
+        break;
+      default:
+        // Library that disappears completely
+        verify(this.container.findWebResource(
+            ContainerStress.resolveLibrary(ContainerStress.TRANSIENT_LIBRARY_PREFIX, index),
+            fileName, Optional.empty()), false, "1.0.0");
+        break;
+    }
+  }
+
+  private void churn(final Bundle bundle) {
+    while (this.running) {
+      this.ingester.addBundle(bundle);
+      Thread.yield();
+      this.ingester.removeBundle(bundle);
+      this.churnCycles.incrementAndGet();
+    }
+  }
+
+  private void lookup() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (this.running) {
+      int index = random.nextInt(this.entryCount);
+      int queryType = random.nextInt(ContainerStress.QUERY_TYPE_COUNT);
+      try {
+        checkLookup(queryType, index);
+      } catch (RuntimeException e) {
+        reportViolation("Lookup failed: " + e);
+      }
+      this.lookups.increment();
+    }
+  }
+
+  private synchronized void reportViolation(final String message) {
+    this.violationCount.increment();
+    if (this.violations.size() < ContainerStress.MAX_REPORTED_VIOLATIONS) {
+      this.violations.add(message);
+    }
+  }
+
+  private void run(final int lookupThreadCount, final int durationSeconds)
+      throws InterruptedException {
+    this.ingester.addBundle(this.stableBundle);
+
+    List<Thread> threads = new ArrayList<>();
+    for (Bundle churningBundle : this.churningBundles) {
+      threads.add(new Thread(() -> churn(churningBundle),
+          "stress-churn-" + churningBundle.getBundleId()));
+    }
+    threads.add(new Thread(() -> churn(this.transientBundle), "stress-churn-transient"));
+    for (int i = 0; i < lookupThreadCount; i++) {
+      threads.add(new Thread(this::lookup, "stress-lookup-" + i));
+    }
+
+    long startTime = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+    this.running = false;
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsedNanos = System.nanoTime() - startTime;
+
+    // After the churn only the stable bundle must stay
+    LongAdder remainingResources = new LongAdder();
+    this.container.forEachWebResource((webResource) -> {
+      remainingResources.increment();
+      if (!ContainerStress.VERSION_STABLE.equals(webResource.getVersion())
+          || !webResource.getLibrary().startsWith(ContainerStress.LIBRARY_PREFIX + "/")) {
+        reportViolation("Resource left in the container: " + webResource);
+      }
+    });
+    if (remainingResources.sum() != this.entryCount) {
+      reportViolation("Expected " + this.entryCount + " resources in the container after the"
+          + " churn, found " + remainingResources.sum());
+    }
+
+    double seconds = elapsedNanos / ContainerStress.NANOS_PER_SECOND;
+    System.out.println("Lookups:      " + this.lookups.sum() + " ("
+        + (long) (this.lookups.sum() / seconds) + " lookups/s)");
+    System.out.println("Churn cycles: " + this.churnCycles.get() + " ("
+        + (long) (this.churnCycles.get() / seconds) + " add/remove per second)");
+    System.out.println("Violations:   " + this.violationCount.sum());
+
+    if (this.violationCount.sum() > 0) {
+      for (String violation : this.violations) {
+        System.err.println(violation);
+      }
+      System.exit(1);
+    }
+  }
+
+  private void verify(final Optional<WebResource> result, final boolean mandatory,
+      final String... allowedVersions) {
+    if (result == null) {
+      reportViolation("findWebResource returned null");
+      return;
+    }
+    if (!result.isPresent()) {
+      if (mandatory) {
+        reportViolation("Resource not found although version " + allowedVersions[0]
+            + " is never removed");
+      }
+      return;
+    }
+    String version = result.get().getVersion().toString();
+    for (String allowedVersion : allowedVersions) {
+      if (allowedVersion.equals(version)) {
+        return;
+      }
+    }
+    reportViolation("Unexpected version " + version + " of " + result.get().getLibrary() + "/"
+        + result.get().getFileName());
+  }
+}
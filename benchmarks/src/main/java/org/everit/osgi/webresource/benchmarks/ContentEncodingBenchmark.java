@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.webresource.ContentEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of resolving the content encoding from the Accept-Encoding header of real browsers
+ * and clients.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentEncodingBenchmark {
+
+  @Param({ "gzip, deflate, br", "gzip, deflate, br, zstd", "deflate;q=0.5, gzip;q=0", "identity",
+      "NONE" })
+  public String acceptEncoding;
+
+  private BenchmarkRequest request;
+
+  @Benchmark
+  public ContentEncoding resolveEncoding() {
+    return ContentEncoding.resolveEncoding(this.request);
+  }
+
+  /**
+   * Creates the request. The value NONE of the parameter means that there is no Accept-Encoding
+   * header.
+   */
+  @Setup
+  public void setup() {
+    this.request = new BenchmarkRequest().header("Accept-Encoding",
+        "NONE".equals(this.acceptEncoding) ? null : this.acceptEncoding);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.webresource.internal.ContentTypeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of resolving the content type of resource URLs during the ingest of bundles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentTypeBenchmark {
+
+  private static final String[] FILE_NAMES = new String[] {
+      "jquery.min.js", "bootstrap.css", "logo.svg", "messages.json", "icon.png",
+      "fontawesome-webfont.woff2", "app.js.map", "README", "archive.tar.gz", "index.html" };
+
+  private int index;
+
+  private URL[] urls;
+
+  @Benchmark
+  public String resolveContentType() {
+    URL url = this.urls[this.index];
+    this.index = (this.index + 1) % this.urls.length;
+    return ContentTypeUtil.resolveContentType(url);
+  }
+
+  /**
+   * Creates the URLs in the format of the bundle URLs of Equinox.
+   */
+  @Setup
+  public void setup() {
+    MemoryURLStreamHandler urlStreamHandler = new MemoryURLStreamHandler();
+    this.urls = new URL[ContentTypeBenchmark.FILE_NAMES.length];
+    for (int i = 0; i < this.urls.length; i++) {
+      this.urls[i] = urlStreamHandler.addContent(
+          "/META-INF/resources/vendor/lib/" + ContentTypeBenchmark.FILE_NAMES[i], new byte[0]);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.internal.WebResourceImpl;
+import org.everit.osgi.webresource.internal.WebResourceMetrics;
+import org.everit.osgi.webresource.transport.InMemoryWebResourceRequest;
+import org.everit.osgi.webresource.transport.InMemoryWebResourceResponse;
+import org.everit.osgi.webresource.transport.WebResourceHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Version;
+
+/**
+ * Benchmark of serving conditional requests via {@link WebResourceHandler#writeWebResource} with
+ * in-memory requests and responses. The cost of matching the If-None-Match header is the
+ * difference between the parameters as the content is cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EtagMatchBenchmark {
+
+  private static final int CONTENT_SIZE = 1024;
+
+  @Param({ "none", "match", "mismatch", "list" })
+  public String ifNoneMatch;
+
+  private InMemoryWebResourceRequest request;
+
+  private WebResource webResource;
+
+  /**
+   * Writes the resource to a new response. The status is 304 if the If-None-Match header matches,
+   * otherwise 200 with the cached content as the body.
+   */
+  @Benchmark
+  public InMemoryWebResourceResponse writeWebResource() {
+    InMemoryWebResourceResponse response = new InMemoryWebResourceResponse();
+    WebResourceHandler.writeWebResource(this.webResource, this.request, response);
+    return response;
+  }
+
+  /**
+   * Creates the resource and a request whose If-None-Match header is missing, the matching ETag,
+   * another ETag or a list of ETags where the last one matches. The content is cached before the
+   * measurement.
+   */
+  @Setup
+  public void setup() {
+    URL url = new MemoryURLStreamHandler().addContent("/vendor/lib/app.js",
+        SyntheticContent.generate("js", EtagMatchBenchmark.CONTENT_SIZE, 1));
+    this.webResource = new WebResourceImpl(SyntheticBundles.createBundle(1, "synthetic.lib"),
+        "vendor/lib", "app.js", url, new Version(1, 0, 0), "application/javascript",
+        new WebResourceMetrics(), WebResourceConfiguration.fromSystemProperties());
+
+    String etag = this.webResource.getETagHeaderValue();
+    String otherEtag = "\"0123456789abcdef0123456789abcdef-1\"";
+    String ifNoneMatchHeader;
+    switch (this.ifNoneMatch) {
+      case "match":
+        ifNoneMatchHeader = etag;
+        break;
+      case "mismatch":
+        ifNoneMatchHeader = otherEtag;
+        break;
+      case "list":
+        ifNoneMatchHeader = otherEtag + ", " + otherEtag + ", " + etag;
+        break;
+      default:
+        ifNoneMatchHeader = null;
+        break;
+    }
+    this.request = new InMemoryWebResourceRequest("GET", "/vendor/lib/app.js")
+        .header("If-None-Match", ifNoneMatchHeader);
+    writeWebResource();
+  }
+}
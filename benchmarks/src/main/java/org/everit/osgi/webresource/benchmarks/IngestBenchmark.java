@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.everit.osgi.webresource.internal.WebResourceBundleIngester;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.internal.WebResourceContainerImpl;
+import org.everit.osgi.webresource.internal.WebResourceMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+/**
+ * Benchmark of processing webresource bundles by the extender. The bundle is a stand-in whose
+ * entries are served from memory or from a temporary directory, so the benchmark does not need an
+ * OSGi framework.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+
+  static final String RESOURCE_FOLDER = "META-INF/webresources";
+
+  static Map<String, Object> createCapabilityAttributes() {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(WebResourceConstants.CAPABILITY_ATTRIBUTE_RESOURCE_FOLDER,
+        IngestBenchmark.RESOURCE_FOLDER);
+    attributes.put(WebResourceConstants.CAPABILITY_ATTRIBUTE_LIBRARY_PREFIX, "synthetic");
+    attributes.put(WebResourceConstants.CAPABILITY_ATTRIBUTE_VERSION, new Version(1, 0, 0));
+    return attributes;
+  }
+
+  private Bundle bundle;
+
+  private Path directory;
+
+  @Param({ "1000", "5000" })
+  public int entryCount;
+
+  @Param({ "1024", "16384" })
+  public int entrySize;
+
+  private WebResourceBundleIngester ingester;
+
+  @Param({ "memory", "directory" })
+  public String source;
+
+  /**
+   * Processes the bundle and removes it afterwards, like when a bundle is updated.
+   *
+   * @return Whether the bundle was tracked.
+   */
+  @Benchmark
+  public boolean addAndRemoveBundle() {
+    boolean tracked = this.ingester.addBundle(this.bundle);
+    this.ingester.removeBundle(this.bundle);
+    return tracked;
+  }
+
+  /**
+   * Processes the bundle. It is removed after each invocation without measuring the removal.
+   *
+   * @return Whether the bundle was tracked.
+   */
+  @Benchmark
+  public boolean addBundle() {
+    return this.ingester.addBundle(this.bundle);
+  }
+
+  /**
+   * Removes the bundle if {@link #addBundle()} added it.
+   */
+  @TearDown(Level.Invocation)
+  public void removeBundle() {
+    this.ingester.removeBundle(this.bundle);
+  }
+
+  /**
+   * Creates the entries and the bundle.
+   *
+   * @throws IOException
+   *           if the temporary directory cannot be written.
+   */
+  @Setup
+  public void setup() throws IOException {
+    Map<String, URL> entries;
+    if ("directory".equals(this.source)) {
+      this.directory = Files.createTempDirectory("webresource-ingest");
+      entries = SyntheticEntries.createInDirectory(this.directory,
+          IngestBenchmark.RESOURCE_FOLDER, this.entryCount, this.entrySize);
+    } else {
+      entries = SyntheticEntries.createInMemory(IngestBenchmark.RESOURCE_FOLDER,
+          this.entryCount, this.entrySize);
+    }
+    this.bundle = SyntheticBundles.createWebResourceBundle(1, "synthetic.ingest",
+        IngestBenchmark.createCapabilityAttributes(), entries);
+
+    WebResourceMetrics metrics = new WebResourceMetrics();
+    this.ingester =
+        new WebResourceBundleIngester(new WebResourceContainerImpl(metrics), metrics, null,
+            WebResourceConfiguration.fromSystemProperties());
+  }
+
+  /**
+   * Deletes the temporary directory.
+   */
+  @TearDown
+  public void tearDown() {
+    if (this.directory != null) {
+      SyntheticEntries.deleteRecursively(this.directory);
+      this.directory = null;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URL;
+import java.util.Map;
+
+import org.everit.osgi.webresource.internal.WebResourceBundleIngester;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.internal.WebResourceContainerImpl;
+import org.everit.osgi.webresource.internal.WebResourceMetrics;
+import org.osgi.framework.Bundle;
+
+/**
+ * Measures the ingest throughput and the heap that the container retains per resource after
+ * processing synthetic bundles from memory. The process exits with a non-zero code if one of the
+ * limits is exceeded, so it can guard the build against ingest regressions.
+ *
+ * <p>
+ * Arguments: bundle count, entries per bundle, entry size, maximum retained bytes per resource
+ * (optional), minimum resources per second (optional).
+ */
+public final class IngestFootprint {
+
+  private static final int GC_ROUNDS = 5;
+
+  private static final long GC_SLEEP_MILLIS = 100;
+
+  private static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+  private static final int WARMUP_ROUNDS = 3;
+
+  private static long measureUsedHeap() throws InterruptedException {
+    MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < IngestFootprint.GC_ROUNDS; i++) {
+      System.gc();
+      Thread.sleep(IngestFootprint.GC_SLEEP_MILLIS);
+    }
+    return memoryMXBean.getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * Runs the measurement.
+   *
+   * @param args
+   *          See the description of the class.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting for the garbage collector.
+   */
+  public static void main(final String[] args) throws InterruptedException {
+    int argIndex = 0;
+    int bundleCount = Integer.parseInt(args[argIndex++]);
+    int entriesPerBundle = Integer.parseInt(args[argIndex++]);
+    int entrySize = Integer.parseInt(args[argIndex++]);
+    long maxBytesPerResource =
+        args.length > argIndex ? Long.parseLong(args[argIndex++]) : Long.MAX_VALUE;
+    double minResourcesPerSecond = args.length > argIndex ? Double.parseDouble(args[argIndex]) : 0;
+
+    Bundle[] bundles = new Bundle[bundleCount];
+    for (int i = 0; i < bundleCount; i++) {
+      Map<String, URL> entries = SyntheticEntries.createInMemory(
+          IngestBenchmark.RESOURCE_FOLDER + i, entriesPerBundle, entrySize);
+      bundles[i] = SyntheticBundles.createWebResourceBundle(i + 1, "synthetic.ingest" + i,
+          IngestBenchmark.createCapabilityAttributes(), entries);
+    }
+
+    // Warming up the JIT with a separate container
+    for (int round = 0; round < IngestFootprint.WARMUP_ROUNDS; round++) {
+      WebResourceMetrics metrics = new WebResourceMetrics();
+      WebResourceBundleIngester ingester =
+          new WebResourceBundleIngester(new WebResourceContainerImpl(metrics), metrics, null,
+              WebResourceConfiguration.fromSystemProperties());
+      for (Bundle bundle : bundles) {
+        ingester.addBundle(bundle);
+      }
+      for (Bundle bundle : bundles) {
+        ingester.removeBundle(bundle);
+      }
+    }
+
+    long heapBefore = IngestFootprint.measureUsedHeap();
+
+    WebResourceMetrics metrics = new WebResourceMetrics();
+    WebResourceBundleIngester ingester =
+        new WebResourceBundleIngester(new WebResourceContainerImpl(metrics), metrics, null,
+            WebResourceConfiguration.fromSystemProperties());
+    long startTime = System.nanoTime();
+    for (Bundle bundle : bundles) {
+      ingester.addBundle(bundle);
+    }
+    long addNanos = System.nanoTime() - startTime;
+
+    long heapAfter = IngestFootprint.measureUsedHeap();
+
+    startTime = System.nanoTime();
+    for (Bundle bundle : bundles) {
+      ingester.removeBundle(bundle);
+    }
+    long removeNanos = System.nanoTime() - startTime;
+
+    long resourceCount = (long) bundleCount * entriesPerBundle;
+    long bytesPerResource = (heapAfter - heapBefore) / resourceCount;
+    double resourcesPerSecond = resourceCount * IngestFootprint.NANOS_PER_SECOND / addNanos;
+    System.out.println("Resources:              " + resourceCount);
+    System.out.println("Add:                    " + addNanos / 1_000_000 + " ms ("
+        + (long) resourcesPerSecond + " resources/s)");
+    System.out.println("Remove:                 " + removeNanos / 1_000_000 + " ms");
+    System.out.println("Retained bytes/resource: " + bytesPerResource);
+
+    boolean failed = false;
+    if (bytesPerResource > maxBytesPerResource) {
+      System.err.println("Retained bytes per resource exceeds the limit of "
+          + maxBytesPerResource);
+      failed = true;
+    }
+    if (resourcesPerSecond < minResourcesPerSecond) {
+      System.err.println("Ingest throughput is below the limit of " + minResourcesPerSecond
+          + " resources/s");
+      failed = true;
+    }
+    if (failed) {
+      System.exit(1);
+    }
+  }
+
+  private IngestFootprint() {
+  }
+}
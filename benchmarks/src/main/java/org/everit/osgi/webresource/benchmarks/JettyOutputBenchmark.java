@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.everit.osgi.webresource.util.WebResourceUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serves synthetic resources from an embedded Jetty and compares the throughput of the Jetty
+ * <code>HttpOutput.sendContent</code> adapter with the standard Servlet API path. Each benchmark
+ * thread is a client with a kept-alive connection. The servlet path is measured in a fork where
+ * the container adapters are disabled via
+ * {@link WebResourceConstants#SYSTEM_PROPERTY_CONTAINER_ADAPTERS}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@State(Scope.Benchmark)
+public class JettyOutputBenchmark {
+
+  /**
+   * HTTP/1.1 client of a benchmark thread that keeps its connection open.
+   */
+  @State(Scope.Thread)
+  public static class Client {
+
+    private InputStream in;
+
+    private OutputStream out;
+
+    private byte[] request;
+
+    private final byte[] skipBuffer = new byte[JettyOutputBenchmark.SKIP_BUFFER_SIZE];
+
+    private Socket socket;
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException
+     *           if the socket cannot be closed.
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+      this.socket.close();
+    }
+
+    /**
+     * Opens the connection to the server.
+     *
+     * @param benchmark
+     *          The benchmark state with the started server.
+     * @throws IOException
+     *           if the connection cannot be opened.
+     */
+    @Setup(Level.Trial)
+    public void connect(final JettyOutputBenchmark benchmark) throws IOException {
+      this.socket = new Socket("localhost", benchmark.port);
+      this.socket.setTcpNoDelay(true);
+      this.in = new BufferedInputStream(this.socket.getInputStream());
+      this.out = this.socket.getOutputStream();
+      this.request = ("GET /" + benchmark.path + " HTTP/1.1\r\nHost: localhost\r\n"
+          + "Accept-Encoding: " + benchmark.acceptEncoding + "\r\n\r\n")
+              .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private String readLine() throws IOException {
+      StringBuilder sb = new StringBuilder();
+      int c = this.in.read();
+      while (c != '\n') {
+        if (c < 0) {
+          throw new IOException("Connection closed by the server");
+        }
+        if (c != '\r') {
+          sb.append((char) c);
+        }
+        c = this.in.read();
+      }
+      return sb.toString();
+    }
+
+    long send() throws IOException {
+      this.out.write(this.request);
+      this.out.flush();
+      readLine();
+      long contentLength = 0;
+      String headerLine = readLine();
+      while (!headerLine.isEmpty()) {
+        if (headerLine.regionMatches(true, 0, "Content-Length:", 0,
+            "Content-Length:".length())) {
+          contentLength = Long.parseLong(headerLine.substring("Content-Length:".length()).trim());
+        }
+        headerLine = readLine();
+      }
+      long remaining = contentLength;
+      while (remaining > 0) {
+        int r = this.in.read(this.skipBuffer, 0,
+            (int) Math.min(remaining, this.skipBuffer.length));
+        if (r < 0) {
+          throw new IOException("Connection closed before the end of the body");
+        }
+        remaining -= r;
+      }
+      return contentLength;
+    }
+  }
+
+  private static final int SKIP_BUFFER_SIZE = 65536;
+
+  @Param({ "identity", "gzip" })
+  public String acceptEncoding;
+
+  @Param({ "true", "false" })
+  public boolean async;
+
+  private String path;
+
+  private int port;
+
+  private Server server;
+
+  @Param({ "2048", "65536", "327680" })
+  public int size;
+
+  /**
+   * Requests a resource with the Jetty adapter.
+   *
+   * @param client
+   *          The client of the benchmark thread.
+   * @return The length of the body.
+   * @throws IOException
+   *           if the request fails.
+   */
+  @Benchmark
+  @Fork(1)
+  public long containerAdapter(final Client client) throws IOException {
+    return client.send();
+  }
+
+  /**
+   * Requests a resource through the standard Servlet API.
+   *
+   * @param client
+   *          The client of the benchmark thread.
+   * @return The length of the body.
+   * @throws IOException
+   *           if the request fails.
+   */
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-D" + WebResourceConstants.SYSTEM_PROPERTY_CONTAINER_ADAPTERS
+      + "=false")
+  public long servletApi(final Client client) throws IOException {
+    return client.send();
+  }
+
+  /**
+   * Starts Jetty with a servlet that serves a synthetic library.
+   *
+   * @throws Exception
+   *           if Jetty cannot be started.
+   */
+  @Setup(Level.Trial)
+  public void startServer() throws Exception {
+    SyntheticLibraries libraries = new SyntheticLibraries(1, 1, 1, this.size);
+    this.path = libraries.getLibraryNames()[0] + "/" + libraries.getFileNames()[0];
+
+    HttpServlet servlet = new HttpServlet() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+          throws IOException {
+        WebResourceUtil.findWebResourceAndWriteResponse(libraries.getContainer(), req, resp);
+      }
+    };
+    ServletHolder servletHolder = new ServletHolder(servlet);
+    servletHolder.setAsyncSupported(this.async);
+
+    ServletContextHandler servletContextHandler = new ServletContextHandler();
+    servletContextHandler.addServlet(servletHolder, "/*");
+
+    this.server = new Server(0);
+    this.server.setHandler(servletContextHandler);
+    this.server.start();
+    this.port = ((ServerConnector) this.server.getConnectors()[0]).getLocalPort();
+  }
+
+  /**
+   * Stops Jetty.
+   *
+   * @throws Exception
+   *           if Jetty cannot be stopped.
+   */
+  @TearDown(Level.Trial)
+  public void stopServer() throws Exception {
+    this.server.stop();
+  }
+}
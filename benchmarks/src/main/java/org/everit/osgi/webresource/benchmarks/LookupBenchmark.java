@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.internal.WebResourceContainerImpl;
+import org.everit.osgi.webresource.internal.WebResourceServletURIGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of finding resources in a container with synthetic libraries and of generating their
+ * URIs. The looked up resources rotate, so the branch predictor and the caches of the CPU cannot
+ * specialize on a single resource.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+  /**
+   * The container that is shared between the threads.
+   */
+  @State(Scope.Benchmark)
+  public static class ContainerState {
+
+    WebResourceContainerImpl container;
+
+    String[] fileNames;
+
+    @Param({ "10", "200" })
+    public int libraryCount;
+
+    String[] libraryNames;
+
+    WebResourceServletURIGenerator uriGenerator;
+
+    /**
+     * Creates the synthetic libraries with 50 files and 3 versions each.
+     */
+    @Setup
+    public void setup() {
+      SyntheticLibraries libraries =
+          new SyntheticLibraries(this.libraryCount, LookupBenchmark.FILES_PER_LIBRARY,
+              LookupBenchmark.VERSIONS_PER_LIBRARY, LookupBenchmark.FILE_SIZE);
+      this.container = libraries.getContainer();
+      this.libraryNames = libraries.getLibraryNames();
+      this.fileNames = libraries.getFileNames();
+      this.uriGenerator =
+          new WebResourceServletURIGenerator(this.container, "/app", "/webresources/*");
+    }
+  }
+
+  /**
+   * The position of the thread in the rotation of the resources.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    int fileIndex;
+
+    int libraryIndex;
+
+    void next(final ContainerState state) {
+      this.fileIndex++;
+      if (this.fileIndex == state.fileNames.length) {
+        this.fileIndex = 0;
+        this.libraryIndex = (this.libraryIndex + 1) % state.libraryNames.length;
+      }
+    }
+  }
+
+  private static final Optional<String> EXACT_VERSION_RANGE = Optional.of("[1.1.0,1.1.0]");
+
+  private static final int FILE_SIZE = 256;
+
+  private static final int FILES_PER_LIBRARY = 50;
+
+  private static final Optional<String> VERSION_RANGE = Optional.of("[1.0.0,2.0.0)");
+
+  private static final int VERSIONS_PER_LIBRARY = 3;
+
+  /**
+   * Finding a resource with an exact version range.
+   */
+  @Benchmark
+  public Optional<WebResource> findExactVersion(final ContainerState state, final Cursor cursor) {
+    cursor.next(state);
+    return state.container.findWebResource(state.libraryNames[cursor.libraryIndex],
+        state.fileNames[cursor.fileIndex], LookupBenchmark.EXACT_VERSION_RANGE);
+  }
+
+  /**
+   * Finding a resource that does not exist in an existing library.
+   */
+  @Benchmark
+  public Optional<WebResource> findMissing(final ContainerState state, final Cursor cursor) {
+    cursor.next(state);
+    return state.container.findWebResource(state.libraryNames[cursor.libraryIndex],
+        "missing.js", Optional.empty());
+  }
+
+  /**
+   * Finding the highest version of a resource without version range.
+   */
+  @Benchmark
+  public Optional<WebResource> findWithoutVersion(final ContainerState state,
+      final Cursor cursor) {
+    cursor.next(state);
+    return state.container.findWebResource(state.libraryNames[cursor.libraryIndex],
+        state.fileNames[cursor.fileIndex], Optional.empty());
+  }
+
+  /**
+   * Finding the highest version of a resource within a version range.
+   */
+  @Benchmark
+  public Optional<WebResource> findWithVersionRange(final ContainerState state,
+      final Cursor cursor) {
+    cursor.next(state);
+    return state.container.findWebResource(state.libraryNames[cursor.libraryIndex],
+        state.fileNames[cursor.fileIndex], LookupBenchmark.VERSION_RANGE);
+  }
+
+  /**
+   * Generating the URI of a resource within a version range.
+   */
+  @Benchmark
+  public Optional<String> generateURI(final ContainerState state, final Cursor cursor) {
+    cursor.next(state);
+    return state.uriGenerator.generateURI(state.libraryNames[cursor.libraryIndex],
+        state.fileNames[cursor.fileIndex], LookupBenchmark.VERSION_RANGE);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link URLStreamHandler} that serves content from memory, so the benchmarks do not measure the
+ * file system or the URL handlers of an OSGi framework.
+ */
+public class MemoryURLStreamHandler extends URLStreamHandler {
+
+  /**
+   * Connection that returns the content that was registered with the path of the URL.
+   */
+  private static final class MemoryURLConnection extends URLConnection {
+
+    private final byte[] content;
+
+    private final long lastModified;
+
+    MemoryURLConnection(final URL url, final byte[] content, final long lastModified) {
+      super(url);
+      this.content = content;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public void connect() {
+      this.connected = true;
+    }
+
+    @Override
+    public int getContentLength() {
+      return this.content.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+      return this.content.length;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(this.content);
+    }
+
+    @Override
+    public long getLastModified() {
+      return this.lastModified;
+    }
+  }
+
+  private static final String PROTOCOL = "memory";
+
+  private final Map<String, byte[]> contentsByPath = new ConcurrentHashMap<>();
+
+  private final long lastModified = System.currentTimeMillis();
+
+  /**
+   * Registers content and creates a URL that points to it.
+   *
+   * @param path
+   *          The path of the URL that starts with a slash.
+   * @param content
+   *          The content that is returned by the connections of the URL.
+   * @return The URL.
+   */
+  public URL addContent(final String path, final byte[] content) {
+    this.contentsByPath.put(path, content);
+    try {
+      return new URL(MemoryURLStreamHandler.PROTOCOL, null, -1, path, this);
+    } catch (MalformedURLException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  protected URLConnection openConnection(final URL u) throws IOException {
+    byte[] content = this.contentsByPath.get(u.getPath());
+    if (content == null) {
+      throw new FileNotFoundException(u.toExternalForm());
+    }
+    return new MemoryURLConnection(u, content, this.lastModified);
+  }
+
+  /**
+   * Removes the content that was registered with the path.
+   *
+   * @param path
+   *          The path of the URL.
+   */
+  public void removeContent(final String path) {
+    this.contentsByPath.remove(path);
+  }
+}
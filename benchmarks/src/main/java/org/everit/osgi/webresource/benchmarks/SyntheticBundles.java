@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Creates lightweight {@link Bundle} and {@link BundleWiring} stand-ins that are enough for the
+ * webresource classes outside of an OSGi framework.
+ */
+public final class SyntheticBundles {
+
+  /**
+   * Creates a {@link Bundle} that supports the functions that identify the bundle. Other functions
+   * throw {@link UnsupportedOperationException}.
+   *
+   * @param bundleId
+   *          The id of the bundle.
+   * @param symbolicName
+   *          The symbolic name of the bundle.
+   * @return The bundle.
+   */
+  public static Bundle createBundle(final long bundleId, final String symbolicName) {
+    return (Bundle) Proxy.newProxyInstance(SyntheticBundles.class.getClassLoader(),
+        new Class<?>[] { Bundle.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getBundleId":
+              return bundleId;
+            case "getSymbolicName":
+              return symbolicName;
+            case "getLocation":
+              return "synthetic:" + symbolicName;
+            case "getState":
+              return Bundle.ACTIVE;
+            case "hashCode":
+              return Long.hashCode(bundleId);
+            case "equals":
+              return proxy == args[0];
+            case "toString":
+              return symbolicName + " [" + bundleId + "]";
+            default:
+              throw new UnsupportedOperationException(method.toString());
+          }
+        });
+  }
+
+  /**
+   * Creates a {@link Bundle} that provides one {@value WebResourceConstants#CAPABILITY_NAMESPACE}
+   * capability. The bundle can be adapted to a {@link BundleWiring} that lists the entries and
+   * whose class loader returns the URLs of the entries.
+   *
+   * @param bundleId
+   *          The id of the bundle.
+   * @param symbolicName
+   *          The symbolic name of the bundle.
+   * @param capabilityAttributes
+   *          The attributes of the capability, e.g. resourceFolder.
+   * @param entries
+   *          The URLs of the entries by their names. The names should start with the resource
+   *          folder.
+   * @return The bundle.
+   */
+  public static Bundle createWebResourceBundle(final long bundleId, final String symbolicName,
+      final Map<String, Object> capabilityAttributes, final Map<String, URL> entries) {
+
+    Bundle identity = SyntheticBundles.createBundle(bundleId, symbolicName);
+    Bundle[] bundleHolder = new Bundle[1];
+
+    BundleRevision revision = (BundleRevision) Proxy.newProxyInstance(
+        SyntheticBundles.class.getClassLoader(), new Class<?>[] { BundleRevision.class },
+        (proxy, method, args) -> {
+          if ("getBundle".equals(method.getName())) {
+            return bundleHolder[0];
+          }
+          return SyntheticBundles.invokeObjectMethod(proxy, method, args, "revision");
+        });
+
+    BundleCapability capability = (BundleCapability) Proxy.newProxyInstance(
+        SyntheticBundles.class.getClassLoader(), new Class<?>[] { BundleCapability.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getAttributes":
+              return capabilityAttributes;
+            case "getDirectives":
+              return Collections.emptyMap();
+            case "getNamespace":
+              return WebResourceConstants.CAPABILITY_NAMESPACE;
+            case "getRevision":
+            case "getResource":
+              return revision;
+            default:
+              return SyntheticBundles.invokeObjectMethod(proxy, method, args,
+                  WebResourceConstants.CAPABILITY_NAMESPACE + capabilityAttributes);
+          }
+        });
+
+    ClassLoader classLoader = new ClassLoader(null) {
+      @Override
+      public URL getResource(final String name) {
+        return entries.get(name);
+      }
+    };
+    List<String> entryNames = new ArrayList<>(entries.keySet());
+
+    BundleWiring wiring = (BundleWiring) Proxy.newProxyInstance(
+        SyntheticBundles.class.getClassLoader(), new Class<?>[] { BundleWiring.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getCapabilities":
+              return WebResourceConstants.CAPABILITY_NAMESPACE.equals(args[0])
+                  ? Collections.singletonList(capability)
+                  : Collections.emptyList();
+            case "listResources":
+              return entryNames;
+            case "getClassLoader":
+              return classLoader;
+            case "getBundle":
+              return bundleHolder[0];
+            default:
+              return SyntheticBundles.invokeObjectMethod(proxy, method, args, "wiring");
+          }
+        });
+
+    bundleHolder[0] = (Bundle) Proxy.newProxyInstance(SyntheticBundles.class.getClassLoader(),
+        new Class<?>[] { Bundle.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "adapt":
+              return BundleWiring.class.equals(args[0]) ? wiring : null;
+            case "getVersion":
+              return Version.emptyVersion;
+            case "equals":
+              return proxy == args[0];
+            default:
+              return method.invoke(identity, args);
+          }
+        });
+    return bundleHolder[0];
+  }
+
+  private static Object invokeObjectMethod(final Object proxy, final Method method,
+      final Object[] args, final String description) {
+    switch (method.getName()) {
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "toString":
+        return description;
+      default:
+        throw new UnsupportedOperationException(method.toString());
+    }
+  }
+
+  private SyntheticBundles() {
+  }
+}
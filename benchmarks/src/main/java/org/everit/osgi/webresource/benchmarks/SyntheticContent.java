@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates the content of synthetic web resources. Text formats are built from tokens that are
+ * typical for the format, so they compress with a ratio that is close to the ratio of real
+ * libraries. Binary formats are random, so they are not compressible.
+ */
+public final class SyntheticContent {
+
+  private static final String[] CSS_TOKENS = new String[] {
+      ".container", ".btn-primary", ".navbar", " {", "}", "\n", "  margin: 0 auto;",
+      "  padding: 4px 8px;", "  color: #333;", "  background-color: #fff;", "  display: flex;",
+      "  border: 1px solid rgba(0, 0, 0, 0.125);", "  font-size: 0.875rem;", "@media (min-width: ",
+      "768px)", " > ", ":hover", "::before", "  transition: opacity 0.15s linear;" };
+
+  private static final String[] JS_TOKENS = new String[] {
+      "function", " ", "(", ")", "{", "}", ";", "\n", "var ", "return ", "this.", "prototype",
+      "undefined", "null", "if (", "else", "for (var i = 0; i < n; i++)", "typeof ", "===",
+      "!==", "document.getElementById(", "element", "options", "callback", "addEventListener(",
+      "'click'", "Object.keys(", "Array.prototype.slice.call(", "arguments", "  " };
+
+  private static final String[] JSON_TOKENS = new String[] {
+      "{", "}", "[", "]", ",", ":", "\"id\"", "\"name\"", "\"value\"", "\"enabled\"", "true",
+      "false", "null", "\"label\"", "\"children\"", "0", "1", "42", "\"en-US\"", "\n  " };
+
+  private static final int PNG_HEADER_LENGTH = 8;
+
+  private static final byte[] PNG_SIGNATURE = new byte[] {
+      (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+  private static final String[] SVG_TOKENS = new String[] {
+      "<path d=\"M", "0 0", " L", "12 4", " 24 24", " Z\"/>", "<g fill=\"#000\">", "</g>",
+      "<circle cx=\"12\" cy=\"12\" r=\"10\"/>", "\n", "  ", "<rect width=\"24\" height=\"24\"/>",
+      " stroke-width=\"2\"", " transform=\"translate(", "4 4)\"" };
+
+  private static byte[] generateBinary(final int size, final Random random) {
+    byte[] result = new byte[size];
+    random.nextBytes(result);
+    if (size >= SyntheticContent.PNG_HEADER_LENGTH) {
+      System.arraycopy(SyntheticContent.PNG_SIGNATURE, 0, result, 0,
+          SyntheticContent.PNG_HEADER_LENGTH);
+    }
+    return result;
+  }
+
+  /**
+   * Generates the content of a synthetic resource.
+   *
+   * @param extension
+   *          The extension of the file, e.g. js, css, svg, json. Other extensions get random binary
+   *          content.
+   * @param size
+   *          The size of the content in bytes.
+   * @param seed
+   *          The seed of the random generator, so the content is reproducible.
+   * @return The content.
+   */
+  public static byte[] generate(final String extension, final int size, final long seed) {
+    Random random = new Random(seed);
+    switch (extension) {
+      case "js":
+        return SyntheticContent.generateText(SyntheticContent.JS_TOKENS, size, random);
+      case "css":
+        return SyntheticContent.generateText(SyntheticContent.CSS_TOKENS, size, random);
+      case "json":
+        return SyntheticContent.generateText(SyntheticContent.JSON_TOKENS, size, random);
+      case "svg":
+        return SyntheticContent.generateText(SyntheticContent.SVG_TOKENS, size, random);
+      default:
+        return SyntheticContent.generateBinary(size, random);
+    }
+  }
+
+  private static byte[] generateText(final String[] tokens, final int size, final Random random) {
+    StringBuilder sb = new StringBuilder(size + 64);
+    while (sb.length() < size) {
+      sb.append(tokens[random.nextInt(tokens.length)]);
+      if (random.nextInt(8) == 0) {
+        // Identifiers that are not repeated, like in real code
+        sb.append(Integer.toString(random.nextInt(), Character.MAX_RADIX));
+      }
+    }
+    sb.setLength(size);
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private SyntheticContent() {
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Generates the entries of synthetic webresource bundles. The entries are spread in folders of
+ * {@value #ENTRIES_PER_FOLDER} and their types follow {@link SyntheticLibraries#EXTENSIONS}.
+ */
+public final class SyntheticEntries {
+
+  private static final int ENTRIES_PER_FOLDER = 100;
+
+  /**
+   * Writes the entries to a directory.
+   *
+   * @param directory
+   *          The directory that is the root of the bundle.
+   * @param resourceFolder
+   *          The resource folder of the capability without leading slash.
+   * @param entryCount
+   *          The number of entries.
+   * @param entrySize
+   *          The size of each entry in bytes.
+   * @return The file URLs of the entries by the entry names.
+   * @throws IOException
+   *           if the files cannot be written.
+   */
+  public static Map<String, URL> createInDirectory(final Path directory,
+      final String resourceFolder, final int entryCount, final int entrySize)
+      throws IOException {
+    Map<String, URL> result = new LinkedHashMap<>();
+    for (int i = 0; i < entryCount; i++) {
+      String entryName = SyntheticEntries.resolveEntryName(resourceFolder, i);
+      Path file = directory.resolve(entryName);
+      Files.createDirectories(file.getParent());
+      Files.write(file, SyntheticEntries.generateContent(entryName, entrySize, i));
+      result.put(entryName, file.toUri().toURL());
+    }
+    return result;
+  }
+
+  /**
+   * Creates the entries in memory.
+   *
+   * @param resourceFolder
+   *          The resource folder of the capability without leading slash.
+   * @param entryCount
+   *          The number of entries.
+   * @param entrySize
+   *          The size of each entry in bytes.
+   * @return The in-memory URLs of the entries by the entry names.
+   */
+  public static Map<String, URL> createInMemory(final String resourceFolder,
+      final int entryCount, final int entrySize) {
+    MemoryURLStreamHandler urlStreamHandler = new MemoryURLStreamHandler();
+    Map<String, URL> result = new LinkedHashMap<>();
+    for (int i = 0; i < entryCount; i++) {
+      String entryName = SyntheticEntries.resolveEntryName(resourceFolder, i);
+      result.put(entryName, urlStreamHandler.addContent("/" + entryName,
+          SyntheticEntries.generateContent(entryName, entrySize, i)));
+    }
+    return result;
+  }
+
+  /**
+   * Deletes a directory with all of its content.
+   *
+   * @param directory
+   *          The directory.
+   */
+  public static void deleteRecursively(final Path directory) {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach((path) -> {
+        try {
+          Files.delete(path);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static byte[] generateContent(final String entryName, final int entrySize,
+      final int index) {
+    return SyntheticContent.generate(entryName.substring(entryName.lastIndexOf('.') + 1),
+        entrySize, index);
+  }
+
+  /**
+   * Resolves the name of a synthetic entry. The entries are spread into library folders.
+   *
+   * @param resourceFolder
+   *          The resource folder of the capability without leading slash.
+   * @param index
+   *          The index of the entry.
+   * @return The name of the entry.
+   */
+  static String resolveEntryName(final String resourceFolder, final int index) {
+    return resourceFolder + "/lib" + (index / SyntheticEntries.ENTRIES_PER_FOLDER) + "/file"
+        + index + "." + SyntheticLibraries.EXTENSIONS[index % SyntheticLibraries.EXTENSIONS.length];
+  }
+
+  private SyntheticEntries() {
+  }
+}
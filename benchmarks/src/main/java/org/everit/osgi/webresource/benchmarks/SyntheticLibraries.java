@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.benchmarks;
+
+import java.net.URL;
+
+import org.everit.osgi.webresource.internal.ContentTypeUtil;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.internal.WebResourceContainerImpl;
+import org.everit.osgi.webresource.internal.WebResourceImpl;
+import org.everit.osgi.webresource.internal.WebResourceMetrics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+/**
+ * A {@link WebResourceContainerImpl} filled with synthetic libraries. Each library has the same
+ * files in more versions and each version is provided by a separate bundle, like when more
+ * versions of a JavaScript library are deployed.
+ */
+public class SyntheticLibraries {
+
+  /**
+   * The extensions of the files in the order they are assigned to the files of a library.
+   */
+  public static final String[] EXTENSIONS = new String[] {
+      "js", "css", "js", "svg", "json", "png", "js", "css", "woff2", "map" };
+
+  private final WebResourceContainerImpl container;
+
+  private final String[] fileNames;
+
+  private final String[] libraryNames;
+
+  private final WebResourceMetrics metrics = new WebResourceMetrics();
+
+  private final MemoryURLStreamHandler urlStreamHandler = new MemoryURLStreamHandler();
+
+  /**
+   * Constructor.
+   *
+   * @param libraryCount
+   *          The number of libraries.
+   * @param filesPerLibrary
+   *          The number of files in each library.
+   * @param versionsPerLibrary
+   *          The number of versions of each library. The versions are 1.0.0, 1.1.0, ...
+   * @param fileSize
+   *          The size of each file in bytes.
+   */
+  public SyntheticLibraries(final int libraryCount, final int filesPerLibrary,
+      final int versionsPerLibrary, final int fileSize) {
+    this.container = new WebResourceContainerImpl(this.metrics);
+    this.libraryNames = new String[libraryCount];
+    this.fileNames = new String[filesPerLibrary];
+
+    for (int j = 0; j < filesPerLibrary; j++) {
+      this.fileNames[j] = "file" + j + "."
+          + SyntheticLibraries.EXTENSIONS[j % SyntheticLibraries.EXTENSIONS.length];
+    }
+
+    long bundleId = 1;
+    for (int i = 0; i < libraryCount; i++) {
+      String library = "vendor/lib" + i;
+      this.libraryNames[i] = library;
+      for (int v = 0; v < versionsPerLibrary; v++) {
+        Version version = new Version(1, v, 0);
+        Bundle bundle = SyntheticBundles.createBundle(bundleId, "synthetic.lib" + i + "." + v);
+        for (int j = 0; j < filesPerLibrary; j++) {
+          String fileName = this.fileNames[j];
+          String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+          URL url = this.urlStreamHandler.addContent(
+              "/" + bundleId + "/" + library + "/" + fileName,
+              SyntheticContent.generate(extension, fileSize, bundleId * filesPerLibrary + j));
+          this.container.addWebResource(new WebResourceImpl(bundle, library, fileName, url,
+              version, ContentTypeUtil.resolveContentType(url), this.metrics,
+              WebResourceConfiguration.fromSystemProperties()));
+        }
+        bundleId++;
+      }
+    }
+  }
+
+  public WebResourceContainerImpl getContainer() {
+    return this.container;
+  }
+
+  public String[] getFileNames() {
+    return this.fileNames.clone();
+  }
+
+  public String[] getLibraryNames() {
+    return this.libraryNames.clone();
+  }
+
+  public WebResourceMetrics getMetrics() {
+    return this.metrics;
+  }
+}
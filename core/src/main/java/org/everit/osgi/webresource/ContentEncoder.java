@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Extension point to support additional content encodings (e.g. Brotli, Zstandard) or to replace
+ * the built-in ones. Implementations should be registered as OSGi services. If an encoder is
+ * registered with the token of a built-in {@link ContentEncoding}, it replaces the built-in one
+ * until the service is unregistered.
+ */
+public interface ContentEncoder {
+
+  /**
+   * Wraps an {@link OutputStream} so that the data that is written to the returned stream is
+   * encoded into the original one. Closing the returned stream must finish the encoding and close
+   * the original stream.
+   *
+   * @param out
+   *          The stream that the encoded data should be written to.
+   * @return The stream that accepts the raw data.
+   * @throws IOException
+   *           if the encoder cannot be initialized.
+   */
+  OutputStream createEncoderStream(OutputStream out) throws IOException;
+
+  /**
+   * The preference weight of the encoding. If the client accepts more encodings, the one with the
+   * highest preference weight is chosen. The weight of the built-in GZIP encoding is
+   * {@value ContentEncoding#PREFERENCE_GZIP} and of DEFLATE is
+   * {@value ContentEncoding#PREFERENCE_DEFLATE}.
+   */
+  int getPreference();
+
+  /**
+   * The token of the encoding as it appears in the <code>Accept-Encoding</code> and
+   * <code>Content-Encoding</code> headers. E.g.: br.
+   */
+  String getToken();
+}
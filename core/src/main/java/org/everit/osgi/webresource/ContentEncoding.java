@@ -15,21 +15,165 @@
  */
 package org.everit.osgi.webresource;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 
 /**
- * Content encodings that are supported by WebResource technology.
+ * Content encodings that are supported by WebResource technology. Next to the built-in
+ * {@link #DEFLATE}, {@link #GZIP} and {@link #RAW} encodings, additional ones can be registered via
+ * {@link ContentEncoder} OSGi services. Two {@link ContentEncoding}s are equal if their tokens are
+ * the same.
  */
-public enum ContentEncoding {
+public final class ContentEncoding {
 
-  DEFLATE("deflate"),
+  /**
+   * Built-in {@link ContentEncoder} that is based on a JDK compressor stream.
+   */
+  private static final class BuiltInContentEncoder implements ContentEncoder {
+
+    private final int preference;
+
+    private final String token;
+
+    BuiltInContentEncoder(final String token, final int preference) {
+      this.token = token;
+      this.preference = preference;
+    }
+
+    @Override
+    public OutputStream createEncoderStream(final OutputStream out) throws IOException {
+      if (ContentEncoding.TOKEN_GZIP.equals(this.token)) {
+        return new GZIPOutputStream(out);
+      } else if (ContentEncoding.TOKEN_DEFLATE.equals(this.token)) {
+        return new DeflaterOutputStream(out);
+      } else {
+        return out;
+      }
+    }
+
+    @Override
+    public int getPreference() {
+      return this.preference;
+    }
+
+    @Override
+    public String getToken() {
+      return this.token;
+    }
+  }
+
+  public static final int PREFERENCE_DEFLATE = 100;
+
+  public static final int PREFERENCE_GZIP = 200;
+
+  private static final String TOKEN_DEFLATE = "deflate";
+
+  private static final String TOKEN_GZIP = "gzip";
+
+  private static final String TOKEN_RAW = "raw";
+
+  public static final ContentEncoding DEFLATE = new ContentEncoding(new BuiltInContentEncoder(
+      ContentEncoding.TOKEN_DEFLATE, ContentEncoding.PREFERENCE_DEFLATE));
+
+  public static final ContentEncoding GZIP = new ContentEncoding(
+      new BuiltInContentEncoder(ContentEncoding.TOKEN_GZIP, ContentEncoding.PREFERENCE_GZIP));
+
+  public static final ContentEncoding RAW = new ContentEncoding(
+      new BuiltInContentEncoder(ContentEncoding.TOKEN_RAW, Integer.MIN_VALUE));
 
-  GZIP("gzip"),
+  private static final ContentEncoding[] BUILT_IN_ENCODINGS =
+      new ContentEncoding[] { ContentEncoding.GZIP, ContentEncoding.DEFLATE,
+          ContentEncoding.RAW };
 
-  RAW("raw");
+  /**
+   * The list of registered encodings ordered by their preference descending. The array is
+   * replaced on each change so it can be iterated without locking.
+   */
+  private static volatile ContentEncoding[] registeredEncodings =
+      ContentEncoding.BUILT_IN_ENCODINGS;
+
+  private static final List<ContentEncoder> registeredEncoders = new ArrayList<>();
+
+  /**
+   * Finds a registered {@link ContentEncoding} by its token.
+   *
+   * @param token
+   *          The token of the encoding, e.g.: gzip.
+   * @return The currently registered {@link ContentEncoding} or {@link Optional#empty()}.
+   */
+  public static Optional<ContentEncoding> forToken(final String token) {
+    for (ContentEncoding contentEncoding : ContentEncoding.registeredEncodings) {
+      if (contentEncoding.token.equals(token)) {
+        return Optional.of(contentEncoding);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static boolean isAccepted(final String token, final String[] acceptedCodings) {
+    boolean wildcardAccepted = false;
+    for (String acceptedCoding : acceptedCodings) {
+      int indexOfParameters = acceptedCoding.indexOf(';');
+      String codingToken = (indexOfParameters < 0 ? acceptedCoding
+          : acceptedCoding.substring(0, indexOfParameters)).trim();
+
+      boolean acceptedByQuality = indexOfParameters < 0
+          || !ContentEncoding.isZeroQuality(acceptedCoding.substring(indexOfParameters + 1));
+
+      if (codingToken.equalsIgnoreCase(token)) {
+        return acceptedByQuality;
+      } else if ("*".equals(codingToken)) {
+        wildcardAccepted = acceptedByQuality;
+      }
+    }
+    return wildcardAccepted;
+  }
+
+  private static boolean isZeroQuality(final String parameters) {
+    for (String parameter : parameters.split(";")) {
+      String trimmedParameter = parameter.trim();
+      if (trimmedParameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(trimmedParameter.substring(2)) == 0;
+        } catch (NumberFormatException e) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Registers a new {@link ContentEncoding}. If there is already an encoding with the same token,
+   * the new one takes its place until it is unregistered. This function is called by the
+   * WebResource extender when a {@link ContentEncoder} OSGi service appears.
+   *
+   * @param contentEncoder
+   *          The encoder of the new {@link ContentEncoding}.
+   * @return The registered {@link ContentEncoding}.
+   * @throws IllegalArgumentException
+   *           if the token of the encoder is the same as the token of {@link #RAW}.
+   */
+  public static synchronized ContentEncoding register(final ContentEncoder contentEncoder) {
+    Objects.requireNonNull(contentEncoder);
+    ContentEncoding contentEncoding = new ContentEncoding(contentEncoder);
+    if (ContentEncoding.RAW.equals(contentEncoding)) {
+      throw new IllegalArgumentException("The RAW content encoding cannot be replaced");
+    }
+    ContentEncoding.registeredEncoders.add(contentEncoder);
+    ContentEncoding.updateRegisteredEncodings();
+    return contentEncoding;
+  }
 
   /**
    * Resolves the best supported content encoding from the request.
@@ -39,28 +183,136 @@ public enum ContentEncoding {
    * @return The best content encoding that should be applied in the response.
    */
   public static ContentEncoding resolveEncoding(final HttpServletRequest request) {
-    String acceptEncodingHeader = request.getHeader("Accept-Encoding");
+    return ContentEncoding.resolveEncoding(request.getHeader("Accept-Encoding"));
+  }
+
+  /**
+   * Resolves the best supported content encoding from the value of the Accept-Encoding header.
+   *
+   * @param acceptEncodingHeader
+   *          The value of the Accept-Encoding request header or <code>null</code> if the request
+   *          does not have such a header.
+   * @return The best content encoding that should be applied in the response.
+   */
+  public static ContentEncoding resolveEncoding(final String acceptEncodingHeader) {
     if (acceptEncodingHeader == null) {
       return RAW;
     }
-    String[] encodings = acceptEncodingHeader.split(",");
-    List<String> encodingList = Arrays.asList(encodings);
-    if (encodingList.contains(GZIP.getHeaderValue())) {
-      return GZIP;
-    }
-    if (encodingList.contains(DEFLATE.getHeaderValue())) {
-      return DEFLATE;
+    String[] acceptedCodings = acceptEncodingHeader.split(",");
+    for (ContentEncoding contentEncoding : ContentEncoding.registeredEncodings) {
+      if (contentEncoding != RAW
+          && ContentEncoding.isAccepted(contentEncoding.token, acceptedCodings)) {
+        return contentEncoding;
+      }
     }
     return RAW;
   }
 
-  private final String headerValue;
+  /**
+   * Unregisters a {@link ContentEncoder} that was registered via
+   * {@link #register(ContentEncoder)}. If the encoder replaced another one with the same token,
+   * the previous one becomes active again. The content that is cached with the token of the
+   * encoder must be evicted in any case, as it was encoded by the removed encoder or it belongs to
+   * an encoding that is not available anymore.
+   *
+   * @param contentEncoder
+   *          The encoder.
+   * @return The {@link ContentEncoding} of the removed encoder. It is equal to the encoding that
+   *         becomes active with the same token, if there is any.
+   */
+  public static synchronized ContentEncoding unregister(final ContentEncoder contentEncoder) {
+    Objects.requireNonNull(contentEncoder);
+    ContentEncoding.registeredEncoders.remove(contentEncoder);
+    ContentEncoding.updateRegisteredEncodings();
+    return new ContentEncoding(contentEncoder);
+  }
+
+  private static void updateRegisteredEncodings() {
+    List<ContentEncoding> encodings = new ArrayList<>();
+    for (int i = ContentEncoding.registeredEncoders.size() - 1; i >= 0; i--) {
+      ContentEncoding contentEncoding =
+          new ContentEncoding(ContentEncoding.registeredEncoders.get(i));
+      // The last registered encoder wins if there are more with the same token
+      if (!encodings.contains(contentEncoding)) {
+        encodings.add(contentEncoding);
+      }
+    }
+    for (ContentEncoding builtInEncoding : ContentEncoding.BUILT_IN_ENCODINGS) {
+      if (!encodings.contains(builtInEncoding)) {
+        encodings.add(builtInEncoding);
+      }
+    }
+    encodings.sort((encoding1, encoding2) -> Integer.compare(encoding2.preference,
+        encoding1.preference));
+    ContentEncoding.registeredEncodings = encodings.toArray(new ContentEncoding[encodings.size()]);
+  }
+
+  /**
+   * The currently registered content encodings ordered by their preference descending.
+   *
+   * @return A new array of the encodings.
+   */
+  public static ContentEncoding[] values() {
+    ContentEncoding[] encodings = ContentEncoding.registeredEncodings;
+    return Arrays.copyOf(encodings, encodings.length);
+  }
+
+  private static String normalizeToken(final String token) {
+    return token.trim().toLowerCase(Locale.ENGLISH);
+  }
+
+  private final ContentEncoder encoder;
+
+  private final int preference;
+
+  private final String token;
 
-  ContentEncoding(final String headerValue) {
-    this.headerValue = headerValue;
+  private ContentEncoding(final ContentEncoder encoder) {
+    this.encoder = encoder;
+    this.token = ContentEncoding.normalizeToken(encoder.getToken());
+    this.preference = encoder.getPreference();
+  }
+
+  /**
+   * Wraps an {@link OutputStream} so that the data that is written to the returned stream is
+   * encoded with this encoding.
+   *
+   * @param out
+   *          The stream that receives the encoded data.
+   * @return The stream that accepts the raw data.
+   * @throws IOException
+   *           if the encoder cannot be initialized.
+   */
+  public OutputStream createEncoderStream(final OutputStream out) throws IOException {
+    return this.encoder.createEncoderStream(out);
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    return this.token.equals(((ContentEncoding) obj).token);
   }
 
   public String getHeaderValue() {
-    return this.headerValue;
+    return this.token;
+  }
+
+  public int getPreference() {
+    return this.preference;
+  }
+
+  @Override
+  public int hashCode() {
+    return this.token.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return this.token;
   }
 }
@@ -15,9 +15,14 @@
  */
 package org.everit.osgi.webresource;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Version;
@@ -30,6 +35,10 @@ public interface WebResource {
 
   /**
    * The bundle that offers the {@link WebResource}.
+   *
+   * @return The bundle or <code>null</code> if the {@link WebResource} is offered by a
+   *         {@link org.everit.osgi.webresource.provider.WebResourceProvider} outside of an OSGi
+   *         framework.
    */
   Bundle getBundle();
 
@@ -37,10 +46,38 @@ public interface WebResource {
    * After a {@link WebResource} is requested with a {@link ContentEncoding}, the content is cached
    * in the memory.
    *
-   * @return The size that is occupied by the {@link WebResource} in the cache for each
-   *         {@link ContentEncoding}.
+   * @return The logical size of the cached content of the {@link WebResource} for each
+   *         {@link ContentEncoding}. Content that is shared with other {@link WebResource}s or
+   *         encodings is counted fully, so the sizes can be larger than the memory that is used.
+   */
+  Map<ContentEncoding, Long> getCacheState();
+
+  /**
+   * The content of the {@link WebResource} in the specific {@link ContentEncoding}. The returned
+   * object gives read-only {@link ByteBuffer} views of the cached data without copying it, so
+   * servers can write it directly to channels. The default implementation reads the stream of
+   * {@link #getInputStream(ContentEncoding, int)} into memory.
+   *
+   * @param contentEncoding
+   *          The {@link ContentEncoding} of the {@link WebResource}.
+   * @return The content.
+   * @throws IOException
+   *           if a read error occures.
    */
-  Map<ContentEncoding, Integer> getCacheState();
+  default WebResourceContent getContent(final ContentEncoding contentEncoding)
+      throws IOException {
+    try (InputStream in = getInputStream(contentEncoding, 0)) {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      byte[] buf = new byte[(int) Math.min(Math.max(getContentLength(contentEncoding), 1),
+          Short.MAX_VALUE)];
+      int r = in.read(buf);
+      while (r > -1) {
+        bout.write(buf, 0, r);
+        r = in.read(buf);
+      }
+      return new WebResourceContent(ByteBuffer.wrap(bout.toByteArray()));
+    }
+  }
 
   /**
    * The length of the content of the {@link WebResource} in the specific {@link ContentEncoding}.
@@ -61,6 +98,14 @@ public interface WebResource {
    */
   String getETag();
 
+  /**
+   * The value of the <code>ETag</code> response header, that is the ETag in quotes.
+   * Implementations should precompute the value, as it is needed for every request.
+   */
+  default String getETagHeaderValue() {
+    return '"' + getETag() + '"';
+  }
+
   /**
    * The fileName of the {@link WebResource}.
    */
@@ -96,9 +141,60 @@ public interface WebResource {
    */
   String getLibrary();
 
+  /**
+   * The value of the <code>Link</code> response header that tells the client to preload the
+   * declared dependencies of the {@link WebResource}. The value is precomputed when the bundles
+   * that provide the {@link WebResource} or its dependencies come and go.
+   *
+   * @return The header value or {@link Optional#empty()} if the {@link WebResource} does not have
+   *         any available dependencies. The default implementation returns
+   *         {@link Optional#empty()}.
+   */
+  default Optional<String> getPreloadLinkHeader() {
+    return Optional.empty();
+  }
+
+  /**
+   * The value of the preload <code>Link</code> response header for a servlet that is mapped with a
+   * suffix URL pattern, e.g. <code>*.res</code>. The suffix is appended to the file names of the
+   * dependencies the same way as in the generated URIs.
+   *
+   * @param pathSuffix
+   *          The suffix of the URL pattern, e.g. <code>.res</code>, or an empty String.
+   * @return The header value or {@link Optional#empty()} if the {@link WebResource} does not have
+   *         any available dependencies. The default implementation returns the value of
+   *         {@link #getPreloadLinkHeader()}.
+   */
+  default Optional<String> getPreloadLinkHeader(final String pathSuffix) {
+    return getPreloadLinkHeader();
+  }
+
+  /**
+   * The alternative representations of the same logical {@link WebResource} in other formats. E.g.:
+   * <code>logo.png</code>, <code>logo.webp</code> and <code>logo.avif</code> in the same folder.
+   *
+   * @return The representations including this {@link WebResource}, ordered by their size
+   *         ascending, or an empty list if there is no alternative representation. The default
+   *         implementation returns an empty list.
+   */
+  default List<WebResource> getVariants() {
+    return Collections.emptyList();
+  }
+
   /**
    * The exact version of the {@link WebResource}.
    */
   Version getVersion();
 
+  /**
+   * Whether the content is read from its source for each request instead of being cached. Very
+   * large {@link WebResource}s are streamed and they are only available in the
+   * {@link ContentEncoding#RAW} encoding.
+   *
+   * @return <code>false</code> by default.
+   */
+  default boolean isStreamed() {
+    return false;
+  }
+
 }
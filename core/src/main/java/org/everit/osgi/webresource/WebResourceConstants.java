@@ -26,6 +26,15 @@ public final class WebResourceConstants {
    */
   public static final String CAPABILITY_ATTRIBUTE_LIBRARY_PREFIX = "libraryPrefix";
 
+  /**
+   * Optional attribute that declares the dependencies of the {@link WebResource}s. The value is a
+   * String or a List of Strings where each element has the format
+   * <code>library/file=dependencyLibrary/dependencyFile</code>. When the resource on the left side
+   * is served, the dependency and its own dependencies are advertised in a <code>Link</code> header
+   * with <code>rel=preload</code>.
+   */
+  public static final String CAPABILITY_ATTRIBUTE_PRELOAD = "preload";
+
   /**
    * The folder in the bundle that contains the {@link WebResource}s. The folder will be scanned
    * recursively.
@@ -42,6 +51,14 @@ public final class WebResourceConstants {
    */
   public static final String CAPABILITY_NAMESPACE = "everit.webresource";
 
+  /**
+   * Framework or system property that enables the lossless optimization of PNG and SVG
+   * {@link WebResource}s if its value is <code>true</code>. The optimization runs in the background
+   * after the {@link WebResource}s of a bundle are processed.
+   */
+  public static final String FRAMEWORK_PROPERTY_OPTIMIZE_IMAGES =
+      "everit.webresource.optimizeImages";
+
   public static final int HTTP_NOT_FOUND = 404;
 
   /**
@@ -54,6 +71,108 @@ public final class WebResourceConstants {
    */
   public static final String REQUEST_PARAM_VERSION_RANGE = "version";
 
+  /**
+   * Framework or system property with the idle timeout in milliseconds of the asynchronous sending
+   * of a response body. If no byte of the body could be written for this time, because the client
+   * stopped reading, the transfer is aborted and the async context is completed. The time of the
+   * whole download is not limited, so large bodies can be sent to slow clients. Zero or a
+   * negative value means no timeout. Default: 30000.
+   */
+  public static final String SYSTEM_PROPERTY_ASYNC_IDLE_TIMEOUT =
+      "everit.webresource.asyncIdleTimeout";
+
+  /**
+   * Framework or system property with the size in bytes up to which response bodies are written
+   * synchronously even if the request supports async processing. Such bodies fit into the response
+   * buffer, so starting an async context would only add overhead. Default: 32768.
+   */
+  public static final String SYSTEM_PROPERTY_ASYNC_THRESHOLD =
+      "everit.webresource.asyncThreshold";
+
+  /**
+   * Framework or system property that enables the compressed-only storage if its value is
+   * <code>true</code>. The content of compressible {@link WebResource}s (text, scripts, styles,
+   * JSON, XML and SVG) is then compressed once and only the compressed form is kept on the heap:
+   * the gzip and deflate responses share it and RAW responses are inflated on demand. The RAW
+   * content is cached as well when the {@link WebResource} gets more RAW requests than the value of
+   * {@link #SYSTEM_PROPERTY_RAW_PROMOTION_THRESHOLD}.
+   */
+  public static final String SYSTEM_PROPERTY_COMPRESSED_ONLY =
+      "everit.webresource.compressedOnly";
+
+  /**
+   * Framework or system property that disables the native content sending API of the servlet
+   * container (e.g. <code>HttpOutput.sendContent</code> of Jetty) if its value is
+   * <code>false</code>. By default the cached content is handed to the container as one buffer if
+   * the container is recognized, otherwise the content is written via the standard Servlet API.
+   */
+  public static final String SYSTEM_PROPERTY_CONTAINER_ADAPTERS =
+      "everit.webresource.containerAdapters";
+
+  /**
+   * Framework or system property that disables the direct reading of JAR files if its value is
+   * <code>false</code>. By default the {@link WebResource}s of bundles and providers that are
+   * packaged as plain JAR files are read from the file via the central directory instead of
+   * resource URLs of the class loader.
+   */
+  public static final String SYSTEM_PROPERTY_DIRECT_JAR_ACCESS =
+      "everit.webresource.directJarAccess";
+
+  /**
+   * Framework or system property with the size in bytes from which the RAW content of file-backed
+   * {@link WebResource}s (e.g. resources of bundles that are installed from a directory) is
+   * memory-mapped instead of being copied to the heap. Mapped files must be replaced and not
+   * rewritten or truncated in place while they are served, as a truncated file crashes the JVM
+   * when the missing pages are read. A negative value disables the mapping. Default: -1.
+   */
+  public static final String SYSTEM_PROPERTY_MAPPED_THRESHOLD =
+      "everit.webresource.mappedThreshold";
+
+  /**
+   * Framework or system property with the number of RAW responses after which the RAW content of a
+   * {@link WebResource} is cached even if the {@link #SYSTEM_PROPERTY_COMPRESSED_ONLY
+   * compressed-only storage} is enabled. Only the responses that send the content are counted,
+   * not HEAD and 304 responses. The counter starts again when the cache of the {@link WebResource}
+   * is evicted. A negative value means that the RAW content is never cached. Default: 32.
+   */
+  public static final String SYSTEM_PROPERTY_RAW_PROMOTION_THRESHOLD =
+      "everit.webresource.rawPromotionThreshold";
+
+  /**
+   * Framework or system property that contains the name of a request header. If the request header
+   * is present in a request, the response of the {@link WebResource} contains a
+   * <code>Server-Timing</code> header with the lookup time, the cache state, the compression time
+   * and the chosen content encoding. If the property is not set, the header is not checked.
+   */
+  public static final String SYSTEM_PROPERTY_SERVER_TIMING_REQUEST_HEADER =
+      "everit.webresource.serverTiming.requestHeader";
+
+  /**
+   * Framework or system property with a number between 0 and 1 that specifies the ratio of the
+   * requests that get a <code>Server-Timing</code> response header without asking for it. By
+   * default no requests are sampled.
+   */
+  public static final String SYSTEM_PROPERTY_SERVER_TIMING_SAMPLE_RATIO =
+      "everit.webresource.serverTiming.sampleRatio";
+
+  /**
+   * Framework or system property with a directory where the gzip and deflate compressed content of
+   * the memory-mapped {@link WebResource}s is stored as sidecar files. The sidecar files are mapped
+   * as well. Their names contain the ETag of the resource and they are deleted when the resource is
+   * removed. If the property is not set, the compressed content is cached on the heap.
+   */
+  public static final String SYSTEM_PROPERTY_SIDECAR_DIRECTORY =
+      "everit.webresource.sidecarDirectory";
+
+  /**
+   * Framework or system property with the raw size in bytes above which {@link WebResource}s are
+   * not cached in memory but streamed from their source for each request. Streamed resources are
+   * only served without compression and they can be larger than 2 GB. A negative value disables
+   * streaming. Default: 67108864.
+   */
+  public static final String SYSTEM_PROPERTY_STREAMING_THRESHOLD =
+      "everit.webresource.streamingThreshold";
+
   private WebResourceConstants() {
   }
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The content of a {@link WebResource} in a specific {@link ContentEncoding}. The content consists
+ * of one or more chunks that are views of the cached data, so nothing is copied when the content
+ * is obtained. The chunks and the length belong to the same snapshot, so they stay consistent even
+ * if the cached content of the {@link WebResource} is replaced in the meantime.
+ *
+ * <p>
+ * The content of very large {@link WebResource}s is not cached but {@link #isStreamed() streamed}
+ * from its source each time it is written. Such content has no buffers.
+ */
+public final class WebResourceContent {
+
+  /**
+   * Opens the source of streamed content.
+   */
+  @FunctionalInterface
+  public interface StreamSource {
+
+    /**
+     * Opens a new stream that reads the content from the beginning.
+     *
+     * @return The stream.
+     * @throws IOException
+     *           if the source cannot be read.
+     */
+    InputStream openStream() throws IOException;
+  }
+
+  private static final int COPY_BUFFER_SIZE = 8192;
+
+  /**
+   * Creates content that is read from its source each time it is written.
+   *
+   * @param length
+   *          The exact number of bytes that the source provides.
+   * @param streamSource
+   *          Opens the source.
+   * @return The content.
+   */
+  public static WebResourceContent streamed(final long length, final StreamSource streamSource) {
+    if (length < 0) {
+      throw new IllegalArgumentException("Negative length: " + length);
+    }
+    return new WebResourceContent(length, streamSource);
+  }
+
+  private final ByteBuffer[] chunks;
+
+  private final long length;
+
+  private final StreamSource streamSource;
+
+  /**
+   * Constructor.
+   *
+   * @param chunks
+   *          The chunks of the content. The remaining bytes of each buffer belong to the content.
+   *          The buffers must not be modified after they are passed to this constructor.
+   */
+  public WebResourceContent(final ByteBuffer... chunks) {
+    this.streamSource = null;
+    this.chunks = new ByteBuffer[chunks.length];
+    long sumOfLengths = 0;
+    for (int i = 0; i < chunks.length; i++) {
+      this.chunks[i] = chunks[i].slice();
+      sumOfLengths += this.chunks[i].remaining();
+    }
+    this.length = sumOfLengths;
+  }
+
+  private WebResourceContent(final long length, final StreamSource streamSource) {
+    this.chunks = new ByteBuffer[0];
+    this.length = length;
+    this.streamSource = streamSource;
+  }
+
+  private void copy(final InputStream in, final OutputStream out, final long length,
+      final byte[] buffer) throws IOException {
+    long remaining = length;
+    while (remaining > 0) {
+      int r = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (r < 0) {
+        throw new IOException("The source of the streamed content ended " + remaining
+            + " bytes before the announced length " + this.length);
+      }
+      out.write(buffer, 0, r);
+      remaining -= r;
+    }
+  }
+
+  /**
+   * Read-only views of the chunks of the content, e.g. to write them to a
+   * {@link java.nio.channels.GatheringByteChannel}. Each call returns new views with their own
+   * position and limit.
+   *
+   * @return The chunks.
+   * @throws IllegalStateException
+   *           if the content is {@link #isStreamed() streamed}.
+   */
+  public ByteBuffer[] getBuffers() {
+    if (this.streamSource != null) {
+      throw new IllegalStateException("Streamed content has no buffers");
+    }
+    ByteBuffer[] result = new ByteBuffer[this.chunks.length];
+    for (int i = 0; i < this.chunks.length; i++) {
+      result[i] = this.chunks[i].asReadOnlyBuffer();
+    }
+    return result;
+  }
+
+  /**
+   * The length of the content in bytes.
+   */
+  public long getLength() {
+    return this.length;
+  }
+
+  /**
+   * Whether the content is read from its source each time it is written instead of being held in
+   * buffers. Streamed content can be larger than 2 GB.
+   */
+  public boolean isStreamed() {
+    return this.streamSource != null;
+  }
+
+  /**
+   * Creates an {@link InputStream} that reads the content.
+   *
+   * @return The stream.
+   * @throws UncheckedIOException
+   *           if the source of {@link #isStreamed() streamed} content cannot be opened.
+   */
+  public InputStream newInputStream() {
+    if (this.streamSource != null) {
+      try {
+        return this.streamSource.openStream();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    List<InputStream> streams = new ArrayList<>(this.chunks.length);
+    for (ByteBuffer chunk : this.chunks) {
+      if (chunk.hasArray()) {
+        streams.add(new ByteArrayInputStream(chunk.array(), chunk.arrayOffset(),
+            chunk.remaining()));
+      } else {
+        byte[] data = new byte[chunk.remaining()];
+        chunk.duplicate().get(data);
+        streams.add(new ByteArrayInputStream(data));
+      }
+    }
+    if (streams.size() == 1) {
+      return streams.get(0);
+    }
+    return new SequenceInputStream(Collections.enumeration(streams));
+  }
+
+  /**
+   * Writes a part of the content to an {@link OutputStream}. Parts of chunks that are backed by an
+   * array are written without copying, so the content can be sent in large slices, e.g. each time
+   * an asynchronous output stream becomes ready. Streamed content is read from the beginning of
+   * the source for each call, so it should rather be written via {@link #newInputStream()} in
+   * slices.
+   *
+   * @param out
+   *          The stream.
+   * @param offset
+   *          The position in the content of the first byte to write.
+   * @param length
+   *          The number of bytes to write.
+   * @throws IOException
+   *           if the stream cannot be written.
+   * @throws IndexOutOfBoundsException
+   *           if the part is not within the content.
+   */
+  public void writeTo(final OutputStream out, final long offset, final long length)
+      throws IOException {
+    if (offset < 0 || length < 0 || offset + length > this.length) {
+      throw new IndexOutOfBoundsException(
+          "Part " + offset + "+" + length + " is out of content with length " + this.length);
+    }
+    if (this.streamSource != null) {
+      try (InputStream in = this.streamSource.openStream()) {
+        long skipped = 0;
+        while (skipped < offset) {
+          long n = in.skip(offset - skipped);
+          if (n <= 0) {
+            throw new IOException("Cannot skip to position " + offset + " of streamed content");
+          }
+          skipped += n;
+        }
+        copy(in, out, length, new byte[WebResourceContent.COPY_BUFFER_SIZE]);
+      }
+      return;
+    }
+    long chunkStart = 0;
+    long position = offset;
+    long end = offset + length;
+    byte[] copyBuffer = null;
+    for (int i = 0; i < this.chunks.length && position < end; i++) {
+      ByteBuffer chunk = this.chunks[i];
+      long chunkEnd = chunkStart + chunk.remaining();
+      if (position < chunkEnd) {
+        int from = (int) (position - chunkStart);
+        int n = (int) (Math.min(end, chunkEnd) - position);
+        if (chunk.hasArray()) {
+          out.write(chunk.array(), chunk.arrayOffset() + from, n);
+        } else {
+          if (copyBuffer == null) {
+            copyBuffer = new byte[WebResourceContent.COPY_BUFFER_SIZE];
+          }
+          ByteBuffer source = chunk.duplicate();
+          source.position(from);
+          source.limit(from + n);
+          while (source.hasRemaining()) {
+            int r = Math.min(source.remaining(), copyBuffer.length);
+            source.get(copyBuffer, 0, r);
+            out.write(copyBuffer, 0, r);
+          }
+        }
+        position += n;
+      }
+      chunkStart = chunkEnd;
+    }
+  }
+
+  /**
+   * Writes the content to an {@link OutputStream}. Chunks that are backed by an array are written
+   * with one call without copying.
+   *
+   * @param out
+   *          The stream.
+   * @throws IOException
+   *           if the stream cannot be written.
+   */
+  public void writeTo(final OutputStream out) throws IOException {
+    writeTo(out, null);
+  }
+
+  /**
+   * Writes the content to an {@link OutputStream}. Chunks that are backed by an array are written
+   * with one call without copying. Streamed content and chunks that are not backed by an array are
+   * copied via the passed buffer, so callers that write streamed content frequently can reuse
+   * their buffers.
+   *
+   * @param out
+   *          The stream.
+   * @param copyBuffer
+   *          The buffer that is used to copy the content or <code>null</code> if a buffer should
+   *          be allocated when it is needed.
+   * @throws IOException
+   *           if the stream cannot be written.
+   */
+  public void writeTo(final OutputStream out, final byte[] copyBuffer) throws IOException {
+    byte[] buffer = copyBuffer;
+    if (this.streamSource != null) {
+      if (buffer == null) {
+        buffer = new byte[WebResourceContent.COPY_BUFFER_SIZE];
+      }
+      try (InputStream in = this.streamSource.openStream()) {
+        copy(in, out, this.length, buffer);
+      }
+      return;
+    }
+    for (ByteBuffer chunk : this.chunks) {
+      if (chunk.hasArray()) {
+        out.write(chunk.array(), chunk.arrayOffset(), chunk.remaining());
+      } else {
+        if (buffer == null) {
+          buffer = new byte[WebResourceContent.COPY_BUFFER_SIZE];
+        }
+        ByteBuffer source = chunk.duplicate();
+        while (source.hasRemaining()) {
+          int n = Math.min(source.remaining(), buffer.length);
+          source.get(buffer, 0, n);
+          out.write(buffer, 0, n);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.everit.osgi.webresource.internal.jfr.FlightRecorderEvents;
+
+/**
+ * The asynchronous sending of a response body. The async context is started without a timeout, as
+ * large bodies may take any time to download on slow connections. Instead, the transfer is aborted
+ * if no byte of the body could be written within the configured idle timeout. The async context
+ * is completed exactly once: when the whole body is sent, when a write fails or when the idle
+ * timeout expires. Aborted transfers are reported to the listener that is stored in the
+ * {@value #REQUEST_ATTR_ABORT_LISTENER} request attribute.
+ */
+public final class AsyncTransfer implements AsyncListener {
+
+  /**
+   * Checks the progress of the transfers. The thread stops if there is no transfer to check.
+   */
+  private static final ScheduledThreadPoolExecutor IDLE_CHECK_EXECUTOR =
+      AsyncTransfer.createIdleCheckExecutor();
+
+  private static final long IDLE_CHECK_KEEP_ALIVE_SECONDS = 10;
+
+  private static final Logger LOGGER = Logger.getLogger("org.everit.osgi.webresource.stream");
+
+  /**
+   * Reason of the transfers that were aborted because writing to the client failed.
+   */
+  public static final String REASON_ERROR = "error";
+
+  /**
+   * Reason of the transfers that were aborted because no byte of the body could be written within
+   * the idle timeout.
+   */
+  public static final String REASON_TIMEOUT = "timeout";
+
+  /**
+   * Name of the request attribute that holds a {@link Consumer} of the reason of aborted transfers.
+   */
+  public static final String REQUEST_ATTR_ABORT_LISTENER =
+      "org.everit.osgi.webresource.internal.AsyncTransfer.abortListener";
+
+  private static ScheduledThreadPoolExecutor createIdleCheckExecutor() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+      Thread thread = new Thread(runnable, "everit-webresource-idle-check");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.setKeepAliveTime(AsyncTransfer.IDLE_CHECK_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    executor.allowCoreThreadTimeOut(true);
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  /**
+   * Starts the async context of the request for sending the body.
+   *
+   * @param req
+   *          The request.
+   * @param contentType
+   *          The content type of the body that is used in the Flight Recorder events.
+   * @param idleTimeout
+   *          The time in milliseconds after which the transfer is aborted if no byte of the body
+   *          could be written in the meantime. Zero or a negative value means no timeout.
+   * @return The transfer.
+   */
+  public static AsyncTransfer start(final HttpServletRequest req, final String contentType,
+      final long idleTimeout) {
+    @SuppressWarnings("unchecked")
+    Consumer<String> abortListener =
+        (Consumer<String>) req.getAttribute(AsyncTransfer.REQUEST_ATTR_ABORT_LISTENER);
+    Object asyncWriteEvent = FlightRecorderEvents.beginAsyncWrite();
+    AsyncContext async = req.startAsync();
+    // Containers have a default timeout (30 seconds in most cases) that would limit the whole
+    // download, so the idle timeout of the transfer is checked instead
+    async.setTimeout(0);
+    AsyncTransfer transfer = new AsyncTransfer(async, contentType, abortListener, asyncWriteEvent,
+        idleTimeout);
+    async.addListener(transfer);
+    if (idleTimeout > 0) {
+      transfer.scheduleIdleCheck(TimeUnit.MILLISECONDS.toNanos(idleTimeout));
+    }
+    return transfer;
+  }
+
+  private final Consumer<String> abortListener;
+
+  private final AsyncContext async;
+
+  /**
+   * The Flight Recorder event that is committed when the async context is completed.
+   */
+  private final Object asyncWriteEvent;
+
+  private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+  private final String contentType;
+
+  private final AtomicBoolean finished = new AtomicBoolean();
+
+  private volatile ScheduledFuture<?> idleCheck;
+
+  private volatile boolean idleCheckCancelled;
+
+  private final long idleTimeout;
+
+  /**
+   * The value of {@link System#nanoTime()} when the transfer was started or the number of written
+   * bytes grew the last time.
+   */
+  private volatile long lastProgressNanos = System.nanoTime();
+
+  private volatile long writtenBytes;
+
+  private AsyncTransfer(final AsyncContext async, final String contentType,
+      final Consumer<String> abortListener, final Object asyncWriteEvent, final long idleTimeout) {
+    this.async = async;
+    this.contentType = contentType;
+    this.abortListener = abortListener;
+    this.asyncWriteEvent = asyncWriteEvent;
+    this.idleTimeout = idleTimeout;
+  }
+
+  private void abort(final String reason, final Throwable cause) {
+    cancelIdleCheck();
+    this.async.complete();
+    this.completion.completeExceptionally(cause);
+    FlightRecorderEvents.commitAsyncWrite(this.asyncWriteEvent, this.contentType,
+        this.writtenBytes, true);
+    if (this.abortListener != null) {
+      this.abortListener.accept(reason);
+    }
+  }
+
+  /**
+   * Stops checking the idle timeout of the transfer. This is necessary if the body is sent by the
+   * container with one call that does not report the progress. The idle timeout of the connection
+   * of the container applies in that case.
+   */
+  public void cancelIdleCheck() {
+    this.idleCheckCancelled = true;
+    ScheduledFuture<?> lIdleCheck = this.idleCheck;
+    if (lIdleCheck != null) {
+      lIdleCheck.cancel(false);
+    }
+  }
+
+  private void checkIdleTimeout() {
+    if (this.idleCheckCancelled || this.finished.get()) {
+      return;
+    }
+    long remainingNanos = TimeUnit.MILLISECONDS.toNanos(this.idleTimeout)
+        - (System.nanoTime() - this.lastProgressNanos);
+    if (remainingNanos > 0) {
+      scheduleIdleCheck(remainingNanos);
+    } else {
+      timeOut();
+    }
+  }
+
+  /**
+   * Completes the async context after the whole body is sent. Nothing happens if the transfer is
+   * already finished.
+   */
+  public void complete() {
+    if (this.finished.compareAndSet(false, true)) {
+      cancelIdleCheck();
+      this.async.complete();
+      this.completion.complete(null);
+      FlightRecorderEvents.commitAsyncWrite(this.asyncWriteEvent, this.contentType,
+          this.writtenBytes, false);
+    }
+  }
+
+  /**
+   * Aborts the transfer because writing the body failed. Nothing happens if the transfer is
+   * already finished.
+   *
+   * @param t
+   *          The cause of the failure.
+   */
+  public void fail(final Throwable t) {
+    if (this.finished.compareAndSet(false, true)) {
+      ServletContext servletContext = this.async.getRequest().getServletContext();
+      if (servletContext != null) {
+        servletContext.log("Async exception", t);
+      } else {
+        AsyncTransfer.LOGGER.log(Level.WARNING, "Async exception", t);
+      }
+      abort(AsyncTransfer.REASON_ERROR, t);
+    }
+  }
+
+  public AsyncContext getAsyncContext() {
+    return this.async;
+  }
+
+  /**
+   * A stage that is completed when the whole body is sent or completed exceptionally when the
+   * transfer is aborted.
+   */
+  public CompletionStage<Void> getCompletion() {
+    return this.completion;
+  }
+
+  /**
+   * Whether the transfer is completed or aborted, so nothing should be written anymore.
+   */
+  public boolean isFinished() {
+    return this.finished.get();
+  }
+
+  @Override
+  public void onComplete(final AsyncEvent event) throws IOException {
+  }
+
+  @Override
+  public void onError(final AsyncEvent event) throws IOException {
+    fail(event.getThrowable());
+  }
+
+  @Override
+  public void onStartAsync(final AsyncEvent event) throws IOException {
+  }
+
+  @Override
+  public void onTimeout(final AsyncEvent event) throws IOException {
+    // Only if somebody else set a timeout on the async context
+    timeOut();
+  }
+
+  private void scheduleIdleCheck(final long delayNanos) {
+    this.idleCheck = AsyncTransfer.IDLE_CHECK_EXECUTOR.schedule(this::checkIdleTimeout,
+        delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records the number of body bytes that are written so far. Each call that increases the number
+   * restarts the idle timeout.
+   *
+   * @param writtenBytes
+   *          The number of bytes.
+   */
+  public void setWrittenBytes(final long writtenBytes) {
+    if (writtenBytes > this.writtenBytes) {
+      this.lastProgressNanos = System.nanoTime();
+    }
+    this.writtenBytes = writtenBytes;
+  }
+
+  private void timeOut() {
+    if (this.finished.compareAndSet(false, true)) {
+      AsyncTransfer.LOGGER.log(Level.FINE, "Async write timed out after {0} bytes",
+          this.writtenBytes);
+      abort(AsyncTransfer.REASON_TIMEOUT, new TimeoutException(
+          "No byte of the body could be written within " + this.idleTimeout + " ms"));
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of byte arrays that are used to copy streamed content to the response, so
+ * streaming large resources does not allocate a new buffer for each request.
+ */
+public final class BufferPool {
+
+  /**
+   * The size of the pooled buffers.
+   */
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAX_POOLED_BUFFERS = 64;
+
+  private static final BlockingQueue<byte[]> POOL =
+      new ArrayBlockingQueue<>(BufferPool.MAX_POOLED_BUFFERS);
+
+  /**
+   * Takes a buffer from the pool or allocates a new one if the pool is empty.
+   *
+   * @return A buffer of {@link #BUFFER_SIZE} bytes.
+   */
+  public static byte[] acquire() {
+    byte[] buffer = BufferPool.POOL.poll();
+    return buffer == null ? new byte[BufferPool.BUFFER_SIZE] : buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. The buffer must not be used by the caller afterwards. If the
+   * pool is full, the buffer is left to the garbage collector.
+   *
+   * @param buffer
+   *          The buffer that was returned by {@link #acquire()}.
+   */
+  public static void release(final byte[] buffer) {
+    if (buffer != null && buffer.length == BufferPool.BUFFER_SIZE) {
+      BufferPool.POOL.offer(buffer);
+    }
+  }
+
+  private BufferPool() {
+  }
+}
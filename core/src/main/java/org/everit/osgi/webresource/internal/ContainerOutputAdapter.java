@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * Sends the whole body of a response with the native API of a servlet container, bypassing the
+ * byte array based writes of {@link ServletOutputStream}. Adapters are detected by
+ * {@link ContainerOutputAdapters} based on the class of the output stream.
+ */
+public interface ContainerOutputAdapter {
+
+  /**
+   * Sends the content as the body of the response. The headers of the response must be set
+   * before the call.
+   *
+   * @param out
+   *          The output stream of the response that belongs to the container of the adapter.
+   * @param content
+   *          The content to send.
+   * @param transfer
+   *          The started asynchronous transfer that must be completed when the body is sent or
+   *          <code>null</code> if the body should be sent in a blocking way.
+   * @return <code>true</code> if the body is sent or its sending is started, <code>false</code> if
+   *         the adapter cannot send the content and nothing was written to the output stream.
+   * @throws IOException
+   *           if the content cannot be written.
+   */
+  boolean send(ServletOutputStream out, WebResourceContent content, AsyncTransfer transfer)
+      throws IOException;
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * Resolves the {@link ContainerOutputAdapter} that belongs to the output stream of a response. The
+ * adapters are detected reflectively, so the bundle does not depend on any servlet container. The
+ * result of the detection is cached for each output stream class in the instance, which is owned
+ * by a servlet and cleared when the servlet is destroyed. The cache is never attached to the
+ * classes of the container, so neither the container nor this bundle is pinned after a refresh.
+ */
+public final class ContainerOutputAdapters {
+
+  /**
+   * Name of the request attribute that holds the {@link ContainerOutputAdapters} of the servlet
+   * that serves the request. If the attribute is not set, a shared instance is used that is
+   * cleared when the extender stops.
+   */
+  public static final String REQUEST_ATTR_CONTAINER_OUTPUT_ADAPTERS =
+      "org.everit.osgi.webresource.internal.ContainerOutputAdapters";
+
+  private static final ContainerOutputAdapters SHARED = new ContainerOutputAdapters();
+
+  /**
+   * Clears the shared instance that is used for the requests that do not have their own
+   * {@link ContainerOutputAdapters}.
+   */
+  public static void clearShared() {
+    ContainerOutputAdapters.SHARED.clear();
+  }
+
+  /**
+   * Returns the {@link ContainerOutputAdapters} that is attached to a request or the shared
+   * instance if the request does not have one.
+   *
+   * @param requestAttribute
+   *          The value of the {@value #REQUEST_ATTR_CONTAINER_OUTPUT_ADAPTERS} request attribute.
+   * @return The adapters.
+   */
+  public static ContainerOutputAdapters fromRequestAttribute(final Object requestAttribute) {
+    if (requestAttribute instanceof ContainerOutputAdapters) {
+      return (ContainerOutputAdapters) requestAttribute;
+    }
+    return ContainerOutputAdapters.SHARED;
+  }
+
+  private final Map<Class<?>, Optional<ContainerOutputAdapter>> adaptersByOutputClass =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Drops the cached adapters, so they do not reference the classes of the servlet container
+   * anymore.
+   */
+  public void clear() {
+    this.adaptersByOutputClass.clear();
+  }
+
+  /**
+   * Sends the content as the body of the response with the native API of the servlet container if
+   * it is supported.
+   *
+   * @param resp
+   *          The response whose headers are already set.
+   * @param content
+   *          The content to send.
+   * @param transfer
+   *          The started asynchronous transfer or <code>null</code> if the body should be sent in
+   *          a blocking way.
+   * @return <code>true</code> if the body is sent or its sending is started, <code>false</code> if
+   *         the body should be written via the standard Servlet API.
+   * @throws IOException
+   *           if the content cannot be written.
+   */
+  public boolean send(final HttpServletResponse resp, final WebResourceContent content,
+      final AsyncTransfer transfer) throws IOException {
+    if (content.isStreamed()) {
+      return false;
+    }
+    ServletOutputStream out = resp.getOutputStream();
+    Optional<ContainerOutputAdapter> adapter =
+        this.adaptersByOutputClass.computeIfAbsent(out.getClass(), JettyOutputAdapter::create);
+    return adapter.isPresent() && adapter.get().send(out, content, transfer);
+  }
+
+  /**
+   * Constructor.
+   */
+  public ContainerOutputAdapters() {
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Content-addressed store of the cached content of {@link WebResourceImpl}s. The blobs are keyed
+ * by the digest of the raw content and the form that is stored (e.g. the content encoding), so
+ * webresources with identical content in different libraries, versions or bundles encode and keep
+ * their content only once. Each webresource holds one reference to the blobs it uses and the
+ * blobs are dropped when their last reference is released.
+ */
+final class ContentBlobStore {
+
+  /**
+   * Creates the value of a blob that is not in the store yet.
+   *
+   * @param <T>
+   *          The type of the value.
+   */
+  @FunctionalInterface
+  interface BlobFactory<T> {
+
+    /**
+     * Creates the value.
+     *
+     * @return The value.
+     * @throws IOException
+     *           if the content cannot be read.
+     */
+    T create() throws IOException;
+  }
+
+  /**
+   * Identifies a blob. The form is compared by identity, so the content of a registered
+   * {@link org.everit.osgi.webresource.ContentEncoding} never matches the content that was
+   * encoded by the encoder that it replaced.
+   */
+  static final class BlobKey {
+
+    private final String digest;
+
+    private final Object form;
+
+    BlobKey(final String digest, final Object form) {
+      this.digest = digest;
+      this.form = form;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof BlobKey)) {
+        return false;
+      }
+      BlobKey other = (BlobKey) obj;
+      return this.form == other.form && this.digest.equals(other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.digest.hashCode() * 31 + System.identityHashCode(this.form);
+    }
+  }
+
+  /**
+   * A stored value with the number of its references.
+   */
+  private static final class Blob {
+
+    private int referenceCount = 0;
+
+    private long size = 0;
+
+    private Object value;
+  }
+
+  private static final Map<BlobKey, Blob> BLOBS = new HashMap<>();
+
+  /**
+   * The sum of the sizes of the stored blobs. Guarded by {@link #BLOBS}.
+   */
+  private static long blobBytes = 0;
+
+  /**
+   * Takes a reference to a blob. If the blob is not in the store, it is created by the factory.
+   * Only the callers of the same blob wait for each other while it is created. Each successful
+   * call must be followed by a {@link #release(BlobKey)} call when the value is not used anymore.
+   *
+   * @param key
+   *          The key of the blob.
+   * @param factory
+   *          Creates the value if it is not stored yet.
+   * @param sizeFunction
+   *          Tells the number of bytes that a created value occupies.
+   * @param <T>
+   *          The type of the value.
+   * @return The stored value.
+   * @throws IOException
+   *           if the value is created and the factory fails. No reference is held in that case.
+   */
+  static <T> T acquire(final BlobKey key, final BlobFactory<T> factory,
+      final ToLongFunction<? super T> sizeFunction) throws IOException {
+    Blob blob;
+    synchronized (ContentBlobStore.BLOBS) {
+      blob = ContentBlobStore.BLOBS.get(key);
+      if (blob == null) {
+        blob = new Blob();
+        ContentBlobStore.BLOBS.put(key, blob);
+      }
+      blob.referenceCount++;
+    }
+    synchronized (blob) {
+      if (blob.value == null) {
+        T value;
+        try {
+          value = factory.create();
+        } catch (IOException | RuntimeException | Error e) {
+          ContentBlobStore.release(key);
+          throw e;
+        }
+        blob.value = value;
+        // The reference of this call keeps the blob in the store, so it cannot be removed before
+        // its size is counted
+        long size = sizeFunction.applyAsLong(value);
+        synchronized (ContentBlobStore.BLOBS) {
+          blob.size = size;
+          ContentBlobStore.blobBytes += size;
+        }
+      }
+      @SuppressWarnings("unchecked")
+      T result = (T) blob.value;
+      return result;
+    }
+  }
+
+  /**
+   * The number of bytes that the blobs of the store occupy. Each blob is counted once, however many
+   * webresources reference it, so this is the memory that the deduplicated content really uses.
+   */
+  static long getBlobBytes() {
+    synchronized (ContentBlobStore.BLOBS) {
+      return ContentBlobStore.blobBytes;
+    }
+  }
+
+  /**
+   * The number of blobs in the store.
+   */
+  static int getBlobCount() {
+    synchronized (ContentBlobStore.BLOBS) {
+      return ContentBlobStore.BLOBS.size();
+    }
+  }
+
+  /**
+   * The number of references to the blobs of the store. The difference between this number and
+   * {@link #getBlobCount()} is the number of copies that were saved by the deduplication.
+   */
+  static long getReferenceCount() {
+    synchronized (ContentBlobStore.BLOBS) {
+      long result = 0;
+      for (Blob blob : ContentBlobStore.BLOBS.values()) {
+        result += blob.referenceCount;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Releases a reference that was taken by {@link #acquire(BlobKey, BlobFactory)}. The blob is
+   * removed from the store with its last reference.
+   *
+   * @param key
+   *          The key of the blob.
+   */
+  static void release(final BlobKey key) {
+    synchronized (ContentBlobStore.BLOBS) {
+      Blob blob = ContentBlobStore.BLOBS.get(key);
+      if (blob != null && --blob.referenceCount == 0) {
+        ContentBlobStore.BLOBS.remove(key);
+        ContentBlobStore.blobBytes -= blob.size;
+      }
+    }
+  }
+
+  private ContentBlobStore() {
+  }
+}
@@ -18,7 +18,10 @@ package org.everit.osgi.webresource.internal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 import org.everit.osgi.webresource.util.WebResourceUtil;
 
@@ -32,6 +35,9 @@ public final class ContentTypeUtil {
 
   private static final String UNKNOWN_CONTENT_TYPE = "application/octet-stream";
 
+  private static final Set<String> VARIANT_CONTENT_TYPES = new HashSet<>(Arrays.asList(
+      "image/avif", "image/gif", "image/jpeg", "image/png", "image/webp"));
+
   static {
     DEFAULT_CONTENT_TYPES = new Properties();
     try (InputStream inputStream = WebResourceUtil.class
@@ -42,6 +48,55 @@ public final class ContentTypeUtil {
     }
   }
 
+  /**
+   * Checks whether the content type is a text-based format that shrinks considerably when it is
+   * compressed. Images, fonts and archives are compressed already.
+   *
+   * @param contentType
+   *          The content type of the resource.
+   * @return <code>true</code> if the content type is compressible.
+   */
+  public static boolean isCompressibleContentType(final String contentType) {
+    return contentType.startsWith("text/") || contentType.contains("javascript")
+        || contentType.contains("json") || contentType.contains("xml");
+  }
+
+  /**
+   * Checks whether resources with the content type can be variants of each other so that the
+   * client can get the one that is the smallest from the supported formats.
+   *
+   * @param contentType
+   *          The content type of the resource.
+   * @return <code>true</code> if the content type is an image format that can have variants.
+   */
+  public static boolean isVariantContentType(final String contentType) {
+    return ContentTypeUtil.VARIANT_CONTENT_TYPES.contains(contentType);
+  }
+
+  /**
+   * Resolves the value of the <code>as</code> attribute of a preload <code>Link</code> header based
+   * on the content type of the preloaded resource.
+   *
+   * @param contentType
+   *          The content type of the resource.
+   * @return The destination of the preload request.
+   */
+  public static String resolvePreloadDestination(final String contentType) {
+    if ("text/css".equals(contentType)) {
+      return "style";
+    }
+    if (contentType.contains("javascript")) {
+      return "script";
+    }
+    if (contentType.startsWith("font/") || contentType.contains("font-")) {
+      return "font";
+    }
+    if (contentType.startsWith("image/")) {
+      return "image";
+    }
+    return "fetch";
+  }
+
   /**
    * Resolve the content type of the file that is available on the URL.
    *
@@ -50,7 +105,18 @@ public final class ContentTypeUtil {
    * @return The content type of the file if known, otherwise {@value #UNKNOWN_CONTENT_TYPE}.
    */
   public static String resolveContentType(final URL url) {
-    String extension = url.toExternalForm();
+    return ContentTypeUtil.resolveContentType(url.toExternalForm());
+  }
+
+  /**
+   * Resolve the content type of a file based on the extension of the last segment of its path.
+   *
+   * @param path
+   *          The path or the name of the file.
+   * @return The content type of the file if known, otherwise {@value #UNKNOWN_CONTENT_TYPE}.
+   */
+  public static String resolveContentType(final String path) {
+    String extension = path;
     int lastIndexOfSlash = extension.lastIndexOf('/');
 
     if (lastIndexOfSlash > 0) {
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.everit.osgi.webresource.ContentEncoding;
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * The deflate compressed content of a {@link org.everit.osgi.webresource.WebResource} without
+ * any header. The compressed body is the same for the built-in {@link ContentEncoding#GZIP} and
+ * {@link ContentEncoding#DEFLATE} encodings, so it is stored once and both encodings are served
+ * as views that add the header and the trailer of their format. The raw content is restored by
+ * inflating the body with a pooled {@link Inflater}.
+ */
+final class DeflatedContent {
+
+  /**
+   * {@link InflaterInputStream} that returns its {@link Inflater} to the pool when it is closed.
+   */
+  private static final class PooledInflaterInputStream extends InflaterInputStream {
+
+    private boolean closed = false;
+
+    PooledInflaterInputStream(final InputStream in, final Inflater inflater) {
+      super(in, inflater, BufferPool.BUFFER_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!this.closed) {
+        this.closed = true;
+        super.close();
+        DeflatedContent.releaseInflater(this.inf);
+      }
+    }
+  }
+
+  private static final int GZIP_HEADER_SIZE = 10;
+
+  /**
+   * The header that {@link GZIPOutputStream} writes, so the responses are byte-identical to the
+   * ones of the JDK encoder, including the operating system field.
+   */
+  private static final byte[] GZIP_HEADER = DeflatedContent.createGzipHeader();
+
+  private static final int GZIP_TRAILER_SIZE = 8;
+
+  private static final int MAX_POOLED_INFLATERS = 16;
+
+  private static final BlockingQueue<Inflater> INFLATER_POOL =
+      new ArrayBlockingQueue<>(DeflatedContent.MAX_POOLED_INFLATERS);
+
+  /**
+   * The zlib header of the default compression level that
+   * {@link java.util.zip.DeflaterOutputStream} writes.
+   */
+  private static final byte[] ZLIB_HEADER = new byte[] { 0x78, (byte) 0x9c };
+
+  private static final int ZLIB_TRAILER_SIZE = 4;
+
+  private static byte[] createGzipHeader() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      new GZIPOutputStream(out).close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Arrays.copyOf(out.toByteArray(), DeflatedContent.GZIP_HEADER_SIZE);
+  }
+
+  /**
+   * Compresses the content of a stream and closes the stream.
+   *
+   * @param in
+   *          The stream of the raw content.
+   * @return The compressed content.
+   * @throws IOException
+   *           if the stream cannot be read.
+   */
+  static DeflatedContent deflate(final InputStream in) throws IOException {
+    CRC32 crc32 = new CRC32();
+    Adler32 adler32 = new Adler32();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    SegmentedOutputStream segmentedOut = new SegmentedOutputStream();
+    byte[] buf = BufferPool.acquire();
+    try (InputStream inputStream = in;
+        DeflaterOutputStream out = new DeflaterOutputStream(segmentedOut, deflater)) {
+      long rawLength = 0;
+      int r = inputStream.read(buf);
+      while (r > -1) {
+        out.write(buf, 0, r);
+        crc32.update(buf, 0, r);
+        adler32.update(buf, 0, r);
+        rawLength += r;
+        r = inputStream.read(buf);
+      }
+      out.finish();
+      return new DeflatedContent(segmentedOut.toChunks(), rawLength, crc32.getValue(),
+          adler32.getValue());
+    } finally {
+      BufferPool.release(buf);
+      deflater.end();
+    }
+  }
+
+  /**
+   * Whether the encoding can be served from the shared compressed body. Only the built-in gzip and
+   * deflate encoders are supported, registered encoders compress the content themselves.
+   */
+  static boolean isSupported(final ContentEncoding contentEncoding) {
+    return contentEncoding == ContentEncoding.GZIP || contentEncoding == ContentEncoding.DEFLATE;
+  }
+
+  private static void releaseInflater(final Inflater inflater) {
+    inflater.reset();
+    if (!DeflatedContent.INFLATER_POOL.offer(inflater)) {
+      inflater.end();
+    }
+  }
+
+  private final long adler32;
+
+  /**
+   * The chunks of the compressed body. They are backed by arrays, so the views that are created by
+   * {@link #toContent(ContentEncoding)} can be written without copying.
+   */
+  private final ByteBuffer[] bodyChunks;
+
+  private final long crc32;
+
+  private final long rawLength;
+
+  private DeflatedContent(final ByteBuffer[] bodyChunks, final long rawLength, final long crc32,
+      final long adler32) {
+    this.bodyChunks = bodyChunks;
+    this.rawLength = rawLength;
+    this.crc32 = crc32;
+    this.adler32 = adler32;
+  }
+
+  /**
+   * The length of the compressed body that is shared by the views of the supported encodings.
+   */
+  long getCompressedLength() {
+    long result = 0;
+    for (ByteBuffer bodyChunk : this.bodyChunks) {
+      result += bodyChunk.remaining();
+    }
+    return result;
+  }
+
+  /**
+   * The length of the raw content.
+   */
+  long getRawLength() {
+    return this.rawLength;
+  }
+
+  /**
+   * Opens a stream that inflates the raw content. The {@link Inflater} of the stream is returned
+   * to the pool when the stream is closed.
+   *
+   * @return The stream.
+   */
+  InputStream inflate() {
+    Inflater inflater = DeflatedContent.INFLATER_POOL.poll();
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+    // The zlib format is inflated, so the Adler-32 checksum of the trailer is verified
+    return new PooledInflaterInputStream(toContent(ContentEncoding.DEFLATE).newInputStream(),
+        inflater);
+  }
+
+  /**
+   * Creates the content in a supported encoding. The chunks of the compressed body are shared,
+   * only the header and the trailer of the format are allocated.
+   *
+   * @param contentEncoding
+   *          {@link ContentEncoding#GZIP} or {@link ContentEncoding#DEFLATE}.
+   * @return The content.
+   */
+  WebResourceContent toContent(final ContentEncoding contentEncoding) {
+    ByteBuffer header;
+    ByteBuffer trailer;
+    if (contentEncoding == ContentEncoding.GZIP) {
+      header = ByteBuffer.wrap(DeflatedContent.GZIP_HEADER);
+      trailer = ByteBuffer.allocate(DeflatedContent.GZIP_TRAILER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      trailer.putInt((int) this.crc32);
+      trailer.putInt((int) this.rawLength);
+    } else if (contentEncoding == ContentEncoding.DEFLATE) {
+      header = ByteBuffer.wrap(DeflatedContent.ZLIB_HEADER);
+      trailer = ByteBuffer.allocate(DeflatedContent.ZLIB_TRAILER_SIZE);
+      trailer.putInt((int) this.adler32);
+    } else {
+      throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+    }
+    trailer.flip();
+    ByteBuffer[] chunks = new ByteBuffer[this.bodyChunks.length + 2];
+    chunks[0] = header;
+    System.arraycopy(this.bodyChunks, 0, chunks, 1, this.bodyChunks.length);
+    chunks[chunks.length - 1] = trailer;
+    return new WebResourceContent(chunks);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * {@link WebResourceSource} that reads the content directly from the file system and falls back
+ * to the URL of the framework or the class loader if the direct read fails, e.g. because the JAR
+ * file was deleted or replaced after the resource was ingested. Once the direct read failed, the
+ * URL is used for all further reads.
+ */
+class FallbackWebResourceSource implements WebResourceSource {
+
+  private final WebResourceSource directSource;
+
+  private final Supplier<URL> fallbackURLSupplier;
+
+  private volatile URL fallbackURL;
+
+  /**
+   * Constructor.
+   *
+   * @param directSource
+   *          The source that reads the file system directly.
+   * @param fallbackURLSupplier
+   *          Supplies the URL that is used if the direct source cannot be read. The URL is only
+   *          resolved when it is needed.
+   */
+  FallbackWebResourceSource(final WebResourceSource directSource,
+      final Supplier<URL> fallbackURLSupplier) {
+    this.directSource = directSource;
+    this.fallbackURLSupplier = fallbackURLSupplier;
+  }
+
+  @Override
+  public byte[] getFingerprint() {
+    return this.directSource.getFingerprint();
+  }
+
+  @Override
+  public Path getFile() {
+    return this.fallbackURL == null ? this.directSource.getFile() : null;
+  }
+
+  @Override
+  public long getLastModified() {
+    return this.directSource.getLastModified();
+  }
+
+  @Override
+  public long getLength() {
+    return this.directSource.getLength();
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    URL lFallbackURL = this.fallbackURL;
+    if (lFallbackURL != null) {
+      return lFallbackURL.openStream();
+    }
+    InputStream directStream;
+    try {
+      directStream = this.directSource.openStream();
+    } catch (IOException e) {
+      lFallbackURL = switchToFallbackURL(e);
+      if (lFallbackURL == null) {
+        throw e;
+      }
+      return lFallbackURL.openStream();
+    }
+    return new FilterInputStream(directStream) {
+
+      @Override
+      public int read() throws IOException {
+        try {
+          return super.read();
+        } catch (IOException e) {
+          switchToFallbackURL(e);
+          throw e;
+        }
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        try {
+          return super.read(b, off, len);
+        } catch (IOException e) {
+          switchToFallbackURL(e);
+          throw e;
+        }
+      }
+
+      @Override
+      public long skip(final long n) throws IOException {
+        try {
+          return super.skip(n);
+        } catch (IOException e) {
+          switchToFallbackURL(e);
+          throw e;
+        }
+      }
+    };
+  }
+
+  /**
+   * Makes the following reads use the fallback URL. Streams that are checked while they are
+   * read, e.g. large JAR entries, fail only after a part of the content was read, so the
+   * fallback URL can only be used from the next read on.
+   *
+   * @return The fallback URL or <code>null</code> if there is no fallback URL.
+   */
+  private URL switchToFallbackURL(final IOException cause) {
+    URL lFallbackURL = this.fallbackURLSupplier.get();
+    if (lFallbackURL != null) {
+      System.err.print("WARNING: Could not read the content directly, falling back to "
+          + lFallbackURL + ": " + cause.getMessage());
+      this.fallbackURL = lFallbackURL;
+    }
+    return lFallbackURL;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link WebResourceSource} of a file on the local file system, e.g. a resource of a bundle that
+ * is installed from a directory or of a directory provider. The RAW content of such resources
+ * can be memory-mapped.
+ */
+class FileWebResourceSource implements WebResourceSource {
+
+  private final Path file;
+
+  private final long lastModified;
+
+  private final long length;
+
+  FileWebResourceSource(final Path file) {
+    this.file = file;
+    try {
+      this.lastModified = Files.getLastModifiedTime(file).toMillis();
+      this.length = Files.size(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public byte[] getFingerprint() {
+    return null;
+  }
+
+  @Override
+  public Path getFile() {
+    return this.file;
+  }
+
+  @Override
+  public long getLastModified() {
+    return this.lastModified;
+  }
+
+  @Override
+  public long getLength() {
+    return this.length;
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    return Files.newInputStream(this.file);
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lossless optimizer of PNG and SVG images. PNG images are stripped from their ancillary chunks
+ * that do not affect rendering and the image data is re-deflated with the highest compression
+ * level. SVG images are stripped from comments, metadata and whitespace between tags.
+ */
+public final class ImageOptimizer {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final int CHUNK_HEADER_LENGTH = 8;
+
+  private static final int CHUNK_OVERHEAD = 12;
+
+  private static final String CONTENT_TYPE_PNG = "image/png";
+
+  private static final String CONTENT_TYPE_SVG = "image/svg+xml";
+
+  private static final int IHDR_BIT_DEPTH_OFFSET = 8;
+
+  private static final int IHDR_COLOR_TYPE_OFFSET = 9;
+
+  private static final int IHDR_LENGTH = 13;
+
+  /**
+   * Ancillary chunks that affect the rendering of the image, so they must be kept.
+   */
+  private static final Set<String> KEPT_ANCILLARY_CHUNKS = new HashSet<>(Arrays.asList(
+      "cHRM", "gAMA", "iCCP", "sBIT", "sRGB", "tRNS"));
+
+  /**
+   * Inflating is stopped above this size to avoid running out of memory on malicious files.
+   */
+  private static final long MAX_INFLATED_SIZE = 256L * 1024 * 1024;
+
+  private static final byte[] PNG_SIGNATURE =
+      new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+  private static final int[] SAMPLES_PER_PIXEL_BY_COLOR_TYPE = new int[] { 1, 0, 3, 1, 2, 0, 4 };
+
+  private static final Pattern SVG_COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+
+  private static final Pattern SVG_METADATA =
+      Pattern.compile("<metadata(\\s[^>]*)?(/>|>.*?</metadata>)", Pattern.DOTALL);
+
+  private static final Pattern SVG_WHITESPACE_BETWEEN_TAGS = Pattern.compile(">\\s+<");
+
+  private static final Pattern XML_DECLARATION_ENCODING =
+      Pattern.compile("^<\\?xml[^>]*encoding=[\"']([^\"']*)[\"']");
+
+  private static byte[] deflate(final byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length / 2 + 1);
+      byte[] buf = new byte[ImageOptimizer.BUFFER_SIZE];
+      while (!deflater.finished()) {
+        int r = deflater.deflate(buf);
+        bout.write(buf, 0, r);
+      }
+      return bout.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static long expectedInflatedSize(final byte[] ihdr) {
+    ByteBuffer buffer = ByteBuffer.wrap(ihdr);
+    long width = buffer.getInt(0) & 0xFFFFFFFFL;
+    long height = buffer.getInt(Integer.BYTES) & 0xFFFFFFFFL;
+    int bitDepth = ihdr[ImageOptimizer.IHDR_BIT_DEPTH_OFFSET];
+    int colorType = ihdr[ImageOptimizer.IHDR_COLOR_TYPE_OFFSET];
+    if (colorType < 0 || colorType >= ImageOptimizer.SAMPLES_PER_PIXEL_BY_COLOR_TYPE.length
+        || ImageOptimizer.SAMPLES_PER_PIXEL_BY_COLOR_TYPE[colorType] == 0) {
+      return -1;
+    }
+    long bitsPerLine =
+        width * ImageOptimizer.SAMPLES_PER_PIXEL_BY_COLOR_TYPE[colorType] * bitDepth;
+    // Each line starts with a filter byte. Interlaced images have a bit more overhead that is
+    // covered by doubling the limit.
+    return 2 * height * (1 + (bitsPerLine + Byte.SIZE - 1) / Byte.SIZE);
+  }
+
+  private static byte[] inflate(final byte[] data, final long maxSize)
+      throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length * 2);
+      byte[] buf = new byte[ImageOptimizer.BUFFER_SIZE];
+      while (!inflater.finished()) {
+        int r = inflater.inflate(buf);
+        if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Truncated IDAT stream");
+        }
+        bout.write(buf, 0, r);
+        if (bout.size() > maxSize) {
+          throw new DataFormatException("IDAT stream is larger than expected");
+        }
+      }
+      return bout.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Optimizes the content of an image.
+   *
+   * @param contentType
+   *          The content type of the image.
+   * @param content
+   *          The original content of the image.
+   * @return The optimized content or {@link Optional#empty()} if the content type is not supported,
+   *         the content could not be parsed or the optimized content would not be smaller.
+   */
+  public static Optional<byte[]> optimize(final String contentType, final byte[] content) {
+    byte[] result = null;
+    if (ImageOptimizer.CONTENT_TYPE_PNG.equals(contentType)) {
+      result = ImageOptimizer.optimizePNG(content);
+    } else if (ImageOptimizer.CONTENT_TYPE_SVG.equals(contentType)) {
+      result = ImageOptimizer.optimizeSVG(content);
+    }
+
+    if (result == null || result.length >= content.length) {
+      return Optional.empty();
+    }
+    return Optional.of(result);
+  }
+
+  /**
+   * Checks if the optimizer can handle the specified content type.
+   *
+   * @param contentType
+   *          The content type of the resource.
+   * @return <code>true</code> if the resource can be optimized.
+   */
+  public static boolean isOptimizable(final String contentType) {
+    return ImageOptimizer.CONTENT_TYPE_PNG.equals(contentType)
+        || ImageOptimizer.CONTENT_TYPE_SVG.equals(contentType);
+  }
+
+  // CHECKSTYLE.OFF: CyclomaticComplexity
+  // CHECKSTYLE.OFF: NPathComplexity
+  private static byte[] optimizePNG(final byte[] content) {
+    int signatureLength = ImageOptimizer.PNG_SIGNATURE.length;
+    if (content.length < signatureLength || !Arrays
+        .equals(Arrays.copyOf(content, signatureLength), ImageOptimizer.PNG_SIGNATURE)) {
+      return null;
+    }
+
+    ByteBuffer in = ByteBuffer.wrap(content);
+    in.position(signatureLength);
+
+    ByteArrayOutputStream idat = new ByteArrayOutputStream(content.length);
+    ByteArrayOutputStream beforeIDAT = new ByteArrayOutputStream();
+    ByteArrayOutputStream afterIDAT = new ByteArrayOutputStream();
+    byte[] ihdr = null;
+    boolean iendFound = false;
+
+    while (!iendFound && in.remaining() >= ImageOptimizer.CHUNK_OVERHEAD) {
+      int chunkStart = in.position();
+      int length = in.getInt();
+      if (length < 0 || length > in.remaining() - ImageOptimizer.CHUNK_HEADER_LENGTH) {
+        return null;
+      }
+      byte[] typeBytes = new byte[Integer.BYTES];
+      in.get(typeBytes);
+      String type = new String(typeBytes, StandardCharsets.US_ASCII);
+      byte[] data = new byte[length];
+      in.get(data);
+      in.getInt();
+
+      if ("acTL".equals(type)) {
+        // Animated PNG frames are stored in fdAT chunks that are not handled here
+        return null;
+      }
+
+      boolean critical = Character.isUpperCase(type.charAt(0));
+      if ("IHDR".equals(type)) {
+        if (length != ImageOptimizer.IHDR_LENGTH) {
+          return null;
+        }
+        ihdr = data;
+      }
+
+      if ("IDAT".equals(type)) {
+        if (afterIDAT.size() > 0) {
+          // Non-consecutive IDAT chunks are invalid
+          return null;
+        }
+        idat.write(data, 0, data.length);
+      } else if (critical || ImageOptimizer.KEPT_ANCILLARY_CHUNKS.contains(type)) {
+        ByteArrayOutputStream target = idat.size() == 0 ? beforeIDAT : afterIDAT;
+        target.write(content, chunkStart, in.position() - chunkStart);
+      }
+      iendFound = "IEND".equals(type);
+    }
+
+    if (!iendFound || ihdr == null || idat.size() == 0) {
+      return null;
+    }
+
+    byte[] originalIDAT = idat.toByteArray();
+    byte[] newIDAT = originalIDAT;
+    long expectedInflatedSize = ImageOptimizer.expectedInflatedSize(ihdr);
+    if (expectedInflatedSize > 0 && expectedInflatedSize < ImageOptimizer.MAX_INFLATED_SIZE) {
+      try {
+        byte[] rawImageData = ImageOptimizer.inflate(originalIDAT, expectedInflatedSize);
+        byte[] reDeflatedIDAT = ImageOptimizer.deflate(rawImageData);
+        if (reDeflatedIDAT.length < originalIDAT.length) {
+          newIDAT = reDeflatedIDAT;
+        }
+      } catch (DataFormatException e) {
+        return null;
+      }
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+    out.write(ImageOptimizer.PNG_SIGNATURE, 0, signatureLength);
+    out.write(beforeIDAT.toByteArray(), 0, beforeIDAT.size());
+    ImageOptimizer.writeChunk(out, "IDAT", newIDAT);
+    out.write(afterIDAT.toByteArray(), 0, afterIDAT.size());
+    return out.toByteArray();
+  }
+  // CHECKSTYLE.ON: CyclomaticComplexity
+  // CHECKSTYLE.ON: NPathComplexity
+
+  private static byte[] optimizeSVG(final byte[] content) {
+    String svg = new String(content, StandardCharsets.UTF_8);
+    Matcher encodingMatcher = ImageOptimizer.XML_DECLARATION_ENCODING.matcher(svg);
+    if (encodingMatcher.find()
+        && !StandardCharsets.UTF_8.name().equalsIgnoreCase(encodingMatcher.group(1))) {
+      return null;
+    }
+    if (svg.contains("<![CDATA[")) {
+      // Comment-like sequences might be part of the character data
+      return null;
+    }
+
+    String result = ImageOptimizer.SVG_COMMENT.matcher(svg).replaceAll("");
+    result = ImageOptimizer.SVG_METADATA.matcher(result).replaceAll("");
+    if (!result.contains("<text") && !result.contains("xml:space")) {
+      // Whitespace between tags is only significant within text content
+      result = ImageOptimizer.SVG_WHITESPACE_BETWEEN_TAGS.matcher(result).replaceAll("><");
+    }
+    return result.trim().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void writeChunk(final ByteArrayOutputStream out, final String type,
+      final byte[] data) {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data);
+
+    ByteBuffer header = ByteBuffer.allocate(ImageOptimizer.CHUNK_HEADER_LENGTH);
+    header.putInt(data.length);
+    header.put(typeBytes);
+    out.write(header.array(), 0, header.capacity());
+    out.write(data, 0, data.length);
+
+    ByteBuffer crcBuffer = ByteBuffer.allocate(Integer.BYTES);
+    crcBuffer.putInt((int) crc.getValue());
+    out.write(crcBuffer.array(), 0, crcBuffer.capacity());
+  }
+
+  private ImageOptimizer() {
+  }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * The entries of a JAR file read from its central directory. The content of an entry is read
+ * directly from the file without class loader delegation and URL connections: stored entries are
+ * read from their offset and deflated entries are inflated while they are read. The CRC and the
+ * size of the entries are taken from the central directory, so the entries can be identified
+ * without reading them. The last modification time of the entries is the one of the JAR file, as
+ * <code>jar:</code> URLs report the same, so a resource has the same time whether it is read
+ * directly or via its URL.
+ *
+ * <p>
+ * Only the plain ZIP format is supported. If the file is not a ZIP file, uses ZIP64 or the index
+ * cannot be read for any other reason, no index is created and the caller should fall back to
+ * URLs. Entries with non-ASCII names that are not flagged as UTF-8 are not indexed either, as the
+ * charset of their names is not known.
+ */
+final class JarFileIndex {
+
+  /**
+   * Reads a range of a file channel and closes the channel when the stream is closed.
+   */
+  private static final class ChannelRangeInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private long position;
+
+    private long remaining;
+
+    ChannelRangeInputStream(final FileChannel channel, final long position, final long length) {
+      this.channel = channel;
+      this.position = position;
+      this.remaining = length;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.channel.close();
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int r = read(b, 0, 1);
+      return (r < 0) ? -1 : Byte.toUnsignedInt(b[0]);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (this.remaining == 0) {
+        return -1;
+      }
+      int r = this.channel.read(
+          ByteBuffer.wrap(b, off, (int) Math.min(len, this.remaining)), this.position);
+      if (r < 0) {
+        throw new IOException("Unexpected end of file at position " + this.position);
+      }
+      this.position += r;
+      this.remaining -= r;
+      return r;
+    }
+  }
+
+  /**
+   * {@link WebResourceSource} of one entry of a JAR file.
+   */
+  static final class JarEntrySource implements WebResourceSource {
+
+    /**
+     * Counts the bytes and computes the CRC of the content and checks them against the central
+     * directory when the end of the entry is reached, so a JAR file that was replaced in the
+     * meantime is not served with wrong offsets.
+     */
+    private final class VerifyingInputStream extends FilterInputStream {
+
+      private long count = 0;
+
+      private final CRC32 crc32 = new CRC32();
+
+      private boolean verified = false;
+
+      VerifyingInputStream(final InputStream in) {
+        super(in);
+      }
+
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        int r = read(b, 0, 1);
+        return (r < 0) ? -1 : Byte.toUnsignedInt(b[0]);
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        long remaining = JarEntrySource.this.size - this.count;
+        if (remaining == 0) {
+          verify();
+          return -1;
+        }
+        int r = this.in.read(b, off, (int) Math.min(len, remaining));
+        if (r < 0) {
+          throw new IOException("Entry " + JarEntrySource.this.name + " of "
+              + JarEntrySource.this.jarFile + " is truncated");
+        }
+        this.crc32.update(b, off, r);
+        this.count += r;
+        if (this.count == JarEntrySource.this.size) {
+          verify();
+        }
+        return r;
+      }
+
+      @Override
+      public long skip(final long n) throws IOException {
+        byte[] buffer = new byte[JarFileIndex.BUFFER_SIZE];
+        long skipped = 0;
+        while (skipped < n) {
+          int r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+          if (r < 0) {
+            break;
+          }
+          skipped += r;
+        }
+        return skipped;
+      }
+
+      private void verify() throws IOException {
+        if (this.verified) {
+          return;
+        }
+        if ((int) this.crc32.getValue() != JarEntrySource.this.crc) {
+          throw new IOException("CRC of entry " + JarEntrySource.this.name
+              + " does not match the central directory of " + JarEntrySource.this.jarFile
+              + ". The file might have been replaced.");
+        }
+        this.verified = true;
+      }
+    }
+
+    private final int compressedSize;
+
+    private final int crc;
+
+    private final Path jarFile;
+
+    private final long lastModified;
+
+    private final int localHeaderOffset;
+
+    private final int method;
+
+    private final String name;
+
+    private final int size;
+
+    private final boolean streamed;
+
+    JarEntrySource(final Path jarFile, final String name, final int method, final int crc,
+        final int compressedSize, final int size, final int localHeaderOffset,
+        final long lastModified, final boolean streamed) {
+      this.jarFile = jarFile;
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+      this.lastModified = lastModified;
+      this.streamed = streamed;
+    }
+
+    @Override
+    public byte[] getFingerprint() {
+      return ByteBuffer.allocate(Integer.BYTES + Integer.BYTES).putInt(this.crc)
+          .putInt(this.size).array();
+    }
+
+    @Override
+    public Path getFile() {
+      return null;
+    }
+
+    @Override
+    public long getLastModified() {
+      return this.lastModified;
+    }
+
+    @Override
+    public long getLength() {
+      return this.size;
+    }
+
+    /**
+     * Opens the content of the entry. Entries that are streamed to the clients are read and
+     * inflated chunk by chunk and their CRC is checked when the end of the entry is reached.
+     * Other entries are read into memory and checked before the stream is returned, so a replaced
+     * JAR file is noticed before any content is served.
+     */
+    @Override
+    public InputStream openStream() throws IOException {
+      if (this.streamed) {
+        return openVerifiedStream();
+      }
+      return new ByteArrayInputStream(read());
+    }
+
+    private InputStream openVerifiedStream() throws IOException {
+      FileChannel channel = FileChannel.open(this.jarFile, StandardOpenOption.READ);
+      try {
+        ByteBuffer localHeader =
+            JarFileIndex.readFully(channel, this.localHeaderOffset, JarFileIndex.LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != JarFileIndex.LOCAL_HEADER_SIGNATURE) {
+          throw new IOException("Invalid local header of entry " + this.name + " in "
+              + this.jarFile);
+        }
+        long dataOffset = (long) this.localHeaderOffset + JarFileIndex.LOCAL_HEADER_SIZE
+            + Short.toUnsignedInt(localHeader.getShort(JarFileIndex.LOCAL_NAME_LENGTH))
+            + Short.toUnsignedInt(localHeader.getShort(JarFileIndex.LOCAL_EXTRA_LENGTH));
+
+        InputStream data = new ChannelRangeInputStream(channel, dataOffset, this.compressedSize);
+        if (this.method != JarFileIndex.METHOD_STORED) {
+          data = new InflaterInputStream(data, new Inflater(true), JarFileIndex.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+              try {
+                super.close();
+              } finally {
+                this.inf.end();
+              }
+            }
+          };
+        }
+        return new VerifyingInputStream(data);
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /**
+     * Reads the whole content of the entry and checks it against the CRC of the central
+     * directory.
+     */
+    byte[] read() throws IOException {
+      byte[] content = new byte[this.size];
+      try (InputStream in = openVerifiedStream()) {
+        int read = 0;
+        while (read < content.length) {
+          read += in.read(content, read, content.length - read);
+        }
+        // Reaching the end checks the CRC also for empty entries
+        in.read();
+      }
+      return content;
+    }
+  }
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+  private static final int CENTRAL_HEADER_SIZE = 46;
+
+  private static final int END_HEADER_SIGNATURE = 0x06054b50;
+
+  private static final int END_HEADER_SIZE = 22;
+
+  private static final int FLAG_ENCRYPTED = 1;
+
+  /**
+   * General purpose flag (bit 11) of the entries whose name is encoded in UTF-8.
+   */
+  private static final int FLAG_UTF8 = 0x800;
+
+  private static final int LOCAL_EXTRA_LENGTH = 28;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+
+  private static final int LOCAL_NAME_LENGTH = 26;
+
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+  private static final int METHOD_DEFLATED = 8;
+
+  private static final int METHOD_STORED = 0;
+
+  private static final int ZIP64_MARKER = 0xFFFFFFFF;
+
+  private static boolean isAscii(final byte[] bytes, final int offset, final int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (bytes[i] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates the index of a JAR file.
+   *
+   * @param jarFile
+   *          The file.
+   * @param streamingThreshold
+   *          The size above which the entries are streamed instead of being read into memory or
+   *          a negative number if no entry is streamed.
+   * @return The index or an empty {@link Optional} if the file is not a JAR file in a supported
+   *         format.
+   */
+  static Optional<JarFileIndex> open(final Path jarFile, final long streamingThreshold) {
+    if (!Files.isRegularFile(jarFile)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(jarFile, StandardOpenOption.READ)) {
+      long lastModified = Files.getLastModifiedTime(jarFile).toMillis();
+      return Optional.ofNullable(
+          JarFileIndex.readCentralDirectory(jarFile, lastModified, streamingThreshold, channel));
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Creates the index of the JAR file that a <code>file:</code> URL or URI points to. The
+   * <code>reference:</code> prefix of bundle locations is accepted.
+   *
+   * @param location
+   *          The location, e.g. the location of a bundle.
+   * @param streamingThreshold
+   *          The size above which the entries are streamed instead of being read into memory or
+   *          a negative number if no entry is streamed.
+   * @return The index or an empty {@link Optional} if the location is not a local JAR file.
+   */
+  static Optional<JarFileIndex> open(final String location, final long streamingThreshold) {
+    return WebResourceInternalUtil.resolveLocalPath(location)
+        .flatMap((jarFile) -> JarFileIndex.open(jarFile, streamingThreshold));
+  }
+
+  private static JarFileIndex readCentralDirectory(final Path jarFile, final long lastModified,
+      final long streamingThreshold, final FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < JarFileIndex.END_HEADER_SIZE) {
+      return null;
+    }
+    int tailLength = (int) Math.min(fileSize,
+        JarFileIndex.END_HEADER_SIZE + JarFileIndex.MAX_COMMENT_LENGTH);
+    ByteBuffer tail = JarFileIndex.readFully(channel, fileSize - tailLength, tailLength);
+    int endHeaderPosition = tailLength - JarFileIndex.END_HEADER_SIZE;
+    while (endHeaderPosition >= 0
+        && tail.getInt(endHeaderPosition) != JarFileIndex.END_HEADER_SIGNATURE) {
+      endHeaderPosition--;
+    }
+    if (endHeaderPosition < 0) {
+      return null;
+    }
+
+    int entryCount = Short.toUnsignedInt(tail.getShort(endHeaderPosition + 10));
+    int centralDirectorySize = tail.getInt(endHeaderPosition + 12);
+    int centralDirectoryOffset = tail.getInt(endHeaderPosition + 16);
+    if (entryCount == 0xFFFF || centralDirectorySize < 0 || centralDirectoryOffset < 0) {
+      // ZIP64 or larger than what the int offsets of the entries can address
+      return null;
+    }
+
+    ByteBuffer centralDirectory =
+        JarFileIndex.readFully(channel, centralDirectoryOffset, centralDirectorySize);
+    Map<String, JarEntrySource> entries = new HashMap<>();
+    int position = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (position + JarFileIndex.CENTRAL_HEADER_SIZE > centralDirectorySize
+          || centralDirectory.getInt(position) != JarFileIndex.CENTRAL_HEADER_SIGNATURE) {
+        return null;
+      }
+      int flags = Short.toUnsignedInt(centralDirectory.getShort(position + 8));
+      int method = Short.toUnsignedInt(centralDirectory.getShort(position + 10));
+      int crc = centralDirectory.getInt(position + 16);
+      int compressedSize = centralDirectory.getInt(position + 20);
+      int size = centralDirectory.getInt(position + 24);
+      int nameLength = Short.toUnsignedInt(centralDirectory.getShort(position + 28));
+      int extraLength = Short.toUnsignedInt(centralDirectory.getShort(position + 30));
+      int commentLength = Short.toUnsignedInt(centralDirectory.getShort(position + 32));
+      int localHeaderOffset = centralDirectory.getInt(position + 42);
+
+      int namePosition = position + JarFileIndex.CENTRAL_HEADER_SIZE;
+      if (namePosition + nameLength > centralDirectorySize) {
+        return null;
+      }
+      String name = new String(centralDirectory.array(), namePosition, nameLength,
+          StandardCharsets.UTF_8);
+
+      boolean supported = (flags & JarFileIndex.FLAG_ENCRYPTED) == 0
+          && ((flags & JarFileIndex.FLAG_UTF8) != 0
+              || JarFileIndex.isAscii(centralDirectory.array(), namePosition, nameLength))
+          && (method == JarFileIndex.METHOD_STORED || method == JarFileIndex.METHOD_DEFLATED)
+          && compressedSize != JarFileIndex.ZIP64_MARKER && size != JarFileIndex.ZIP64_MARKER
+          && localHeaderOffset != JarFileIndex.ZIP64_MARKER
+          && compressedSize >= 0 && size >= 0 && localHeaderOffset >= 0;
+      if (supported && !name.endsWith("/")) {
+        // Entries that are not supported are not indexed, so they are read via URLs
+        entries.put(name, new JarEntrySource(jarFile, name, method, crc, compressedSize, size,
+            localHeaderOffset, lastModified,
+            streamingThreshold >= 0 && size > streamingThreshold));
+      }
+      position = namePosition + nameLength + extraLength + commentLength;
+    }
+    return new JarFileIndex(entries, lastModified);
+  }
+
+  private static ByteBuffer readFully(final FileChannel channel, final long position,
+      final int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      int r = channel.read(buffer, position + buffer.position());
+      if (r < 0) {
+        throw new IOException("Unexpected end of file at position " + position);
+      }
+    }
+    return buffer;
+  }
+
+  private final Map<String, JarEntrySource> entries;
+
+  private final long lastModified;
+
+  private JarFileIndex(final Map<String, JarEntrySource> entries, final long lastModified) {
+    this.entries = entries;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Finds an entry of the JAR file.
+   *
+   * @param name
+   *          The name of the entry without leading slash, e.g. <code>META-INF/a.css</code>.
+   * @return The entry or an empty {@link Optional} if the entry does not exist or is not in a
+   *         supported format.
+   */
+  Optional<JarEntrySource> getEntry(final String name) {
+    return Optional.ofNullable(this.entries.get(name));
+  }
+
+  /**
+   * The last modification time of the JAR file when the index was created.
+   */
+  long getLastModified() {
+    return this.lastModified;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletOutputStream;
+
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * {@link ContainerOutputAdapter} for Jetty 9 and newer that hands the content to
+ * <code>org.eclipse.jetty.server.HttpOutput.sendContent(ByteBuffer)</code>. Jetty writes the
+ * buffer to the channel directly instead of copying it through its aggregation buffer. Content
+ * that consists of several segments is written with one <code>HttpOutput.write(ByteBuffer)</code>
+ * call per segment if it is sent in a blocking way; asynchronously it is left to the Servlet API
+ * path that writes the segments without copying as well. The Jetty classes are accessed
+ * reflectively, so there is no package import of Jetty.
+ */
+final class JettyOutputAdapter implements ContainerOutputAdapter {
+
+  /**
+   * Implements the <code>org.eclipse.jetty.util.Callback</code> interface of the asynchronous send.
+   */
+  private static final class CallbackInvocationHandler implements InvocationHandler {
+
+    private final long contentLength;
+
+    private final AsyncTransfer transfer;
+
+    CallbackInvocationHandler(final AsyncTransfer transfer, final long contentLength) {
+      this.transfer = transfer;
+      this.contentLength = contentLength;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+      switch (method.getName()) {
+        case "succeeded":
+          this.transfer.setWrittenBytes(this.contentLength);
+          this.transfer.complete();
+          return null;
+        case "failed":
+          this.transfer.fail((Throwable) args[0]);
+          return null;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "WebResourceCallback[" + this.contentLength + "]";
+        case "isNonBlocking":
+          return Boolean.FALSE;
+        default:
+          Class<?> returnType = method.getReturnType();
+          if (returnType.isEnum()) {
+            // Invocable.getInvocationType() of newer Jetty versions
+            return Enum.valueOf((Class) returnType, "BLOCKING");
+          }
+          return null;
+      }
+    }
+  }
+
+  private static final String CALLBACK_CLASS_NAME = "org.eclipse.jetty.util.Callback";
+
+  private static final Logger LOGGER = Logger.getLogger("org.everit.osgi.webresource.stream");
+
+  private static final String OUTPUT_CLASS_NAME = "org.eclipse.jetty.server.HttpOutput";
+
+  /**
+   * Creates an adapter if the output stream class is the <code>HttpOutput</code> of Jetty or a
+   * subclass of it.
+   *
+   * @param outputClass
+   *          The class of the output stream of the response.
+   * @return The adapter or {@link Optional#empty()} if the class does not belong to Jetty or the
+   *         Jetty version does not have the necessary methods.
+   */
+  static Optional<ContainerOutputAdapter> create(final Class<?> outputClass) {
+    Class<?> httpOutputClass = outputClass;
+    while (httpOutputClass != null
+        && !JettyOutputAdapter.OUTPUT_CLASS_NAME.equals(httpOutputClass.getName())) {
+      httpOutputClass = httpOutputClass.getSuperclass();
+    }
+    if (httpOutputClass == null) {
+      return Optional.empty();
+    }
+    try {
+      Class<?> callbackClass = Class.forName(JettyOutputAdapter.CALLBACK_CLASS_NAME, false,
+          httpOutputClass.getClassLoader());
+      Method blockingSendContent = httpOutputClass.getMethod("sendContent", ByteBuffer.class);
+      Method asyncSendContent =
+          httpOutputClass.getMethod("sendContent", ByteBuffer.class, callbackClass);
+      Method blockingWrite = httpOutputClass.getMethod("write", ByteBuffer.class);
+      return Optional.of(new JettyOutputAdapter(blockingSendContent, asyncSendContent,
+          blockingWrite, callbackClass));
+    } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+      JettyOutputAdapter.LOGGER.log(Level.FINE,
+          "Jetty output found without the expected sendContent methods", e);
+      return Optional.empty();
+    }
+  }
+
+  private final Method asyncSendContent;
+
+  private final Method blockingSendContent;
+
+  private final Method blockingWrite;
+
+  private final Class<?> callbackClass;
+
+  private JettyOutputAdapter(final Method blockingSendContent, final Method asyncSendContent,
+      final Method blockingWrite, final Class<?> callbackClass) {
+    this.blockingSendContent = blockingSendContent;
+    this.asyncSendContent = asyncSendContent;
+    this.blockingWrite = blockingWrite;
+    this.callbackClass = callbackClass;
+  }
+
+  private void invoke(final Method method, final Object target, final Object... args)
+      throws IOException {
+    try {
+      method.invoke(target, args);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  @Override
+  public boolean send(final ServletOutputStream out, final WebResourceContent content,
+      final AsyncTransfer transfer) throws IOException {
+    ByteBuffer[] buffers = content.getBuffers();
+    if (buffers.length != 1) {
+      if (transfer != null) {
+        return false;
+      }
+      for (ByteBuffer buffer : buffers) {
+        invoke(this.blockingWrite, out, buffer);
+      }
+      return true;
+    }
+    if (transfer != null) {
+      // The callback is only notified when the whole content is sent
+      transfer.cancelIdleCheck();
+      Object callback = Proxy.newProxyInstance(this.callbackClass.getClassLoader(),
+          new Class<?>[] { this.callbackClass },
+          new CallbackInvocationHandler(transfer, content.getLength()));
+      invoke(this.asyncSendContent, out, buffers[0], callback);
+    } else {
+      invoke(this.blockingSendContent, out, buffers[0]);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations with fixed buckets. Each bucket is a {@link LongAdder} so
+ * concurrent recordings do not contend on the same memory location.
+ */
+public class LatencyHistogram {
+
+  /**
+   * Upper bounds of the buckets in nanoseconds.
+   */
+  private static final long[] BUCKET_UPPER_BOUNDS_NANOS = new long[] {
+      1_000L, 5_000L, 10_000L, 50_000L, 100_000L, 500_000L, 1_000_000L, 5_000_000L,
+      10_000_000L, 50_000_000L, 100_000_000L, 500_000_000L, 1_000_000_000L, 5_000_000_000L };
+
+  private static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKET_UPPER_BOUNDS_NANOS.length + 1];
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sumNanos = new LongAdder();
+
+  /**
+   * Constructor.
+   */
+  public LatencyHistogram() {
+    for (int i = 0; i < this.buckets.length; i++) {
+      this.buckets[i] = new LongAdder();
+    }
+  }
+
+  public long getCount() {
+    return this.count.sum();
+  }
+
+  public long getSumNanos() {
+    return this.sumNanos.sum();
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param durationNanos
+   *          The duration in nanoseconds.
+   */
+  public void record(final long durationNanos) {
+    int i = 0;
+    while (i < LatencyHistogram.BUCKET_UPPER_BOUNDS_NANOS.length
+        && durationNanos > LatencyHistogram.BUCKET_UPPER_BOUNDS_NANOS[i]) {
+      i++;
+    }
+    this.buckets[i].increment();
+    this.count.increment();
+    this.sumNanos.add(durationNanos);
+  }
+
+  /**
+   * Writes the histogram in Prometheus text format. The HELP and TYPE lines are not written.
+   *
+   * @param writer
+   *          The writer.
+   * @param name
+   *          The name of the metric.
+   * @param labels
+   *          Additional labels in the format of <code>key="value",</code> or an empty String.
+   */
+  public void writePrometheus(final PrintWriter writer, final String name, final String labels) {
+    long cumulativeCount = 0;
+    for (int i = 0; i < LatencyHistogram.BUCKET_UPPER_BOUNDS_NANOS.length; i++) {
+      cumulativeCount += this.buckets[i].sum();
+      writer.print(name + "_bucket{" + labels + "le=\""
+          + LatencyHistogram.BUCKET_UPPER_BOUNDS_NANOS[i] / LatencyHistogram.NANOS_PER_SECOND
+          + "\"} " + cumulativeCount + "\n");
+    }
+    cumulativeCount += this.buckets[LatencyHistogram.BUCKET_UPPER_BOUNDS_NANOS.length].sum();
+    writer.print(name + "_bucket{" + labels + "le=\"+Inf\"} " + cumulativeCount + "\n");
+
+    String labelsOfSum = labels.isEmpty() ? ""
+        : "{" + labels.substring(0, labels.length() - 1) + "}";
+    writer.print(name + "_sum" + labelsOfSum + " "
+        + this.sumNanos.sum() / LatencyHistogram.NANOS_PER_SECOND + "\n");
+    writer.print(name + "_count" + labelsOfSum + " " + cumulativeCount + "\n");
+  }
+}
@@ -86,7 +86,7 @@ public class LibContainer {
       if (optionalWebResource.isPresent()) {
         WebResource webResource = optionalWebResource.get();
         Version version = webResource.getVersion();
-        if (versionRange.contains(version)) {
+        if (versionRange == null || versionRange.contains(version)) {
           return Optional.of(webResource);
         } else {
           return Optional.empty();
@@ -103,17 +103,21 @@ public class LibContainer {
       return selectResourceFromSet(resources);
     }
 
-    Optional<WebResource> result = null;
     Version ceilingVersion = versionRange.getCeiling();
 
     Entry<Version, Set<WebResourceImpl>> potentialEntry =
         resolvePotentialEntriesByVersionRange(versionRange, resourceByVersion, ceilingVersion);
 
-    if (potentialEntry != null && versionRange.contains(potentialEntry.getKey())) {
-      result = selectResourceFromSet(potentialEntry.getValue());
+    while (potentialEntry != null && versionRange.contains(potentialEntry.getKey())) {
+      Optional<WebResource> result = selectResourceFromSet(potentialEntry.getValue());
+      if (result.isPresent()) {
+        return result;
+      }
+      // The version is being removed on a parallel thread, the next lower one might stay
+      potentialEntry = resourceByVersion.lowerEntry(potentialEntry.getKey());
     }
 
-    return result;
+    return Optional.empty();
   }
 
   Map<String, NavigableMap<Version, Set<WebResourceImpl>>> getVersionedResourcesByName() {
@@ -162,7 +166,9 @@ public class LibContainer {
     if (resources == null) {
       return Optional.empty();
     }
-    // TODO what if the set gets empty in the moment where the iterator is requested.
+    // The set might get empty on a parallel thread. The iterator of the concurrent set does not
+    // fail in that case, it simply has no next element and the callers fall back to lower
+    // versions.
     Iterator<WebResourceImpl> iterator = resources.iterator();
     if (iterator.hasNext()) {
       return Optional.of(iterator.next());
@@ -173,13 +179,18 @@ public class LibContainer {
 
   private Optional<WebResource> selectResourceWithHighestVersion(
       final NavigableMap<Version, Set<WebResourceImpl>> resourceByVersion) {
-    Entry<Version, Set<WebResourceImpl>> lastEntry = resourceByVersion.lastEntry();
-    if (lastEntry != null) {
-      return selectResourceFromSet(lastEntry.getValue());
-    } else {
-      // This could happen if the resource is removed on a parallel thread after the size is
-      // checked.
-      return Optional.empty();
+    Entry<Version, Set<WebResourceImpl>> entry = resourceByVersion.lastEntry();
+    while (entry != null) {
+      Optional<WebResource> result = selectResourceFromSet(entry.getValue());
+      if (result.isPresent()) {
+        return result;
+      }
+      // The highest version is being removed on a parallel thread. Returning empty would make
+      // the resource unavailable for a moment even if lower versions stay in the container.
+      entry = resourceByVersion.lowerEntry(entry.getKey());
     }
+    // This could happen if the resource is removed on a parallel thread after the size is
+    // checked.
+    return Optional.empty();
   }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+
+import org.everit.osgi.webresource.ContentEncoding;
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * Memory-mapped content of file-backed {@link org.everit.osgi.webresource.WebResource}s. The
+ * mapped regions live outside of the heap and are shared by all requests; the operating system
+ * keeps the hot pages in its page cache. A region is unmapped when its
+ * {@link WebResourceContent} is garbage collected.
+ */
+final class MappedContentStore {
+
+  /**
+   * Writes the encoded content of a sidecar file.
+   */
+  interface SidecarWriter {
+
+    /**
+     * Writes the encoded content to the stream.
+     *
+     * @param out
+     *          The stream of the sidecar file.
+     * @return The number of raw bytes that were encoded.
+     * @throws IOException
+     *           if the content cannot be read or written.
+     */
+    long write(OutputStream out) throws IOException;
+  }
+
+  /**
+   * The names of the sidecar files and of their temporary files: the hexadecimal ETag followed by
+   * the content encoding or by a random number and <code>.tmp</code>.
+   */
+  private static final Pattern SIDECAR_FILE_NAME =
+      Pattern.compile("[0-9a-f]+\\.(gzip|deflate|tmp)");
+
+  private static void deleteFile(final Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      System.err.print("WARNING: Could not delete sidecar file " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Deletes the sidecar files of a resource, e.g. when the resource is removed. Mappings that are
+   * still in use stay valid on the operating systems that allow deleting mapped files.
+   *
+   * @param sidecarDirectory
+   *          The directory of the sidecar files.
+   * @param etag
+   *          The ETag of the resource.
+   */
+  static void deleteSidecarFiles(final Path sidecarDirectory, final String etag) {
+    for (ContentEncoding contentEncoding : new ContentEncoding[] { ContentEncoding.GZIP,
+        ContentEncoding.DEFLATE }) {
+      MappedContentStore.deleteFile(
+          MappedContentStore.resolveSidecarFile(sidecarDirectory, etag, contentEncoding));
+    }
+  }
+
+  /**
+   * Deletes all sidecar files in the directory. It is called when the extender starts, so the files
+   * of the resources that were not removed properly, e.g. because the JVM crashed, do not pile up.
+   * Other files in the directory are kept.
+   *
+   * @param sidecarDirectory
+   *          The directory of the sidecar files.
+   */
+  static void deleteStaleSidecarFiles(final Path sidecarDirectory) {
+    if (!Files.isDirectory(sidecarDirectory)) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(sidecarDirectory,
+        (file) -> MappedContentStore.SIDECAR_FILE_NAME.matcher(file.getFileName().toString())
+            .matches())) {
+      for (Path file : files) {
+        MappedContentStore.deleteFile(file);
+      }
+    } catch (IOException e) {
+      System.err.print("WARNING: Could not list the sidecar directory " + sidecarDirectory + ": "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Whether content with the specified raw length should be mapped.
+   *
+   * @param rawLength
+   *          The raw length of the content.
+   * @param threshold
+   *          The size from which content is mapped or a negative value if mapping is disabled.
+   */
+  static boolean isMappable(final long rawLength, final long threshold) {
+    return threshold >= 0 && rawLength >= threshold;
+  }
+
+  /**
+   * Whether the encoded content can be stored in a sidecar file. Only the built-in gzip and
+   * deflate encoders are supported as the sidecar files of registered encoders would become stale
+   * silently when the encoder is replaced.
+   *
+   * @param sidecarDirectory
+   *          The directory of the sidecar files or <code>null</code> if none is configured.
+   * @param contentEncoding
+   *          The encoding of the content.
+   */
+  static boolean isSidecarSupported(final Path sidecarDirectory,
+      final ContentEncoding contentEncoding) {
+    return sidecarDirectory != null
+        && (contentEncoding == ContentEncoding.GZIP || contentEncoding == ContentEncoding.DEFLATE);
+  }
+
+  /**
+   * Maps a whole file read-only.
+   *
+   * @param file
+   *          The file.
+   * @return The mapped content.
+   * @throws IOException
+   *           if the file cannot be mapped.
+   */
+  static WebResourceContent map(final Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed
+      return new WebResourceContent(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Maps the sidecar file of an encoded content. If the file does not exist yet, it is written
+   * first to a temporary file that is moved atomically to its final name, so parallel writers and
+   * crashes never leave a partial sidecar file behind.
+   *
+   * @param sidecarDirectory
+   *          The directory of the sidecar files.
+   * @param etag
+   *          The ETag of the resource that identifies its content.
+   * @param contentEncoding
+   *          The encoding of the content.
+   * @param writer
+   *          Writes the encoded content if the sidecar file does not exist.
+   * @return The mapped content.
+   * @throws IOException
+   *           if the sidecar file cannot be written or mapped.
+   */
+  static WebResourceContent mapSidecar(final Path sidecarDirectory, final String etag,
+      final ContentEncoding contentEncoding, final SidecarWriter writer) throws IOException {
+    Path sidecarFile =
+        MappedContentStore.resolveSidecarFile(sidecarDirectory, etag, contentEncoding);
+    if (!Files.isRegularFile(sidecarFile)) {
+      Files.createDirectories(sidecarDirectory);
+      Path tempFile = Files.createTempFile(sidecarDirectory, etag, ".tmp");
+      try {
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+          writer.write(out);
+        }
+        try {
+          Files.move(tempFile, sidecarFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(tempFile, sidecarFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    }
+    return MappedContentStore.map(sidecarFile);
+  }
+
+  private static Path resolveSidecarFile(final Path sidecarDirectory, final String etag,
+      final ContentEncoding contentEncoding) {
+    return sidecarDirectory.resolve(etag + "." + contentEncoding.getHeaderValue());
+  }
+
+  private MappedContentStore() {
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * An element of the preload <code>Link</code> header of a {@link WebResourceImpl}. The URI of the
+ * dependency is relative to the URI of the {@link WebResourceImpl} and it is formatted the same
+ * way as by {@link WebResourceServletURIGenerator}, so the browser can match the preloaded
+ * response with the request of the page.
+ */
+final class PreloadLink {
+
+  /**
+   * Creates the value of a <code>Link</code> header.
+   *
+   * @param preloadLinks
+   *          The elements of the header.
+   * @param pathSuffix
+   *          The suffix of the URL pattern of the servlet or an empty String.
+   * @return The header value or {@link Optional#empty()} if there are no elements.
+   */
+  static Optional<String> toHeaderValue(final List<PreloadLink> preloadLinks,
+      final String pathSuffix) {
+    if (preloadLinks.isEmpty()) {
+      return Optional.empty();
+    }
+    StringBuilder sb = new StringBuilder();
+    for (PreloadLink preloadLink : preloadLinks) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      preloadLink.appendTo(sb, pathSuffix);
+    }
+    return Optional.of(sb.toString());
+  }
+
+  private final boolean crossorigin;
+
+  private final String destination;
+
+  private final String fileName;
+
+  private final long lastModified;
+
+  private final String relativeDirectory;
+
+  private final Optional<String> versionRange;
+
+  PreloadLink(final String relativeDirectory, final String fileName,
+      final Optional<String> versionRange, final long lastModified, final String destination) {
+    this.relativeDirectory = relativeDirectory;
+    this.fileName = fileName;
+    this.versionRange = versionRange;
+    this.lastModified = lastModified;
+    this.destination = destination;
+    this.crossorigin = "font".equals(destination) || "fetch".equals(destination);
+  }
+
+  private void appendTo(final StringBuilder sb, final String pathSuffix) {
+    sb.append('<').append(this.relativeDirectory);
+    WebResourceServletURIGenerator.appendFileURI(sb, this.fileName, pathSuffix,
+        this.versionRange, this.lastModified);
+    sb.append(">; rel=preload; as=").append(this.destination);
+    if (this.crossorigin) {
+      sb.append("; crossorigin");
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * {@link OutputStream} that collects the written bytes in segments of
+ * {@link BufferPool#BUFFER_SIZE} bytes. Unlike {@link java.io.ByteArrayOutputStream}, the data is
+ * never copied to grow the buffer and no array is larger than a segment, so cached content does
+ * not allocate humongous objects in G1 regions. The segments are taken from the {@link BufferPool}
+ * and the full ones become the chunks of the {@link WebResourceContent} without copying.
+ */
+final class SegmentedOutputStream extends OutputStream {
+
+  private byte[] currentSegment = BufferPool.acquire();
+
+  private int currentSegmentLength = 0;
+
+  private final List<byte[]> fullSegments = new ArrayList<>();
+
+  private long length = 0;
+
+  /**
+   * The number of bytes written so far.
+   */
+  long getLength() {
+    return this.length;
+  }
+
+  /**
+   * Creates the chunks of the written bytes. The full segments are wrapped without copying; only
+   * the last, partially filled segment is copied to an array of its exact size and its buffer is
+   * returned to the pool. The stream must not be used afterwards.
+   *
+   * @return The chunks that are backed by arrays.
+   */
+  ByteBuffer[] toChunks() {
+    ByteBuffer[] chunks = new ByteBuffer[this.fullSegments.size()
+        + (this.currentSegmentLength > 0 || this.fullSegments.isEmpty() ? 1 : 0)];
+    for (int i = 0; i < this.fullSegments.size(); i++) {
+      chunks[i] = ByteBuffer.wrap(this.fullSegments.get(i));
+    }
+    if (chunks.length > this.fullSegments.size()) {
+      chunks[chunks.length - 1] =
+          ByteBuffer.wrap(Arrays.copyOf(this.currentSegment, this.currentSegmentLength));
+    }
+    BufferPool.release(this.currentSegment);
+    this.currentSegment = null;
+    return chunks;
+  }
+
+  /**
+   * Creates the content of the written bytes via {@link #toChunks()}. The stream must not be used
+   * afterwards.
+   *
+   * @return The content.
+   */
+  WebResourceContent toContent() {
+    return new WebResourceContent(toChunks());
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) {
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    int position = off;
+    int remaining = len;
+    while (remaining > 0) {
+      if (this.currentSegmentLength == this.currentSegment.length) {
+        this.fullSegments.add(this.currentSegment);
+        this.currentSegment = BufferPool.acquire();
+        this.currentSegmentLength = 0;
+      }
+      int n = Math.min(remaining, this.currentSegment.length - this.currentSegmentLength);
+      System.arraycopy(b, position, this.currentSegment, this.currentSegmentLength, n);
+      this.currentSegmentLength += n;
+      position += n;
+      remaining -= n;
+    }
+    this.length += len;
+  }
+
+  @Override
+  public void write(final int b) {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+}
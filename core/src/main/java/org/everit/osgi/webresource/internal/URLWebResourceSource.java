@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Path;
+
+/**
+ * {@link WebResourceSource} that reads the content via a {@link URL}, e.g. a bundle resource URL.
+ */
+class URLWebResourceSource implements WebResourceSource {
+
+  private final long lastModified;
+
+  private final long length;
+
+  private final URL url;
+
+  URLWebResourceSource(final URL url) {
+    this.url = url;
+    try {
+      URLConnection urlConnection = url.openConnection();
+      this.lastModified = urlConnection.getLastModified();
+      this.length = urlConnection.getContentLengthLong();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public byte[] getFingerprint() {
+    return null;
+  }
+
+  @Override
+  public Path getFile() {
+    return null;
+  }
+
+  @Override
+  public long getLastModified() {
+    return this.lastModified;
+  }
+
+  @Override
+  public long getLength() {
+    return this.length;
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    return this.url.openStream();
+  }
+}
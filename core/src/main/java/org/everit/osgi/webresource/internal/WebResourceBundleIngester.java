@@ -0,0 +1,543 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.everit.osgi.webresource.internal.jfr.FlightRecorderEvents;
+import org.everit.osgi.webresource.provider.WebResourceProvider;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Processes the {@value WebResourceConstants#CAPABILITY_NAMESPACE} capabilities of bundles and the
+ * entries of {@link WebResourceProvider}s and adds their {@link WebResource}s to the container.
+ * The class does not depend on the OSGi framework apart from the {@link Bundle} and
+ * {@link BundleWiring} interfaces, so it can be used with stand-ins, e.g. in benchmarks.
+ */
+public class WebResourceBundleIngester {
+
+  private static final String MANIFEST_ENTRY = "META-INF/MANIFEST.MF";
+
+  private static final int READ_BUFFER_SIZE = 1024;
+
+  private static byte[] readFully(final InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[WebResourceBundleIngester.READ_BUFFER_SIZE];
+    int r = in.read(buf);
+    while (r > -1) {
+      out.write(buf, 0, r);
+      r = in.read(buf);
+    }
+    return out.toByteArray();
+  }
+
+  private final WebResourceConfiguration configuration;
+
+  private final WebResourceMetrics metrics;
+
+  private final ExecutorService optimizerExecutor;
+
+  private final WebResourceContainerImpl resourceContainer;
+
+  /**
+   * Constructor.
+   *
+   * @param resourceContainer
+   *          The container that the {@link WebResource}s are added to.
+   * @param metrics
+   *          The metrics that the ingest time is recorded in.
+   * @param optimizerExecutor
+   *          The executor that optimizes the images in the background or <code>null</code> if the
+   *          images should not be optimized.
+   * @param configuration
+   *          The configuration of the access and the caching of the content.
+   */
+  public WebResourceBundleIngester(final WebResourceContainerImpl resourceContainer,
+      final WebResourceMetrics metrics, final ExecutorService optimizerExecutor,
+      final WebResourceConfiguration configuration) {
+    this.resourceContainer = resourceContainer;
+    this.metrics = metrics;
+    this.optimizerExecutor = optimizerExecutor;
+    this.configuration = configuration;
+  }
+
+  /**
+   * Adds the {@link WebResource}s of a bundle to the container if the bundle has
+   * {@value WebResourceConstants#CAPABILITY_NAMESPACE} capabilities.
+   *
+   * @param bundle
+   *          The bundle.
+   * @return <code>true</code> if at least one {@link WebResource} was added, so the bundle should
+   *         be tracked.
+   */
+  public boolean addBundle(final Bundle bundle) {
+    Object bundleScanEvent = FlightRecorderEvents.beginBundleScan();
+    long startTime = System.nanoTime();
+    BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+    List<BundleCapability> capabilities = bundleWiring
+        .getCapabilities(WebResourceConstants.CAPABILITY_NAMESPACE);
+
+    int resourceCount = 0;
+    Optional<Path> bundleLocation = Optional.empty();
+    Optional<JarFileIndex> jarFileIndex = Optional.empty();
+    if (!capabilities.isEmpty()) {
+      bundleLocation = resolveInPlaceLocation(bundle);
+      jarFileIndex = resolveJarFileIndex(bundle, bundleLocation);
+      if (!jarFileIndex.isPresent() && bundleLocation.isPresent()
+          && !isFrameworkCopy(bundle, bundleLocation.get(), jarFileIndex)) {
+        bundleLocation = Optional.empty();
+      }
+    }
+    for (BundleCapability capability : capabilities) {
+      Map<String, Object> attributes = capability.getAttributes();
+      String libraryPrefix = resolveNormalizedLibraryPrefix(capability, attributes);
+
+      String resourceFolder = (String) attributes
+          .get(WebResourceConstants.CAPABILITY_ATTRIBUTE_RESOURCE_FOLDER);
+      Version version = resolveVersion(capability);
+
+      if (resourceFolder == null) {
+        System.err.print("WARNING: Capability attribute "
+            + WebResourceConstants.CAPABILITY_ATTRIBUTE_RESOURCE_FOLDER
+            + " is missing in bundle " + bundle.toString() + ": " + capability.toString());
+      } else {
+        Collection<String> entries = bundleWiring.listResources(resourceFolder, "*",
+            BundleWiring.LISTRESOURCES_RECURSE);
+
+        ClassLoader classLoader = bundleWiring.getClassLoader();
+        List<WebResourceImpl> webResourcesOfCapability = new ArrayList<>();
+
+        for (String entry : entries) {
+          if (!entry.endsWith("/")) {
+            String fileName;
+            WebResourceSource source = resolveDirectSource(entry, bundleLocation, jarFileIndex);
+            if (source != null) {
+              fileName = entry.substring(entry.lastIndexOf('/') + 1);
+              source = new FallbackWebResourceSource(source, () -> bundle.getEntry(entry));
+            } else {
+              URL resourceURL = classLoader.getResource(entry);
+              fileName = resolveFileName(resourceURL);
+              source = new URLWebResourceSource(resourceURL);
+            }
+            String library = entry.substring(resourceFolder.length(),
+                entry.length() - fileName.length());
+            library = normalizeLibraryName(libraryPrefix, library);
+
+            // The same time whether the entry is read directly or via the class loader
+            webResourcesOfCapability.add(addWebResource(bundle, library, fileName, source,
+                bundle.getLastModified(), version));
+            resourceCount++;
+          }
+        }
+        groupVariants(webResourcesOfCapability);
+        scheduleOptimization(webResourcesOfCapability);
+        addDependencies(bundle,
+            attributes.get(WebResourceConstants.CAPABILITY_ATTRIBUTE_PRELOAD),
+            "capability " + WebResourceConstants.CAPABILITY_NAMESPACE + ": "
+                + capability.toString());
+      }
+    }
+
+    FlightRecorderEvents.commitBundleScan(bundleScanEvent, bundle.getBundleId(),
+        bundle.getSymbolicName(), resourceCount);
+
+    if (resourceCount > 0) {
+      this.resourceContainer.updatePreloadLinks();
+      this.metrics.recordIngest(bundle, System.nanoTime() - startTime);
+      return true;
+    } else {
+      // Dropping the dependency declarations as the bundle will not be tracked
+      this.resourceContainer.removeOwner(bundle);
+      return false;
+    }
+  }
+
+  private void addDependencies(final Object owner, final Object preloadObject,
+      final String declarer) {
+    if (preloadObject == null) {
+      return;
+    }
+
+    Collection<?> preloadDeclarations;
+    if (preloadObject instanceof Collection) {
+      preloadDeclarations = (Collection<?>) preloadObject;
+    } else {
+      preloadDeclarations = Arrays.asList(preloadObject.toString().split(","));
+    }
+
+    for (Object preloadDeclaration : preloadDeclarations) {
+      String declaration = preloadDeclaration.toString().trim();
+      int indexOfSeparator = declaration.indexOf('=');
+      if (indexOfSeparator <= 0 || indexOfSeparator == declaration.length() - 1) {
+        System.err.print("WARNING: Invalid element '" + declaration + "' in '"
+            + WebResourceConstants.CAPABILITY_ATTRIBUTE_PRELOAD + "' attribute of " + declarer);
+      } else {
+        String resourcePath = normalizeResourcePath(declaration.substring(0, indexOfSeparator));
+        String dependencyPath =
+            normalizeResourcePath(declaration.substring(indexOfSeparator + 1));
+        this.resourceContainer.addDependency(owner, resourcePath, dependencyPath);
+      }
+    }
+  }
+
+  /**
+   * Adds the {@link WebResource}s of a {@link WebResourceProvider} to the container. The entries
+   * are processed the same way as the entries of the resource folder of a bundle capability.
+   *
+   * @param provider
+   *          The provider.
+   * @return <code>true</code> if at least one {@link WebResource} was added.
+   * @throws IOException
+   *           if the entries of the provider cannot be listed.
+   */
+  public boolean addProvider(final WebResourceProvider provider) throws IOException {
+    long startTime = System.nanoTime();
+    String libraryPrefix = normalizeResourcePath(provider.getLibraryPrefix());
+    if (libraryPrefix.endsWith("/")) {
+      libraryPrefix = libraryPrefix.substring(0, libraryPrefix.length() - 1);
+    }
+    Version version = provider.getVersion();
+
+    List<WebResourceImpl> webResourcesOfProvider = new ArrayList<>();
+    Map<String, Optional<JarFileIndex>> jarFileIndexes = new HashMap<>();
+    for (Entry<String, URL> entry : provider.listEntries().entrySet()) {
+      String path = normalizeResourcePath(entry.getKey());
+      if (!path.isEmpty() && !path.endsWith("/")) {
+        int indexOfLastSlash = path.lastIndexOf('/');
+        String fileName = path.substring(indexOfLastSlash + 1);
+        String library =
+            normalizeLibraryName(libraryPrefix, path.substring(0, indexOfLastSlash + 1));
+        WebResourceSource source = resolveSource(entry.getValue(), jarFileIndexes);
+        webResourcesOfProvider
+            .add(addWebResource(provider, library, fileName, source, source.getLastModified(),
+                version));
+      }
+    }
+
+    if (webResourcesOfProvider.isEmpty()) {
+      this.resourceContainer.removeOwner(provider);
+      return false;
+    }
+
+    groupVariants(webResourcesOfProvider);
+    scheduleOptimization(webResourcesOfProvider);
+    addDependencies(provider, provider.getPreloadDeclarations(),
+        "provider " + provider.getName());
+    this.resourceContainer.updatePreloadLinks();
+    this.metrics.recordIngest(provider.getName(), System.nanoTime() - startTime);
+    return true;
+  }
+
+  private WebResourceImpl addWebResource(final Object owner, final String library,
+      final String fileName, final WebResourceSource source, final long lastModified,
+      final Version version) {
+    String contentType = ContentTypeUtil.resolveContentType(fileName);
+    WebResourceImpl webResource = new WebResourceImpl(owner, library, fileName, source,
+        lastModified, version, contentType, this.metrics, this.configuration);
+    this.resourceContainer.addWebResource(webResource);
+    return webResource;
+  }
+
+  /**
+   * Groups the images that are in the same folder with the same name but in different formats
+   * (e.g. logo.png, logo.webp, logo.avif) as the variants of the same logical resource.
+   */
+  private void groupVariants(final List<WebResourceImpl> webResources) {
+    Map<String, List<WebResourceImpl>> variantsByLogicalName = new HashMap<>();
+    for (WebResourceImpl webResource : webResources) {
+      if (ContentTypeUtil.isVariantContentType(webResource.getContentType())) {
+        String fileName = webResource.getFileName();
+        int indexOfExtension = fileName.lastIndexOf('.');
+        String logicalName = webResource.getLibrary() + "/"
+            + (indexOfExtension > 0 ? fileName.substring(0, indexOfExtension) : fileName);
+
+        List<WebResourceImpl> variants = variantsByLogicalName.get(logicalName);
+        if (variants == null) {
+          variants = new ArrayList<>();
+          variantsByLogicalName.put(logicalName, variants);
+        }
+        variants.add(webResource);
+      }
+    }
+
+    for (List<WebResourceImpl> variants : variantsByLogicalName.values()) {
+      if (variants.size() > 1) {
+        variants.sort((variant1, variant2) -> Long.compare(variant1.getRawLength(),
+            variant2.getRawLength()));
+
+        List<WebResource> unmodifiableVariants =
+            Collections.unmodifiableList(new ArrayList<WebResource>(variants));
+        for (WebResourceImpl variant : variants) {
+          variant.setVariants(unmodifiableVariants);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks whether the framework serves the same content as the local JAR file or directory of a
+   * bundle by comparing the manifest that the framework provides with the one in the file system.
+   * The manifests differ if the bundle was updated from a stream or the file was replaced with
+   * another build in the meantime.
+   */
+  private boolean isFrameworkCopy(final Bundle bundle, final Path bundleLocation,
+      final Optional<JarFileIndex> jarFileIndex) {
+    URL frameworkManifestURL = bundle.getEntry(WebResourceBundleIngester.MANIFEST_ENTRY);
+    if (frameworkManifestURL == null) {
+      return false;
+    }
+    try {
+      InputStream localManifest;
+      if (jarFileIndex.isPresent()) {
+        Optional<JarFileIndex.JarEntrySource> manifestEntry =
+            jarFileIndex.get().getEntry(WebResourceBundleIngester.MANIFEST_ENTRY);
+        if (!manifestEntry.isPresent()) {
+          return false;
+        }
+        localManifest = manifestEntry.get().openStream();
+      } else {
+        Path manifestFile = bundleLocation.resolve(WebResourceBundleIngester.MANIFEST_ENTRY);
+        if (!Files.isRegularFile(manifestFile)) {
+          return false;
+        }
+        localManifest = Files.newInputStream(manifestFile);
+      }
+      try (InputStream in = localManifest;
+          InputStream frameworkIn = frameworkManifestURL.openStream()) {
+        return Arrays.equals(WebResourceBundleIngester.readFully(in),
+            WebResourceBundleIngester.readFully(frameworkIn));
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private String normalizeLibraryName(final String libraryPrefix, final String library) {
+    String result = library;
+    if (result.endsWith("/")) {
+      result = result.substring(0, result.length() - 1);
+    }
+    if (result.startsWith("/")) {
+      result = libraryPrefix + result;
+    } else {
+      result = libraryPrefix + "/" + result;
+    }
+    if (result.startsWith("/")) {
+      result = result.substring(1);
+    }
+    if (result.endsWith("/")) {
+      result = result.substring(0, result.length() - 1);
+    }
+    return result;
+  }
+
+  private String normalizeResourcePath(final String resourcePath) {
+    String result = resourcePath.trim();
+    if (result.startsWith("/")) {
+      result = result.substring(1);
+    }
+    return result;
+  }
+
+  /**
+   * Removes the {@link WebResource}s of a bundle from the container.
+   *
+   * @param bundle
+   *          The bundle.
+   */
+  public void removeBundle(final Bundle bundle) {
+    this.resourceContainer.removeOwner(bundle);
+    this.metrics.removeBundle(bundle);
+  }
+
+  /**
+   * Removes the {@link WebResource}s of a {@link WebResourceProvider} from the container.
+   *
+   * @param provider
+   *          The provider.
+   */
+  public void removeProvider(final WebResourceProvider provider) {
+    this.resourceContainer.removeOwner(provider);
+    this.metrics.removeIngest(provider.getName());
+  }
+
+  private String resolveFileName(final URL resourceURL) {
+    String externalForm = resourceURL.toExternalForm();
+
+    int indexOfLastSlash = externalForm.lastIndexOf('/');
+    if (indexOfLastSlash >= 0) {
+      return externalForm.substring(indexOfLastSlash + 1);
+    } else {
+      return externalForm;
+    }
+
+  }
+
+  /**
+   * Resolves the source of a bundle entry that can be read without the class loader: an entry of
+   * the JAR file or a file of the directory that the framework reads the bundle from.
+   *
+   * @return The source or <code>null</code> if the entry has to be read via the class loader.
+   */
+  private WebResourceSource resolveDirectSource(final String entry,
+      final Optional<Path> bundleLocation, final Optional<JarFileIndex> jarFileIndex) {
+    if (jarFileIndex.isPresent()) {
+      return jarFileIndex.get().getEntry(entry).orElse(null);
+    }
+    if (bundleLocation.isPresent() && Files.isDirectory(bundleLocation.get())) {
+      Path file = bundleLocation.get().resolve(entry);
+      if (Files.isRegularFile(file)) {
+        return new FileWebResourceSource(file);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Resolves the local JAR file or directory of a bundle that is installed by reference. The
+   * framework reads such bundles in place, while it keeps its own copy of the other bundles that
+   * can differ from the file at the location, e.g. after {@link Bundle#update(InputStream)}.
+   */
+  private Optional<Path> resolveInPlaceLocation(final Bundle bundle) {
+    String location = bundle.getLocation();
+    if (location == null || !location.startsWith("reference:")) {
+      return Optional.empty();
+    }
+    return WebResourceInternalUtil.resolveLocalPath(location);
+  }
+
+  /**
+   * Indexes the JAR file of a bundle if direct JAR access is enabled and the bundle is read by the
+   * framework from a local JAR file that was not modified since the bundle was installed or
+   * updated.
+   */
+  private Optional<JarFileIndex> resolveJarFileIndex(final Bundle bundle,
+      final Optional<Path> bundleLocation) {
+    if (!this.configuration.isDirectJarAccess()) {
+      return Optional.empty();
+    }
+    long streamingThreshold = this.configuration.getStreamingThreshold();
+    return bundleLocation.flatMap((path) -> JarFileIndex.open(path, streamingThreshold))
+        .filter((index) -> index.getLastModified() <= bundle.getLastModified()
+            && isFrameworkCopy(bundle, bundleLocation.get(), Optional.of(index)));
+  }
+
+  private String resolveNormalizedLibraryPrefix(final BundleCapability capability,
+      final Map<String, Object> attributes) {
+    String libraryPrefix = (String) attributes
+        .get(WebResourceConstants.CAPABILITY_ATTRIBUTE_LIBRARY_PREFIX);
+
+    if (libraryPrefix == null) {
+      libraryPrefix = "";
+    } else if (libraryPrefix.endsWith("/")) {
+      System.err.print("WARNING: '" + WebResourceConstants.CAPABILITY_ATTRIBUTE_LIBRARY_PREFIX
+          + "' attribute of capability "
+          + WebResourceConstants.CAPABILITY_NAMESPACE + " should not end with '/' character: "
+          + capability.toString());
+      libraryPrefix = libraryPrefix.substring(0, libraryPrefix.length() - 1);
+    }
+    return libraryPrefix;
+  }
+
+  /**
+   * Reads <code>file:</code> URLs and the entries of <code>jar:file:</code> URLs directly from the
+   * file system if possible. The entries of JAR files fall back to the URL if the JAR file cannot
+   * be read anymore.
+   */
+  private WebResourceSource resolveSource(final URL url,
+      final Map<String, Optional<JarFileIndex>> jarFileIndexes) {
+    if ("file".equals(url.getProtocol())) {
+      Optional<Path> file = WebResourceInternalUtil.resolveLocalPath(url.toExternalForm());
+      if (file.isPresent() && Files.isRegularFile(file.get())) {
+        return new FileWebResourceSource(file.get());
+      }
+    }
+    String externalForm = url.toExternalForm();
+    int indexOfSeparator = externalForm.indexOf("!/");
+    if (this.configuration.isDirectJarAccess() && "jar".equals(url.getProtocol())
+        && indexOfSeparator > 0) {
+      String jarLocation = externalForm.substring("jar:".length(), indexOfSeparator);
+      String entryName = externalForm.substring(indexOfSeparator + 2);
+      Optional<? extends WebResourceSource> jarEntry = jarFileIndexes
+          .computeIfAbsent(jarLocation, (location) -> JarFileIndex.open(location,
+              this.configuration.getStreamingThreshold()))
+          .flatMap((index) -> index.getEntry(entryName));
+      if (jarEntry.isPresent()) {
+        return new FallbackWebResourceSource(jarEntry.get(), () -> url);
+      }
+    }
+    return new URLWebResourceSource(url);
+  }
+
+  private Version resolveVersion(final BundleCapability capability) {
+    Map<String, Object> attributes = capability.getAttributes();
+    Object versionObject = attributes.get(WebResourceConstants.CAPABILITY_ATTRIBUTE_VERSION);
+    if (versionObject == null) {
+      return capability.getRevision().getBundle().getVersion();
+    }
+
+    if (versionObject instanceof Version) {
+      return (Version) versionObject;
+    } else {
+      return new Version(versionObject.toString());
+    }
+
+  }
+
+  private void scheduleOptimization(final List<WebResourceImpl> webResources) {
+    if (this.optimizerExecutor == null) {
+      return;
+    }
+    for (WebResourceImpl webResource : webResources) {
+      if (!webResource.isStreamed()
+          && ImageOptimizer.isOptimizable(webResource.getContentType())) {
+        this.optimizerExecutor.execute(() -> {
+          try {
+            Optional<byte[]> optimizedContent = ImageOptimizer
+                .optimize(webResource.getContentType(), webResource.readSourceContent());
+            if (optimizedContent.isPresent()) {
+              webResource.applyOptimizedContent(optimizedContent.get());
+            }
+          } catch (RuntimeException e) {
+            // A corrupt image or a failing source must not affect the other optimizations
+            System.err.print("WARNING: Could not optimize webresource " + webResource.getLibrary()
+                + "/" + webResource.getFileName() + ": " + e.toString());
+          }
+        });
+      }
+    }
+  }
+}
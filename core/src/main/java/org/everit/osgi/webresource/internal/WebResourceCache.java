@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.osgi.webresource.ContentEncoding;
+import org.osgi.framework.Bundle;
+
+/**
+ * Implementation of {@link WebResourceCacheMXBean} that works on the live container.
+ */
+public class WebResourceCache implements WebResourceCacheMXBean {
+
+  /**
+   * A resource with the snapshot of its hit count, so the ordering does not change during
+   * sorting.
+   */
+  private static final class HitCountSnapshot {
+
+    final long hitCount;
+
+    final WebResourceImpl resource;
+
+    HitCountSnapshot(final WebResourceImpl resource) {
+      this.resource = resource;
+      this.hitCount = resource.getHitCount();
+    }
+  }
+
+  private final WebResourceMetrics metrics;
+
+  private final WebResourceContainerImpl resourceContainer;
+
+  /**
+   * Constructor.
+   */
+  public WebResourceCache(final WebResourceContainerImpl resourceContainer,
+      final WebResourceMetrics metrics) {
+    this.resourceContainer = resourceContainer;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public String[] dumpHottest(final int n) {
+    if (n <= 0) {
+      return new String[0];
+    }
+    Comparator<HitCountSnapshot> comparator =
+        Comparator.comparingLong((HitCountSnapshot snapshot) -> snapshot.hitCount).reversed();
+
+    // The head of the queue is the least requested of the selected resources
+    PriorityQueue<HitCountSnapshot> queue = new PriorityQueue<>(comparator.reversed());
+    this.resourceContainer.forEachWebResource((resource) -> {
+      HitCountSnapshot snapshot = new HitCountSnapshot(resource);
+      if (queue.size() < n) {
+        queue.add(snapshot);
+      } else if (snapshot.hitCount > queue.peek().hitCount) {
+        queue.poll();
+        queue.add(snapshot);
+      }
+    });
+
+    List<HitCountSnapshot> snapshots = new ArrayList<>(queue);
+    snapshots.sort(comparator);
+    String[] result = new String[snapshots.size()];
+    for (int i = 0; i < result.length; i++) {
+      WebResourceImpl resource = snapshots.get(i).resource;
+      String library = resource.getLibrary();
+      result[i] = library + ("".equals(library) ? "" : "/") + resource.getFileName() + " "
+          + resource.getVersion() + ": " + snapshots.get(i).hitCount;
+    }
+    return result;
+  }
+
+  @Override
+  public int evictAll() {
+    AtomicInteger count = new AtomicInteger();
+    this.resourceContainer.forEachWebResource((resource) -> {
+      resource.evictAll();
+      count.incrementAndGet();
+    });
+    return count.get();
+  }
+
+  @Override
+  public int evictBundle(final long bundleId) {
+    AtomicInteger count = new AtomicInteger();
+    this.resourceContainer.forEachWebResource((resource) -> {
+      Bundle bundle = resource.getBundle();
+      if (bundle != null && bundle.getBundleId() == bundleId) {
+        resource.evictAll();
+        count.incrementAndGet();
+      }
+    });
+    return count.get();
+  }
+
+  @Override
+  public int evictLibrary(final String library) {
+    AtomicInteger count = new AtomicInteger();
+    this.resourceContainer.forEachWebResource((resource) -> {
+      if (resource.getLibrary().equals(library)) {
+        resource.evictAll();
+        count.incrementAndGet();
+      }
+    });
+    return count.get();
+  }
+
+  @Override
+  public long getBlobStoreBytes() {
+    return ContentBlobStore.getBlobBytes();
+  }
+
+  @Override
+  public Map<String, Long> getCachedBytesByEncoding() {
+    return this.metrics.getCachedBytesByEncoding();
+  }
+
+  @Override
+  public Map<String, Long> getCachedBytesByLibrary() {
+    return this.metrics.getCachedBytesByLibrary();
+  }
+
+  @Override
+  public double getCacheHitRatio() {
+    long hits = this.metrics.getCacheHits();
+    long all = hits + this.metrics.getCacheMisses();
+    if (all == 0) {
+      return Double.NaN;
+    }
+    return (double) hits / all;
+  }
+
+  @Override
+  public long getCacheHits() {
+    return this.metrics.getCacheHits();
+  }
+
+  @Override
+  public long getCacheMisses() {
+    return this.metrics.getCacheMisses();
+  }
+
+  @Override
+  public int getResourceCount() {
+    AtomicInteger count = new AtomicInteger();
+    this.resourceContainer.forEachWebResource((resource) -> count.incrementAndGet());
+    return count.get();
+  }
+
+  @Override
+  public Map<String, Integer> getResourceCountByLibrary() {
+    Map<String, Integer> result = new TreeMap<>();
+    this.resourceContainer.forEachWebResource(
+        (resource) -> result.merge(resource.getLibrary(), 1, Integer::sum));
+    return result;
+  }
+
+  @Override
+  public int warmLibrary(final String library, final String[] contentEncodings) {
+    List<ContentEncoding> resolvedEncodings = new ArrayList<>();
+    for (String token : contentEncodings) {
+      resolvedEncodings.add(ContentEncoding.forToken(token.trim().toLowerCase(Locale.ENGLISH))
+          .orElseThrow(() -> new IllegalArgumentException("Unknown content encoding: " + token)));
+    }
+
+    AtomicInteger count = new AtomicInteger();
+    this.resourceContainer.forEachWebResource((resource) -> {
+      if (resource.getLibrary().equals(library)) {
+        for (ContentEncoding contentEncoding : resolvedEncodings) {
+          resource.warm(contentEncoding);
+        }
+        count.incrementAndGet();
+      }
+    });
+    return count.get();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.util.Map;
+
+/**
+ * Management interface of the webresource caches that is registered to the platform MBeanServer
+ * with the name {@value #OBJECT_NAME}.
+ */
+public interface WebResourceCacheMXBean {
+
+  String OBJECT_NAME = "org.everit.osgi.webresource:type=WebResourceCache";
+
+  /**
+   * Lists the resources that were requested the most times.
+   *
+   * @param n
+   *          The maximum number of resources in the result.
+   * @return The resources in the format of <code>library/file version: hits</code> ordered by the
+   *         number of hits descending.
+   */
+  String[] dumpHottest(int n);
+
+  /**
+   * Removes the cached content of all resources.
+   *
+   * @return The number of resources whose cache was cleared.
+   */
+  int evictAll();
+
+  /**
+   * Removes the cached content of the resources of a bundle.
+   *
+   * @param bundleId
+   *          The id of the bundle.
+   * @return The number of resources whose cache was cleared.
+   */
+  int evictBundle(long bundleId);
+
+  /**
+   * Removes the cached content of the resources of a library.
+   *
+   * @param library
+   *          The name of the library.
+   * @return The number of resources whose cache was cleared.
+   */
+  int evictLibrary(String library);
+
+  /**
+   * The number of bytes that the distinct cached contents occupy on the heap. Content that is
+   * shared by identical resources is counted once.
+   */
+  long getBlobStoreBytes();
+
+  /**
+   * The logical size of the cached content of all resources by content encoding. Content that is
+   * shared by several resources or encodings is counted for each of them, so the sum can be larger
+   * than {@link #getBlobStoreBytes()}.
+   */
+  Map<String, Long> getCachedBytesByEncoding();
+
+  /**
+   * The logical size of the cached content of all resources by library. Content that is shared by
+   * several resources is counted for each of them.
+   */
+  Map<String, Long> getCachedBytesByLibrary();
+
+  /**
+   * The ratio of the requests that were served from the cache or {@link Double#NaN} if there was
+   * no request yet.
+   */
+  double getCacheHitRatio();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  /**
+   * The number of resources that are available in the container.
+   */
+  int getResourceCount();
+
+  /**
+   * The number of resources by library.
+   */
+  Map<String, Integer> getResourceCountByLibrary();
+
+  /**
+   * Reads the content of the resources of a library into the cache so the first requests do not
+   * have to wait for the compression.
+   *
+   * @param library
+   *          The name of the library.
+   * @param contentEncodings
+   *          The tokens of the content encodings (e.g. gzip, raw) that should be cached.
+   * @return The number of resources that were warmed.
+   * @throws IllegalArgumentException
+   *           if one of the content encodings is not registered.
+   */
+  int warmLibrary(String library, String[] contentEncodings);
+}
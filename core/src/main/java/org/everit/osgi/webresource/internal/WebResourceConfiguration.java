@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.everit.osgi.webresource.transport.WebResourceRequest;
+
+/**
+ * The configuration of the webresource subsystem. The values are resolved once by the extender via
+ * {@link org.osgi.framework.BundleContext#getProperty(String)}, so they can be set as framework or
+ * as system properties, and passed to the components that use them. Outside of an OSGi framework
+ * the system properties are used.
+ */
+public final class WebResourceConfiguration {
+
+  /**
+   * Name of the request attribute that holds the configuration of the servlet that serves the
+   * request. If the attribute is not set, the configuration of the system properties is used.
+   */
+  public static final String REQUEST_ATTR_CONFIGURATION =
+      "org.everit.osgi.webresource.internal.WebResourceConfiguration";
+
+  private static final long DEFAULT_ASYNC_IDLE_TIMEOUT = 30_000;
+
+  private static final long DEFAULT_ASYNC_THRESHOLD = 32 * 1024;
+
+  private static final long DEFAULT_MAPPED_THRESHOLD = -1;
+
+  private static final long DEFAULT_RAW_PROMOTION_THRESHOLD = 32;
+
+  private static final long DEFAULT_STREAMING_THRESHOLD = 64L * 1024 * 1024;
+
+  private static volatile WebResourceConfiguration systemConfiguration;
+
+  private static Predicate<WebResourceRequest> createServerTimingFilter(final String requestHeader,
+      final double sampleRatio) {
+    if (requestHeader == null && sampleRatio <= 0) {
+      return null;
+    }
+    return (req) -> (requestHeader != null && req.getHeader(requestHeader) != null)
+        || (sampleRatio > 0 && ThreadLocalRandom.current().nextDouble() < sampleRatio);
+  }
+
+  /**
+   * Returns the configuration that is attached to a request or the configuration of the system
+   * properties if the request does not have one.
+   *
+   * @param requestAttribute
+   *          The value of the {@value #REQUEST_ATTR_CONFIGURATION} request attribute.
+   * @return The configuration.
+   */
+  public static WebResourceConfiguration fromRequestAttribute(final Object requestAttribute) {
+    if (requestAttribute instanceof WebResourceConfiguration) {
+      return (WebResourceConfiguration) requestAttribute;
+    }
+    return WebResourceConfiguration.fromSystemProperties();
+  }
+
+  /**
+   * The configuration that is resolved from the system properties. It is used outside of an OSGi
+   * framework. The properties are read once, when the configuration is first needed.
+   *
+   * @return The configuration.
+   */
+  public static WebResourceConfiguration fromSystemProperties() {
+    WebResourceConfiguration result = WebResourceConfiguration.systemConfiguration;
+    if (result == null) {
+      result = new WebResourceConfiguration(System::getProperty);
+      WebResourceConfiguration.systemConfiguration = result;
+    }
+    return result;
+  }
+
+  private static boolean parseBoolean(final Function<String, String> propertyResolver,
+      final String key, final boolean defaultValue) {
+    String value = propertyResolver.apply(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    if ("true".equalsIgnoreCase(value.trim())) {
+      return true;
+    }
+    if ("false".equalsIgnoreCase(value.trim())) {
+      return false;
+    }
+    WebResourceConfiguration.warnInvalidValue(key, value);
+    return defaultValue;
+  }
+
+  private static double parseDouble(final Function<String, String> propertyResolver,
+      final String key, final double defaultValue) {
+    String value = propertyResolver.apply(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      WebResourceConfiguration.warnInvalidValue(key, value);
+      return defaultValue;
+    }
+  }
+
+  private static long parseLong(final Function<String, String> propertyResolver,
+      final String key, final long defaultValue) {
+    String value = propertyResolver.apply(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      WebResourceConfiguration.warnInvalidValue(key, value);
+      return defaultValue;
+    }
+  }
+
+  private static Path parsePath(final Function<String, String> propertyResolver,
+      final String key) {
+    String value = propertyResolver.apply(key);
+    if (value == null || value.trim().isEmpty()) {
+      return null;
+    }
+    return Paths.get(value.trim());
+  }
+
+  private static String parseString(final Function<String, String> propertyResolver,
+      final String key) {
+    String value = propertyResolver.apply(key);
+    if (value == null || value.trim().isEmpty()) {
+      return null;
+    }
+    return value.trim();
+  }
+
+  private static void warnInvalidValue(final String key, final String value) {
+    System.err.print("WARNING: Invalid value of property " + key + ": " + value);
+  }
+
+  private final long asyncIdleTimeout;
+
+  private final long asyncThreshold;
+
+  private final boolean compressedOnly;
+
+  private final boolean containerAdapters;
+
+  private final boolean directJarAccess;
+
+  private final long mappedThreshold;
+
+  private final boolean optimizeImages;
+
+  private final long rawPromotionThreshold;
+
+  private final Predicate<WebResourceRequest> serverTimingFilter;
+
+  private final Path sidecarDirectory;
+
+  private final long streamingThreshold;
+
+  /**
+   * Constructor.
+   *
+   * @param propertyResolver
+   *          Resolves the value of a property by its key or returns <code>null</code> if the
+   *          property is not set, e.g.
+   *          {@link org.osgi.framework.BundleContext#getProperty(String)}.
+   */
+  public WebResourceConfiguration(final Function<String, String> propertyResolver) {
+    Objects.requireNonNull(propertyResolver);
+    this.asyncIdleTimeout = WebResourceConfiguration.parseLong(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_ASYNC_IDLE_TIMEOUT,
+        WebResourceConfiguration.DEFAULT_ASYNC_IDLE_TIMEOUT);
+    this.asyncThreshold = WebResourceConfiguration.parseLong(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_ASYNC_THRESHOLD,
+        WebResourceConfiguration.DEFAULT_ASYNC_THRESHOLD);
+    this.compressedOnly = WebResourceConfiguration.parseBoolean(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_COMPRESSED_ONLY, false);
+    this.containerAdapters = WebResourceConfiguration.parseBoolean(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_CONTAINER_ADAPTERS, true);
+    this.directJarAccess = WebResourceConfiguration.parseBoolean(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_DIRECT_JAR_ACCESS, true);
+    this.mappedThreshold = WebResourceConfiguration.parseLong(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_MAPPED_THRESHOLD,
+        WebResourceConfiguration.DEFAULT_MAPPED_THRESHOLD);
+    this.optimizeImages = WebResourceConfiguration.parseBoolean(propertyResolver,
+        WebResourceConstants.FRAMEWORK_PROPERTY_OPTIMIZE_IMAGES, false);
+    this.rawPromotionThreshold = WebResourceConfiguration.parseLong(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_RAW_PROMOTION_THRESHOLD,
+        WebResourceConfiguration.DEFAULT_RAW_PROMOTION_THRESHOLD);
+    this.serverTimingFilter = WebResourceConfiguration.createServerTimingFilter(
+        WebResourceConfiguration.parseString(propertyResolver,
+            WebResourceConstants.SYSTEM_PROPERTY_SERVER_TIMING_REQUEST_HEADER),
+        WebResourceConfiguration.parseDouble(propertyResolver,
+            WebResourceConstants.SYSTEM_PROPERTY_SERVER_TIMING_SAMPLE_RATIO, 0));
+    this.sidecarDirectory = WebResourceConfiguration.parsePath(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_SIDECAR_DIRECTORY);
+    this.streamingThreshold = WebResourceConfiguration.parseLong(propertyResolver,
+        WebResourceConstants.SYSTEM_PROPERTY_STREAMING_THRESHOLD,
+        WebResourceConfiguration.DEFAULT_STREAMING_THRESHOLD);
+  }
+
+  /**
+   * The time in milliseconds after which an asynchronous transfer is aborted if no byte of the
+   * body could be written in the meantime. Zero or a negative value means no timeout.
+   */
+  public long getAsyncIdleTimeout() {
+    return this.asyncIdleTimeout;
+  }
+
+  /**
+   * The size in bytes up to which response bodies are written synchronously.
+   */
+  public long getAsyncThreshold() {
+    return this.asyncThreshold;
+  }
+
+  /**
+   * The size in bytes from which the RAW content of file-backed resources is memory-mapped or a
+   * negative value if the mapping is disabled.
+   */
+  public long getMappedThreshold() {
+    return this.mappedThreshold;
+  }
+
+  /**
+   * The number of RAW requests after which the RAW content is cached in compressed-only mode or a
+   * negative value if it is never cached.
+   */
+  public long getRawPromotionThreshold() {
+    return this.rawPromotionThreshold;
+  }
+
+  /**
+   * The filter of the requests that get a <code>Server-Timing</code> response header or
+   * <code>null</code> if no request gets it. The filter accepts the requests that have the
+   * configured request header and the configured ratio of the other requests.
+   *
+   * @see org.everit.osgi.webresource.transport.WebResourceHandler#REQUEST_ATTR_SERVER_TIMING_FILTER
+   */
+  public Predicate<WebResourceRequest> getServerTimingFilter() {
+    return this.serverTimingFilter;
+  }
+
+  /**
+   * The directory of the sidecar files of the compressed content of memory-mapped resources or
+   * <code>null</code> if the compressed content is cached on the heap.
+   */
+  public Path getSidecarDirectory() {
+    return this.sidecarDirectory;
+  }
+
+  /**
+   * The raw size in bytes above which resources are streamed instead of cached or a negative value
+   * if streaming is disabled.
+   */
+  public long getStreamingThreshold() {
+    return this.streamingThreshold;
+  }
+
+  /**
+   * Whether only the compressed form of compressible resources is stored.
+   */
+  public boolean isCompressedOnly() {
+    return this.compressedOnly;
+  }
+
+  /**
+   * Whether the native content sending API of the servlet container may be used.
+   */
+  public boolean isContainerAdapters() {
+    return this.containerAdapters;
+  }
+
+  /**
+   * Whether the resources of plain JAR files are read via their central directory.
+   */
+  public boolean isDirectJarAccess() {
+    return this.directJarAccess;
+  }
+
+  /**
+   * Whether PNG and SVG resources are optimized in the background.
+   */
+  public boolean isOptimizeImages() {
+    return this.optimizeImages;
+  }
+}
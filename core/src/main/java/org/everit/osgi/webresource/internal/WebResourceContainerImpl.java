@@ -15,27 +15,126 @@
  */
 package org.everit.osgi.webresource.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
 
 import org.apache.felix.utils.version.VersionRange;
+import org.everit.osgi.webresource.ContentEncoding;
 import org.everit.osgi.webresource.WebResource;
 import org.everit.osgi.webresource.WebResourceContainer;
+import org.everit.osgi.webresource.internal.jfr.FlightRecorderEvents;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
 
 /**
  * The container that manages all the libraries and {@link WebResource}s.
  */
 public class WebResourceContainerImpl implements WebResourceContainer {
 
+  /**
+   * Separates the optional version range from the path of a dependency, e.g.
+   * <code>jquery/jquery.js?version=[3,4)</code>.
+   */
+  private static final String VERSION_PARAMETER = "?version=";
+
+  /**
+   * Collects the declared dependencies of a {@link WebResource} and their dependencies depth-first
+   * in the order of their declaration.
+   *
+   * @param resourcePath
+   *          The path of the {@link WebResource} in the format of <code>library/file</code>.
+   * @param dependencies
+   *          The declared dependencies by the paths of the {@link WebResource}s.
+   * @param visitedPaths
+   *          The paths that are already collected or are the {@link WebResource} itself.
+   * @param result
+   *          The list that the dependency declarations are added to.
+   */
+  private static void collectDependencyDeclarations(final String resourcePath,
+      final Map<String, Set<String>> dependencies, final Set<String> visitedPaths,
+      final List<String> result) {
+    Set<String> dependenciesOfResource = dependencies.get(resourcePath);
+    if (dependenciesOfResource == null) {
+      return;
+    }
+    for (String dependencyDeclaration : dependenciesOfResource) {
+      String dependencyPath = WebResourceContainerImpl.removeVersionRange(dependencyDeclaration);
+      if (visitedPaths.add(dependencyPath)) {
+        result.add(dependencyDeclaration);
+        WebResourceContainerImpl.collectDependencyDeclarations(dependencyPath, dependencies,
+            visitedPaths, result);
+      }
+    }
+  }
+
+  private static String removeVersionRange(final String dependencyDeclaration) {
+    int indexOfVersionParameter =
+        dependencyDeclaration.indexOf(WebResourceContainerImpl.VERSION_PARAMETER);
+    return indexOfVersionParameter < 0 ? dependencyDeclaration
+        : dependencyDeclaration.substring(0, indexOfVersionParameter);
+  }
+
+  private final Map<Object, Map<String, Set<String>>> dependenciesByOwners =
+      new ConcurrentHashMap<>();
+
   private final Map<String, LibContainer> libContainersByName = new ConcurrentSkipListMap<>();
 
-  private final Map<Bundle, Set<WebResource>> webResourcesByBundles = new ConcurrentHashMap<>();
+  private final WebResourceMetrics metrics;
+
+  private final Set<WebResourceImpl> resourcesWithPreloadLinks = new HashSet<>();
+
+  /**
+   * The {@link WebResource}s by their owners that are {@link Bundle}s or
+   * {@link org.everit.osgi.webresource.provider.WebResourceProvider}s.
+   */
+  private final Map<Object, Set<WebResource>> webResourcesByOwners = new ConcurrentHashMap<>();
+
+  public WebResourceContainerImpl(final WebResourceMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Declares that a {@link WebResource} depends on another one. The dependency graph is applied on
+   * the {@link WebResource}s when {@link #updatePreloadLinks()} is called.
+   *
+   * @param owner
+   *          The {@link Bundle} or the
+   *          {@link org.everit.osgi.webresource.provider.WebResourceProvider} that declared the
+   *          dependency.
+   * @param resourcePath
+   *          The path of the {@link WebResource} in the format of <code>library/file</code>.
+   * @param dependencyPath
+   *          The path of the dependency in the format of <code>library/file</code>, optionally
+   *          followed by <code>?version=</code> and a version range.
+   */
+  public synchronized void addDependency(final Object owner, final String resourcePath,
+      final String dependencyPath) {
+    Map<String, Set<String>> dependencies = this.dependenciesByOwners.get(owner);
+    if (dependencies == null) {
+      dependencies = new HashMap<>();
+      this.dependenciesByOwners.put(owner, dependencies);
+    }
+    Set<String> dependenciesOfResource = dependencies.get(resourcePath);
+    if (dependenciesOfResource == null) {
+      dependenciesOfResource = new LinkedHashSet<>();
+      dependencies.put(resourcePath, dependenciesOfResource);
+    }
+    dependenciesOfResource.add(dependencyPath);
+  }
 
   /**
    * Adds a new {@link WebResource} to the container.
@@ -44,11 +143,11 @@ public class WebResourceContainerImpl implements WebResourceContainer {
    *          The {@link WebResource}.
    */
   public synchronized void addWebResource(final WebResourceImpl webResource) {
-    Bundle bundle = webResource.getBundle();
-    Set<WebResource> resources = this.webResourcesByBundles.get(bundle);
+    Object owner = webResource.getOwner();
+    Set<WebResource> resources = this.webResourcesByOwners.get(owner);
     if (resources == null) {
       resources = Collections.newSetFromMap(new ConcurrentHashMap<WebResource, Boolean>());
-      this.webResourcesByBundles.put(bundle, resources);
+      this.webResourcesByOwners.put(owner, resources);
     }
     resources.add(webResource);
 
@@ -61,20 +160,84 @@ public class WebResourceContainerImpl implements WebResourceContainer {
     libContainer.addWebResource(webResource);
   }
 
+  /**
+   * Removes the cached content of all {@link WebResource}s in the specified encoding.
+   *
+   * @param contentEncoding
+   *          The {@link ContentEncoding} whose cached content should be dropped.
+   */
+  public void evictContentEncoding(final ContentEncoding contentEncoding) {
+    for (Set<WebResource> webResources : this.webResourcesByOwners.values()) {
+      for (WebResource webResource : webResources) {
+        ((WebResourceImpl) webResource).evict(contentEncoding);
+      }
+    }
+  }
+
+  private Collection<WebResourceImpl> findAllVersionsOfWebResource(final String resourcePath) {
+    int lastIndexOfSlash = resourcePath.lastIndexOf('/');
+    String library = lastIndexOfSlash < 0 ? "" : resourcePath.substring(0, lastIndexOfSlash);
+    String fileName = resourcePath.substring(lastIndexOfSlash + 1);
+
+    LibContainer libContainer = this.libContainersByName.get(library);
+    if (libContainer == null) {
+      return Collections.emptyList();
+    }
+    NavigableMap<Version, Set<WebResourceImpl>> resourcesByVersion =
+        libContainer.getVersionedResourcesByName().get(fileName);
+    if (resourcesByVersion == null) {
+      return Collections.emptyList();
+    }
+    List<WebResourceImpl> result = new ArrayList<>();
+    for (Set<WebResourceImpl> resources : resourcesByVersion.values()) {
+      result.addAll(resources);
+    }
+    return result;
+  }
+
   @Override
   public Optional<WebResource> findWebResource(final String lib, final String resourceName,
       final Optional<String> version) {
     Objects.requireNonNull(lib, "WebResource library must not be null");
-    Objects.requireNonNull(lib, "WebResource name must not be null");
+    Objects.requireNonNull(resourceName, "WebResource name must not be null");
 
-    LibContainer libContainer = this.libContainersByName.get(lib);
-    if (libContainer == null) {
-      return Optional.empty();
+    Object lookupEvent = FlightRecorderEvents.beginLookup();
+    long startTime = System.nanoTime();
+    Optional<WebResource> result = Optional.empty();
+    try {
+      LibContainer libContainer = this.libContainersByName.get(lib);
+      if (libContainer == null) {
+        return result;
+      }
+
+      VersionRange versionRange = VersionRange.parseVersionRange(version.orElse(null));
+      result = libContainer.findWebResource(resourceName, versionRange);
+      return result;
+    } finally {
+      this.metrics.recordLookup(System.nanoTime() - startTime);
+      FlightRecorderEvents.commitLookup(lookupEvent, lib, resourceName, version.orElse(null),
+          result.isPresent());
     }
 
-    VersionRange versionRange = VersionRange.parseVersionRange(version.orElse(null));
-    return libContainer.findWebResource(resourceName, versionRange);
+  }
 
+  /**
+   * Calls the action with all {@link WebResource}s of the container ordered by library, file name
+   * and version. The iteration is done on the live data structure without locking, so resources
+   * that are added or removed concurrently may or may not be visited.
+   *
+   * @param action
+   *          The action that is called for each resource.
+   */
+  public void forEachWebResource(final Consumer<WebResourceImpl> action) {
+    for (LibContainer libContainer : this.libContainersByName.values()) {
+      for (NavigableMap<Version, Set<WebResourceImpl>> resourcesByVersion : libContainer
+          .getVersionedResourcesByName().values()) {
+        for (Set<WebResourceImpl> resources : resourcesByVersion.values()) {
+          resources.forEach(action);
+        }
+      }
+    }
   }
 
   Map<String, LibContainer> getLibContainersByName() {
@@ -82,14 +245,18 @@ public class WebResourceContainerImpl implements WebResourceContainer {
   }
 
   /**
-   * Removing all of the {@link WebResource}s that belong to a specific {@link Bundle} from the
-   * container.
+   * Removing all of the {@link WebResource}s that belong to a specific owner from the container.
    *
-   * @param bundle
-   *          The {@link Bundle} whose {@link WebResource}s should be removed from the container.
+   * @param owner
+   *          The {@link Bundle} or the
+   *          {@link org.everit.osgi.webresource.provider.WebResourceProvider} whose
+   *          {@link WebResource}s should be removed from the container.
    */
-  public synchronized void removeBundle(final Bundle bundle) {
-    Set<WebResource> webResources = this.webResourcesByBundles.remove(bundle);
+  public synchronized void removeOwner(final Object owner) {
+    Set<WebResource> webResources = this.webResourcesByOwners.remove(owner);
+    if (webResources == null) {
+      webResources = Collections.emptySet();
+    }
     for (WebResource webResource : webResources) {
       String library = webResource.getLibrary();
       LibContainer libContainer = this.libContainersByName.get(library);
@@ -97,6 +264,107 @@ public class WebResourceContainerImpl implements WebResourceContainer {
       if (libContainer.isEmpty()) {
         this.libContainersByName.remove(library);
       }
+      ((WebResourceImpl) webResource).destroy();
+    }
+    this.dependenciesByOwners.remove(owner);
+    updatePreloadLinks();
+  }
+
+  private PreloadLink resolvePreloadLink(final WebResourceImpl resource,
+      final WebResource dependency, final Optional<String> versionRange) {
+    String[] resourceLibSegments = splitLibrary(resource.getLibrary());
+    String[] dependencyLibSegments = splitLibrary(dependency.getLibrary());
+
+    int commonSegmentCount = 0;
+    while (commonSegmentCount < resourceLibSegments.length
+        && commonSegmentCount < dependencyLibSegments.length
+        && resourceLibSegments[commonSegmentCount]
+            .equals(dependencyLibSegments[commonSegmentCount])) {
+      commonSegmentCount++;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = commonSegmentCount; i < resourceLibSegments.length; i++) {
+      sb.append("../");
+    }
+    for (int i = commonSegmentCount; i < dependencyLibSegments.length; i++) {
+      sb.append(dependencyLibSegments[i]).append('/');
+    }
+    return new PreloadLink(sb.toString(), dependency.getFileName(), versionRange,
+        dependency.getLastModified(),
+        ContentTypeUtil.resolvePreloadDestination(dependency.getContentType()));
+  }
+
+  private String[] splitLibrary(final String library) {
+    if ("".equals(library)) {
+      return new String[0];
+    }
+    return library.split("/");
+  }
+
+  /**
+   * Recalculates the preload <code>Link</code> headers of the {@link WebResource}s based on the
+   * declared dependencies. The dependencies of the dependencies are advertised as well, so the
+   * browser can fetch the whole graph in parallel. Each dependency is listed once and a cycle in
+   * the graph never leads back to the {@link WebResource} itself. Dependencies that are not
+   * available in the container are skipped. The highest available version of each dependency is
+   * advertised.
+   */
+  public synchronized void updatePreloadLinks() {
+    Map<String, Set<String>> mergedDependencies = new HashMap<>();
+    for (Map<String, Set<String>> dependencies : this.dependenciesByOwners.values()) {
+      for (Entry<String, Set<String>> entry : dependencies.entrySet()) {
+        Set<String> mergedDependenciesOfResource = mergedDependencies.get(entry.getKey());
+        if (mergedDependenciesOfResource == null) {
+          mergedDependenciesOfResource = new LinkedHashSet<>();
+          mergedDependencies.put(entry.getKey(), mergedDependenciesOfResource);
+        }
+        mergedDependenciesOfResource.addAll(entry.getValue());
+      }
+    }
+
+    Set<WebResourceImpl> previousResourcesWithPreloadLinks =
+        new HashSet<>(this.resourcesWithPreloadLinks);
+    this.resourcesWithPreloadLinks.clear();
+
+    for (String resourcePath : mergedDependencies.keySet()) {
+      Set<String> visitedPaths = new HashSet<>();
+      visitedPaths.add(resourcePath);
+      List<String> dependencyDeclarations = new ArrayList<>();
+      WebResourceContainerImpl.collectDependencyDeclarations(resourcePath, mergedDependencies,
+          visitedPaths, dependencyDeclarations);
+
+      Collection<WebResourceImpl> resources = findAllVersionsOfWebResource(resourcePath);
+      for (WebResourceImpl resource : resources) {
+        List<PreloadLink> preloadLinks = new ArrayList<>();
+        for (String dependencyDeclaration : dependencyDeclarations) {
+          String dependencyPath =
+              WebResourceContainerImpl.removeVersionRange(dependencyDeclaration);
+          Optional<String> versionRange = Optional.empty();
+          if (dependencyPath.length() < dependencyDeclaration.length()) {
+            versionRange = Optional.of(dependencyDeclaration.substring(
+                dependencyPath.length() + WebResourceContainerImpl.VERSION_PARAMETER.length()));
+          }
+          int lastIndexOfSlash = dependencyPath.lastIndexOf('/');
+          String dependencyLib =
+              lastIndexOfSlash < 0 ? "" : dependencyPath.substring(0, lastIndexOfSlash);
+          Optional<WebResource> dependency = findWebResource(dependencyLib,
+              dependencyPath.substring(lastIndexOfSlash + 1), versionRange);
+
+          if (dependency.isPresent()) {
+            preloadLinks.add(resolvePreloadLink(resource, dependency.get(), versionRange));
+          }
+        }
+        if (!preloadLinks.isEmpty()) {
+          resource.setPreloadLinks(preloadLinks);
+          this.resourcesWithPreloadLinks.add(resource);
+          previousResourcesWithPreloadLinks.remove(resource);
+        }
+      }
+    }
+
+    for (WebResourceImpl resource : previousResourcesWithPreloadLinks) {
+      resource.setPreloadLinks(Collections.emptyList());
     }
   }
 }
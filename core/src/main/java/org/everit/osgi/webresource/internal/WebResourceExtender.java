@@ -15,15 +15,18 @@
  */
 package org.everit.osgi.webresource.internal;
 
-import java.net.URL;
-import java.util.Collection;
+import java.lang.management.ManagementFactory;
 import java.util.Dictionary;
 import java.util.Hashtable;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.servlet.Servlet;
 
+import org.everit.osgi.webresource.ContentEncoder;
+import org.everit.osgi.webresource.ContentEncoding;
 import org.everit.osgi.webresource.WebResourceConstants;
 import org.everit.osgi.webresource.WebResourceContainer;
 import org.osgi.framework.Bundle;
@@ -31,11 +34,11 @@ import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
-import org.osgi.framework.Version;
-import org.osgi.framework.wiring.BundleCapability;
-import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.util.tracker.BundleTracker;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
 /**
  * The extender tracks all of the bundles and process them if they offer the
@@ -43,6 +46,47 @@ import org.osgi.util.tracker.BundleTracker;
  */
 public class WebResourceExtender implements BundleActivator {
 
+  /**
+   * Registers the {@link ContentEncoder} OSGi services as {@link ContentEncoding}s.
+   */
+  private class ContentEncoderTrackerCustomizer
+      implements ServiceTrackerCustomizer<ContentEncoder, ContentEncoder> {
+
+    @Override
+    public ContentEncoder addingService(final ServiceReference<ContentEncoder> reference) {
+      ContentEncoder contentEncoder =
+          WebResourceExtender.this.bundleContext.getService(reference);
+      if (contentEncoder == null) {
+        return null;
+      }
+      try {
+        ContentEncoding contentEncoding = ContentEncoding.register(contentEncoder);
+        WebResourceExtender.this.resourceContainer.evictContentEncoding(contentEncoding);
+        return contentEncoder;
+      } catch (IllegalArgumentException e) {
+        System.err.print("WARNING: Ignoring content encoder " + reference.toString() + ": "
+            + e.getMessage());
+        WebResourceExtender.this.bundleContext.ungetService(reference);
+        return null;
+      }
+    }
+
+    @Override
+    public void modifiedService(final ServiceReference<ContentEncoder> reference,
+        final ContentEncoder service) {
+    }
+
+    @Override
+    public void removedService(final ServiceReference<ContentEncoder> reference,
+        final ContentEncoder service) {
+      // Evicted even if no encoder is left with the token, so neither the cache nor the blob
+      // store keeps the content of the removed encoder
+      WebResourceExtender.this.resourceContainer
+          .evictContentEncoding(ContentEncoding.unregister(service));
+      WebResourceExtender.this.bundleContext.ungetService(reference);
+    }
+  }
+
   /**
    * The {@link BundleTracker} implementation of the extender.
    */
@@ -54,118 +98,39 @@ public class WebResourceExtender implements BundleActivator {
 
     @Override
     public Bundle addingBundle(final Bundle bundle, final BundleEvent event) {
-      BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
-      List<BundleCapability> capabilities = bundleWiring
-          .getCapabilities(WebResourceConstants.CAPABILITY_NAMESPACE);
-
-      boolean webResourceAdded = false;
-      for (BundleCapability capability : capabilities) {
-        Map<String, Object> attributes = capability.getAttributes();
-        String libraryPrefix = resolveNormalizedLibraryPrefix(capability, attributes);
-
-        String resourceFolder = (String) attributes
-            .get(WebResourceConstants.CAPABILITY_ATTRIBUTE_RESOURCE_FOLDER);
-        Version version = resolveVersion(capability);
-
-        if (resourceFolder == null) {
-          System.err.print("WARNING: Capability attribute "
-              + WebResourceConstants.CAPABILITY_ATTRIBUTE_RESOURCE_FOLDER
-              + " is missing in bundle " + bundle.toString() + ": " + capability.toString());
-        } else {
-          Collection<String> entries = bundleWiring.listResources(resourceFolder, "*",
-              BundleWiring.LISTRESOURCES_RECURSE);
-
-          ClassLoader classLoader = bundleWiring.getClassLoader();
-
-          for (String entry : entries) {
-            if (!entry.endsWith("/")) {
-              URL resourceURL = classLoader.getResource(entry);
-
-              String fileName = resolveFileName(resourceURL);
-              String library = entry.substring(resourceFolder.length(),
-                  entry.length() - fileName.length());
-              library = normalizeLibraryName(libraryPrefix, library);
-
-              String contentType = ContentTypeUtil.resolveContentType(resourceURL);
-              WebResourceImpl webResource = new WebResourceImpl(bundle, library, fileName,
-                  resourceURL,
-                  version, contentType);
-              WebResourceExtender.this.resourceContainer.addWebResource(webResource);
-              webResourceAdded = true;
-            }
-          }
-        }
-      }
-
-      if (webResourceAdded) {
+      if (WebResourceExtender.this.ingester.addBundle(bundle)) {
         return bundle;
       } else {
         return null;
       }
     }
 
-    private String normalizeLibraryName(final String libraryPrefix, final String library) {
-      String result = library;
-      if (result.endsWith("/")) {
-        result = result.substring(0, result.length() - 1);
-      }
-      if (result.startsWith("/")) {
-        result = libraryPrefix + result;
-      } else {
-        result = libraryPrefix + "/" + result;
-      }
-      if (result.startsWith("/")) {
-        result = result.substring(1);
-      }
-      if (result.endsWith("/")) {
-        result = result.substring(0, result.length() - 1);
-      }
-      return result;
-    }
-
     @Override
     public void removedBundle(final Bundle bundle, final BundleEvent event, final Bundle object) {
-      WebResourceExtender.this.resourceContainer.removeBundle(bundle);
+      WebResourceExtender.this.ingester.removeBundle(bundle);
     }
+  }
 
-    private String resolveNormalizedLibraryPrefix(final BundleCapability capability,
-        final Map<String, Object> attributes) {
-      String libraryPrefix = (String) attributes
-          .get(WebResourceConstants.CAPABILITY_ATTRIBUTE_LIBRARY_PREFIX);
-
-      if (libraryPrefix == null) {
-        libraryPrefix = "";
-      } else if (libraryPrefix.endsWith("/")) {
-        System.err.print("WARNING: '" + WebResourceConstants.CAPABILITY_ATTRIBUTE_LIBRARY_PREFIX
-            + "' attribute of capability "
-            + WebResourceConstants.CAPABILITY_NAMESPACE + " should not end with '/' character: "
-            + capability.toString());
-        libraryPrefix = libraryPrefix.substring(0, libraryPrefix.length() - 1);
-      }
-      return libraryPrefix;
-    }
+  private BundleContext bundleContext;
 
-    private Version resolveVersion(final BundleCapability capability) {
-      Map<String, Object> attributes = capability.getAttributes();
-      Object versionObject = attributes.get(WebResourceConstants.CAPABILITY_ATTRIBUTE_VERSION);
-      if (versionObject == null) {
-        return capability.getRevision().getBundle().getVersion();
-      }
+  private ObjectName cacheMBeanName;
 
-      if (versionObject instanceof Version) {
-        return (Version) versionObject;
-      } else {
-        return new Version(versionObject.toString());
-      }
+  private WebResourceConfiguration configuration;
 
-    }
-  }
+  private ServiceTracker<ContentEncoder, ContentEncoder> contentEncoderTracker;
 
-  private BundleContext bundleContext;
+  private WebResourceBundleIngester ingester;
+
+  private final WebResourceMetrics metrics = new WebResourceMetrics();
+
+  private ServiceRegistration<Servlet> metricsServletSR;
+
+  private ExecutorService optimizerExecutor;
 
   private ServiceRegistration<Servlet> pluginSR;
 
-  private final WebResourceContainerImpl resourceContainer = new WebResourceContainerImpl();
+  private final WebResourceContainerImpl resourceContainer =
+      new WebResourceContainerImpl(this.metrics);
 
   private ServiceRegistration<WebResourceContainer> resourceContainerSR;
 
@@ -173,10 +138,33 @@ public class WebResourceExtender implements BundleActivator {
 
   private BundleTracker<Bundle> webResourceTracker;
 
+  private void registerCacheMBean() {
+    try {
+      ObjectName objectName = new ObjectName(WebResourceCacheMXBean.OBJECT_NAME);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          new WebResourceCache(this.resourceContainer, this.metrics), objectName);
+      this.cacheMBeanName = objectName;
+    } catch (JMException e) {
+      // E.g. another instance of the extender is running in the same JVM
+      System.err.print("WARNING: Could not register the webresource cache MBean: "
+          + e.getMessage());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void registerMetricsServlet() {
+    Dictionary<String, Object> serviceProps = new Hashtable<>();
+    serviceProps.put(Constants.SERVICE_DESCRIPTION, "Everit WebResource Metrics Servlet");
+    this.metricsServletSR = (ServiceRegistration<Servlet>) this.bundleContext.registerService(
+        new String[] { Servlet.class.getName(), WebResourceMetricsServlet.class.getName() },
+        new WebResourceMetricsServlet(this.metrics), serviceProps);
+  }
+
   @SuppressWarnings("unchecked")
   private void registerServletFactory() {
     WebResourceServletPrototypeServiceFactory webResourceServletFactory =
-        new WebResourceServletPrototypeServiceFactory(this.resourceContainer);
+        new WebResourceServletPrototypeServiceFactory(this.resourceContainer, this.metrics,
+            this.configuration);
 
     Dictionary<String, Object> serviceProps = new Hashtable<>();
     serviceProps.put(Constants.SERVICE_DESCRIPTION, "Everit WebResource Servlet");
@@ -189,7 +177,7 @@ public class WebResourceExtender implements BundleActivator {
 
   private void registerWebConsolePlugin() {
     WebResourceWebConsolePlugin webConsolePlugin = new WebResourceWebConsolePlugin(
-        this.resourceContainer, this.resourceContainer);
+        this.resourceContainer, this.resourceContainer, this.metrics);
     Dictionary<String, Object> serviceProps = new Hashtable<>();
     serviceProps.put("felix.webconsole.label", "everit-webresources");
     serviceProps.put("felix.webconsole.category", "Everit");
@@ -206,35 +194,52 @@ public class WebResourceExtender implements BundleActivator {
         .registerService(WebResourceContainer.class, this.resourceContainer, serviceProps);
   }
 
-  private String resolveFileName(final URL resourceURL) {
-    String externalForm = resourceURL.toExternalForm();
-
-    int indexOfLastSlash = externalForm.lastIndexOf('/');
-    if (indexOfLastSlash >= 0) {
-      return externalForm.substring(indexOfLastSlash + 1);
-    } else {
-      return externalForm;
-    }
-
-  }
-
   @Override
   public void start(final BundleContext context) throws Exception {
     this.bundleContext = context;
+    this.configuration = new WebResourceConfiguration(context::getProperty);
+    if (this.configuration.getSidecarDirectory() != null) {
+      MappedContentStore.deleteStaleSidecarFiles(this.configuration.getSidecarDirectory());
+    }
+
+    if (this.configuration.isOptimizeImages()) {
+      this.optimizerExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "everit-webresource-optimizer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      });
+    }
+
+    this.ingester = new WebResourceBundleIngester(this.resourceContainer, this.metrics,
+        this.optimizerExecutor, this.configuration);
 
     registerWebResourceContainer();
 
+    this.contentEncoderTracker = new ServiceTracker<>(context, ContentEncoder.class,
+        new ContentEncoderTrackerCustomizer());
+    this.contentEncoderTracker.open();
+
     this.webResourceTracker = new WebResourceBundleTracker(context);
     this.webResourceTracker.open();
 
     registerServletFactory();
 
     registerWebConsolePlugin();
+
+    registerMetricsServlet();
+
+    registerCacheMBean();
   }
 
   @Override
   public void stop(final BundleContext context) throws Exception {
     this.webResourceTracker.close();
+    this.contentEncoderTracker.close();
+    if (this.optimizerExecutor != null) {
+      this.optimizerExecutor.shutdownNow();
+      this.optimizerExecutor = null;
+    }
     if (this.resourceContainerSR != null) {
       this.resourceContainerSR.unregister();
     }
@@ -244,5 +249,13 @@ public class WebResourceExtender implements BundleActivator {
     if (this.servletFactorySR != null) {
       this.servletFactorySR.unregister();
     }
+    if (this.metricsServletSR != null) {
+      this.metricsServletSR.unregister();
+    }
+    if (this.cacheMBeanName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.cacheMBeanName);
+      this.cacheMBeanName = null;
+    }
+    ContainerOutputAdapters.clearShared();
   }
 }
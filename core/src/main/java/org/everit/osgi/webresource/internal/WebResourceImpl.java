@@ -23,25 +23,30 @@ import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Generated;
 
 import org.everit.osgi.webresource.ContentEncoding;
 import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.WebResourceContent;
+import org.everit.osgi.webresource.internal.jfr.FlightRecorderEvents;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Version;
 
@@ -52,34 +57,103 @@ public class WebResourceImpl implements WebResource {
 
   private static final int COPY_BUFFER_SIZE = 1024;
 
-  private final Bundle bundle;
+  private static byte[] digest(final InputStream in) throws IOException {
+    try {
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      byte[] buf = new byte[WebResourceImpl.COPY_BUFFER_SIZE];
+      int r = in.read(buf);
+      while (r > -1) {
+        messageDigest.update(buf, 0, r);
+        r = in.read(buf);
+      }
+      return messageDigest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private final Map<ContentEncoding, WebResourceContent> cache = new ConcurrentHashMap<>();
+
+  /**
+   * The keys of the {@link ContentBlobStore} blobs that are referenced by the cached content.
+   */
+  private final Map<ContentEncoding, ContentBlobStore.BlobKey> cacheBlobKeys = new HashMap<>();
 
-  private final Map<ContentEncoding, byte[]> cache =
-      new ConcurrentHashMap<>();
+  /**
+   * Whether only the compressed form of the content is stored and the RAW content is inflated on
+   * demand until it becomes hot.
+   */
+  private final boolean compressedOnly;
+
+  private final WebResourceConfiguration configuration;
+
+  /**
+   * The SHA-256 digest of the content that identifies it in the {@link ContentBlobStore}.
+   */
+  private String contentDigest;
 
   private final String contentType;
 
-  private final String etag;
+  /**
+   * The compressed body that is shared by the gzip and deflate content in compressed-only mode.
+   */
+  private DeflatedContent deflatedContent;
+
+  private ContentBlobStore.BlobKey deflatedContentBlobKey;
+
+  /**
+   * The ETag of the current content. It is replaced together with the content when an optimized
+   * version is applied, so different representations never share the same strong validator.
+   */
+  private volatile String etag;
+
+  private volatile String etagHeaderValue;
+
+  private boolean destroyed = false;
 
   private final String fileName;
 
+  private final LongAdder hitCount = new LongAdder();
+
   private final long lastModified;
 
   private final String lastModifiedRFC1123GMT;
 
   private final String library;
 
-  private final int rawLength;
+  private final WebResourceMetrics metrics;
+
+  private volatile byte[] optimizedContent;
+
+  /**
+   * The {@link Bundle} or the {@link org.everit.osgi.webresource.provider.WebResourceProvider}
+   * that holds the {@link WebResource}.
+   */
+  private final Object owner;
+
+  private volatile Optional<String> preloadLinkHeader = Optional.empty();
+
+  private volatile List<PreloadLink> preloadLinks = Collections.emptyList();
+
+  private final long rawLength;
+
+  private final LongAdder rawRequestCount = new LongAdder();
 
-  private final URL resourceURL;
+  private final WebResourceSource source;
+
+  private final boolean streamed;
+
+  private volatile List<WebResource> variants = Collections.emptyList();
 
   private final Version version;
 
   /**
    * Constructor.
    *
-   * @param bundle
-   *          The bundle that holds the {@link WebResource}.
+   * @param owner
+   *          The {@link Bundle} or the
+   *          {@link org.everit.osgi.webresource.provider.WebResourceProvider} that holds the
+   *          {@link WebResource}.
    * @param library
    *          The library name of the {@link WebResource}.
    * @param fileName
@@ -90,30 +164,151 @@ public class WebResourceImpl implements WebResource {
    *          Version of the {@link WebResource}.
    * @param contentType
    *          The content type of the {@link WebResource}.
+   * @param metrics
+   *          The metrics that cache accesses and cache fills are recorded in.
+   * @param configuration
+   *          The configuration of the caching and streaming of the content.
    */
-  public WebResourceImpl(final Bundle bundle, final String library, final String fileName,
+  public WebResourceImpl(final Object owner, final String library, final String fileName,
       final URL resourceURL,
-      final Version version, final String contentType) {
-    this.resourceURL = resourceURL;
-    this.bundle = bundle;
+      final Version version, final String contentType, final WebResourceMetrics metrics,
+      final WebResourceConfiguration configuration) {
+    this(owner, library, fileName, new URLWebResourceSource(resourceURL), version, contentType,
+        metrics, configuration);
+  }
+
+  WebResourceImpl(final Object owner, final String library, final String fileName,
+      final WebResourceSource source, final Version version, final String contentType,
+      final WebResourceMetrics metrics, final WebResourceConfiguration configuration) {
+    this(owner, library, fileName, source, source.getLastModified(), version, contentType,
+        metrics, configuration);
+  }
+
+  WebResourceImpl(final Object owner, final String library, final String fileName,
+      final WebResourceSource source, final long lastModified, final Version version,
+      final String contentType, final WebResourceMetrics metrics,
+      final WebResourceConfiguration configuration) {
+    this.source = source;
+    this.metrics = metrics;
+    this.configuration = configuration;
+    this.owner = owner;
     this.contentType = contentType;
-    try {
-      URLConnection urlConnection = resourceURL.openConnection();
-      this.lastModified = urlConnection.getLastModified();
-      this.rawLength = urlConnection.getContentLength();
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
-    }
+    this.lastModified = lastModified;
+    this.rawLength = source.getLength();
+    long streamingThreshold = configuration.getStreamingThreshold();
+    this.streamed = streamingThreshold >= 0 && this.rawLength > streamingThreshold;
+    this.compressedOnly = configuration.isCompressedOnly() && !this.streamed
+        && ContentTypeUtil.isCompressibleContentType(contentType);
 
     this.fileName = fileName;
     this.version = version;
     this.library = library;
     this.etag = resolveETag();
+    this.etagHeaderValue = '"' + this.etag + '"';
     this.lastModifiedRFC1123GMT = resolveLastModifiedRFC1123();
   }
 
-  public void destroy() {
-    this.cache.clear();
+  /**
+   * Replaces the content of the {@link WebResource} with an optimized, but semantically equivalent
+   * version. The cached RAW content is swapped atomically and the other encodings are recalculated
+   * from the optimized content the next time they are requested.
+   *
+   * @param content
+   *          The optimized content.
+   */
+  public synchronized void applyOptimizedContent(final byte[] content) {
+    byte[] contentDigestBytes;
+    try {
+      contentDigestBytes = WebResourceImpl.digest(new ByteArrayInputStream(content));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    deleteSidecarFiles();
+    this.optimizedContent = content;
+    this.contentDigest = String.format("%x", new BigInteger(1, contentDigestBytes));
+    String optimizedETag = resolveETag(contentDigestBytes);
+    this.etagHeaderValue = '"' + optimizedETag + '"';
+    this.etag = optimizedETag;
+    releaseDeflatedContent();
+    for (ContentEncoding contentEncoding : new ArrayList<>(this.cache.keySet())) {
+      if (!ContentEncoding.RAW.equals(contentEncoding)) {
+        removeFromCache(contentEncoding);
+      }
+    }
+    if (this.cache.containsKey(ContentEncoding.RAW)) {
+      putIntoCache(ContentEncoding.RAW, new WebResourceContent(ByteBuffer.wrap(content)), null);
+    }
+  }
+
+  /**
+   * Drops all cached content of the {@link WebResource}. Requests that are still served after
+   * this call get the content without caching it again.
+   */
+  public synchronized void destroy() {
+    this.destroyed = true;
+    evictAll();
+    deleteSidecarFiles();
+  }
+
+  /**
+   * Deletes the sidecar files of the current ETag if the resource might have written any.
+   */
+  private void deleteSidecarFiles() {
+    Path sidecarDirectory = this.configuration.getSidecarDirectory();
+    if (sidecarDirectory != null && this.source.getFile() != null
+        && this.optimizedContent == null) {
+      MappedContentStore.deleteSidecarFiles(sidecarDirectory, this.etag);
+    }
+  }
+
+  /**
+   * Writes the content in the specified encoding to the stream and closes the stream.
+   *
+   * @return The number of raw bytes that were encoded.
+   */
+  private long encodeContent(final ContentEncoding contentEncoding, final OutputStream target)
+      throws IOException {
+    try (InputStream inputStream = openContentStream();
+        OutputStream out = contentEncoding.createEncoderStream(target)) {
+      // TODO store the deflate and gzip compressed format in the way that the common parts are
+      // not calculated and stored twice also if the compressed-only mode is not enabled (see
+      // DeflatedContent).
+      byte[] buf = BufferPool.acquire();
+      try {
+        long inputLength = 0;
+        int r = inputStream.read(buf);
+        while (r > -1) {
+          out.write(buf, 0, r);
+          inputLength += r;
+          r = inputStream.read(buf);
+        }
+        return inputLength;
+      } finally {
+        BufferPool.release(buf);
+      }
+    }
+  }
+
+  /**
+   * Removes the cached content of the specified {@link ContentEncoding}. This is necessary if the
+   * encoder of the {@link ContentEncoding} is replaced.
+   *
+   * @param contentEncoding
+   *          The encoding that should be removed from the cache.
+   */
+  public synchronized void evict(final ContentEncoding contentEncoding) {
+    removeFromCache(contentEncoding);
+  }
+
+  /**
+   * Removes the cached content in all encodings. The content is cached again on the next request.
+   */
+  public synchronized void evictAll() {
+    for (ContentEncoding contentEncoding : new ArrayList<>(this.cache.keySet())) {
+      removeFromCache(contentEncoding);
+    }
+    releaseDeflatedContent();
+    this.rawRequestCount.reset();
   }
 
   // CHECKSTYLE.OFF: CyclomaticComplexity
@@ -130,11 +325,11 @@ public class WebResourceImpl implements WebResource {
       return false;
     }
     WebResourceImpl other = (WebResourceImpl) obj;
-    if (this.bundle == null) {
-      if (other.bundle != null) {
+    if (this.owner == null) {
+      if (other.owner != null) {
         return false;
       }
-    } else if (!this.bundle.equals(other.bundle)) {
+    } else if (!this.owner.equals(other.owner)) {
       return false;
     }
     if (this.fileName == null) {
@@ -165,33 +360,118 @@ public class WebResourceImpl implements WebResource {
 
   @Override
   public Bundle getBundle() {
-    return this.bundle;
+    if (this.owner instanceof Bundle) {
+      return (Bundle) this.owner;
+    }
+    return null;
+  }
+
+  /**
+   * The size of the cached content in the specified encoding.
+   *
+   * @param contentEncoding
+   *          The content encoding.
+   * @return The size or <code>null</code> if the content is not cached in the encoding.
+   */
+  public Long getCacheSize(final ContentEncoding contentEncoding) {
+    WebResourceContent cachedContent = this.cache.get(contentEncoding);
+    if (cachedContent == null) {
+      return null;
+    }
+    return cachedContent.getLength();
   }
 
   @Override
-  public Map<ContentEncoding, Integer> getCacheState() {
-    Map<ContentEncoding, Integer> result = new HashMap<>();
-    ContentEncoding[] contentEncodings = ContentEncoding.values();
-    for (ContentEncoding contentEncoding : contentEncodings) {
-      byte[] cachedData = this.cache.get(contentEncoding);
-      if (cachedData != null) {
-        result.put(contentEncoding, cachedData.length);
-      }
+  public Map<ContentEncoding, Long> getCacheState() {
+    Map<ContentEncoding, Long> result = new HashMap<>();
+    for (Map.Entry<ContentEncoding, WebResourceContent> cacheEntry : this.cache.entrySet()) {
+      result.put(cacheEntry.getKey(), cacheEntry.getValue().getLength());
     }
     return result;
   }
 
-  private byte[] getContentData(final ContentEncoding contentEncoding) {
-    byte[] contentData = this.cache.get(contentEncoding);
-    if (contentData == null) {
-      contentData = readContentIntoCache(contentEncoding);
+  @Override
+  public WebResourceContent getContent(final ContentEncoding contentEncoding) {
+    this.hitCount.increment();
+    return getContentData(contentEncoding);
+  }
+
+  private WebResourceContent getContentData(final ContentEncoding contentEncoding) {
+    if (this.streamed) {
+      if (!ContentEncoding.RAW.equals(contentEncoding)) {
+        throw new IllegalStateException("Streamed webresource " + this.library + "/"
+            + this.fileName + " is not available in encoding " + contentEncoding);
+      }
+      return WebResourceContent.streamed(this.rawLength, this.source::openStream);
+    }
+    WebResourceContent content = this.cache.get(contentEncoding);
+    this.metrics.recordCacheAccess(this.library, content != null);
+    if (content == null) {
+      if (ContentEncoding.RAW.equals(contentEncoding) && isRawInflatedOnDemand()) {
+        try {
+          DeflatedContent lDeflatedContent = getDeflatedContent();
+          // Only the requests that send the body are counted, not HEAD requests and 304 responses
+          return WebResourceContent.streamed(lDeflatedContent.getRawLength(), () -> {
+            this.rawRequestCount.increment();
+            return lDeflatedContent.inflate();
+          });
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      content = readContentIntoCache(contentEncoding);
+    }
+    return content;
+  }
+
+  private synchronized String getContentDigest() throws IOException {
+    if (this.contentDigest == null) {
+      try (InputStream in = openContentStream()) {
+        this.contentDigest = String.format("%x", new BigInteger(1, WebResourceImpl.digest(in)));
+      }
+    }
+    return this.contentDigest;
+  }
+
+  /**
+   * Compresses the content if it is not compressed yet. The compressed body is kept until the
+   * cache of the {@link WebResource} is evicted. Identical content of other {@link WebResource}s
+   * is compressed only once.
+   */
+  private synchronized DeflatedContent getDeflatedContent() throws IOException {
+    DeflatedContent result = this.deflatedContent;
+    if (result == null) {
+      ContentBlobStore.BlobKey blobKey =
+          new ContentBlobStore.BlobKey(getContentDigest(), DeflatedContent.class);
+      result = ContentBlobStore.acquire(blobKey,
+          () -> DeflatedContent.deflate(openContentStream()),
+          DeflatedContent::getCompressedLength);
+      if (this.destroyed) {
+        ContentBlobStore.release(blobKey);
+      } else {
+        this.deflatedContent = result;
+        this.deflatedContentBlobKey = blobKey;
+      }
     }
-    return contentData;
+    return result;
   }
 
+  /**
+   * The length of the content in the specific {@link ContentEncoding}. The RAW length and the
+   * length of cached content are known without reading the content, so HEAD requests do not fill
+   * the cache. The content is only encoded if its encoded length is not known yet.
+   */
   @Override
   public long getContentLength(final ContentEncoding contentEncoding) {
-    return getContentData(contentEncoding).length;
+    if (ContentEncoding.RAW.equals(contentEncoding)) {
+      byte[] lOptimizedContent = this.optimizedContent;
+      return lOptimizedContent != null ? lOptimizedContent.length : this.rawLength;
+    }
+    WebResourceContent content = this.cache.get(contentEncoding);
+    if (content != null) {
+      return content.getLength();
+    }
+    return getContentData(contentEncoding).getLength();
   }
 
   @Override
@@ -204,18 +484,34 @@ public class WebResourceImpl implements WebResource {
     return this.etag;
   }
 
+  @Override
+  public String getETagHeaderValue() {
+    return this.etagHeaderValue;
+  }
+
   @Override
   public String getFileName() {
     return this.fileName;
   }
 
+  /**
+   * The number of times the content of the {@link WebResource} was requested since it was added
+   * to the container.
+   */
+  public long getHitCount() {
+    return this.hitCount.sum();
+  }
+
   @Override
   public InputStream getInputStream(final ContentEncoding contentEncoding, final int beginIndex)
       throws IOException {
-    byte[] contentData = getContentData(contentEncoding);
-    ByteArrayInputStream bin = new ByteArrayInputStream(contentData, beginIndex, contentData.length
-        - beginIndex);
-    return bin;
+    this.hitCount.increment();
+    InputStream in = getContentData(contentEncoding).newInputStream();
+    long skipped = in.skip(beginIndex);
+    if (skipped < beginIndex) {
+      throw new IOException("Begin index " + beginIndex + " is out of the content");
+    }
+    return in;
   }
 
   @Override
@@ -233,10 +529,50 @@ public class WebResourceImpl implements WebResource {
     return this.library;
   }
 
-  public int getRawLength() {
+  /**
+   * The length of the optimized content if the {@link WebResource} was optimized.
+   *
+   * @return The length of the optimized content or {@link Optional#empty()} if the
+   *         {@link WebResource} has not been optimized.
+   */
+  public Optional<Long> getOptimizedLength() {
+    byte[] lOptimizedContent = this.optimizedContent;
+    if (lOptimizedContent == null) {
+      return Optional.empty();
+    }
+    return Optional.of((long) lOptimizedContent.length);
+  }
+
+  /**
+   * The {@link Bundle} or the {@link org.everit.osgi.webresource.provider.WebResourceProvider}
+   * that holds the {@link WebResource}.
+   */
+  public Object getOwner() {
+    return this.owner;
+  }
+
+  @Override
+  public Optional<String> getPreloadLinkHeader() {
+    return this.preloadLinkHeader;
+  }
+
+  @Override
+  public Optional<String> getPreloadLinkHeader(final String pathSuffix) {
+    if (pathSuffix.isEmpty()) {
+      return this.preloadLinkHeader;
+    }
+    return PreloadLink.toHeaderValue(this.preloadLinks, pathSuffix);
+  }
+
+  public long getRawLength() {
     return this.rawLength;
   }
 
+  @Override
+  public List<WebResource> getVariants() {
+    return this.variants;
+  }
+
   @Override
   public Version getVersion() {
     return this.version;
@@ -247,66 +583,204 @@ public class WebResourceImpl implements WebResource {
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result + (this.bundle == null ? 0 : this.bundle.hashCode());
+    result = prime * result + (this.owner == null ? 0 : this.owner.hashCode());
     result = prime * result + (this.fileName == null ? 0 : this.fileName.hashCode());
     result = prime * result + (this.library == null ? 0 : this.library.hashCode());
     result = prime * result + (this.version == null ? 0 : this.version.hashCode());
     return result;
   }
 
+  @Override
+  public boolean isStreamed() {
+    return this.streamed;
+  }
+
+  /**
+   * Whether the content in the specified encoding is memory-mapped. The RAW content of large
+   * file-backed resources is mapped from the file itself and the compressed content from a sidecar
+   * file if a sidecar directory is configured. Optimized content lives on the heap.
+   */
+  private boolean isMapped(final ContentEncoding contentEncoding) {
+    return this.source.getFile() != null && this.optimizedContent == null
+        && MappedContentStore.isMappable(this.rawLength, this.configuration.getMappedThreshold())
+        && (ContentEncoding.RAW.equals(contentEncoding) || MappedContentStore
+            .isSidecarSupported(this.configuration.getSidecarDirectory(), contentEncoding));
+  }
+
+  /**
+   * Whether a RAW request that is not served from the cache should be served by inflating the
+   * compressed content. The RAW content is cached when the number of RAW bodies that were inflated
+   * reaches the promotion threshold. Memory-mapped and optimized content is available without
+   * inflating it.
+   */
+  private boolean isRawInflatedOnDemand() {
+    if (!this.compressedOnly || this.optimizedContent != null || isMapped(ContentEncoding.RAW)) {
+      return false;
+    }
+    long rawPromotionThreshold = this.configuration.getRawPromotionThreshold();
+    return rawPromotionThreshold < 0 || this.rawRequestCount.sum() < rawPromotionThreshold;
+  }
+
   private byte[] longToBytes(final long x) {
     ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
     buffer.putLong(x);
     return buffer.array();
   }
 
-  private synchronized byte[] readContentIntoCache(final ContentEncoding contentEncoding) {
-    byte[] contentData = this.cache.get(contentEncoding);
-    if (contentData == null) {
-      try (InputStream inputStream = this.resourceURL.openStream();) {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        OutputStream out;
-
-        // TODO store the deflate and gzip compressed format in the way that the common parts are
-        // not calculated and stored twice (as the compression part is the same, only the header and
-        // tail is different).
-        if (ContentEncoding.GZIP.equals(contentEncoding)) {
-          out = new GZIPOutputStream(bout);
-        } else if (ContentEncoding.DEFLATE.equals(contentEncoding)) {
-          out = new DeflaterOutputStream(bout);
+  private InputStream openContentStream() throws IOException {
+    byte[] lOptimizedContent = this.optimizedContent;
+    if (lOptimizedContent != null) {
+      return new ByteArrayInputStream(lOptimizedContent);
+    }
+    return this.source.openStream();
+  }
+
+  private void putIntoCache(final ContentEncoding contentEncoding,
+      final WebResourceContent content, final ContentBlobStore.BlobKey blobKey) {
+    WebResourceContent previousContent = this.cache.put(contentEncoding, content);
+    ContentBlobStore.BlobKey previousBlobKey = blobKey == null
+        ? this.cacheBlobKeys.remove(contentEncoding)
+        : this.cacheBlobKeys.put(contentEncoding, blobKey);
+    if (previousBlobKey != null) {
+      ContentBlobStore.release(previousBlobKey);
+    }
+    long previousLength = previousContent == null ? 0 : previousContent.getLength();
+    this.metrics.recordCacheSizeChange(this.library, contentEncoding.getHeaderValue(),
+        content.getLength() - previousLength);
+  }
+
+  private synchronized WebResourceContent readContentIntoCache(
+      final ContentEncoding contentEncoding) {
+    WebResourceContent content = this.cache.get(contentEncoding);
+    if (content == null) {
+      Object cacheFillEvent = FlightRecorderEvents.beginCacheFill();
+      long startTime = System.nanoTime();
+      try {
+        long inputLength;
+        ContentBlobStore.BlobKey blobKey = null;
+        if (isMapped(contentEncoding)) {
+          if (ContentEncoding.RAW.equals(contentEncoding)) {
+            content = MappedContentStore.map(this.source.getFile());
+          } else {
+            content = MappedContentStore.mapSidecar(this.configuration.getSidecarDirectory(),
+                this.etag, contentEncoding, (out) -> encodeContent(contentEncoding, out));
+          }
+          inputLength = this.rawLength;
+        } else if (this.compressedOnly && DeflatedContent.isSupported(contentEncoding)) {
+          // The gzip and deflate content only differ in the header and the trailer, so they
+          // share the compressed body
+          DeflatedContent lDeflatedContent = getDeflatedContent();
+          content = lDeflatedContent.toContent(contentEncoding);
+          inputLength = lDeflatedContent.getRawLength();
         } else {
-          out = bout;
+          blobKey = new ContentBlobStore.BlobKey(getContentDigest(), contentEncoding);
+          // Stays negative if the content is found in the blob store, so nothing is encoded
+          long[] encodedLength = new long[] { -1 };
+          content = ContentBlobStore.acquire(blobKey, () -> {
+            // Segments instead of one growing array, so large content is neither copied while it
+            // grows nor allocated as a humongous object
+            SegmentedOutputStream segmentedOut = new SegmentedOutputStream();
+            encodedLength[0] = encodeContent(contentEncoding, segmentedOut);
+            return segmentedOut.toContent();
+          }, WebResourceContent::getLength);
+          inputLength = encodedLength[0];
         }
-        byte[] buf = new byte[WebResourceImpl.COPY_BUFFER_SIZE];
-        int r = inputStream.read(buf);
-        while (r > -1) {
-          out.write(buf, 0, r);
-          r = inputStream.read(buf);
+        if (!this.destroyed) {
+          putIntoCache(contentEncoding, content, blobKey);
+        } else if (blobKey != null) {
+          ContentBlobStore.release(blobKey);
+        }
+        if (inputLength >= 0) {
+          this.metrics.recordCacheFill(contentEncoding.getHeaderValue(), inputLength,
+              content.getLength(), System.nanoTime() - startTime);
+          FlightRecorderEvents.commitCacheFill(cacheFillEvent, this.library, this.fileName,
+              this.version.toString(), contentEncoding.getHeaderValue(), inputLength,
+              content.getLength());
         }
-        out.close();
-        contentData = bout.toByteArray();
-        this.cache.put(contentEncoding, contentData);
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
     }
-    return contentData;
+    return content;
+  }
+
+  private void releaseDeflatedContent() {
+    if (this.deflatedContentBlobKey != null) {
+      ContentBlobStore.release(this.deflatedContentBlobKey);
+      this.deflatedContentBlobKey = null;
+    }
+    this.deflatedContent = null;
+  }
+
+  private void removeFromCache(final ContentEncoding contentEncoding) {
+    WebResourceContent previousContent = this.cache.remove(contentEncoding);
+    ContentBlobStore.BlobKey blobKey = this.cacheBlobKeys.remove(contentEncoding);
+    if (blobKey != null) {
+      ContentBlobStore.release(blobKey);
+    }
+    if (previousContent != null) {
+      this.metrics.recordCacheSizeChange(this.library, contentEncoding.getHeaderValue(),
+          -previousContent.getLength());
+    }
+  }
+
+  /**
+   * Reads the original content of the {@link WebResource} from the bundle without touching the
+   * cache.
+   *
+   * @return The original content.
+   */
+  public byte[] readSourceContent() {
+    try (InputStream inputStream = this.source.openStream()) {
+      int initialSize =
+          this.rawLength > 0 ? (int) this.rawLength : WebResourceImpl.COPY_BUFFER_SIZE;
+      ByteArrayOutputStream bout = new ByteArrayOutputStream(initialSize);
+      byte[] buf = new byte[WebResourceImpl.COPY_BUFFER_SIZE];
+      int r = inputStream.read(buf);
+      while (r > -1) {
+        bout.write(buf, 0, r);
+        r = inputStream.read(buf);
+      }
+      return bout.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
+  /**
+   * Calculates the ETag from the name, the version and the content of the resource. If the source
+   * can identify the content with a fingerprint (e.g. the CRC and the size of a JAR entry), the
+   * fingerprint is used instead of the content, so the resource does not have to be read.
+   */
   private String resolveETag() {
-    try (InputStream in = this.resourceURL.openStream()) {
+    byte[] fingerprint = this.source.getFingerprint();
+    if (fingerprint != null) {
+      return resolveETag(fingerprint);
+    }
+    // The digest of the content is kept, as it identifies the content in the blob store
+    byte[] contentDigestBytes;
+    try (InputStream in = this.source.openStream()) {
+      contentDigestBytes = WebResourceImpl.digest(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.contentDigest = String.format("%x", new BigInteger(1, contentDigestBytes));
+    return resolveETag(contentDigestBytes);
+  }
+
+  /**
+   * Calculates the ETag from the name, the version and the fingerprint or the digest of the
+   * content.
+   */
+  private String resolveETag(final byte[] contentIdentity) {
+    try {
       MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
 
       Charset defaultCharset = Charset.forName("UTF8");
       messageDigest.update(this.library.getBytes(defaultCharset));
       messageDigest.update(this.fileName.getBytes(defaultCharset));
       messageDigest.update(this.version.toString().getBytes(defaultCharset));
-      byte[] buf = new byte[WebResourceImpl.COPY_BUFFER_SIZE];
-      int r = in.read(buf);
-      while (r > -1) {
-        messageDigest.update(buf, 0, r);
-        r = in.read(buf);
-      }
+      messageDigest.update(contentIdentity);
       ByteArrayOutputStream bout = new ByteArrayOutputStream();
       bout.write(messageDigest.digest());
       bout.write(longToBytes(this.lastModified));
@@ -318,9 +792,31 @@ public class WebResourceImpl implements WebResource {
     }
   }
 
+  void setPreloadLinks(final List<PreloadLink> preloadLinks) {
+    this.preloadLinks = preloadLinks;
+    this.preloadLinkHeader = PreloadLink.toHeaderValue(preloadLinks, "");
+  }
+
+  void setVariants(final List<WebResource> variants) {
+    this.variants = variants;
+  }
+
   private String resolveLastModifiedRFC1123() {
     Instant instant = Instant.ofEpochMilli(this.lastModified);
     ZonedDateTime zonedDateTime = ZonedDateTime.ofInstant(instant, ZoneId.of("GMT"));
     return DateTimeFormatter.RFC_1123_DATE_TIME.format(zonedDateTime);
   }
+
+  /**
+   * Reads the content into the cache in the specified encoding if it is not cached yet. The call is
+   * not counted as a cache hit or miss.
+   *
+   * @param contentEncoding
+   *          The content encoding.
+   */
+  public void warm(final ContentEncoding contentEncoding) {
+    if (!this.streamed && !this.cache.containsKey(contentEncoding)) {
+      readContentIntoCache(contentEncoding);
+    }
+  }
 }
@@ -15,6 +15,12 @@
  */
 package org.everit.osgi.webresource.internal;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
 /**
  * Utility functions for internal usage.
  */
@@ -30,6 +36,32 @@ public final class WebResourceInternalUtil {
     return result;
   }
 
+  /**
+   * Resolves the local path that a <code>file:</code> location points to. The
+   * <code>reference:</code> prefix of bundle locations is accepted.
+   *
+   * @param location
+   *          The location, e.g. the location of a bundle or a <code>file:</code> URL.
+   * @return The path or an empty {@link Optional} if the location is not a local file.
+   */
+  public static Optional<Path> resolveLocalPath(final String location) {
+    if (location == null) {
+      return Optional.empty();
+    }
+    String fileLocation = location;
+    if (fileLocation.startsWith("reference:")) {
+      fileLocation = fileLocation.substring("reference:".length());
+    }
+    if (!fileLocation.startsWith("file:")) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(Paths.get(new URI(fileLocation)));
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
   private WebResourceInternalUtil() {
   }
 
@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Counters and histograms of the webresource subsystem. All counters are {@link LongAdder}s so
+ * recording is cheap even if many threads serve requests at the same time.
+ */
+public class WebResourceMetrics {
+
+  /**
+   * Counters of a library.
+   */
+  private static class LibraryMetrics {
+
+    final LongAdder cacheHits = new LongAdder();
+
+    final LongAdder cacheMisses = new LongAdder();
+
+    final LongAdder cachedBytes = new LongAdder();
+
+    final LongAdder requests = new LongAdder();
+
+    final LongAdder responseBytes = new LongAdder();
+  }
+
+  private static final int HTTP_NOT_FOUND = 404;
+
+  private static final int HTTP_NOT_MODIFIED = 304;
+
+  private static final int HTTP_OK = 200;
+
+  private static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+  private static String escapeLabelValue(final String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static LongAdder getOrCreateAdder(final Map<String, LongAdder> adders,
+      final String key) {
+    LongAdder adder = adders.get(key);
+    if (adder == null) {
+      adder = adders.computeIfAbsent(key, (k) -> new LongAdder());
+    }
+    return adder;
+  }
+
+  private final Map<String, LongAdder> abortedTransfersByReason = new ConcurrentSkipListMap<>();
+
+  private final LongAdder cacheHits = new LongAdder();
+
+  private final LongAdder cacheMisses = new LongAdder();
+
+  private final Map<String, LongAdder> cachedBytesByEncoding = new ConcurrentSkipListMap<>();
+
+  private final Map<String, LongAdder> compressionInputBytesByEncoding =
+      new ConcurrentSkipListMap<>();
+
+  private final Map<String, LongAdder> compressionOutputBytesByEncoding =
+      new ConcurrentSkipListMap<>();
+
+  private final Map<String, LatencyHistogram> compressionTimeByEncoding =
+      new ConcurrentSkipListMap<>();
+
+  private final Map<String, Long> ingestNanosByBundle = new ConcurrentSkipListMap<>();
+
+  private final LatencyHistogram ingestTime = new LatencyHistogram();
+
+  private final Map<String, LibraryMetrics> libraryMetricsByName = new ConcurrentSkipListMap<>();
+
+  private final LatencyHistogram lookupTime = new LatencyHistogram();
+
+  private final LongAdder requestsNotFound = new LongAdder();
+
+  private final LongAdder requestsNotModified = new LongAdder();
+
+  private final LongAdder requestsOk = new LongAdder();
+
+  private final LongAdder requestsOther = new LongAdder();
+
+  private final Map<String, LongAdder> responseBytesByEncoding = new ConcurrentSkipListMap<>();
+
+  private String bundleLabel(final Bundle bundle) {
+    return bundle.getSymbolicName() + ":" + bundle.getVersion() + ":" + bundle.getBundleId();
+  }
+
+  private Map<String, Long> sumAdders(final Map<String, LongAdder> adders) {
+    Map<String, Long> result = new TreeMap<>();
+    for (Entry<String, LongAdder> entry : adders.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().sum());
+    }
+    return result;
+  }
+
+  /**
+   * The number of asynchronous transfers that were aborted by reason.
+   *
+   * @return A new map where the keys are the reasons (e.g. error, timeout).
+   */
+  public Map<String, Long> getAbortedTransfersByReason() {
+    return sumAdders(this.abortedTransfersByReason);
+  }
+
+  /**
+   * The logical size of the cached content of all resources by content encoding. Content that is
+   * shared by several resources or encodings is counted for each of them, see
+   * {@link ContentBlobStore#getBlobBytes()} for the size of the shared content.
+   *
+   * @return A new map where the keys are the tokens of the content encodings.
+   */
+  public Map<String, Long> getCachedBytesByEncoding() {
+    return sumAdders(this.cachedBytesByEncoding);
+  }
+
+  /**
+   * The logical size of the cached content of all resources by library. Content that is shared by
+   * several resources or encodings is counted for each of them.
+   *
+   * @return A new map where the keys are the names of the libraries.
+   */
+  public Map<String, Long> getCachedBytesByLibrary() {
+    Map<String, Long> result = new TreeMap<>();
+    for (Entry<String, LibraryMetrics> entry : this.libraryMetricsByName.entrySet()) {
+      long cachedBytes = entry.getValue().cachedBytes.sum();
+      if (cachedBytes != 0) {
+        result.put(entry.getKey(), cachedBytes);
+      }
+    }
+    return result;
+  }
+
+  public long getCacheHits() {
+    return this.cacheHits.sum();
+  }
+
+  public long getCacheMisses() {
+    return this.cacheMisses.sum();
+  }
+
+  private LibraryMetrics getOrCreateLibraryMetrics(final String library) {
+    LibraryMetrics libraryMetrics = this.libraryMetricsByName.get(library);
+    if (libraryMetrics == null) {
+      libraryMetrics =
+          this.libraryMetricsByName.computeIfAbsent(library, (k) -> new LibraryMetrics());
+    }
+    return libraryMetrics;
+  }
+
+  /**
+   * Records an asynchronous transfer of a response body that was aborted before the whole body
+   * was sent.
+   *
+   * @param reason
+   *          The reason of the abort, e.g. error or timeout.
+   */
+  public void recordAbortedTransfer(final String reason) {
+    WebResourceMetrics.getOrCreateAdder(this.abortedTransfersByReason, reason).increment();
+  }
+
+  /**
+   * Records a cache lookup of a {@link org.everit.osgi.webresource.WebResource}.
+   *
+   * @param library
+   *          The library of the resource.
+   * @param hit
+   *          Whether the content was found in the cache.
+   */
+  public void recordCacheAccess(final String library, final boolean hit) {
+    LibraryMetrics libraryMetrics = getOrCreateLibraryMetrics(library);
+    if (hit) {
+      this.cacheHits.increment();
+      libraryMetrics.cacheHits.increment();
+    } else {
+      this.cacheMisses.increment();
+      libraryMetrics.cacheMisses.increment();
+    }
+  }
+
+  /**
+   * Records that content was added to or removed from the cache.
+   *
+   * @param library
+   *          The library of the resource.
+   * @param encoding
+   *          The token of the content encoding.
+   * @param delta
+   *          The change of the cache size in bytes.
+   */
+  public void recordCacheSizeChange(final String library, final String encoding,
+      final long delta) {
+    WebResourceMetrics.getOrCreateAdder(this.cachedBytesByEncoding, encoding).add(delta);
+    getOrCreateLibraryMetrics(library).cachedBytes.add(delta);
+  }
+
+  /**
+   * Records the calculation of the cached content of a resource in a specific encoding.
+   *
+   * @param encoding
+   *          The token of the content encoding.
+   * @param inputBytes
+   *          The size of the raw content.
+   * @param outputBytes
+   *          The size of the encoded content.
+   * @param durationNanos
+   *          The time it took to read and encode the content.
+   */
+  public void recordCacheFill(final String encoding, final long inputBytes,
+      final long outputBytes, final long durationNanos) {
+    WebResourceMetrics.getOrCreateAdder(this.compressionInputBytesByEncoding, encoding)
+        .add(inputBytes);
+    WebResourceMetrics.getOrCreateAdder(this.compressionOutputBytesByEncoding, encoding)
+        .add(outputBytes);
+
+    LatencyHistogram histogram = this.compressionTimeByEncoding.get(encoding);
+    if (histogram == null) {
+      histogram =
+          this.compressionTimeByEncoding.computeIfAbsent(encoding, (k) -> new LatencyHistogram());
+    }
+    histogram.record(durationNanos);
+  }
+
+  /**
+   * Records the processing time of a bundle by the extender.
+   *
+   * @param bundle
+   *          The processed bundle.
+   * @param durationNanos
+   *          The time it took to process the bundle.
+   */
+  public void recordIngest(final Bundle bundle, final long durationNanos) {
+    recordIngest(bundleLabel(bundle), durationNanos);
+  }
+
+  /**
+   * Records the processing time of a source of resources that is not a bundle, e.g. a
+   * {@link org.everit.osgi.webresource.provider.WebResourceProvider}.
+   *
+   * @param label
+   *          The label of the source in the metrics.
+   * @param durationNanos
+   *          The time it took to process the source.
+   */
+  public void recordIngest(final String label, final long durationNanos) {
+    this.ingestTime.record(durationNanos);
+    this.ingestNanosByBundle.put(label, durationNanos);
+  }
+
+  public void recordLookup(final long durationNanos) {
+    this.lookupTime.record(durationNanos);
+  }
+
+  /**
+   * Records a served request.
+   *
+   * @param library
+   *          The library of the served resource or <code>null</code> if the resource was not
+   *          found.
+   * @param status
+   *          The HTTP status of the response.
+   * @param encoding
+   *          The token of the content encoding of the response.
+   * @param sentBytes
+   *          The number of bytes that were sent in the body of the response.
+   */
+  public void recordRequest(final String library, final int status, final String encoding,
+      final long sentBytes) {
+    if (status == WebResourceMetrics.HTTP_OK) {
+      this.requestsOk.increment();
+    } else if (status == WebResourceMetrics.HTTP_NOT_MODIFIED) {
+      this.requestsNotModified.increment();
+    } else if (status == WebResourceMetrics.HTTP_NOT_FOUND) {
+      this.requestsNotFound.increment();
+    } else {
+      this.requestsOther.increment();
+    }
+
+    if (sentBytes > 0) {
+      WebResourceMetrics.getOrCreateAdder(this.responseBytesByEncoding, encoding).add(sentBytes);
+    }
+
+    if (library != null) {
+      LibraryMetrics libraryMetrics = getOrCreateLibraryMetrics(library);
+      libraryMetrics.requests.increment();
+      libraryMetrics.responseBytes.add(sentBytes);
+    }
+  }
+
+  /**
+   * Drops the ingest time of a bundle that is not tracked anymore.
+   *
+   * @param bundle
+   *          The bundle.
+   */
+  public void removeBundle(final Bundle bundle) {
+    removeIngest(bundleLabel(bundle));
+  }
+
+  /**
+   * Drops the ingest time of a source that was recorded by {@link #recordIngest(String, long)}.
+   *
+   * @param label
+   *          The label of the source.
+   */
+  public void removeIngest(final String label) {
+    this.ingestNanosByBundle.remove(label);
+  }
+
+  private void writeAdders(final PrintWriter writer, final String name, final String labelName,
+      final Map<String, LongAdder> adders) {
+    for (Entry<String, LongAdder> entry : adders.entrySet()) {
+      writer.print(name + "{" + labelName + "=\""
+          + WebResourceMetrics.escapeLabelValue(entry.getKey()) + "\"} " + entry.getValue().sum()
+          + "\n");
+    }
+  }
+
+  private void writeHeader(final PrintWriter writer, final String name, final String type,
+      final String help) {
+    writer.print("# HELP " + name + " " + help + "\n");
+    writer.print("# TYPE " + name + " " + type + "\n");
+  }
+
+  private void writeLibraryMetrics(final PrintWriter writer) {
+    writeHeader(writer, "webresource_library_requests_total", "counter",
+        "Number of requests that were answered with a resource of the library.");
+    for (Entry<String, LibraryMetrics> entry : this.libraryMetricsByName.entrySet()) {
+      writer.print("webresource_library_requests_total{library=\""
+          + WebResourceMetrics.escapeLabelValue(entry.getKey()) + "\"} "
+          + entry.getValue().requests.sum() + "\n");
+    }
+    writeHeader(writer, "webresource_library_response_bytes_total", "counter",
+        "Number of body bytes sent with resources of the library.");
+    for (Entry<String, LibraryMetrics> entry : this.libraryMetricsByName.entrySet()) {
+      writer.print("webresource_library_response_bytes_total{library=\""
+          + WebResourceMetrics.escapeLabelValue(entry.getKey()) + "\"} "
+          + entry.getValue().responseBytes.sum() + "\n");
+    }
+    writeHeader(writer, "webresource_library_cache_bytes", "gauge",
+        "Logical size of the cached content of the resources of the library. Shared content is"
+            + " counted for each resource.");
+    for (Entry<String, LibraryMetrics> entry : this.libraryMetricsByName.entrySet()) {
+      writer.print("webresource_library_cache_bytes{library=\""
+          + WebResourceMetrics.escapeLabelValue(entry.getKey()) + "\"} "
+          + entry.getValue().cachedBytes.sum() + "\n");
+    }
+    writeHeader(writer, "webresource_library_cache_requests_total", "counter",
+        "Number of cache lookups of the resources of the library.");
+    for (Entry<String, LibraryMetrics> entry : this.libraryMetricsByName.entrySet()) {
+      String library = WebResourceMetrics.escapeLabelValue(entry.getKey());
+      writer.print("webresource_library_cache_requests_total{library=\"" + library
+          + "\",result=\"hit\"} " + entry.getValue().cacheHits.sum() + "\n");
+      writer.print("webresource_library_cache_requests_total{library=\"" + library
+          + "\",result=\"miss\"} " + entry.getValue().cacheMisses.sum() + "\n");
+    }
+  }
+
+  /**
+   * Writes all metrics in Prometheus text exposition format.
+   *
+   * @param writer
+   *          The writer that the metrics are written to.
+   */
+  public void writePrometheus(final PrintWriter writer) {
+    writeHeader(writer, "webresource_requests_total", "counter",
+        "Number of webresource requests by response status.");
+    writer.print("webresource_requests_total{status=\"200\"} " + this.requestsOk.sum() + "\n");
+    writer.print("webresource_requests_total{status=\"304\"} " + this.requestsNotModified.sum()
+        + "\n");
+    writer.print("webresource_requests_total{status=\"404\"} " + this.requestsNotFound.sum()
+        + "\n");
+    writer.print("webresource_requests_total{status=\"other\"} " + this.requestsOther.sum()
+        + "\n");
+
+    writeHeader(writer, "webresource_response_bytes_total", "counter",
+        "Number of body bytes sent by content encoding.");
+    writeAdders(writer, "webresource_response_bytes_total", "encoding",
+        this.responseBytesByEncoding);
+
+    writeHeader(writer, "webresource_async_aborted_total", "counter",
+        "Number of asynchronous body transfers that were aborted by reason.");
+    writeAdders(writer, "webresource_async_aborted_total", "reason",
+        this.abortedTransfersByReason);
+
+    writeHeader(writer, "webresource_cache_requests_total", "counter",
+        "Number of cache lookups of resource content.");
+    writer.print("webresource_cache_requests_total{result=\"hit\"} " + this.cacheHits.sum()
+        + "\n");
+    writer.print("webresource_cache_requests_total{result=\"miss\"} " + this.cacheMisses.sum()
+        + "\n");
+
+    writeHeader(writer, "webresource_cache_bytes", "gauge",
+        "Logical size of the cached content by content encoding. Shared content is counted for"
+            + " each resource and encoding.");
+    writeAdders(writer, "webresource_cache_bytes", "encoding", this.cachedBytesByEncoding);
+
+    writeHeader(writer, "webresource_blob_store_blobs", "gauge",
+        "Number of distinct cached contents that are shared by identical resources.");
+    writer.print("webresource_blob_store_blobs " + ContentBlobStore.getBlobCount() + "\n");
+    writeHeader(writer, "webresource_blob_store_references", "gauge",
+        "Number of references of resources to the shared cached contents.");
+    writer.print("webresource_blob_store_references " + ContentBlobStore.getReferenceCount()
+        + "\n");
+    writeHeader(writer, "webresource_blob_store_bytes", "gauge",
+        "Size of the distinct cached contents, each counted once.");
+    writer.print("webresource_blob_store_bytes " + ContentBlobStore.getBlobBytes() + "\n");
+
+    writeHeader(writer, "webresource_cache_fill_seconds", "histogram",
+        "Time of reading and encoding resource content into the cache by content encoding.");
+    for (Entry<String, LatencyHistogram> entry : this.compressionTimeByEncoding.entrySet()) {
+      entry.getValue().writePrometheus(writer, "webresource_cache_fill_seconds",
+          "encoding=\"" + WebResourceMetrics.escapeLabelValue(entry.getKey()) + "\",");
+    }
+
+    writeHeader(writer, "webresource_cache_fill_input_bytes_total", "counter",
+        "Number of raw bytes that were encoded into the cache.");
+    writeAdders(writer, "webresource_cache_fill_input_bytes_total", "encoding",
+        this.compressionInputBytesByEncoding);
+    writeHeader(writer, "webresource_cache_fill_output_bytes_total", "counter",
+        "Number of encoded bytes that were stored in the cache.");
+    writeAdders(writer, "webresource_cache_fill_output_bytes_total", "encoding",
+        this.compressionOutputBytesByEncoding);
+
+    writeHeader(writer, "webresource_compression_ratio", "gauge",
+        "Encoded size divided by raw size of all cache fills by content encoding.");
+    for (Entry<String, LongAdder> entry : this.compressionInputBytesByEncoding.entrySet()) {
+      long inputBytes = entry.getValue().sum();
+      LongAdder outputBytes = this.compressionOutputBytesByEncoding.get(entry.getKey());
+      if (inputBytes > 0 && outputBytes != null) {
+        writer.print("webresource_compression_ratio{encoding=\""
+            + WebResourceMetrics.escapeLabelValue(entry.getKey()) + "\"} "
+            + (double) outputBytes.sum() / inputBytes + "\n");
+      }
+    }
+
+    writeHeader(writer, "webresource_lookup_seconds", "histogram",
+        "Time of finding resources in the container.");
+    this.lookupTime.writePrometheus(writer, "webresource_lookup_seconds", "");
+
+    writeHeader(writer, "webresource_ingest_seconds", "histogram",
+        "Time of processing bundles by the extender.");
+    this.ingestTime.writePrometheus(writer, "webresource_ingest_seconds", "");
+
+    writeHeader(writer, "webresource_bundle_ingest_seconds", "gauge",
+        "Time of processing the currently tracked bundles by the extender.");
+    for (Entry<String, Long> entry : this.ingestNanosByBundle.entrySet()) {
+      writer.print("webresource_bundle_ingest_seconds{bundle=\""
+          + WebResourceMetrics.escapeLabelValue(entry.getKey()) + "\"} "
+          + entry.getValue() / WebResourceMetrics.NANOS_PER_SECOND + "\n");
+    }
+
+    writeLibraryMetrics(writer);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Servlet that exposes the {@link WebResourceMetrics} in Prometheus text format.
+ */
+public class WebResourceMetricsServlet implements Servlet {
+
+  private final WebResourceMetrics metrics;
+
+  private ServletConfig servletConfig;
+
+  public WebResourceMetricsServlet(final WebResourceMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  @Override
+  public ServletConfig getServletConfig() {
+    return this.servletConfig;
+  }
+
+  @Override
+  public String getServletInfo() {
+    return "Everit WebResource Metrics";
+  }
+
+  @Override
+  public void init(final ServletConfig config) throws ServletException {
+    this.servletConfig = config;
+  }
+
+  @Override
+  public void service(final ServletRequest req, final ServletResponse res)
+      throws ServletException, IOException {
+    res.setContentType("text/plain; version=0.0.4; charset=utf-8");
+    PrintWriter writer = res.getWriter();
+    this.metrics.writePrometheus(writer);
+    writer.flush();
+  }
+}
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -29,7 +30,9 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
+import org.everit.osgi.webresource.ContentEncoding;
 import org.everit.osgi.webresource.WebResourceContainer;
 import org.everit.osgi.webresource.WebResourceURIGenerator;
 import org.everit.osgi.webresource.util.WebResourceUtil;
@@ -59,16 +62,83 @@ public class WebResourceServlet implements Servlet {
     }
   }
 
+  /**
+   * Response wrapper that remembers the status, the content encoding and the content length of the
+   * response so they can be recorded in the {@link WebResourceMetrics}.
+   */
+  private static class MetricsRecordingResponse extends HttpServletResponseWrapper {
+
+    private String contentEncoding = ContentEncoding.RAW.getHeaderValue();
+
+    private long contentLength;
+
+    private int status = HttpServletResponse.SC_OK;
+
+    MetricsRecordingResponse(final HttpServletResponse response) {
+      super(response);
+    }
+
+    @Override
+    public void sendError(final int sc) throws IOException {
+      this.status = sc;
+      super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) throws IOException {
+      this.status = sc;
+      super.sendError(sc, msg);
+    }
+
+    @Override
+    public void setContentLength(final int len) {
+      this.contentLength = len;
+      super.setContentLength(len);
+    }
+
+    @Override
+    public void setContentLengthLong(final long len) {
+      this.contentLength = len;
+      super.setContentLengthLong(len);
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+      if ("Content-Encoding".equalsIgnoreCase(name)) {
+        this.contentEncoding = value;
+      }
+      super.setHeader(name, value);
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+      this.status = sc;
+      super.setStatus(sc);
+    }
+  }
+
+  private final Consumer<String> abortedTransferListener;
+
+  private final WebResourceConfiguration configuration;
+
+  private final ContainerOutputAdapters containerOutputAdapters = new ContainerOutputAdapters();
+
   private Context context;
 
+  private final WebResourceMetrics metrics;
+
   private ServletConfig servletConfig;
 
   private WebResourceServletURIGenerator uriGenerator;
 
   private final WebResourceContainer webResourceContainer;
 
-  public WebResourceServlet(final WebResourceContainer webResourceContainer) {
+  public WebResourceServlet(final WebResourceContainer webResourceContainer,
+      final WebResourceMetrics metrics, final WebResourceConfiguration configuration) {
     this.webResourceContainer = webResourceContainer;
+    this.metrics = metrics;
+    this.configuration = configuration;
+    this.abortedTransferListener = metrics::recordAbortedTransfer;
   }
 
   @Override
@@ -77,6 +147,7 @@ public class WebResourceServlet implements Servlet {
     uriGenerators.remove(this.uriGenerator);
     this.uriGenerator = null;
     this.context = null;
+    this.containerOutputAdapters.clear();
   }
 
   private ConcurrentLinkedQueue<WebResourceURIGenerator> getOrCreateURIGeneratorQueue() {
@@ -152,13 +223,42 @@ public class WebResourceServlet implements Servlet {
     }
   }
 
+  private String resolveLibrary(final HttpServletRequest req) {
+    String pathInfo = req.getPathInfo();
+    if (pathInfo == null) {
+      pathInfo = req.getServletPath();
+    }
+    int lastIndexOfSlash = pathInfo.lastIndexOf('/');
+    if (lastIndexOfSlash > 0) {
+      return pathInfo.substring(1, lastIndexOfSlash);
+    }
+    return "";
+  }
+
   @Override
   public void service(final ServletRequest req, final ServletResponse res) throws ServletException,
       IOException {
 
     HttpServletRequest httpReq = WebResourceInternalUtil.cast(req);
-    HttpServletResponse httpRes = WebResourceInternalUtil.cast(res);
+    MetricsRecordingResponse httpRes =
+        new MetricsRecordingResponse(WebResourceInternalUtil.cast(res));
 
-    WebResourceUtil.findWebResourceAndWriteResponse(this.webResourceContainer, httpReq, httpRes);
+    httpReq.setAttribute(AsyncTransfer.REQUEST_ATTR_ABORT_LISTENER, this.abortedTransferListener);
+    httpReq.setAttribute(WebResourceConfiguration.REQUEST_ATTR_CONFIGURATION, this.configuration);
+    httpReq.setAttribute(ContainerOutputAdapters.REQUEST_ATTR_CONTAINER_OUTPUT_ADAPTERS,
+        this.containerOutputAdapters);
+    WebResourceServletURIGenerator lUriGenerator = this.uriGenerator;
+    String pathSuffix = lUriGenerator == null ? "" : lUriGenerator.getPathSuffix();
+    WebResourceUtil.findWebResourceAndWriteResponse(this.webResourceContainer, httpReq, httpRes,
+        pathSuffix);
+
+    String library = null;
+    if (httpRes.status == HttpServletResponse.SC_OK
+        || httpRes.status == HttpServletResponse.SC_NOT_MODIFIED) {
+      library = resolveLibrary(httpReq);
+    }
+    long sentBytes = httpRes.status == HttpServletResponse.SC_OK
+        && !"HEAD".equals(httpReq.getMethod()) ? httpRes.contentLength : 0;
+    this.metrics.recordRequest(library, httpRes.status, httpRes.contentEncoding, sentBytes);
   }
 }
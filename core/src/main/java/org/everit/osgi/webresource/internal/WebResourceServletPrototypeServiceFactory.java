@@ -27,17 +27,24 @@ import org.osgi.framework.ServiceRegistration;
  */
 public class WebResourceServletPrototypeServiceFactory implements PrototypeServiceFactory<Servlet> {
 
+  private final WebResourceConfiguration configuration;
+
+  private final WebResourceMetrics metrics;
+
   private final WebResourceContainer webResourceContainer;
 
   public WebResourceServletPrototypeServiceFactory(
-      final WebResourceContainer webResourceContainer) {
+      final WebResourceContainer webResourceContainer, final WebResourceMetrics metrics,
+      final WebResourceConfiguration configuration) {
 
     this.webResourceContainer = webResourceContainer;
+    this.metrics = metrics;
+    this.configuration = configuration;
   }
 
   @Override
   public Servlet getService(final Bundle bundle, final ServiceRegistration<Servlet> registration) {
-    return new WebResourceServlet(this.webResourceContainer);
+    return new WebResourceServlet(this.webResourceContainer, this.metrics, this.configuration);
   }
 
   @Override
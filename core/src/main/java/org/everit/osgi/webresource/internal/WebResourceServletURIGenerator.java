@@ -29,6 +29,24 @@ import org.everit.osgi.webresource.WebResourceURIGenerator;
  */
 public class WebResourceServletURIGenerator implements WebResourceURIGenerator {
 
+  /**
+   * Appends the file name, the path suffix and the parameters of a {@link WebResource} URI. The
+   * generated URIs and the preload links of the {@link WebResource}s are built by this function,
+   * so they are the same for the same resource.
+   */
+  static void appendFileURI(final StringBuilder sb, final String file, final String pathSuffix,
+      final Optional<String> versionRange, final long lastModified) {
+    sb.append(file).append(pathSuffix);
+
+    char parameterSeparator = '?';
+    if (versionRange.isPresent() && versionRange.get().length() > 0) {
+      sb.append(parameterSeparator).append("version=").append(versionRange.get());
+      parameterSeparator = '&';
+    }
+
+    sb.append(parameterSeparator).append("t=").append(lastModified);
+  }
+
   private String pathPrefix;
 
   private String pathSuffix;
@@ -80,19 +98,24 @@ public class WebResourceServletURIGenerator implements WebResourceURIGenerator {
     if (lib != null && lib.length() > 0) {
       sb.append(lib).append("/");
     }
-    sb.append(file);
+    WebResourceServletURIGenerator.appendFileURI(sb, file, lPathSuffix, versionRange,
+        webResource.get().getLastModified());
 
-    sb.append(lPathSuffix);
+    return Optional.of(sb.toString());
+  }
 
-    char parameterSeparator = '?';
-    if (versionRange.isPresent() && versionRange.get().length() > 0) {
-      parameterSeparator = '&';
-      sb.append(parameterSeparator).append("version=").append(versionRange);
+  /**
+   * The suffix of the URL pattern of the servlet, e.g. <code>.res</code> for <code>*.res</code>,
+   * or an empty String if the servlet is mapped by a path prefix.
+   */
+  String getPathSuffix() {
+    ReadLock readLock = this.rwLock.readLock();
+    readLock.lock();
+    try {
+      return this.pathSuffix;
+    } finally {
+      readLock.unlock();
     }
-
-    sb.append(parameterSeparator).append("t=").append(webResource.get().getLastModified());
-
-    return Optional.of(sb.toString());
   }
 
   /**
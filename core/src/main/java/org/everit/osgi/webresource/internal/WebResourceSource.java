@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * The place where the raw content of a {@link WebResourceImpl} is read from.
+ */
+interface WebResourceSource {
+
+  /**
+   * Bytes that identify the content without reading it, e.g. the CRC and the size of a JAR entry
+   * from the central directory.
+   *
+   * @return The fingerprint or <code>null</code> if the content has to be read to identify it.
+   */
+  byte[] getFingerprint();
+
+  /**
+   * The file that holds exactly the raw content, so it can be memory-mapped.
+   *
+   * @return The file or <code>null</code> if the content is not available as a file.
+   */
+  Path getFile();
+
+  /**
+   * The last modification time of the content in milliseconds since the epoch.
+   */
+  long getLastModified();
+
+  /**
+   * The length of the raw content or -1 if it is not known.
+   */
+  long getLength();
+
+  /**
+   * Opens a stream that reads the raw content.
+   *
+   * @return The stream.
+   * @throws IOException
+   *           if the content cannot be read.
+   */
+  InputStream openStream() throws IOException;
+}
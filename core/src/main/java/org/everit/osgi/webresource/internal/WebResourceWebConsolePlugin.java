@@ -17,11 +17,18 @@ package org.everit.osgi.webresource.internal;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.Set;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -35,21 +42,187 @@ import org.everit.osgi.webresource.ContentEncoding;
 import org.everit.osgi.webresource.WebResourceConstants;
 import org.everit.osgi.webresource.WebResourceContainer;
 import org.everit.osgi.webresource.util.WebResourceUtil;
-import org.osgi.framework.Version;
+import org.osgi.framework.Bundle;
 
 /**
- * Webconsole plugin that shows all available webresources and cache data.
+ * Webconsole plugin that shows all available webresources and cache data. The HTML page shows the
+ * aggregated cache state and a paginated view of the resources ordered by size, hits, compression
+ * ratio or name. All resources can be streamed in JSON format from the
+ * <code>resources.json</code> sub-path.
  */
 public class WebResourceWebConsolePlugin implements Servlet {
 
+  /**
+   * A resource with the snapshot of the values that the sorting is based on. The values of the
+   * resource may change during sorting that would break the contract of the comparators.
+   */
+  private static final class ResourceRow {
+
+    final double compressionRatio;
+
+    final long hitCount;
+
+    final WebResourceImpl resource;
+
+    ResourceRow(final WebResourceImpl resource, final ContentEncoding[] contentEncodings) {
+      this.resource = resource;
+      this.hitCount = resource.getHitCount();
+      this.compressionRatio =
+          WebResourceWebConsolePlugin.resolveCompressionRatio(resource, contentEncodings);
+    }
+  }
+
+  private static final int DEFAULT_LIMIT = 50;
+
+  private static final int FIXED_COLUMN_COUNT = 9;
+
+  private static final int MAX_LIMIT = 1000;
+
+  private static final String PARAM_LIMIT = "limit";
+
+  private static final String PARAM_OFFSET = "offset";
+
+  private static final String PARAM_SORT = "sort";
+
+  private static final String PATH_RESOURCES_JSON = "/resources.json";
+
+  private static final String SORT_HITS = "hits";
+
+  private static final String SORT_NAME = "name";
+
+  private static final String SORT_RATIO = "ratio";
+
+  private static final String SORT_SIZE = "size";
+
+  private static final int UNICODE_ESCAPE_LIMIT = 0x20;
+
+  /**
+   * Encodes every segment of a slash separated path for the use in a URI.
+   */
+  private static String encodePathSegments(final String path) {
+    String[] segments = path.split("/", -1);
+    StringBuilder sb = new StringBuilder(path.length());
+    for (int i = 0; i < segments.length; i++) {
+      if (i > 0) {
+        sb.append('/');
+      }
+      sb.append(WebResourceWebConsolePlugin.encodeURIComponent(segments[i]));
+    }
+    return sb.toString();
+  }
+
+  private static String encodeURIComponent(final String value) {
+    try {
+      // URLEncoder encodes for forms where the space is a plus sign
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("+", "%20");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String escapeHtml(final String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+        .replace("\"", "&quot;").replace("'", "&#39;");
+  }
+
+  private static String escapeJson(final String value) {
+    StringBuilder sb = new StringBuilder(value.length() + 2);
+    sb.append('"');
+    for (int i = 0, n = value.length(); i < n; i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < WebResourceWebConsolePlugin.UNICODE_ESCAPE_LIMIT) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+    return sb.toString();
+  }
+
+  private static int parseIntParameter(final ServletRequest req, final String name,
+      final int defaultValue, final int maxValue) {
+    String value = req.getParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Math.max(0, Math.min(Integer.parseInt(value), maxValue));
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Resolves the ratio of the smallest cached encoded content and the raw content.
+   *
+   * @return The ratio or {@link Double#NaN} if the resource is not cached in any encoding apart
+   *         from RAW or the resource is empty.
+   */
+  static double resolveCompressionRatio(final WebResourceImpl resource,
+      final ContentEncoding[] contentEncodings) {
+    long rawLength = resource.getRawLength();
+    if (rawLength == 0) {
+      return Double.NaN;
+    }
+    long smallestSize = -1;
+    for (ContentEncoding contentEncoding : contentEncodings) {
+      if (!ContentEncoding.RAW.equals(contentEncoding)) {
+        Long cacheSize = resource.getCacheSize(contentEncoding);
+        if (cacheSize != null && (smallestSize < 0 || cacheSize < smallestSize)) {
+          smallestSize = cacheSize;
+        }
+      }
+    }
+    return smallestSize < 0 ? Double.NaN : (double) smallestSize / rawLength;
+  }
+
+  /**
+   * The id of the bundle of the resource or -1 if the resource comes from a provider.
+   */
+  private static long resolveBundleId(final WebResourceImpl resource) {
+    Bundle bundle = resource.getBundle();
+    return bundle == null ? -1 : bundle.getBundleId();
+  }
+
+  private static Comparator<ResourceRow> resolveComparator(final String sort) {
+    Comparator<ResourceRow> nameComparator = Comparator
+        .comparing((ResourceRow row) -> row.resource.getLibrary())
+        .thenComparing((row) -> row.resource.getFileName())
+        .thenComparing((row) -> row.resource.getVersion())
+        .thenComparingLong((row) -> WebResourceWebConsolePlugin.resolveBundleId(row.resource));
+
+    if (WebResourceWebConsolePlugin.SORT_HITS.equals(sort)) {
+      return Comparator.comparingLong((ResourceRow row) -> row.hitCount).reversed()
+          .thenComparing(nameComparator);
+    } else if (WebResourceWebConsolePlugin.SORT_RATIO.equals(sort)) {
+      // Double.compare puts NaN after every number so not compressed resources come last
+      return Comparator.comparingDouble((ResourceRow row) -> row.compressionRatio)
+          .thenComparing(nameComparator);
+    } else if (WebResourceWebConsolePlugin.SORT_NAME.equals(sort)) {
+      return nameComparator;
+    } else {
+      return Comparator.comparingLong((ResourceRow row) -> row.resource.getRawLength()).reversed()
+          .thenComparing(nameComparator);
+    }
+  }
+
+  private final WebResourceMetrics metrics;
+
   private final WebResourceContainerImpl resourceContainer;
 
   private final WebResourceContainer webResourceContainer;
 
+  /**
+   * Constructor.
+   */
   public WebResourceWebConsolePlugin(final WebResourceContainerImpl resourceContainer,
-      final WebResourceContainer webResourceContainer) {
+      final WebResourceContainer webResourceContainer, final WebResourceMetrics metrics) {
     this.resourceContainer = resourceContainer;
     this.webResourceContainer = webResourceContainer;
+    this.metrics = metrics;
   }
 
   @Override
@@ -66,7 +239,7 @@ public class WebResourceWebConsolePlugin implements Servlet {
     return "Everit WebResource Webconsole plugin";
   }
 
-  private String getStringValue(final Integer value) {
+  private String getStringValue(final Long value) {
     if (value == null) {
       return "empty";
     } else {
@@ -78,87 +251,108 @@ public class WebResourceWebConsolePlugin implements Servlet {
   public void init(final ServletConfig config) throws ServletException {
   }
 
-  private void respondPluginPage(final ServletResponse resp,
-      final String pluginRootURI)
+  private void respondJson(final ServletRequest req, final ServletResponse resp)
       throws IOException {
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
     PrintWriter writer = resp.getWriter();
-    writer.write("<table class='content'>");
-
-    writeTableHead(writer);
+    ContentEncoding[] contentEncodings = ContentEncoding.values();
 
-    writer.write("<tbody>");
+    Consumer<WebResourceImpl> resourceWriter = new Consumer<WebResourceImpl>() {
+      private boolean first = true;
 
-    int rawCacheSizeSum = 0;
-    int deflateCacheSizeSum = 0;
-    int gzipCacheSizeSum = 0;
-    Map<String, LibContainer> libContainersByName = this.resourceContainer.getLibContainersByName();
-    DecimalFormat format = new DecimalFormat();
-    for (Entry<String, LibContainer> libContainersByNameEntry : libContainersByName.entrySet()) {
-      String library = libContainersByNameEntry.getKey();
-      LibContainer libContainer = libContainersByNameEntry.getValue();
-
-      Map<String, NavigableMap<Version, Set<WebResourceImpl>>> versionedResourcesByName =
-          libContainer.getVersionedResourcesByName();
-
-      for (Entry<String, NavigableMap<Version, Set<WebResourceImpl>>> versionedResourcesByNameEntry : versionedResourcesByName // CS_DISABLE_LINE_LENGTH
-          .entrySet()) {
-
-        String fileName = versionedResourcesByNameEntry.getKey();
-        NavigableMap<Version, Set<WebResourceImpl>> resourcesByVersion =
-            versionedResourcesByNameEntry.getValue();
-
-        for (Entry<Version, Set<WebResourceImpl>> resourcesByVersionEntry : resourcesByVersion
-            .entrySet()) {
-          Version version = resourcesByVersionEntry.getKey();
-          Set<WebResourceImpl> resources = resourcesByVersionEntry.getValue();
-          for (WebResourceImpl resource : resources) {
-            writer.write("<tr><td class='content'>" + library + "</td>");
-
-            writer.write("<td class='content'><a href=\"" + pluginRootURI + "/" + library
-                + ("".equals(library) ? "" : "/")
-                + fileName + ".resource?" + WebResourceConstants.REQUEST_PARAM_VERSION_RANGE + "=["
-                + version.toString() + "," + version.toString() + "]\">" + fileName + "</a></td>");
-
-            writer.write("<td class='content'>" + version + "</td>");
-            writer.write("<td class='content'>" + resource.getContentType() + "</td>");
-            writer.write("<td class='content'>" + resource.getRawLength() + "</td>");
-            writer.write("<td class='content'>" + resource.getBundle().toString() + "</td>");
-            Map<ContentEncoding, Integer> cacheState = resource.getCacheState();
-
-            Integer rawCacheSize = cacheState.get(ContentEncoding.RAW);
-            rawCacheSizeSum += rawCacheSize == null ? 0 : rawCacheSize;
-            writer.write("<td class='content'>" + getStringValue(rawCacheSize) + "</td>");
-
-            Integer deflateCacheSize = cacheState.get(ContentEncoding.DEFLATE);
-            deflateCacheSizeSum += deflateCacheSize == null ? 0 : deflateCacheSize;
-            writer.write("<td class='content'>" + getStringValue(deflateCacheSize) + "</td>");
-
-            Integer gzipCacheSize = cacheState.get(ContentEncoding.GZIP);
-            gzipCacheSizeSum += gzipCacheSize == null ? 0 : gzipCacheSize;
-            writer.write("<td class='content'>" + getStringValue(gzipCacheSize) + "</td></tr>");
-          }
+      @Override
+      public void accept(final WebResourceImpl resource) {
+        if (!this.first) {
+          writer.write(',');
         }
+        this.first = false;
+        writeJsonResource(writer, resource, contentEncodings);
+      }
+    };
+
+    writer.write("{\"cache\":{");
+    writeJsonCacheSizes(writer, this.metrics.getCachedBytesByEncoding());
+    writer.write("},\"resources\":[");
+    if (req.getParameter(WebResourceWebConsolePlugin.PARAM_LIMIT) == null
+        && req.getParameter(WebResourceWebConsolePlugin.PARAM_SORT) == null) {
+      // Streaming all resources without collecting them
+      this.resourceContainer.forEachWebResource(resourceWriter);
+    } else {
+      int offset = WebResourceWebConsolePlugin.parseIntParameter(req,
+          WebResourceWebConsolePlugin.PARAM_OFFSET, 0, Integer.MAX_VALUE);
+      int limit = WebResourceWebConsolePlugin.parseIntParameter(req,
+          WebResourceWebConsolePlugin.PARAM_LIMIT, WebResourceWebConsolePlugin.DEFAULT_LIMIT,
+          WebResourceWebConsolePlugin.MAX_LIMIT);
+      for (ResourceRow row : selectRows(req.getParameter(WebResourceWebConsolePlugin.PARAM_SORT),
+          offset, limit, contentEncodings)) {
+        resourceWriter.accept(row.resource);
       }
     }
-    writer.write("</tbody>");
-    writer.write("</table>");
+    writer.write("]}");
+  }
+
+  private void respondPluginPage(final ServletRequest req, final ServletResponse resp,
+      final String pluginRootURI) throws IOException {
+    PrintWriter writer = resp.getWriter();
+    ContentEncoding[] contentEncodings = ContentEncoding.values();
+    DecimalFormat format = new DecimalFormat();
+
+    writeSummary(writer, format);
+
+    String sort = req.getParameter(WebResourceWebConsolePlugin.PARAM_SORT);
+    if (sort == null) {
+      sort = WebResourceWebConsolePlugin.SORT_SIZE;
+    }
+    int offset = WebResourceWebConsolePlugin.parseIntParameter(req,
+        WebResourceWebConsolePlugin.PARAM_OFFSET, 0, Integer.MAX_VALUE);
+    int limit = WebResourceWebConsolePlugin.parseIntParameter(req,
+        WebResourceWebConsolePlugin.PARAM_LIMIT, WebResourceWebConsolePlugin.DEFAULT_LIMIT,
+        WebResourceWebConsolePlugin.MAX_LIMIT);
+
+    List<ResourceRow> rows = selectRows(sort, offset, limit, contentEncodings);
+
+    writePagination(writer, pluginRootURI, sort, offset, limit, rows.size() == limit);
 
     writer.write("<table class='content'>");
-    writer.write("<tr><th class='content container' colspan='2'>Cache state</th></tr>");
-    writer.write("<tr><td class='content'>Raw</td><td class='content'>"
-        + format.format(rawCacheSizeSum)
-        + "</td></tr>");
-    writer.write("<tr><td class='content'>Deflate</td><td class='content'>"
-        + format.format(deflateCacheSizeSum)
-        + "</td></tr>");
-    writer.write("<tr><td class='content'>GZip</td><td class='content'>"
-        + format.format(gzipCacheSizeSum)
-        + "</td></tr>");
-    writer.write("<tr><td class='content'>Sum</td><td class='content'>"
-        + format.format(rawCacheSizeSum + deflateCacheSizeSum + gzipCacheSizeSum) + "</td></tr>");
+    writeTableHead(writer, pluginRootURI, contentEncodings, limit);
+    writer.write("<tbody>");
+    for (ResourceRow row : rows) {
+      writeTableRow(writer, pluginRootURI, row, contentEncodings);
+    }
+    writer.write("</tbody>");
     writer.write("</table>");
   }
 
+  /**
+   * Selects a page of resources. Only <code>offset + limit</code> resources are held in memory
+   * while iterating through the container.
+   */
+  private List<ResourceRow> selectRows(final String sort, final int offset, final int limit,
+      final ContentEncoding[] contentEncodings) {
+    Comparator<ResourceRow> comparator = WebResourceWebConsolePlugin.resolveComparator(sort);
+    long capacity = Math.min((long) offset + limit, Integer.MAX_VALUE);
+
+    // The head of the queue is the worst of the selected rows
+    PriorityQueue<ResourceRow> queue = new PriorityQueue<>(comparator.reversed());
+    this.resourceContainer.forEachWebResource((resource) -> {
+      ResourceRow row = new ResourceRow(resource, contentEncodings);
+      if (queue.size() < capacity) {
+        queue.add(row);
+      } else if (capacity > 0 && comparator.compare(row, queue.peek()) < 0) {
+        queue.poll();
+        queue.add(row);
+      }
+    });
+
+    List<ResourceRow> rows = new ArrayList<>(queue);
+    rows.sort(comparator);
+    if (offset >= rows.size()) {
+      return new ArrayList<>();
+    }
+    return rows.subList(offset, rows.size());
+  }
+
   @Override
   public void service(final ServletRequest req, final ServletResponse res) throws ServletException,
       IOException {
@@ -168,7 +362,9 @@ public class WebResourceWebConsolePlugin implements Servlet {
     String pluginRootURI = (String) req.getAttribute("felix.webconsole.pluginRoot");
     String requestURI = httpReq.getRequestURI();
     if (requestURI.equals(pluginRootURI)) {
-      respondPluginPage(res, pluginRootURI);
+      respondPluginPage(req, res, pluginRootURI);
+    } else if (requestURI.equals(pluginRootURI + WebResourceWebConsolePlugin.PATH_RESOURCES_JSON)) {
+      respondJson(req, res);
     } else if (requestURI.endsWith(".resource")) {
       WebconsoleHttpServletRequest noAsyncRequest = new WebconsoleHttpServletRequest(httpReq);
       WebResourceUtil.findWebResourceAndWriteResponse(this.webResourceContainer, noAsyncRequest,
@@ -178,18 +374,171 @@ public class WebResourceWebConsolePlugin implements Servlet {
     }
   }
 
-  private void writeTableHead(final PrintWriter writer) {
+  private void writeJsonCacheSizes(final PrintWriter writer, final Map<String, Long> cacheSizes) {
+    boolean first = true;
+    for (Entry<String, Long> entry : cacheSizes.entrySet()) {
+      if (!first) {
+        writer.write(',');
+      }
+      first = false;
+      writer.write(WebResourceWebConsolePlugin.escapeJson(entry.getKey()) + ":"
+          + entry.getValue());
+    }
+  }
+
+  private void writeJsonResource(final PrintWriter writer, final WebResourceImpl resource,
+      final ContentEncoding[] contentEncodings) {
+    writer.write("{\"library\":" + WebResourceWebConsolePlugin.escapeJson(resource.getLibrary()));
+    writer.write(",\"file\":" + WebResourceWebConsolePlugin.escapeJson(resource.getFileName()));
+    writer.write(",\"version\":\"" + resource.getVersion() + "\"");
+    writer.write(",\"contentType\":"
+        + WebResourceWebConsolePlugin.escapeJson(resource.getContentType()));
+    writer.write(",\"bundleId\":" + WebResourceWebConsolePlugin.resolveBundleId(resource));
+    writer.write(",\"size\":" + resource.getRawLength());
+    Optional<Long> optimizedLength = resource.getOptimizedLength();
+    if (optimizedLength.isPresent()) {
+      writer.write(",\"optimizedSize\":" + optimizedLength.get());
+    }
+    writer.write(",\"hits\":" + resource.getHitCount());
+    writer.write(",\"cache\":{");
+    boolean first = true;
+    for (ContentEncoding contentEncoding : contentEncodings) {
+      Long cacheSize = resource.getCacheSize(contentEncoding);
+      if (cacheSize != null) {
+        if (!first) {
+          writer.write(',');
+        }
+        first = false;
+        writer.write(WebResourceWebConsolePlugin.escapeJson(contentEncoding.getHeaderValue())
+            + ":" + cacheSize);
+      }
+    }
+    writer.write("}}");
+  }
+
+  private void writePagination(final PrintWriter writer, final String pluginRootURI,
+      final String sort, final int offset, final int limit, final boolean hasNext) {
+    String linkBase = pluginRootURI + "?" + WebResourceWebConsolePlugin.PARAM_SORT + "="
+        + WebResourceWebConsolePlugin
+            .escapeHtml(WebResourceWebConsolePlugin.encodeURIComponent(sort))
+        + "&amp;"
+        + WebResourceWebConsolePlugin.PARAM_LIMIT + "=" + limit + "&amp;"
+        + WebResourceWebConsolePlugin.PARAM_OFFSET + "=";
+    writer.write("<p>");
+    if (offset > 0) {
+      writer.write("<a href=\"" + linkBase + Math.max(0, offset - limit) + "\">Previous</a> ");
+    }
+    writer.write("Showing from " + (offset + 1) + " ");
+    if (hasNext) {
+      writer.write("<a href=\"" + linkBase + (offset + limit) + "\">Next</a> ");
+    }
+    writer.write("<a href=\"" + pluginRootURI + WebResourceWebConsolePlugin.PATH_RESOURCES_JSON
+        + "\">JSON</a></p>");
+  }
+
+  private void writeSortableHeader(final PrintWriter writer, final String pluginRootURI,
+      final String title, final String sort, final int limit) {
+    writer.write("<th class='content'><a href=\"" + pluginRootURI + "?"
+        + WebResourceWebConsolePlugin.PARAM_SORT + "=" + sort + "&amp;"
+        + WebResourceWebConsolePlugin.PARAM_LIMIT + "=" + limit + "\">" + title + "</a></th>");
+  }
+
+  private void writeSummary(final PrintWriter writer, final DecimalFormat format) {
+    writer.write("<table class='content'>");
+    writer.write("<tr><th class='content container' colspan='2'>Cache state</th></tr>");
+    long cacheSizeSum = 0;
+    for (Entry<String, Long> entry : this.metrics.getCachedBytesByEncoding().entrySet()) {
+      writer.write("<tr><td class='content'>"
+          + WebResourceWebConsolePlugin.escapeHtml(entry.getKey())
+          + "</td><td class='content'>" + format.format(entry.getValue()) + "</td></tr>");
+      cacheSizeSum += entry.getValue();
+    }
+    writer.write("<tr><td class='content'>Sum</td><td class='content'>"
+        + format.format(cacheSizeSum) + "</td></tr>");
+    writer.write("<tr><td class='content'>Hits / misses</td><td class='content'>"
+        + format.format(this.metrics.getCacheHits()) + " / "
+        + format.format(this.metrics.getCacheMisses()) + "</td></tr>");
+    writer.write("</table>");
+
+    writer.write("<table class='content'>");
+    writer.write("<tr><th class='content container' colspan='2'>Cache by library</th></tr>");
+    for (Entry<String, Long> entry : this.metrics.getCachedBytesByLibrary().entrySet()) {
+      writer.write("<tr><td class='content'>"
+          + WebResourceWebConsolePlugin.escapeHtml(entry.getKey())
+          + "</td><td class='content'>" + format.format(entry.getValue()) + "</td></tr>");
+    }
+    writer.write("</table>");
+  }
+
+  private void writeTableHead(final PrintWriter writer, final String pluginRootURI,
+      final ContentEncoding[] contentEncodings, final int limit) {
     writer.write("<thead>");
-    writer.write("<tr><th class='content container' colspan='8'>Web resources</th></tr>");
+    writer.write("<tr><th class='content container' colspan='"
+        + (WebResourceWebConsolePlugin.FIXED_COLUMN_COUNT + contentEncodings.length)
+        + "'>Web resources</th></tr>");
     writer.write("<tr><th class='content'>Library</th>");
-    writer.write("<th class='content'>File</th>");
+    writeSortableHeader(writer, pluginRootURI, "File", WebResourceWebConsolePlugin.SORT_NAME,
+        limit);
     writer.write("<th class='content'>Version</th>");
     writer.write("<th class='content'>Content type</th>");
-    writer.write("<th class='content'>Size</th>");
+    writeSortableHeader(writer, pluginRootURI, "Size", WebResourceWebConsolePlugin.SORT_SIZE,
+        limit);
+    writer.write("<th class='content'>Optimized</th>");
     writer.write("<th class='content'>Bundle</th>");
-    writer.write("<th class='content'>Raw</th>");
-    writer.write("<th class='content'>Deflate</th>");
-    writer.write("<th class='content'>GZip</th></tr>");
+    writeSortableHeader(writer, pluginRootURI, "Hits", WebResourceWebConsolePlugin.SORT_HITS,
+        limit);
+    writeSortableHeader(writer, pluginRootURI, "Ratio", WebResourceWebConsolePlugin.SORT_RATIO,
+        limit);
+    for (ContentEncoding contentEncoding : contentEncodings) {
+      writer.write("<th class='content'>"
+          + WebResourceWebConsolePlugin.escapeHtml(contentEncoding.getHeaderValue()) + "</th>");
+    }
+    writer.write("</tr>");
     writer.write("</thead>");
   }
+
+  private void writeTableRow(final PrintWriter writer, final String pluginRootURI,
+      final ResourceRow row, final ContentEncoding[] contentEncodings) {
+    WebResourceImpl resource = row.resource;
+    String library = resource.getLibrary();
+    String fileName = resource.getFileName();
+    String version = resource.getVersion().toString();
+
+    writer.write("<tr><td class='content'>" + WebResourceWebConsolePlugin.escapeHtml(library)
+        + "</td>");
+
+    String resourcePath = WebResourceWebConsolePlugin.encodePathSegments(library)
+        + ("".equals(library) ? "" : "/")
+        + WebResourceWebConsolePlugin.encodePathSegments(fileName) + ".resource?"
+        + WebResourceConstants.REQUEST_PARAM_VERSION_RANGE + "="
+        + WebResourceWebConsolePlugin.encodeURIComponent("[" + version + "," + version + "]");
+    writer.write("<td class='content'><a href=\"" + pluginRootURI + "/"
+        + WebResourceWebConsolePlugin.escapeHtml(resourcePath) + "\">"
+        + WebResourceWebConsolePlugin.escapeHtml(fileName) + "</a></td>");
+
+    writer.write("<td class='content'>" + WebResourceWebConsolePlugin.escapeHtml(version)
+        + "</td>");
+    writer.write("<td class='content'>"
+        + WebResourceWebConsolePlugin.escapeHtml(resource.getContentType()) + "</td>");
+    writer.write("<td class='content'>" + resource.getRawLength() + "</td>");
+    Optional<Long> optimizedLength = resource.getOptimizedLength();
+    writer.write("<td class='content'>"
+        + (optimizedLength.isPresent()
+            ? "-" + (resource.getRawLength() - optimizedLength.get())
+            : "")
+        + "</td>");
+    writer.write("<td class='content'>"
+        + WebResourceWebConsolePlugin.escapeHtml(resource.getOwner().toString()) + "</td>");
+    writer.write("<td class='content'>" + row.hitCount + "</td>");
+    writer.write("<td class='content'>"
+        + (Double.isNaN(row.compressionRatio) ? ""
+            : String.format("%.3f", row.compressionRatio))
+        + "</td>");
+
+    for (ContentEncoding contentEncoding : contentEncodings) {
+      writer.write("<td class='content'>" + getStringValue(resource.getCacheSize(contentEncoding))
+          + "</td>");
+    }
+    writer.write("</tr>");
+  }
 }
@@ -15,6 +15,10 @@
  */
 package org.everit.osgi.webresource.internal;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
@@ -29,12 +33,22 @@ public class WebconsoleHttpServletRequest extends HttpServletRequestWrapper {
     super(request);
   }
 
+  /**
+   * The path of the resource decoded from the request URI, as the plugin encodes the path segments
+   * of its links.
+   */
   @Override
   public String getPathInfo() {
     String pluginRootURI = (String) getAttribute("felix.webconsole.pluginRoot");
     String requestURI = getRequestURI();
     requestURI = requestURI.substring(0, requestURI.length() - ".resource".length());
-    return requestURI.substring(pluginRootURI.length());
+    try {
+      // The plus sign is not a space in the path of a URI
+      return URLDecoder.decode(requestURI.substring(pluginRootURI.length()).replace("+", "%2B"),
+          StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
   }
 
   @Override
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal.jfr;
+
+/**
+ * Creates and commits the Flight Recorder events. The implementation extends the classes of the
+ * <code>jdk.jfr</code> package, so it is compiled separately from the other classes of the bundle
+ * and it is only loaded by {@link FlightRecorderEvents} if that package is available.
+ */
+interface FlightRecorderEventSupport {
+
+  Object beginAsyncWrite();
+
+  Object beginBundleScan();
+
+  Object beginCacheFill();
+
+  Object beginLookup();
+
+  void commitAsyncWrite(Object asyncWriteEvent, String contentType, long writtenBytes,
+      boolean failed);
+
+  void commitBundleScan(Object bundleScanEvent, long bundleId, String symbolicName,
+      int resourceCount);
+
+  void commitCacheFill(Object cacheFillEvent, String library, String fileName, String version,
+      String contentEncoding, long inputBytes, long outputBytes);
+
+  void commitLookup(Object lookupEvent, String library, String resourceName,
+      String versionRange, boolean found);
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal.jfr;
+
+/**
+ * Entry point to emit the Flight Recorder events of the webresource subsystem. The event classes
+ * are compiled separately and they are only loaded if the <code>jdk.jfr</code> package is visible
+ * to the bundle, so the callers do not have to care whether the JVM supports Flight Recorder or
+ * not. This class does not refer to the event classes directly, so loading or verifying it never
+ * loads them. The begin functions return <code>null</code> if the event type is not enabled in any
+ * running recording, so the overhead is one allocation that the JIT can usually eliminate.
+ */
+public final class FlightRecorderEvents {
+
+  private static final String SUPPORT_CLASS_NAME =
+      "org.everit.osgi.webresource.internal.jfr.JdkFlightRecorderEventSupport";
+
+  /**
+   * The implementation that emits the events or <code>null</code> if Flight Recorder is not
+   * available.
+   */
+  private static final FlightRecorderEventSupport SUPPORT = FlightRecorderEvents.resolveSupport();
+
+  /**
+   * Starts timing an async write event.
+   *
+   * @return The event or <code>null</code> if the event should not be recorded.
+   */
+  public static Object beginAsyncWrite() {
+    if (FlightRecorderEvents.SUPPORT == null) {
+      return null;
+    }
+    return FlightRecorderEvents.SUPPORT.beginAsyncWrite();
+  }
+
+  /**
+   * Starts timing a bundle scan event.
+   *
+   * @return The event or <code>null</code> if the event should not be recorded.
+   */
+  public static Object beginBundleScan() {
+    if (FlightRecorderEvents.SUPPORT == null) {
+      return null;
+    }
+    return FlightRecorderEvents.SUPPORT.beginBundleScan();
+  }
+
+  /**
+   * Starts timing a cache fill event.
+   *
+   * @return The event or <code>null</code> if the event should not be recorded.
+   */
+  public static Object beginCacheFill() {
+    if (FlightRecorderEvents.SUPPORT == null) {
+      return null;
+    }
+    return FlightRecorderEvents.SUPPORT.beginCacheFill();
+  }
+
+  /**
+   * Starts timing a lookup event.
+   *
+   * @return The event or <code>null</code> if the event should not be recorded.
+   */
+  public static Object beginLookup() {
+    if (FlightRecorderEvents.SUPPORT == null) {
+      return null;
+    }
+    return FlightRecorderEvents.SUPPORT.beginLookup();
+  }
+
+  /**
+   * Commits an event that was started with {@link #beginAsyncWrite()} if its duration reached the
+   * threshold. Nothing happens if the event is <code>null</code>.
+   */
+  public static void commitAsyncWrite(final Object asyncWriteEvent, final String contentType,
+      final long writtenBytes, final boolean failed) {
+    if (asyncWriteEvent != null) {
+      FlightRecorderEvents.SUPPORT.commitAsyncWrite(asyncWriteEvent, contentType, writtenBytes,
+          failed);
+    }
+  }
+
+  /**
+   * Commits an event that was started with {@link #beginBundleScan()} if its duration reached the
+   * threshold. Nothing happens if the event is <code>null</code>.
+   */
+  public static void commitBundleScan(final Object bundleScanEvent, final long bundleId,
+      final String symbolicName, final int resourceCount) {
+    if (bundleScanEvent != null) {
+      FlightRecorderEvents.SUPPORT.commitBundleScan(bundleScanEvent, bundleId, symbolicName,
+          resourceCount);
+    }
+  }
+
+  /**
+   * Commits an event that was started with {@link #beginCacheFill()} if its duration reached the
+   * threshold. Nothing happens if the event is <code>null</code>.
+   */
+  public static void commitCacheFill(final Object cacheFillEvent, final String library,
+      final String fileName, final String version, final String contentEncoding,
+      final long inputBytes, final long outputBytes) {
+    if (cacheFillEvent != null) {
+      FlightRecorderEvents.SUPPORT.commitCacheFill(cacheFillEvent, library, fileName, version,
+          contentEncoding, inputBytes, outputBytes);
+    }
+  }
+
+  /**
+   * Commits an event that was started with {@link #beginLookup()} if its duration reached the
+   * threshold. Nothing happens if the event is <code>null</code>.
+   */
+  public static void commitLookup(final Object lookupEvent, final String library,
+      final String resourceName, final String versionRange, final boolean found) {
+    if (lookupEvent != null) {
+      FlightRecorderEvents.SUPPORT.commitLookup(lookupEvent, library, resourceName,
+          versionRange, found);
+    }
+  }
+
+  private static FlightRecorderEventSupport resolveSupport() {
+    ClassLoader classLoader = FlightRecorderEvents.class.getClassLoader();
+    try {
+      Class.forName("jdk.jfr.Event", false, classLoader);
+      return (FlightRecorderEventSupport) Class
+          .forName(FlightRecorderEvents.SUPPORT_CLASS_NAME, true, classLoader)
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // The JVM does not support Flight Recorder or the jdk.jfr package is not imported
+      return null;
+    }
+  }
+
+  private FlightRecorderEvents() {
+  }
+}
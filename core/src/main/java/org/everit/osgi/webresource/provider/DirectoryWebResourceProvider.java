@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.provider;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.osgi.framework.Version;
+
+/**
+ * {@link WebResourceProvider} that serves the files of a directory and its subdirectories, e.g. a
+ * folder of the classpath of an exploded application.
+ */
+public class DirectoryWebResourceProvider implements WebResourceProvider {
+
+  private final Path directory;
+
+  private final String libraryPrefix;
+
+  private final Version version;
+
+  /**
+   * Constructor.
+   *
+   * @param directory
+   *          The root directory of the resources.
+   * @param libraryPrefix
+   *          See {@link WebResourceProvider#getLibraryPrefix()}.
+   * @param version
+   *          The version of the resources.
+   */
+  public DirectoryWebResourceProvider(final Path directory, final String libraryPrefix,
+      final Version version) {
+    this.directory = Objects.requireNonNull(directory);
+    this.libraryPrefix = Objects.requireNonNull(libraryPrefix);
+    this.version = Objects.requireNonNull(version);
+  }
+
+  @Override
+  public String getLibraryPrefix() {
+    return this.libraryPrefix;
+  }
+
+  @Override
+  public String getName() {
+    return "directory:" + this.directory;
+  }
+
+  @Override
+  public Version getVersion() {
+    return this.version;
+  }
+
+  @Override
+  public Map<String, URL> listEntries() throws IOException {
+    Map<String, URL> entries = new TreeMap<>();
+    try (Stream<Path> paths = Files.walk(this.directory)) {
+      Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+      while (iterator.hasNext()) {
+        Path path = iterator.next();
+        String relativePath = this.directory.relativize(path).toString()
+            .replace(path.getFileSystem().getSeparator(), "/");
+        entries.put(relativePath, path.toUri().toURL());
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+}
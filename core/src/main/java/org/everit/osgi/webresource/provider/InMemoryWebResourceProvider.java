@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.provider;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Version;
+
+/**
+ * {@link WebResourceProvider} whose resources are registered programmatically, e.g. generated
+ * content or resources of tests. The content is served via URLs of a private
+ * {@link URLStreamHandler}, so no URL handler has to be installed in the JVM.
+ */
+public class InMemoryWebResourceProvider implements WebResourceProvider {
+
+  /**
+   * Serves the content that is registered with the path of the URL.
+   */
+  private final class MemoryURLStreamHandler extends URLStreamHandler {
+
+    @Override
+    protected URLConnection openConnection(final URL u) throws IOException {
+      byte[] content = InMemoryWebResourceProvider.this.contentsByPath.get(u.getPath());
+      if (content == null) {
+        throw new FileNotFoundException(u.toExternalForm());
+      }
+      return new MemoryURLConnection(u, content, InMemoryWebResourceProvider.this.lastModified);
+    }
+  }
+
+  /**
+   * Connection that returns the content of an entry.
+   */
+  private static final class MemoryURLConnection extends URLConnection {
+
+    private final byte[] content;
+
+    private final long lastModified;
+
+    MemoryURLConnection(final URL url, final byte[] content, final long lastModified) {
+      super(url);
+      this.content = content;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public void connect() {
+      this.connected = true;
+    }
+
+    @Override
+    public int getContentLength() {
+      return this.content.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+      return this.content.length;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(this.content);
+    }
+
+    @Override
+    public long getLastModified() {
+      return this.lastModified;
+    }
+  }
+
+  private static final String PROTOCOL = "webresource-memory";
+
+  private final Map<String, byte[]> contentsByPath = new ConcurrentHashMap<>();
+
+  private final long lastModified = System.currentTimeMillis();
+
+  private final String libraryPrefix;
+
+  private final String name;
+
+  private final URLStreamHandler urlStreamHandler = new MemoryURLStreamHandler();
+
+  private final Version version;
+
+  /**
+   * Constructor.
+   *
+   * @param name
+   *          The name of the provider.
+   * @param libraryPrefix
+   *          See {@link WebResourceProvider#getLibraryPrefix()}.
+   * @param version
+   *          The version of the resources.
+   */
+  public InMemoryWebResourceProvider(final String name, final String libraryPrefix,
+      final Version version) {
+    this.name = Objects.requireNonNull(name);
+    this.libraryPrefix = Objects.requireNonNull(libraryPrefix);
+    this.version = Objects.requireNonNull(version);
+  }
+
+  /**
+   * Registers a resource. Resources that are registered after the provider is added to a
+   * container become visible when the provider is added again.
+   *
+   * @param path
+   *          The path of the resource relative to the root of the provider, e.g.
+   *          <code>css/main.css</code>.
+   * @param content
+   *          The raw content of the resource. The array must not be modified afterwards.
+   * @return This provider.
+   */
+  public InMemoryWebResourceProvider addEntry(final String path, final byte[] content) {
+    this.contentsByPath.put(toURLPath(path), Objects.requireNonNull(content));
+    return this;
+  }
+
+  @Override
+  public String getLibraryPrefix() {
+    return this.libraryPrefix;
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  @Override
+  public Version getVersion() {
+    return this.version;
+  }
+
+  @Override
+  public Map<String, URL> listEntries() {
+    Map<String, URL> entries = new TreeMap<>();
+    for (String urlPath : this.contentsByPath.keySet()) {
+      try {
+        entries.put(urlPath.substring(1), new URL(InMemoryWebResourceProvider.PROTOCOL, null, -1,
+            urlPath, this.urlStreamHandler));
+      } catch (MalformedURLException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return entries;
+  }
+
+  private String toURLPath(final String path) {
+    return path.startsWith("/") ? path : "/" + path;
+  }
+
+  @Override
+  public String toString() {
+    return this.name;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.provider;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.osgi.framework.Version;
+
+/**
+ * {@link WebResourceProvider} that serves the entries of a folder in a JAR file, e.g. a library
+ * on the classpath that packages its resources like a webresource bundle. The entries are listed
+ * from the central directory of the JAR file, so the content is not read until it is requested.
+ */
+public class JarWebResourceProvider implements WebResourceProvider {
+
+  private final Path jarFile;
+
+  private final String libraryPrefix;
+
+  private final String resourceFolder;
+
+  private final Version version;
+
+  /**
+   * Constructor.
+   *
+   * @param jarFile
+   *          The JAR file.
+   * @param resourceFolder
+   *          The folder in the JAR file where the resources are located, like the
+   *          <code>resourceFolder</code> capability attribute. E.g.: "META-INF/webresources". An
+   *          empty string means the root of the JAR file.
+   * @param libraryPrefix
+   *          See {@link WebResourceProvider#getLibraryPrefix()}.
+   * @param version
+   *          The version of the resources.
+   */
+  public JarWebResourceProvider(final Path jarFile, final String resourceFolder,
+      final String libraryPrefix, final Version version) {
+    this.jarFile = Objects.requireNonNull(jarFile);
+    this.libraryPrefix = Objects.requireNonNull(libraryPrefix);
+    this.version = Objects.requireNonNull(version);
+
+    String normalizedFolder = resourceFolder;
+    while (normalizedFolder.startsWith("/")) {
+      normalizedFolder = normalizedFolder.substring(1);
+    }
+    if (!normalizedFolder.isEmpty() && !normalizedFolder.endsWith("/")) {
+      normalizedFolder = normalizedFolder + "/";
+    }
+    this.resourceFolder = normalizedFolder;
+  }
+
+  @Override
+  public String getLibraryPrefix() {
+    return this.libraryPrefix;
+  }
+
+  @Override
+  public String getName() {
+    return "jar:" + this.jarFile + "!/" + this.resourceFolder;
+  }
+
+  @Override
+  public Version getVersion() {
+    return this.version;
+  }
+
+  @Override
+  public Map<String, URL> listEntries() throws IOException {
+    String jarURI = this.jarFile.toUri().toString();
+    Map<String, URL> entries = new TreeMap<>();
+    try (ZipFile zipFile = new ZipFile(this.jarFile.toFile())) {
+      Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+      while (zipEntries.hasMoreElements()) {
+        ZipEntry zipEntry = zipEntries.nextElement();
+        String name = zipEntry.getName();
+        if (!zipEntry.isDirectory() && name.startsWith(this.resourceFolder)) {
+          entries.put(name.substring(this.resourceFolder.length()),
+              new URL("jar:" + jarURI + "!/" + name));
+        }
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.provider;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.osgi.framework.Version;
+
+/**
+ * A source of {@link org.everit.osgi.webresource.WebResource}s outside of an OSGi framework, e.g.
+ * a directory, a JAR file or resources in memory. It is the counterpart of a bundle with the
+ * {@value org.everit.osgi.webresource.WebResourceConstants#CAPABILITY_NAMESPACE} capability: the
+ * entries are added to a {@link WebResourceProviderContainer} with the same library naming,
+ * variants, preload links and caches as the resources of bundles.
+ */
+public interface WebResourceProvider {
+
+  /**
+   * A prefix that is pasted in front of the folder structure of the entries to get the library
+   * names, like the <code>libraryPrefix</code> capability attribute. E.g.: "foo/bar".
+   */
+  String getLibraryPrefix();
+
+  /**
+   * The name of the provider that is shown in warnings and metrics.
+   */
+  String getName();
+
+  /**
+   * The dependencies between the resources in the format of the <code>preload</code> capability
+   * attribute.
+   *
+   * @return A collection of <code>library/file=library/file</code> pairs. Empty by default.
+   */
+  default Collection<String> getPreloadDeclarations() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * The version of the resources.
+   */
+  Version getVersion();
+
+  /**
+   * Lists the resources of the provider. The method is called once each time the provider is
+   * added to a container.
+   *
+   * @return The URLs of the resources by their paths relative to the root of the provider, e.g.
+   *         <code>css/main.css</code>. The raw content, the length and the last modification time
+   *         of the resources are read via the URLs.
+   * @throws IOException
+   *           if the resources cannot be listed.
+   */
+  Map<String, URL> listEntries() throws IOException;
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.provider;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.WebResourceContainer;
+import org.everit.osgi.webresource.internal.WebResourceBundleIngester;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.internal.WebResourceContainerImpl;
+import org.everit.osgi.webresource.internal.WebResourceMetrics;
+
+/**
+ * {@link WebResourceContainer} that can be used without an OSGi framework. The resources are
+ * added by {@link WebResourceProvider}s and served with the same caches and compression as the
+ * resources of bundles, e.g. via
+ * {@link org.everit.osgi.webresource.transport.WebResourceHandler}.
+ */
+public class WebResourceProviderContainer implements WebResourceContainer {
+
+  private final WebResourceBundleIngester ingester;
+
+  private final WebResourceMetrics metrics = new WebResourceMetrics();
+
+  private final WebResourceContainerImpl resourceContainer =
+      new WebResourceContainerImpl(this.metrics);
+
+  /**
+   * Constructor of a container that does not optimize images.
+   */
+  public WebResourceProviderContainer() {
+    this(null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param optimizerExecutor
+   *          The executor that optimizes the PNG and SVG resources in the background or
+   *          <code>null</code> if the images should not be optimized. The executor is not shut
+   *          down by the container.
+   */
+  public WebResourceProviderContainer(final ExecutorService optimizerExecutor) {
+    this.ingester = new WebResourceBundleIngester(this.resourceContainer, this.metrics,
+        optimizerExecutor, WebResourceConfiguration.fromSystemProperties());
+  }
+
+  /**
+   * Adds the resources of a provider to the container. If the provider is already added, its
+   * resources are listed again and replace the previous ones.
+   *
+   * @param provider
+   *          The provider.
+   * @return <code>true</code> if the provider has at least one resource.
+   * @throws IOException
+   *           if the resources of the provider cannot be listed.
+   */
+  public boolean addProvider(final WebResourceProvider provider) throws IOException {
+    Objects.requireNonNull(provider);
+    this.resourceContainer.removeOwner(provider);
+    return this.ingester.addProvider(provider);
+  }
+
+  @Override
+  public Optional<WebResource> findWebResource(final String lib, final String resourceName,
+      final Optional<String> versionRange) {
+    return this.resourceContainer.findWebResource(lib, resourceName, versionRange);
+  }
+
+  /**
+   * Removes the resources of a provider from the container.
+   *
+   * @param provider
+   *          The provider.
+   */
+  public void removeProvider(final WebResourceProvider provider) {
+    this.ingester.removeProvider(provider);
+  }
+
+  /**
+   * Writes the metrics of the container in the Prometheus text exposition format, like the
+   * metrics servlet of the OSGi extender does.
+   *
+   * @param writer
+   *          The writer.
+   */
+  public void writePrometheusMetrics(final PrintWriter writer) {
+    this.metrics.writePrometheus(writer);
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * {@link WebResourceRequest} whose values are set programmatically, e.g. to drive a
+ * {@link WebResourceHandler} from tests or to serve requests that were parsed by custom code.
+ */
+public class InMemoryWebResourceRequest implements WebResourceRequest {
+
+  private final Map<String, Object> attributes = new HashMap<>();
+
+  private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+  private final String method;
+
+  private final Map<String, String> parameters = new HashMap<>();
+
+  private final String path;
+
+  /**
+   * Constructor.
+   *
+   * @param method
+   *          The HTTP method, e.g. GET.
+   * @param path
+   *          The path of the resource, see {@link WebResourceRequest#getPath()}.
+   */
+  public InMemoryWebResourceRequest(final String method, final String path) {
+    this.method = Objects.requireNonNull(method);
+    this.path = Objects.requireNonNull(path);
+  }
+
+  /**
+   * Sets an attribute of the request, e.g. the
+   * {@value WebResourceHandler#REQUEST_ATTR_SERVER_TIMING_FILTER} attribute.
+   *
+   * @param name
+   *          The name of the attribute.
+   * @param value
+   *          The value of the attribute or <code>null</code> to remove it.
+   * @return This request.
+   */
+  public InMemoryWebResourceRequest attribute(final String name, final Object value) {
+    if (value == null) {
+      this.attributes.remove(name);
+    } else {
+      this.attributes.put(name, value);
+    }
+    return this;
+  }
+
+  @Override
+  public Object getAttribute(final String name) {
+    return this.attributes.get(name);
+  }
+
+  @Override
+  public String getHeader(final String name) {
+    return this.headers.get(name);
+  }
+
+  @Override
+  public String getMethod() {
+    return this.method;
+  }
+
+  @Override
+  public String getParameter(final String name) {
+    return this.parameters.get(name);
+  }
+
+  @Override
+  public String getPath() {
+    return this.path;
+  }
+
+  /**
+   * Sets a header of the request.
+   *
+   * @param name
+   *          The name of the header.
+   * @param value
+   *          The value of the header or <code>null</code> to remove it.
+   * @return This request.
+   */
+  public InMemoryWebResourceRequest header(final String name, final String value) {
+    if (value == null) {
+      this.headers.remove(name);
+    } else {
+      this.headers.put(name, value);
+    }
+    return this;
+  }
+
+  /**
+   * Sets a query parameter of the request.
+   *
+   * @param name
+   *          The name of the parameter.
+   * @param value
+   *          The decoded value of the parameter or <code>null</code> to remove it.
+   * @return This request.
+   */
+  public InMemoryWebResourceRequest parameter(final String name, final String value) {
+    if (value == null) {
+      this.parameters.remove(name);
+    } else {
+      this.parameters.put(name, value);
+    }
+    return this;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * {@link WebResourceResponse} that keeps the status, the headers and the body in memory. The body
+ * is completed synchronously, so the response can be checked as soon as
+ * {@link WebResourceHandler#handle(WebResourceRequest, WebResourceResponse)} returns.
+ */
+public class InMemoryWebResourceResponse implements WebResourceResponse {
+
+  private static final int HTTP_OK = 200;
+
+  private WebResourceContent body;
+
+  private long contentLength = -1;
+
+  private String errorMessage;
+
+  private boolean finished;
+
+  private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+  private int status = InMemoryWebResourceResponse.HTTP_OK;
+
+  private void finish() {
+    if (this.finished) {
+      throw new IllegalStateException("The response is already sent");
+    }
+    this.finished = true;
+  }
+
+  /**
+   * The body that was sent.
+   *
+   * @return The body or <code>null</code> if no body was sent.
+   */
+  public WebResourceContent getBody() {
+    return this.body;
+  }
+
+  /**
+   * A copy of the body that was sent.
+   *
+   * @return The bytes of the body or <code>null</code> if no body was sent.
+   */
+  public byte[] getBodyBytes() {
+    if (this.body == null) {
+      return null;
+    }
+    ByteArrayOutputStream result = new ByteArrayOutputStream(
+        (int) Math.min(this.body.getLength(), Integer.MAX_VALUE));
+    try {
+      this.body.writeTo(result);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return result.toByteArray();
+  }
+
+  /**
+   * The value of the Content-Length header.
+   *
+   * @return The length or -1 if the header was not set.
+   */
+  public long getContentLength() {
+    return this.contentLength;
+  }
+
+  /**
+   * The message that was passed to {@link #sendError(int, String)}.
+   *
+   * @return The message or <code>null</code> if no error was sent.
+   */
+  public String getErrorMessage() {
+    return this.errorMessage;
+  }
+
+  public String getHeader(final String name) {
+    return this.headers.get(name);
+  }
+
+  public Map<String, String> getHeaders() {
+    return Collections.unmodifiableMap(this.headers);
+  }
+
+  public int getStatus() {
+    return this.status;
+  }
+
+  /**
+   * Whether the response is finished by {@link #send(WebResourceContent)} or
+   * {@link #sendError(int, String)}.
+   */
+  public boolean isFinished() {
+    return this.finished;
+  }
+
+  @Override
+  public CompletionStage<Void> send(final WebResourceContent body) {
+    finish();
+    this.body = body;
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public CompletionStage<Void> sendError(final int status, final String message) {
+    finish();
+    this.status = status;
+    this.errorMessage = message;
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public void setContentLength(final long length) {
+    this.contentLength = length;
+  }
+
+  @Override
+  public void setHeader(final String name, final String value) {
+    this.headers.put(name, value);
+  }
+
+  @Override
+  public void setStatus(final int status) {
+    this.status = status;
+  }
+}
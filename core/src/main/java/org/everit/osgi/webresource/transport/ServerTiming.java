@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.transport;
+
+import java.util.Locale;
+import java.util.function.Predicate;
+
+import org.everit.osgi.webresource.ContentEncoding;
+
+/**
+ * Collects the durations of the phases of serving a request for the <code>Server-Timing</code>
+ * response header.
+ */
+final class ServerTiming {
+
+  private static final double NANOS_PER_MILLISECOND = 1_000_000D;
+
+  /**
+   * Creates a {@link ServerTiming} if the filter in the
+   * {@value WebResourceHandler#REQUEST_ATTR_SERVER_TIMING_FILTER} request attribute accepts the
+   * request.
+   *
+   * @return The timing or <code>null</code> if no timing should be reported.
+   */
+  static ServerTiming createIfRequested(final WebResourceRequest req) {
+    @SuppressWarnings("unchecked")
+    Predicate<WebResourceRequest> filter = (Predicate<WebResourceRequest>) req
+        .getAttribute(WebResourceHandler.REQUEST_ATTR_SERVER_TIMING_FILTER);
+    if (filter != null && filter.test(req)) {
+      return new ServerTiming();
+    }
+    return null;
+  }
+
+  private static String formatDuration(final long nanos) {
+    return String.format(Locale.ENGLISH, "%.3f", nanos / ServerTiming.NANOS_PER_MILLISECOND);
+  }
+
+  boolean cacheHit;
+
+  ContentEncoding contentEncoding;
+
+  long contentNanos = -1;
+
+  long lookupNanos = -1;
+
+  String toHeaderValue() {
+    StringBuilder sb = new StringBuilder();
+    if (this.lookupNanos >= 0) {
+      sb.append("wr-lookup;dur=").append(ServerTiming.formatDuration(this.lookupNanos));
+    }
+    if (this.contentEncoding != null) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append("wr-cache;desc=").append(this.cacheHit ? "hit" : "miss");
+      if (!this.cacheHit) {
+        sb.append(", wr-compress;dur=").append(ServerTiming.formatDuration(this.contentNanos));
+      }
+      sb.append(", wr-encoding;desc=\"").append(this.contentEncoding.getHeaderValue())
+          .append('"');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.transport;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.everit.osgi.webresource.ContentEncoding;
+import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.everit.osgi.webresource.WebResourceContainer;
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * Serves the {@link WebResource}s of a {@link WebResourceContainer} independently of the HTTP
+ * engine. The handler resolves the resource, its variant and content encoding, answers conditional
+ * and HEAD requests and passes the cached content to the {@link WebResourceResponse}. The handler
+ * is stateless and can be used by any number of threads.
+ */
+public final class WebResourceHandler {
+
+  private static final int HTTP_NOT_MODIFIED = 304;
+
+  private static final WebResourceContent NO_BODY = new WebResourceContent();
+
+  /**
+   * Name of the request attribute that holds a {@link java.util.function.Predicate} of
+   * {@link WebResourceRequest}s. The responses of the requests that the predicate accepts get a
+   * <code>Server-Timing</code> header. If the attribute is not set, no <code>Server-Timing</code>
+   * header is sent.
+   */
+  public static final String REQUEST_ATTR_SERVER_TIMING_FILTER =
+      "org.everit.osgi.webresource.transport.WebResourceHandler.serverTimingFilter";
+
+  /**
+   * Checks whether an If-None-Match header value contains the ETag of the {@link WebResource}.
+   */
+  private static boolean etagMatchFound(final String ifNoneMatchHeader,
+      final WebResource webResource) {
+    if (ifNoneMatchHeader == null) {
+      return false;
+    }
+    String etagHeaderValue = webResource.getETagHeaderValue();
+    if (ifNoneMatchHeader.equals(etagHeaderValue)) {
+      // Browsers send back the single ETag they got
+      return true;
+    }
+    String[] etags = ifNoneMatchHeader.split(",");
+    int i = 0;
+    int n = etags.length;
+    boolean matchFound = false;
+    while (!matchFound && i < n) {
+      String etag = etags[i].trim();
+      if (etag.equals(etagHeaderValue)) {
+        matchFound = true;
+      } else {
+        i++;
+      }
+    }
+    return matchFound;
+
+  }
+
+  private static CompletionStage<Void> http404(final WebResourceResponse resp) {
+    return resp.sendError(WebResourceConstants.HTTP_NOT_FOUND, "Resource cannot found");
+  }
+
+  /**
+   * Finds the media range of the Accept header that matches a content type most specifically. An
+   * exact match is preferred over <code>type/*</code> that is preferred over
+   * <code>*&#47;*</code>.
+   *
+   * @return The index of the media range in the arrays or -1 if no media range matches.
+   */
+  private static int findMostSpecificMediaRange(final String contentType,
+      final String[] mediaRanges) {
+    int indexOfParameters = contentType.indexOf(';');
+    String normalizedContentType = (indexOfParameters < 0 ? contentType
+        : contentType.substring(0, indexOfParameters)).trim().toLowerCase(Locale.ENGLISH);
+    String typeWildcard =
+        normalizedContentType.substring(0, normalizedContentType.indexOf('/') + 1) + "*";
+
+    int typeWildcardIndex = -1;
+    int anyWildcardIndex = -1;
+    for (int i = 0; i < mediaRanges.length; i++) {
+      if (mediaRanges[i].equals(normalizedContentType)) {
+        return i;
+      } else if (typeWildcardIndex < 0 && mediaRanges[i].equals(typeWildcard)) {
+        typeWildcardIndex = i;
+      } else if (anyWildcardIndex < 0 && "*/*".equals(mediaRanges[i])) {
+        anyWildcardIndex = i;
+      }
+    }
+    return typeWildcardIndex >= 0 ? typeWildcardIndex : anyWildcardIndex;
+  }
+
+  private static double parseQuality(final String[] mediaRangeParts) {
+    for (int i = 1; i < mediaRangeParts.length; i++) {
+      String parameter = mediaRangeParts[i].replace(" ", "");
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Selects the variant that the client prefers based on the quality values of the Accept header.
+   * The media range that matches a content type most specifically decides its quality, and a
+   * quality of zero rejects the content type. The requested {@link WebResource} is the fallback
+   * if no variant is accepted. Another variant is only served instead if its quality is higher
+   * than the quality of the requested {@link WebResource} or if it is listed explicitly with the
+   * same quality, because a wildcard does not prove that the client can decode every format. From
+   * variants with the same quality the smallest one is selected.
+   */
+  private static WebResource selectVariant(final WebResourceRequest req,
+      final WebResource webResource, final List<WebResource> variants) {
+    String acceptHeader = req.getHeader("Accept");
+    if (acceptHeader == null) {
+      return webResource;
+    }
+
+    String[] acceptedMediaRanges = acceptHeader.split(",");
+    String[] mediaRanges = new String[acceptedMediaRanges.length];
+    double[] qualities = new double[acceptedMediaRanges.length];
+    for (int i = 0; i < acceptedMediaRanges.length; i++) {
+      String[] mediaRangeParts = acceptedMediaRanges[i].split(";");
+      mediaRanges[i] = mediaRangeParts[0].trim().toLowerCase(Locale.ENGLISH);
+      qualities[i] = WebResourceHandler.parseQuality(mediaRangeParts);
+    }
+
+    int requestedMediaRange =
+        WebResourceHandler.findMostSpecificMediaRange(webResource.getContentType(), mediaRanges);
+    double requestedQuality = requestedMediaRange < 0 ? 0 : qualities[requestedMediaRange];
+
+    WebResource selectedVariant = webResource;
+    double selectedQuality = requestedQuality;
+    boolean requestedReached = false;
+    for (WebResource variant : variants) {
+      if (variant.equals(webResource)) {
+        requestedReached = true;
+      } else {
+        int mediaRange =
+            WebResourceHandler.findMostSpecificMediaRange(variant.getContentType(), mediaRanges);
+        double quality = mediaRange < 0 ? 0 : qualities[mediaRange];
+        boolean explicit = mediaRange >= 0 && !mediaRanges[mediaRange].endsWith("/*");
+        if (quality > 0 && (quality > requestedQuality || explicit)
+            && (quality > selectedQuality
+                || (quality == selectedQuality && selectedVariant.equals(webResource)
+                    && !requestedReached))) {
+          selectedVariant = variant;
+          selectedQuality = quality;
+        }
+      }
+    }
+    return selectedVariant;
+  }
+
+  /**
+   * Sets the headers that every response of the {@link WebResource} has.
+   *
+   * @return The content encoding of the body.
+   */
+  private static ContentEncoding writeResponseHead(final WebResourceRequest req,
+      final WebResourceResponse resp, final WebResource webResource, final String pathSuffix) {
+    resp.setHeader("Content-Type", webResource.getContentType());
+    resp.setHeader("Last-Modified", webResource.getLastModifiedRFC1123GMT());
+    resp.setHeader("ETag", webResource.getETagHeaderValue());
+
+    Optional<String> preloadLinkHeader = webResource.getPreloadLinkHeader(pathSuffix);
+    if (preloadLinkHeader.isPresent()) {
+      resp.setHeader("Link", preloadLinkHeader.get());
+    }
+
+    // Streamed resources are too large to be compressed on each request
+    return webResource.isStreamed() ? ContentEncoding.RAW
+        : ContentEncoding.resolveEncoding(req.getHeader("Accept-Encoding"));
+  }
+
+  /**
+   * Writes a {@link WebResource} to the response.
+   *
+   * @param webResource
+   *          The {@link WebResource} to send.
+   * @param req
+   *          The request that tells the accepted content encodings and whether this is a
+   *          conditional or a HEAD request.
+   * @param resp
+   *          The response that the headers and the content of the webResource are written to.
+   * @return The stage that is returned by the response when the body is sent. It is completed
+   *         exceptionally if the content of the {@link WebResource} cannot be read.
+   * @throws NullPointerException
+   *           if any of the parameters is null.
+   */
+  public static CompletionStage<Void> writeWebResource(final WebResource webResource,
+      final WebResourceRequest req, final WebResourceResponse resp) {
+    Objects.requireNonNull(req);
+    return WebResourceHandler.writeWebResource(webResource, req, resp, "",
+        ServerTiming.createIfRequested(req));
+  }
+
+  private static CompletionStage<Void> writeWebResource(final WebResource webResource,
+      final WebResourceRequest req, final WebResourceResponse resp, final String pathSuffix,
+      final ServerTiming serverTiming) {
+
+    Objects.requireNonNull(req);
+    Objects.requireNonNull(resp);
+    Objects.requireNonNull(webResource);
+
+    ContentEncoding contentEncoding =
+        WebResourceHandler.writeResponseHead(req, resp, webResource, pathSuffix);
+
+    // Conditional and HEAD requests are answered before the content is read, so they neither
+    // encode the content nor fill the cache
+    if (WebResourceHandler.etagMatchFound(req.getHeader("If-None-Match"), webResource)) {
+      if (serverTiming != null) {
+        resp.setHeader("Server-Timing", serverTiming.toHeaderValue());
+      }
+      resp.setStatus(WebResourceHandler.HTTP_NOT_MODIFIED);
+      return resp.send(WebResourceHandler.NO_BODY);
+    }
+
+    long contentStartTime = 0;
+    if (serverTiming != null) {
+      serverTiming.contentEncoding = contentEncoding;
+      serverTiming.cacheHit = webResource.getCacheState().containsKey(contentEncoding);
+      contentStartTime = System.nanoTime();
+    }
+    WebResourceContent content = WebResourceHandler.NO_BODY;
+    long contentLength;
+    if ("HEAD".equals(req.getMethod())) {
+      contentLength = webResource.getContentLength(contentEncoding);
+    } else {
+      try {
+        content = webResource.getContent(contentEncoding);
+      } catch (IOException e) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(e);
+        return result;
+      }
+      // The length and the body are taken from the same snapshot as the cached content might be
+      // replaced in parallel
+      contentLength = content.getLength();
+    }
+    if (serverTiming != null) {
+      serverTiming.contentNanos = System.nanoTime() - contentStartTime;
+      resp.setHeader("Server-Timing", serverTiming.toHeaderValue());
+    }
+    resp.setContentLength(contentLength);
+
+    if (!ContentEncoding.RAW.equals(contentEncoding)) {
+      resp.setHeader("Content-Encoding", contentEncoding.getHeaderValue());
+    }
+    return resp.send(content);
+  }
+
+  private final String pathSuffix;
+
+  private final WebResourceContainer webResourceContainer;
+
+  /**
+   * Constructor.
+   *
+   * @param webResourceContainer
+   *          The container that is used to find the {@link WebResource}s.
+   */
+  public WebResourceHandler(final WebResourceContainer webResourceContainer) {
+    this(webResourceContainer, "");
+  }
+
+  /**
+   * Constructor of a handler that serves the {@link WebResource}s under a suffix URL pattern, e.g.
+   * <code>*.res</code>. The suffix is removed from the requested paths and appended to the preload
+   * links.
+   *
+   * @param webResourceContainer
+   *          The container that is used to find the {@link WebResource}s.
+   * @param pathSuffix
+   *          The suffix of the URL pattern, e.g. <code>.res</code>, or an empty String.
+   */
+  public WebResourceHandler(final WebResourceContainer webResourceContainer,
+      final String pathSuffix) {
+    this.webResourceContainer = Objects.requireNonNull(webResourceContainer);
+    this.pathSuffix = Objects.requireNonNull(pathSuffix);
+  }
+
+  /**
+   * Finds the {@link WebResource} based on the path of the request and writes it to the response.
+   * If the {@link WebResource} is not found, HTTP 404 is sent.
+   *
+   * @param req
+   *          The request.
+   * @param resp
+   *          The response.
+   * @return The stage that is returned by the response when the body or the error is sent. It is
+   *         completed exceptionally if the content of the {@link WebResource} cannot be read.
+   */
+  public CompletionStage<Void> handle(final WebResourceRequest req,
+      final WebResourceResponse resp) {
+
+    String path = req.getPath();
+    if (!this.pathSuffix.isEmpty()) {
+      if (!path.endsWith(this.pathSuffix)) {
+        return WebResourceHandler.http404(resp);
+      }
+      path = path.substring(0, path.length() - this.pathSuffix.length());
+    }
+    int lastIndexOfSlash = path.lastIndexOf('/');
+
+    if (lastIndexOfSlash == path.length() - 1) {
+      return WebResourceHandler.http404(resp);
+    }
+
+    String resourceName = path.substring(lastIndexOfSlash + 1);
+
+    String lib = "";
+    if (lastIndexOfSlash > 0) {
+      lib = path.substring(1, lastIndexOfSlash);
+    }
+
+    String version = req.getParameter(WebResourceConstants.REQUEST_PARAM_VERSION_RANGE);
+
+    ServerTiming serverTiming = ServerTiming.createIfRequested(req);
+    long lookupStartTime = serverTiming == null ? 0 : System.nanoTime();
+
+    Optional<WebResource> optionalWebResource = this.webResourceContainer.findWebResource(lib,
+        resourceName, Optional.ofNullable(version));
+
+    if (serverTiming != null) {
+      serverTiming.lookupNanos = System.nanoTime() - lookupStartTime;
+    }
+
+    if (!optionalWebResource.isPresent()) {
+      if (serverTiming != null) {
+        resp.setHeader("Server-Timing", serverTiming.toHeaderValue());
+      }
+      return WebResourceHandler.http404(resp);
+    }
+
+    WebResource webResource = optionalWebResource.get();
+    List<WebResource> variants = webResource.getVariants();
+    if (!variants.isEmpty()) {
+      resp.setHeader("Vary", "Accept");
+      webResource = WebResourceHandler.selectVariant(req, webResource, variants);
+    }
+
+    return WebResourceHandler.writeWebResource(webResource, req, resp, this.pathSuffix,
+        serverTiming);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.transport;
+
+/**
+ * The parts of an HTTP request that are necessary to serve a
+ * {@link org.everit.osgi.webresource.WebResource}. Implementations adapt the request type of an
+ * HTTP engine, e.g. a servlet request or the request of an event-loop based server.
+ */
+public interface WebResourceRequest {
+
+  /**
+   * An attribute that the HTTP engine attached to the request, e.g. a servlet request attribute.
+   *
+   * @param name
+   *          The name of the attribute.
+   * @return The value of the attribute or <code>null</code> if the request does not have such an
+   *         attribute or the HTTP engine does not support attributes.
+   */
+  default Object getAttribute(final String name) {
+    return null;
+  }
+
+  /**
+   * The value of a request header.
+   *
+   * @param name
+   *          The case-insensitive name of the header.
+   * @return The value of the header or <code>null</code> if the request does not have such a
+   *         header. If the header occurs more times, the first value is returned.
+   */
+  String getHeader(String name);
+
+  /**
+   * The HTTP method of the request, e.g. GET or HEAD.
+   */
+  String getMethod();
+
+  /**
+   * The value of a query parameter.
+   *
+   * @param name
+   *          The name of the parameter.
+   * @return The decoded value of the parameter or <code>null</code> if the request does not have
+   *         such a parameter.
+   */
+  String getParameter(String name);
+
+  /**
+   * The path of the requested resource relative to the path where the webresources are served,
+   * e.g. <code>/jquery/jquery.js</code>. The path starts with a slash and is decoded.
+   */
+  String getPath();
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.transport;
+
+import java.util.concurrent.CompletionStage;
+
+import org.everit.osgi.webresource.WebResourceContent;
+
+/**
+ * The response of a {@link WebResourceRequest}. The status and the headers are set first, then the
+ * response is finished with exactly one call of {@link #send(WebResourceContent)} or
+ * {@link #sendError(int, String)}. Implementations adapt the response type of an HTTP engine.
+ */
+public interface WebResourceResponse {
+
+  /**
+   * Sends the status, the headers and the body. The body is passed as {@link WebResourceContent}
+   * whose {@link WebResourceContent#getBuffers()} can be written to a channel with a gathering
+   * write without copying. {@link WebResourceContent#isStreamed() Streamed} content has no buffers
+   * and has to be read via {@link WebResourceContent#newInputStream()}. The method should not
+   * block if the engine supports non-blocking writes.
+   *
+   * @param body
+   *          The body. It is empty if the response has no body (e.g. a HEAD request or a not
+   *          modified response); in that case the Content-Length header must not be changed.
+   * @return A stage that is completed when the body is written or completed exceptionally if the
+   *         body cannot be written.
+   */
+  CompletionStage<Void> send(WebResourceContent body);
+
+  /**
+   * Sends an error response. The engine may render its own error page.
+   *
+   * @param status
+   *          The status code, e.g. 404.
+   * @param message
+   *          A descriptive message.
+   * @return A stage that is completed when the response is sent.
+   */
+  CompletionStage<Void> sendError(int status, String message);
+
+  /**
+   * Sets the Content-Length header.
+   *
+   * @param length
+   *          The length of the body in bytes.
+   */
+  void setContentLength(long length);
+
+  /**
+   * Sets a response header, replacing the previous value of the header if there is one.
+   *
+   * @param name
+   *          The name of the header.
+   * @param value
+   *          The value of the header.
+   */
+  void setHeader(String name, String value);
+
+  /**
+   * Sets the status code of the response. If it is not called, the status is 200.
+   *
+   * @param status
+   *          The status code.
+   */
+  void setStatus(int status);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.util;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.transport.WebResourceHandler;
+import org.everit.osgi.webresource.transport.WebResourceRequest;
+
+/**
+ * {@link WebResourceRequest} adapter of an {@link HttpServletRequest}.
+ */
+final class ServletWebResourceRequest implements WebResourceRequest {
+
+  private final HttpServletRequest req;
+
+  ServletWebResourceRequest(final HttpServletRequest req) {
+    this.req = req;
+  }
+
+  @Override
+  public Object getAttribute(final String name) {
+    Object value = this.req.getAttribute(name);
+    if (value == null && WebResourceHandler.REQUEST_ATTR_SERVER_TIMING_FILTER.equals(name)) {
+      // The configuration of the servlet or of the system properties decides about the
+      // Server-Timing header unless the filter is set explicitly
+      return WebResourceConfiguration.fromRequestAttribute(
+          this.req.getAttribute(WebResourceConfiguration.REQUEST_ATTR_CONFIGURATION))
+          .getServerTimingFilter();
+    }
+    return value;
+  }
+
+  @Override
+  public String getHeader(final String name) {
+    return this.req.getHeader(name);
+  }
+
+  @Override
+  public String getMethod() {
+    return this.req.getMethod();
+  }
+
+  @Override
+  public String getParameter(final String name) {
+    return this.req.getParameter(name);
+  }
+
+  @Override
+  public String getPath() {
+    String pathInfo = this.req.getPathInfo();
+    if (pathInfo == null) {
+      // Happens when the servlet is a default servlet in the servlet context
+      pathInfo = this.req.getServletPath();
+    }
+    return pathInfo;
+  }
+}
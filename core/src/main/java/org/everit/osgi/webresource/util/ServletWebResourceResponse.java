@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.everit.osgi.webresource.WebResourceContent;
+import org.everit.osgi.webresource.internal.AsyncTransfer;
+import org.everit.osgi.webresource.internal.BufferPool;
+import org.everit.osgi.webresource.internal.ContainerOutputAdapters;
+import org.everit.osgi.webresource.internal.WebResourceConfiguration;
+import org.everit.osgi.webresource.transport.WebResourceResponse;
+
+/**
+ * {@link WebResourceResponse} adapter of an {@link HttpServletResponse}. Small bodies are written
+ * in a blocking way, large bodies asynchronously if the request supports it. The native API of the
+ * servlet container is used if it is recognized.
+ */
+final class ServletWebResourceResponse implements WebResourceResponse {
+
+  /**
+   * Asynchronous {@link WriteListener} that writes the content to the OutputStream of the response
+   * in large slices directly from the cached buffers. Streamed content is read from its source
+   * into a pooled buffer.
+   */
+  private static final class ContentWriteListener implements WriteListener {
+
+    private final WebResourceContent content;
+
+    private byte[] streamBuffer;
+
+    private InputStream streamInput;
+
+    private final AsyncTransfer transfer;
+
+    private long writtenBytes = 0;
+
+    private ContentWriteListener(final AsyncTransfer transfer, final WebResourceContent content) {
+      this.transfer = transfer;
+      this.content = content;
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+      this.transfer.fail(t);
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      ServletOutputStream out = this.transfer.getAsyncContext().getResponse().getOutputStream();
+      if (this.content.isStreamed()) {
+        writeStreamed(out);
+        return;
+      }
+      long contentLength = this.content.getLength();
+
+      while (!this.transfer.isFinished() && out.isReady()) {
+        if (this.writtenBytes == contentLength) {
+          this.transfer.complete();
+          return;
+        }
+        long n = Math.min(contentLength - this.writtenBytes,
+            ServletWebResourceResponse.ASYNC_SLICE_SIZE);
+        this.content.writeTo(out, this.writtenBytes, n);
+        this.writtenBytes += n;
+        this.transfer.setWrittenBytes(this.writtenBytes);
+      }
+    }
+
+    private void writeStreamed(final ServletOutputStream out) throws IOException {
+      if (this.streamInput == null) {
+        this.streamInput = this.content.newInputStream();
+        this.streamBuffer = BufferPool.acquire();
+        InputStream input = this.streamInput;
+        // A timeout or an error can finish the transfer on another thread. Closing the stream
+        // makes a read in progress fail, while the buffer is not returned to the pool as it
+        // might still be in use.
+        this.transfer.getCompletion().whenComplete((result, failure) -> {
+          try {
+            input.close();
+          } catch (IOException e) {
+            // Nothing to do as the transfer is already finished
+          }
+        });
+      }
+      long contentLength = this.content.getLength();
+      while (!this.transfer.isFinished() && out.isReady()) {
+        if (this.writtenBytes == contentLength) {
+          BufferPool.release(this.streamBuffer);
+          this.streamBuffer = null;
+          this.transfer.complete();
+          return;
+        }
+        int r = this.streamInput.read(this.streamBuffer, 0,
+            (int) Math.min(contentLength - this.writtenBytes, this.streamBuffer.length));
+        if (r < 0) {
+          throw new IOException("The source of the streamed content ended after "
+              + this.writtenBytes + " of " + contentLength + " bytes");
+        }
+        out.write(this.streamBuffer, 0, r);
+        this.writtenBytes += r;
+        this.transfer.setWrittenBytes(this.writtenBytes);
+      }
+    }
+  }
+
+  private static final long ASYNC_SLICE_SIZE = 64 * 1024;
+
+  private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+  /**
+   * The largest response buffer that is requested from the container for a blocking write. Larger
+   * bodies are written with one call that the containers pass through without buffering.
+   */
+  private static final int MAX_RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+  private static CompletableFuture<Void> failed(final Throwable t) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    result.completeExceptionally(t);
+    return result;
+  }
+
+  private boolean asynchronous;
+
+  private String contentType;
+
+  private final HttpServletRequest req;
+
+  private final HttpServletResponse resp;
+
+  ServletWebResourceResponse(final HttpServletRequest req, final HttpServletResponse resp) {
+    this.req = req;
+    this.resp = resp;
+  }
+
+  /**
+   * Whether the body is sent asynchronously, so the result of {@link #send(WebResourceContent)}
+   * is completed after the servlet call returns.
+   */
+  boolean isAsynchronous() {
+    return this.asynchronous;
+  }
+
+  @Override
+  public CompletionStage<Void> send(final WebResourceContent body) {
+    if (body.getLength() == 0) {
+      return ServletWebResourceResponse.COMPLETED;
+    }
+    WebResourceConfiguration configuration = WebResourceConfiguration.fromRequestAttribute(
+        this.req.getAttribute(WebResourceConfiguration.REQUEST_ATTR_CONFIGURATION));
+    ContainerOutputAdapters containerOutputAdapters = ContainerOutputAdapters.fromRequestAttribute(
+        this.req.getAttribute(ContainerOutputAdapters.REQUEST_ATTR_CONTAINER_OUTPUT_ADAPTERS));
+    AsyncTransfer transfer = null;
+    try {
+      // Small bodies fit into the response buffer, so they are not worth an async context
+      if (this.req.isAsyncSupported() && body.getLength() > configuration.getAsyncThreshold()) {
+        transfer = AsyncTransfer.start(this.req, this.contentType,
+            configuration.getAsyncIdleTimeout());
+      }
+
+      if (!configuration.isContainerAdapters()
+          || !containerOutputAdapters.send(this.resp, body, transfer)) {
+        if (transfer != null) {
+          this.resp.getOutputStream().setWriteListener(new ContentWriteListener(transfer, body));
+        } else {
+          writeContentBlocking(body);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      if (transfer != null) {
+        transfer.fail(e);
+      }
+      return ServletWebResourceResponse.failed(e);
+    }
+
+    if (transfer == null) {
+      return ServletWebResourceResponse.COMPLETED;
+    }
+    this.asynchronous = true;
+    return transfer.getCompletion();
+  }
+
+  @Override
+  public CompletionStage<Void> sendError(final int status, final String message) {
+    try {
+      this.resp.sendError(status, message);
+      return ServletWebResourceResponse.COMPLETED;
+    } catch (IOException e) {
+      return ServletWebResourceResponse.failed(e);
+    }
+  }
+
+  @Override
+  public void setContentLength(final long length) {
+    if (length <= Integer.MAX_VALUE) {
+      this.resp.setContentLength((int) length);
+    } else {
+      this.resp.setContentLengthLong(length);
+    }
+  }
+
+  @Override
+  public void setHeader(final String name, final String value) {
+    if ("Content-Type".equalsIgnoreCase(name)) {
+      this.contentType = value;
+      this.resp.setContentType(value);
+    } else {
+      this.resp.setHeader(name, value);
+    }
+  }
+
+  @Override
+  public void setStatus(final int status) {
+    this.resp.setStatus(status);
+  }
+
+  /**
+   * Writes the content with one write call for each chunk, so there is no copy buffer and the
+   * container does not flush the response in small pieces. Small bodies fit into the response
+   * buffer together with the headers. Streamed content is copied via a pooled buffer.
+   */
+  private void writeContentBlocking(final WebResourceContent content) throws IOException {
+    long contentLength = content.getLength();
+    if (contentLength > this.resp.getBufferSize()
+        && contentLength <= ServletWebResourceResponse.MAX_RESPONSE_BUFFER_SIZE) {
+      this.resp.setBufferSize((int) contentLength);
+    }
+    if (!content.isStreamed()) {
+      content.writeTo(this.resp.getOutputStream());
+      return;
+    }
+    byte[] copyBuffer = BufferPool.acquire();
+    try {
+      content.writeTo(this.resp.getOutputStream(), copyBuffer);
+    } finally {
+      BufferPool.release(copyBuffer);
+    }
+  }
+}
@@ -16,105 +16,30 @@
 package org.everit.osgi.webresource.util;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Collection;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
-import javax.servlet.AsyncContext;
 import javax.servlet.ServletContext;
-import javax.servlet.ServletOutputStream;
-import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.everit.osgi.webresource.ContentEncoding;
 import org.everit.osgi.webresource.WebResource;
-import org.everit.osgi.webresource.WebResourceConstants;
 import org.everit.osgi.webresource.WebResourceContainer;
 import org.everit.osgi.webresource.WebResourceURIGenerator;
+import org.everit.osgi.webresource.transport.WebResourceHandler;
 
 /**
  * Internal class that holds a {@link WebResourceContainer} and give utility methods to process
- * {@link WebResource} requests.
+ * {@link WebResource} requests. The requests are served by a {@link WebResourceHandler} via
+ * Servlet API adapters.
  */
 public final class WebResourceUtil {
 
-  /**
-   * Asynchronous {@link WriteListener} that writes an {@link InputStream} to the OutputStream of
-   * the response.
-   */
-  private static final class InputStreamBasedWriteListener implements WriteListener {
-
-    private static final Logger LOGGER = Logger.getLogger("org.everit.osgi.webresource.stream");
-
-    private final AsyncContext async;
-
-    byte[] buf = new byte[WebResourceUtil.BUFFER_SIZE];
-
-    private final InputStream in;
-
-    private InputStreamBasedWriteListener(final AsyncContext async, final InputStream in) {
-      this.in = in;
-      this.async = async;
-    }
-
-    @Override
-    public void onError(final Throwable t) {
-      ServletContext servletContext = this.async.getRequest().getServletContext();
-      if (servletContext != null) {
-        servletContext.log("Async exception", t);
-      } else {
-        InputStreamBasedWriteListener.LOGGER.log(Level.WARNING, "Async exception", t);
-      }
-      this.async.complete();
-    }
-
-    @Override
-    public void onWritePossible() throws IOException {
-      ServletOutputStream out = this.async.getResponse().getOutputStream();
-
-      while (out.isReady()) {
-        int r = this.in.read(this.buf);
-        if (r < 0) {
-          this.async.complete();
-          return;
-        }
-        out.write(this.buf, 0, r);
-      }
-    }
-  }
-
-  private static final int BUFFER_SIZE = 1024;
-
-  private static final int HTTP_NOT_MODIFIED = 304;
-
-  private static boolean etagMatchFound(final HttpServletRequest request,
-      final WebResource webResource) {
-    String ifNoneMatchHeader = request.getHeader("If-None-Match");
-    if (ifNoneMatchHeader == null) {
-      return false;
-    }
-    String[] etags = ifNoneMatchHeader.split(",");
-    int i = 0;
-    int n = etags.length;
-    boolean matchFound = false;
-    while (!matchFound && i < n) {
-      String etag = etags[i].trim();
-      if (etag.equals('"' + webResource.getETag() + '"')) {
-        matchFound = true;
-      } else {
-        i++;
-      }
-    }
-    return matchFound;
-
-  }
-
   /**
    * Finds the {@link WebResource} based on the pathInfo and writes it to the output stream of the
    * response. If the {@link WebResource} is not found, HTTP 404 is thrown.
@@ -132,38 +57,35 @@ public final class WebResourceUtil {
   public static void findWebResourceAndWriteResponse(
       final WebResourceContainer webResourceContainer, final HttpServletRequest req,
       final HttpServletResponse resp) throws IOException {
+    WebResourceUtil.findWebResourceAndWriteResponse(webResourceContainer, req, resp, "");
+  }
 
-    String pathInfo = req.getPathInfo();
-    if (pathInfo == null) {
-      // Happens when the servlet is a default servlet in the servlet context
-      pathInfo = req.getServletPath();
-    }
-
-    int lastIndexOfSlash = pathInfo.lastIndexOf('/');
-
-    if (lastIndexOfSlash == pathInfo.length() - 1) {
-      WebResourceUtil.http404(resp);
-      return;
-    }
-
-    String resourceName = pathInfo.substring(lastIndexOfSlash + 1);
-
-    String lib = "";
-    if (lastIndexOfSlash > 0) {
-      lib = pathInfo.substring(1, lastIndexOfSlash);
-    }
-
-    String version = req.getParameter(WebResourceConstants.REQUEST_PARAM_VERSION_RANGE);
-
-    Optional<WebResource> optionalWebResource = webResourceContainer.findWebResource(lib,
-        resourceName, Optional.ofNullable(version));
-
-    if (!optionalWebResource.isPresent()) {
-      WebResourceUtil.http404(resp);
-      return;
-    }
+  /**
+   * Finds the {@link WebResource} based on the path of a servlet that is mapped with a suffix URL
+   * pattern and writes it to the output stream of the response. If the {@link WebResource} is not
+   * found, HTTP 404 is sent.
+   *
+   * @param webResourceContainer
+   *          The container that is used to find the webResource.
+   * @param req
+   *          The Servlet request.
+   * @param resp
+   *          The Servlet Response which headers will be set and if the request is a GET request,
+   *          the {@link WebResource} will be written to the OutputStream of the response.
+   * @param pathSuffix
+   *          The suffix of the URL pattern of the servlet, e.g. <code>.res</code>, or an empty
+   *          String.
+   * @throws IOException
+   *           if the content of the {@link WebResource} cannot be written to the output stream.
+   */
+  public static void findWebResourceAndWriteResponse(
+      final WebResourceContainer webResourceContainer, final HttpServletRequest req,
+      final HttpServletResponse resp, final String pathSuffix) throws IOException {
 
-    WebResourceUtil.writeWebResourceToResponse(optionalWebResource.get(), req, resp);
+    ServletWebResourceResponse servletResponse = new ServletWebResourceResponse(req, resp);
+    CompletionStage<Void> result = new WebResourceHandler(webResourceContainer, pathSuffix)
+        .handle(new ServletWebResourceRequest(req), servletResponse);
+    WebResourceUtil.rethrowBlockingFailure(servletResponse, result);
   }
 
   /**
@@ -190,34 +112,28 @@ public final class WebResourceUtil {
     return uriGeneratorQueue;
   }
 
-  private static void http404(final HttpServletResponse resp) throws IOException {
-    resp.sendError(WebResourceConstants.HTTP_NOT_FOUND, "Resource cannot found");
-  }
-
-  private static ContentEncoding writeResponseHead(final HttpServletRequest req,
-      final HttpServletResponse resp,
-      final WebResource webResource) {
-    resp.setContentType(webResource.getContentType());
-    resp.setHeader("Last-Modified", webResource.getLastModifiedRFC1123GMT());
-    resp.setHeader("ETag", '"' + webResource.getETag() + '"');
-
-    ContentEncoding contentEncoding = ContentEncoding.resolveEncoding(req);
-    resp.setContentLength((int) webResource.getContentLength(contentEncoding));
-
-    if (!ContentEncoding.RAW.equals(contentEncoding)) {
-      resp.setHeader("Content-Encoding", contentEncoding.getHeaderValue());
+  /**
+   * Throws the failure of a response that was written in a blocking way, like the Servlet API
+   * does. Failures of asynchronous transfers are handled by the transfer itself.
+   */
+  private static void rethrowBlockingFailure(final ServletWebResourceResponse servletResponse,
+      final CompletionStage<Void> result) throws IOException {
+    CompletableFuture<Void> future = result.toCompletableFuture();
+    if (servletResponse.isAsynchronous() || !future.isCompletedExceptionally()) {
+      return;
     }
-    return contentEncoding;
-  }
-
-  private static void writeToOutputStreamFromInputStream(final InputStream in,
-      final ServletOutputStream out) throws IOException {
-
-    byte[] buffer = new byte[WebResourceUtil.BUFFER_SIZE];
-    int r = in.read(buffer);
-    while (r >= 0) {
-      out.write(buffer, 0, r);
-      r = in.read(buffer);
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
     }
   }
 
@@ -244,28 +160,10 @@ public final class WebResourceUtil {
 
     Objects.requireNonNull(req);
     Objects.requireNonNull(resp);
-    Objects.requireNonNull(webResource);
-
-    ContentEncoding contentEncoding = WebResourceUtil.writeResponseHead(req, resp, webResource);
-
-    if (WebResourceUtil.etagMatchFound(req, webResource)) {
-      resp.setStatus(WebResourceUtil.HTTP_NOT_MODIFIED);
-      return;
-    }
-
-    if ("HEAD".equals(req.getMethod())) {
-      return;
-    }
-
-    InputStream in = webResource.getInputStream(contentEncoding, 0);
-    if (req.isAsyncSupported()) {
-      AsyncContext async = req.startAsync();
-      ServletOutputStream out = resp.getOutputStream();
-      out.setWriteListener(new InputStreamBasedWriteListener(async, in));
-    } else {
-      ServletOutputStream out = resp.getOutputStream();
-      WebResourceUtil.writeToOutputStreamFromInputStream(in, out);
-    }
+    ServletWebResourceResponse servletResponse = new ServletWebResourceResponse(req, resp);
+    CompletionStage<Void> result = WebResourceHandler.writeWebResource(webResource,
+        new ServletWebResourceRequest(req), servletResponse);
+    WebResourceUtil.rethrowBlockingFailure(servletResponse, result);
   }
 
   private WebResourceUtil() {
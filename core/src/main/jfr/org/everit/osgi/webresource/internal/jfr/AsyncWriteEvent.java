@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of writing the content of a web resource asynchronously from starting the
+ * async context until completing it.
+ */
+@Name("org.everit.webresource.AsyncWrite")
+@Label("WebResource Async Write")
+@Category({ "Everit", "WebResource" })
+@Description("Writing the content of a web resource to the response asynchronously")
+@Threshold("100 ms")
+@StackTrace(false)
+public final class AsyncWriteEvent extends Event {
+
+  @Label("Content Type")
+  String contentType;
+
+  @Label("Failed")
+  boolean failed;
+
+  @Label("Written Size")
+  @DataAmount
+  long writtenBytes;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of scanning a bundle for web resources by the extender.
+ */
+@Name("org.everit.webresource.BundleScan")
+@Label("WebResource Bundle Scan")
+@Category({ "Everit", "WebResource" })
+@Description("Scanning a bundle for web resources")
+@Threshold("0 ms")
+@StackTrace(false)
+public final class BundleScanEvent extends Event {
+
+  @Label("Bundle Id")
+  long bundleId;
+
+  @Label("Resource Count")
+  int resourceCount;
+
+  @Label("Bundle Symbolic Name")
+  String symbolicName;
+}
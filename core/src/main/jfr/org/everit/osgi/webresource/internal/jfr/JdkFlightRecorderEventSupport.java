@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.internal.jfr;
+
+/**
+ * Emits the Flight Recorder events with the classes of the <code>jdk.jfr</code> package. The begin
+ * functions return <code>null</code> if the event type is not enabled in any running recording.
+ */
+final class JdkFlightRecorderEventSupport implements FlightRecorderEventSupport {
+
+  @Override
+  public Object beginAsyncWrite() {
+    AsyncWriteEvent event = new AsyncWriteEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public Object beginBundleScan() {
+    BundleScanEvent event = new BundleScanEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public Object beginCacheFill() {
+    CacheFillEvent event = new CacheFillEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public Object beginLookup() {
+    LookupEvent event = new LookupEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitAsyncWrite(final Object asyncWriteEvent, final String contentType,
+      final long writtenBytes, final boolean failed) {
+    AsyncWriteEvent event = (AsyncWriteEvent) asyncWriteEvent;
+    event.end();
+    if (event.shouldCommit()) {
+      event.contentType = contentType;
+      event.writtenBytes = writtenBytes;
+      event.failed = failed;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void commitBundleScan(final Object bundleScanEvent, final long bundleId,
+      final String symbolicName, final int resourceCount) {
+    BundleScanEvent event = (BundleScanEvent) bundleScanEvent;
+    event.end();
+    if (event.shouldCommit()) {
+      event.bundleId = bundleId;
+      event.symbolicName = symbolicName;
+      event.resourceCount = resourceCount;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void commitCacheFill(final Object cacheFillEvent, final String library,
+      final String fileName, final String version, final String contentEncoding,
+      final long inputBytes, final long outputBytes) {
+    CacheFillEvent event = (CacheFillEvent) cacheFillEvent;
+    event.end();
+    if (event.shouldCommit()) {
+      event.library = library;
+      event.fileName = fileName;
+      event.version = version;
+      event.contentEncoding = contentEncoding;
+      event.inputBytes = inputBytes;
+      event.outputBytes = outputBytes;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void commitLookup(final Object lookupEvent, final String library,
+      final String resourceName, final String versionRange, final boolean found) {
+    LookupEvent event = (LookupEvent) lookupEvent;
+    event.end();
+    if (event.shouldCommit()) {
+      event.library = library;
+      event.resourceName = resourceName;
+      event.versionRange = versionRange;
+      event.found = found;
+      event.commit();
+    }
+  }
+}
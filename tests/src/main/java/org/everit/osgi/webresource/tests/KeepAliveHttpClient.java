@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.tests;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Minimal HTTP/1.1 client that keeps its connection open between requests. The JDK
+ * {@link java.net.HttpURLConnection} limits the number of idle connections per destination, so it
+ * cannot be used to simulate many concurrent keep-alive clients.
+ */
+class KeepAliveHttpClient implements Closeable {
+
+  /**
+   * The parts of an HTTP response that the load test checks.
+   */
+  static final class Response {
+
+    final long bodyLength;
+
+    final Map<String, String> headers;
+
+    final int status;
+
+    Response(final int status, final Map<String, String> headers, final long bodyLength) {
+      this.status = status;
+      this.headers = headers;
+      this.bodyLength = bodyLength;
+    }
+
+    /**
+     * Returns the value of a response header.
+     *
+     * @param name
+     *          The case insensitive name of the header.
+     * @return The value of the header or <code>null</code> if it is not in the response.
+     */
+    String getHeader(final String name) {
+      return this.headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+  }
+
+  private static final int CONNECT_TIMEOUT = 5000;
+
+  private static final int HEX_RADIX = 16;
+
+  private static final int HTTP_NO_CONTENT = 204;
+
+  private static final int HTTP_NOT_MODIFIED = 304;
+
+  private static final int INFORMATIONAL_STATUS_LIMIT = 200;
+
+  private static final int READ_TIMEOUT = 30000;
+
+  private static final int SKIP_BUFFER_SIZE = 8192;
+
+  private int connectionCount = 0;
+
+  private final String host;
+
+  private InputStream in;
+
+  private OutputStream out;
+
+  private final int port;
+
+  private final byte[] skipBuffer = new byte[KeepAliveHttpClient.SKIP_BUFFER_SIZE];
+
+  private Socket socket;
+
+  KeepAliveHttpClient(final String host, final int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.socket != null) {
+      this.socket.close();
+      this.socket = null;
+    }
+  }
+
+  private void connect() throws IOException {
+    Socket newSocket = new Socket();
+    newSocket.setTcpNoDelay(true);
+    newSocket.setSoTimeout(KeepAliveHttpClient.READ_TIMEOUT);
+    newSocket.connect(new InetSocketAddress(this.host, this.port),
+        KeepAliveHttpClient.CONNECT_TIMEOUT);
+    this.socket = newSocket;
+    this.in = new BufferedInputStream(newSocket.getInputStream());
+    this.out = new BufferedOutputStream(newSocket.getOutputStream());
+    this.connectionCount++;
+  }
+
+  /**
+   * Sends a GET request on the kept-alive connection and reads the whole response. If the server
+   * closed the idle connection, the request is sent once more on a new connection.
+   *
+   * @param path
+   *          The path and query of the request.
+   * @param headers
+   *          Additional request headers.
+   * @return The response.
+   * @throws IOException
+   *           if the request cannot be sent or the response cannot be read.
+   */
+  Response get(final String path, final Map<String, String> headers) throws IOException {
+    boolean reusedConnection = this.socket != null;
+    if (!reusedConnection) {
+      connect();
+    }
+    try {
+      return send(path, headers);
+    } catch (IOException e) {
+      close();
+      if (!reusedConnection) {
+        throw e;
+      }
+      connect();
+      return send(path, headers);
+    }
+  }
+
+  /**
+   * The number of TCP connections that were opened by this client. In case keep-alive works, the
+   * value stays one.
+   */
+  int getConnectionCount() {
+    return this.connectionCount;
+  }
+
+  private long readChunkSize() throws IOException {
+    String chunkSizeLine = readLine();
+    int indexOfExtension = chunkSizeLine.indexOf(';');
+    String chunkSize = indexOfExtension < 0 ? chunkSizeLine
+        : chunkSizeLine.substring(0, indexOfExtension);
+    return Long.parseLong(chunkSize.trim(), KeepAliveHttpClient.HEX_RADIX);
+  }
+
+  private String readLine() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int c = this.in.read();
+    while (c != '\n') {
+      if (c < 0) {
+        throw new IOException("Connection closed by the server");
+      }
+      if (c != '\r') {
+        sb.append((char) c);
+      }
+      c = this.in.read();
+    }
+    return sb.toString();
+  }
+
+  private Response readResponse() throws IOException {
+    int status = KeepAliveHttpClient.INFORMATIONAL_STATUS_LIMIT - 1;
+    Map<String, String> headers = new HashMap<>();
+    while (status < KeepAliveHttpClient.INFORMATIONAL_STATUS_LIMIT) {
+      String statusLine = readLine();
+      String[] statusLineParts = statusLine.split(" ", 3);
+      if (statusLineParts.length < 2) {
+        throw new IOException("Invalid status line: " + statusLine);
+      }
+      status = Integer.parseInt(statusLineParts[1]);
+      headers.clear();
+      String headerLine = readLine();
+      while (!headerLine.isEmpty()) {
+        int indexOfColon = headerLine.indexOf(':');
+        if (indexOfColon > 0) {
+          headers.put(headerLine.substring(0, indexOfColon).trim().toLowerCase(Locale.ENGLISH),
+              headerLine.substring(indexOfColon + 1).trim());
+        }
+        headerLine = readLine();
+      }
+    }
+
+    long bodyLength = 0;
+    if (status != KeepAliveHttpClient.HTTP_NO_CONTENT
+        && status != KeepAliveHttpClient.HTTP_NOT_MODIFIED) {
+      String contentLength = headers.get("content-length");
+      if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+        bodyLength = skipChunkedBody();
+      } else if (contentLength != null) {
+        bodyLength = Long.parseLong(contentLength);
+        skip(bodyLength);
+      } else {
+        bodyLength = skipUntilClose();
+      }
+    }
+
+    if ("close".equalsIgnoreCase(headers.get("connection"))) {
+      close();
+    }
+    return new Response(status, headers, bodyLength);
+  }
+
+  private Response send(final String path, final Map<String, String> headers)
+      throws IOException {
+    StringBuilder sb = new StringBuilder("GET ").append(path).append(" HTTP/1.1\r\nHost: ")
+        .append(this.host).append(':').append(this.port).append("\r\n");
+    for (Entry<String, String> header : headers.entrySet()) {
+      sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    sb.append("\r\n");
+    this.out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    this.out.flush();
+    return readResponse();
+  }
+
+  private void skip(final long length) throws IOException {
+    long remaining = length;
+    while (remaining > 0) {
+      int r = this.in.read(this.skipBuffer, 0,
+          (int) Math.min(remaining, this.skipBuffer.length));
+      if (r < 0) {
+        throw new IOException("Connection closed before the end of the body");
+      }
+      remaining -= r;
+    }
+  }
+
+  private long skipChunkedBody() throws IOException {
+    long bodyLength = 0;
+    long chunkSize = readChunkSize();
+    while (chunkSize > 0) {
+      skip(chunkSize);
+      bodyLength += chunkSize;
+      // CRLF after the data of the chunk
+      readLine();
+      chunkSize = readChunkSize();
+    }
+    // Trailers
+    String trailerLine = readLine();
+    while (!trailerLine.isEmpty()) {
+      trailerLine = readLine();
+    }
+    return bodyLength;
+  }
+
+  private long skipUntilClose() throws IOException {
+    long bodyLength = 0;
+    int r = this.in.read(this.skipBuffer);
+    while (r >= 0) {
+      bodyLength += r;
+      r = this.in.read(this.skipBuffer);
+    }
+    close();
+    return bodyLength;
+  }
+}
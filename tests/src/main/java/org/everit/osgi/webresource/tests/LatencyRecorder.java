@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.tests;
+
+import java.util.Arrays;
+
+/**
+ * Collects request latencies of a single load test client thread. Instances are not thread safe;
+ * the recorders of the clients are merged after the measurement.
+ */
+class LatencyRecorder {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private static final double NANOS_PER_MILLISECOND = 1_000_000D;
+
+  private int size = 0;
+
+  private boolean sorted = true;
+
+  private long[] values = new long[LatencyRecorder.INITIAL_CAPACITY];
+
+  /**
+   * Merges the recorded latencies of another recorder into this one.
+   *
+   * @param other
+   *          The other recorder.
+   */
+  void addAll(final LatencyRecorder other) {
+    ensureCapacity(this.size + other.size);
+    System.arraycopy(other.values, 0, this.values, this.size, other.size);
+    this.size += other.size;
+    this.sorted = false;
+  }
+
+  private void ensureCapacity(final int capacity) {
+    if (capacity > this.values.length) {
+      this.values = Arrays.copyOf(this.values, Math.max(capacity, this.values.length * 2));
+    }
+  }
+
+  int getCount() {
+    return this.size;
+  }
+
+  /**
+   * Returns the latency below which the specified ratio of the recorded latencies fall (nearest
+   * rank method).
+   *
+   * @param ratio
+   *          The ratio between 0 and 1, e.g. 0.99 for the 99th percentile.
+   * @return The latency in milliseconds or 0 if nothing was recorded.
+   */
+  double getPercentileMillis(final double ratio) {
+    if (this.size == 0) {
+      return 0;
+    }
+    if (!this.sorted) {
+      Arrays.sort(this.values, 0, this.size);
+      this.sorted = true;
+    }
+    int rank = (int) Math.ceil(ratio * this.size);
+    int index = Math.min(Math.max(rank - 1, 0), this.size - 1);
+    return this.values[index] / LatencyRecorder.NANOS_PER_MILLISECOND;
+  }
+
+  void record(final long durationNanos) {
+    ensureCapacity(this.size + 1);
+    this.values[this.size] = durationNanos;
+    this.size++;
+    this.sorted = false;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * Builds a bundle with webresources in memory and installs it into the framework of the tests.
+ * The tests use it to check what happens when bundles with webresources come and go.
+ */
+class TestBundleBuilder {
+
+  private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+  private final String provideCapability;
+
+  private final String symbolicName;
+
+  /**
+   * Constructor.
+   *
+   * @param symbolicName
+   *          The symbolic name of the bundle that is also used in its location.
+   * @param provideCapability
+   *          The value of the <code>Provide-Capability</code> header of the bundle.
+   */
+  TestBundleBuilder(final String symbolicName, final String provideCapability) {
+    this.symbolicName = symbolicName;
+    this.provideCapability = provideCapability;
+  }
+
+  /**
+   * Adds an entry to the bundle.
+   *
+   * @param path
+   *          The path of the entry without a leading slash.
+   * @param content
+   *          The content of the entry.
+   * @return This builder.
+   */
+  TestBundleBuilder addEntry(final String path, final byte[] content) {
+    this.entries.put(path, content);
+    return this;
+  }
+
+  private byte[] createJar() throws IOException {
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+    attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, this.symbolicName);
+    attributes.putValue(Constants.BUNDLE_VERSION, "1.0.0");
+    attributes.putValue(Constants.PROVIDE_CAPABILITY, this.provideCapability);
+
+    // Some frameworks list the resources of a bundle by walking its directory entries
+    Set<String> directories = new LinkedHashSet<>();
+    for (String path : this.entries.keySet()) {
+      int indexOfSlash = path.indexOf('/');
+      while (indexOfSlash >= 0) {
+        directories.add(path.substring(0, indexOfSlash + 1));
+        indexOfSlash = path.indexOf('/', indexOfSlash + 1);
+      }
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JarOutputStream jarOut = new JarOutputStream(out, manifest)) {
+      for (String directory : directories) {
+        jarOut.putNextEntry(new JarEntry(directory));
+        jarOut.closeEntry();
+      }
+      for (Entry<String, byte[]> entry : this.entries.entrySet()) {
+        jarOut.putNextEntry(new JarEntry(entry.getKey()));
+        jarOut.write(entry.getValue());
+        jarOut.closeEntry();
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Installs and starts the bundle. The webresource extender processes the bundle before this
+   * method returns. The caller is responsible for uninstalling the bundle.
+   *
+   * @return The started bundle.
+   */
+  Bundle install() throws IOException, BundleException {
+    BundleContext bundleContext =
+        FrameworkUtil.getBundle(TestBundleBuilder.class).getBundleContext();
+    Bundle bundle = bundleContext.installBundle("memory:" + this.symbolicName,
+        new ByteArrayInputStream(createJar()));
+    try {
+      bundle.start();
+    } catch (BundleException | RuntimeException e) {
+      bundle.uninstall();
+      throw e;
+    }
+    return bundle;
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.webresource.tests;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.everit.osgi.dev.testrunner.TestRunnerConstants;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ECMExtenderConstants;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import aQute.bnd.annotation.headers.ProvideCapability;
+
+/**
+ * Load test of the WebResource servlet. Many concurrent clients send requests on kept-alive
+ * connections with a mix of raw, gzip, conditional and versioned requests. The throughput and the
+ * latency percentiles are compared to the baseline that is stored in
+ * {@value #BASELINE_RESOURCE} and the test fails if the results are significantly worse. As the
+ * results depend on the machine, the test only runs if the
+ * <code>everit.webresource.loadtest.enabled</code> system property is <code>true</code>, e.g. in
+ * the <code>loadtest</code> Maven profile.
+ */
+@Component(configurationPolicy = ConfigurationPolicy.OPTIONAL)
+@ProvideCapability(ns = ECMExtenderConstants.CAPABILITY_NS_COMPONENT,
+    value = ECMExtenderConstants.CAPABILITY_ATTR_CLASS + "=${@class}")
+@StringAttributes({
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TESTRUNNER_ENGINE_TYPE,
+        defaultValue = "junit4"),
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TEST_ID,
+        defaultValue = "WebResourceLoadTest") })
+@Service(value = WebResourceLoadTest.class)
+public class WebResourceLoadTest {
+
+  /**
+   * The measured values of one client thread.
+   */
+  private static final class ClientResult {
+
+    int connectionCount = 0;
+
+    final List<String> errors = new ArrayList<>();
+
+    final Map<RequestType, LatencyRecorder> latencies = new EnumMap<>(RequestType.class);
+
+    long requestCount = 0;
+
+    ClientResult() {
+      for (RequestType requestType : RequestType.values()) {
+        this.latencies.put(requestType, new LatencyRecorder());
+      }
+    }
+  }
+
+  /**
+   * The kinds of requests that are mixed during the load test.
+   */
+  private enum RequestType {
+
+    CONDITIONAL, GZIP, RAW, VERSIONED;
+
+    String getKey() {
+      return name().toLowerCase(Locale.ENGLISH);
+    }
+  }
+
+  private static final String BASELINE_RESOURCE = "/META-INF/loadtest/baseline.properties";
+
+  private static final int DEFAULT_CLIENTS = 16;
+
+  private static final int DEFAULT_DURATION_SECONDS = 10;
+
+  private static final double DEFAULT_MAX_LATENCY_INCREASE = 1D;
+
+  private static final double DEFAULT_MAX_THROUGHPUT_DROP = 0.3D;
+
+  private static final int DEFAULT_WARMUP_SECONDS = 3;
+
+  private static final int HTTP_NOT_MODIFIED = 304;
+
+  private static final int HTTP_OK = 200;
+
+  private static final int MAX_REPORTED_ERRORS_PER_CLIENT = 10;
+
+  private static final double MILLIS_PER_SECOND = 1000D;
+
+  private static final String PATH_CSS = "/foo/bar/css/main.css";
+
+  private static final String PATH_HTML = "/foo/bar/pages/test.html";
+
+  private static final String PATH_VERSIONED_HTML = "/test.html?version=%5B2.0.0%2C3.0.0%29";
+
+  private static final double[] PERCENTILES = new double[] { 0.5D, 0.9D, 0.99D };
+
+  private static final String PROPERTY_PREFIX = "everit.webresource.loadtest.";
+
+  private static final long TERMINATION_TIMEOUT_SECONDS = 60;
+
+  private static double getDoubleProperty(final String name, final double defaultValue) {
+    String value = System.getProperty(WebResourceLoadTest.PROPERTY_PREFIX + name);
+    return value == null ? defaultValue : Double.parseDouble(value);
+  }
+
+  private static int getIntProperty(final String name, final int defaultValue) {
+    return Integer.getInteger(WebResourceLoadTest.PROPERTY_PREFIX + name, defaultValue);
+  }
+
+  private static String percentileKey(final RequestType requestType, final double percentile) {
+    return requestType.getKey() + ".p" + Math.round(percentile * 100);
+  }
+
+  private String contextPath;
+
+  private Server server;
+
+  private Properties loadBaseline() throws IOException {
+    Properties baseline = new Properties();
+    String baselineFile = System.getProperty(WebResourceLoadTest.PROPERTY_PREFIX + "baselineFile");
+    try (InputStream in = baselineFile != null ? new FileInputStream(baselineFile)
+        : WebResourceLoadTest.class.getResourceAsStream(WebResourceLoadTest.BASELINE_RESOURCE)) {
+      Assert.assertNotNull("Load test baseline not found", in);
+      baseline.load(in);
+    }
+    return baseline;
+  }
+
+  private int resolvePort() {
+    for (Connector connector : this.server.getConnectors()) {
+      if (connector instanceof NetworkConnector) {
+        int localPort = ((NetworkConnector) connector).getLocalPort();
+        if (localPort > 0) {
+          return localPort;
+        }
+      }
+    }
+    throw new IllegalStateException("The Jetty server does not listen on any port");
+  }
+
+  private ClientResult runClient(final String host, final int port, final int clientIndex,
+      final long warmupEndNanos, final long endNanos) throws IOException {
+
+    ClientResult result = new ClientResult();
+    RequestType[] requestTypes = RequestType.values();
+    try (KeepAliveHttpClient client = new KeepAliveHttpClient(host, port)) {
+      String etag = client.get(this.contextPath + WebResourceLoadTest.PATH_CSS,
+          Collections.emptyMap()).getHeader("ETag");
+      Assert.assertNotNull("No ETag in the response", etag);
+
+      // Clients start with a different request type so the mix is even at any point of time
+      long i = clientIndex;
+      long now = System.nanoTime();
+      while (now < endNanos) {
+        RequestType requestType = requestTypes[(int) (i % requestTypes.length)];
+        String error = sendRequest(client, requestType, etag);
+        long afterRequest = System.nanoTime();
+        if (now >= warmupEndNanos) {
+          result.latencies.get(requestType).record(afterRequest - now);
+          result.requestCount++;
+        }
+        if (error != null
+            && result.errors.size() < WebResourceLoadTest.MAX_REPORTED_ERRORS_PER_CLIENT) {
+          result.errors.add(requestType + ": " + error);
+        }
+        i++;
+        now = afterRequest;
+      }
+      result.connectionCount = client.getConnectionCount();
+    }
+    return result;
+  }
+
+  private String sendRequest(final KeepAliveHttpClient client, final RequestType requestType,
+      final String etag) throws IOException {
+
+    Map<String, String> headers = new HashMap<>();
+    String path;
+    int expectedStatus = WebResourceLoadTest.HTTP_OK;
+    String expectedContentEncoding = null;
+    switch (requestType) {
+      case CONDITIONAL:
+        path = WebResourceLoadTest.PATH_CSS;
+        headers.put("Accept-Encoding", "gzip");
+        headers.put("If-None-Match", etag);
+        expectedStatus = WebResourceLoadTest.HTTP_NOT_MODIFIED;
+        break;
+      case GZIP:
+        path = WebResourceLoadTest.PATH_HTML;
+        headers.put("Accept-Encoding", "gzip, deflate");
+        expectedContentEncoding = "gzip";
+        break;
+      case VERSIONED:
+        path = WebResourceLoadTest.PATH_VERSIONED_HTML;
+        headers.put("Accept-Encoding", "gzip");
+        expectedContentEncoding = "gzip";
+        break;
+      default:
+        path = WebResourceLoadTest.PATH_CSS;
+        break;
+    }
+
+    KeepAliveHttpClient.Response response = client.get(this.contextPath + path, headers);
+    if (response.status != expectedStatus) {
+      return "Expected status " + expectedStatus + " but was " + response.status;
+    }
+    String contentEncoding = response.getHeader("Content-Encoding");
+    if (expectedStatus == WebResourceLoadTest.HTTP_OK) {
+      if (expectedContentEncoding == null ? contentEncoding != null
+          : !expectedContentEncoding.equals(contentEncoding)) {
+        return "Expected Content-Encoding " + expectedContentEncoding + " but was "
+            + contentEncoding;
+      }
+      if (response.bodyLength == 0) {
+        return "Empty response body";
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Setter for the Jetty Server that runs the WebResource servlet.
+   */
+  @ServiceRef(defaultValue = "")
+  public void setServer(final Server server) {
+    this.server = server;
+
+    ContextHandlerCollection contextHandlerCollection =
+        (ContextHandlerCollection) server.getHandler();
+
+    Handler[] handlers = contextHandlerCollection.getHandlers();
+    for (Handler handler : handlers) {
+      if (handler instanceof ServletContextHandler) {
+        String handlerContextPath = ((ServletContextHandler) handler).getContextPath();
+        this.contextPath = "/".equals(handlerContextPath) ? "" : handlerContextPath;
+        return;
+      }
+    }
+    throw new IllegalArgumentException("Failed to retrieve the ServletContextHandler");
+  }
+
+  @Test
+  public void testLoadAgainstBaseline() throws IOException, InterruptedException {
+    Assume.assumeTrue("Load test is not enabled",
+        Boolean.getBoolean(WebResourceLoadTest.PROPERTY_PREFIX + "enabled"));
+
+    int clients =
+        WebResourceLoadTest.getIntProperty("clients", WebResourceLoadTest.DEFAULT_CLIENTS);
+    int warmupSeconds = WebResourceLoadTest.getIntProperty("warmupSeconds",
+        WebResourceLoadTest.DEFAULT_WARMUP_SECONDS);
+    int durationSeconds = WebResourceLoadTest.getIntProperty("durationSeconds",
+        WebResourceLoadTest.DEFAULT_DURATION_SECONDS);
+
+    String host = "localhost";
+    int port = resolvePort();
+
+    long warmupEndNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    long endNanos = warmupEndNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    List<Future<ClientResult>> futures = new ArrayList<>();
+    for (int i = 0; i < clients; i++) {
+      int clientIndex = i;
+      futures.add(executor.submit(
+          () -> runClient(host, port, clientIndex, warmupEndNanos, endNanos)));
+    }
+    executor.shutdown();
+    Assert.assertTrue("Load test clients did not finish in time",
+        executor.awaitTermination(warmupSeconds + durationSeconds
+            + WebResourceLoadTest.TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    ClientResult total = new ClientResult();
+    for (Future<ClientResult> future : futures) {
+      ClientResult clientResult;
+      try {
+        clientResult = future.get();
+      } catch (ExecutionException e) {
+        throw new AssertionError("Load test client failed", e.getCause());
+      }
+      total.requestCount += clientResult.requestCount;
+      total.connectionCount += clientResult.connectionCount;
+      total.errors.addAll(clientResult.errors);
+      for (RequestType requestType : RequestType.values()) {
+        total.latencies.get(requestType).addAll(clientResult.latencies.get(requestType));
+      }
+    }
+
+    Properties measured = new Properties();
+    measured.setProperty("throughput",
+        String.valueOf(total.requestCount * WebResourceLoadTest.MILLIS_PER_SECOND
+            / TimeUnit.SECONDS.toMillis(durationSeconds)));
+    for (RequestType requestType : RequestType.values()) {
+      LatencyRecorder latencies = total.latencies.get(requestType);
+      for (double percentile : WebResourceLoadTest.PERCENTILES) {
+        measured.setProperty(WebResourceLoadTest.percentileKey(requestType, percentile),
+            String.valueOf(latencies.getPercentileMillis(percentile)));
+      }
+    }
+    writeResult(measured, clients, total);
+
+    Assert.assertTrue("Errors during the load test: " + total.errors, total.errors.isEmpty());
+    Assert.assertEquals("Connections were not kept alive", clients, total.connectionCount);
+    verifyAgainstBaseline(measured, loadBaseline());
+  }
+
+  private void verifyAgainstBaseline(final Properties measured, final Properties baseline) {
+    double maxThroughputDrop = WebResourceLoadTest.getDoubleProperty("maxThroughputDrop",
+        WebResourceLoadTest.DEFAULT_MAX_THROUGHPUT_DROP);
+    double maxLatencyIncrease = WebResourceLoadTest.getDoubleProperty("maxLatencyIncrease",
+        WebResourceLoadTest.DEFAULT_MAX_LATENCY_INCREASE);
+
+    List<String> regressions = new ArrayList<>();
+    for (String key : baseline.stringPropertyNames()) {
+      String measuredValue = measured.getProperty(key);
+      if (measuredValue == null) {
+        continue;
+      }
+      double expected = Double.parseDouble(baseline.getProperty(key));
+      double actual = Double.parseDouble(measuredValue);
+      if ("throughput".equals(key)) {
+        if (actual < expected * (1 - maxThroughputDrop)) {
+          regressions.add(key + ": " + actual + " req/s, baseline: " + expected + " req/s");
+        }
+      } else if (actual > expected * (1 + maxLatencyIncrease)) {
+        regressions.add(key + ": " + actual + " ms, baseline: " + expected + " ms");
+      }
+    }
+    Assert.assertTrue("Performance regression compared to the baseline: " + regressions,
+        regressions.isEmpty());
+  }
+
+  private void writeResult(final Properties measured, final int clients,
+      final ClientResult total) throws IOException {
+
+    String comment = "WebResource load test, clients: " + clients + ", requests: "
+        + total.requestCount + ", connections: " + total.connectionCount;
+    measured.store(System.out, comment);
+
+    String resultFile = System.getProperty(WebResourceLoadTest.PROPERTY_PREFIX + "resultFile");
+    if (resultFile != null) {
+      try (OutputStream out = new FileOutputStream(resultFile)) {
+        measured.store(out, comment);
+      }
+    }
+  }
+}
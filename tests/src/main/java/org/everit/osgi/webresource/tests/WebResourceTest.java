@@ -15,12 +15,46 @@
  */
 package org.everit.osgi.webresource.tests;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.servlet.ServletContext;
 
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.servlet.ServletContextHandler;
@@ -32,10 +66,24 @@ import org.everit.osgi.ecm.annotation.ServiceRef;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
 import org.everit.osgi.ecm.extender.ECMExtenderConstants;
+import org.everit.osgi.webresource.ContentEncoder;
+import org.everit.osgi.webresource.ContentEncoding;
+import org.everit.osgi.webresource.WebResource;
+import org.everit.osgi.webresource.WebResourceConstants;
+import org.everit.osgi.webresource.WebResourceContainer;
 import org.everit.osgi.webresource.WebResourceURIGenerator;
+import org.everit.osgi.webresource.provider.InMemoryWebResourceProvider;
+import org.everit.osgi.webresource.provider.WebResourceProviderContainer;
+import org.everit.osgi.webresource.transport.InMemoryWebResourceRequest;
+import org.everit.osgi.webresource.transport.InMemoryWebResourceResponse;
+import org.everit.osgi.webresource.transport.WebResourceHandler;
+import org.everit.osgi.webresource.transport.WebResourceRequest;
 import org.everit.osgi.webresource.util.WebResourceUtil;
 import org.junit.Assert;
 import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Version;
 
 import aQute.bnd.annotation.headers.ProvideCapability;
 
@@ -53,8 +101,157 @@ import aQute.bnd.annotation.headers.ProvideCapability;
 @Service(value = WebResourceTest.class)
 public class WebResourceTest {
 
+  private static final int AVIF_SIZE = 20;
+
+  private static final int GZIP_HEADER_SIZE = 10;
+
+  private static final int PNG_SIZE = 30;
+
+  private static final String PRELOAD_CAPABILITY = "everit.webresource;"
+      + "resourceFolder=/META-INF/preloadtest;libraryPrefix=preloadtest;preload:List<String>=\""
+      + "preloadtest/page.html=preloadtest/js/app.js,"
+      + "preloadtest/js/app.js=preloadtest/css/style.css,"
+      + "preloadtest/css/style.css=preloadtest/img/logo.png,"
+      + "preloadtest/css/style.css=preloadtest/js/app.js\"";
+
+  private static final int RAW_REQUEST_COUNT = 40;
+
+  private static final int READ_BUFFER_SIZE = 1024;
+
+  private static final String SLOW_CONSUMER_CAPABILITY =
+      "everit.webresource;resourceFolder=/META-INF/slowconsumertest;"
+          + "libraryPrefix=slowconsumertest";
+
+  private static final int SLOW_CONSUMER_CACHED_SIZE = 8 * 1024 * 1024;
+
+  /**
+   * The slow client pauses each time it read this number of bytes.
+   */
+  private static final int SLOW_CONSUMER_PAUSE_BYTES = 1024 * 1024;
+
+  private static final int SLOW_CONSUMER_RECEIVE_BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Above the streaming threshold of the test environments.
+   */
+  private static final int SLOW_CONSUMER_STREAMED_SIZE = 16 * 1024 * 1024;
+
+  private static final int SOCKET_TIMEOUT = 10000;
+
+  private static final int WEBP_SIZE = 10;
+
+  private String contextPath;
+
+  private Server server;
+
   private ServletContext servletContext;
 
+  private WebResourceContainer webResourceContainer;
+
+  private static byte[] readFully(final InputStream in) throws IOException {
+    try (InputStream inputStream = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[WebResourceTest.READ_BUFFER_SIZE];
+      int r = inputStream.read(buf);
+      while (r >= 0) {
+        out.write(buf, 0, r);
+        r = inputStream.read(buf);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  private static byte[] toBytes(final String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private InMemoryWebResourceResponse requestVariant(final String path,
+      final String acceptHeader) {
+    InMemoryWebResourceRequest request = new InMemoryWebResourceRequest("GET", path);
+    if (acceptHeader != null) {
+      request.header("Accept", acceptHeader);
+    }
+    InMemoryWebResourceResponse response = new InMemoryWebResourceResponse();
+    new WebResourceHandler(this.webResourceContainer).handle(request, response);
+    Assert.assertEquals(200, response.getStatus());
+    return response;
+  }
+
+  private String findPreloadLinkHeader(final String path) {
+    InMemoryWebResourceResponse response = new InMemoryWebResourceResponse();
+    new WebResourceHandler(this.webResourceContainer)
+        .handle(new InMemoryWebResourceRequest("GET", path), response);
+    Assert.assertEquals(200, response.getStatus());
+    return response.getHeader("Link");
+  }
+
+  private long resolveLastModified(final String lib, final String file) {
+    Optional<WebResource> webResource =
+        this.webResourceContainer.findWebResource(lib, file, Optional.empty());
+    Assert.assertTrue(webResource.isPresent());
+    return webResource.get().getLastModified();
+  }
+
+  /**
+   * Sends a GET request on a new connection with a small receive buffer, so the server cannot
+   * write much more than the client reads.
+   */
+  private Socket openRawRequest(final String path) throws IOException {
+    Socket socket = new Socket();
+    socket.setReceiveBufferSize(WebResourceTest.SLOW_CONSUMER_RECEIVE_BUFFER_SIZE);
+    socket.setSoTimeout(WebResourceTest.SOCKET_TIMEOUT);
+    socket.connect(new InetSocketAddress("localhost", resolvePort()),
+        WebResourceTest.SOCKET_TIMEOUT);
+    OutputStream out = socket.getOutputStream();
+    out.write(("GET " + this.contextPath + path + " HTTP/1.1\r\nHost: localhost\r\n"
+        + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    out.flush();
+    return socket;
+  }
+
+  /**
+   * Reads the status line and the headers of a response and checks that the status is 200.
+   *
+   * @return The value of the Content-Length header.
+   */
+  private long readResponseHead(final InputStream in) throws IOException {
+    ByteArrayOutputStream head = new ByteArrayOutputStream();
+    int matchedTerminatorBytes = 0;
+    byte[] terminator = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    while (matchedTerminatorBytes < terminator.length) {
+      int b = in.read();
+      Assert.assertTrue("Connection closed before the end of the response head", b >= 0);
+      head.write(b);
+      if (b == terminator[matchedTerminatorBytes]) {
+        matchedTerminatorBytes++;
+      } else {
+        matchedTerminatorBytes = b == terminator[0] ? 1 : 0;
+      }
+    }
+    String[] lines = new String(head.toByteArray(), StandardCharsets.US_ASCII).split("\r\n");
+    Assert.assertTrue(lines[0], lines[0].contains(" 200 "));
+    for (String line : lines) {
+      int indexOfColon = line.indexOf(':');
+      if (indexOfColon > 0
+          && "Content-Length".equalsIgnoreCase(line.substring(0, indexOfColon).trim())) {
+        return Long.parseLong(line.substring(indexOfColon + 1).trim());
+      }
+    }
+    throw new AssertionError("No Content-Length in the response: " + lines[0]);
+  }
+
+  private int resolvePort() {
+    for (Connector connector : this.server.getConnectors()) {
+      if (connector instanceof NetworkConnector) {
+        int localPort = ((NetworkConnector) connector).getLocalPort();
+        if (localPort > 0) {
+          return localPort;
+        }
+      }
+    }
+    throw new IllegalStateException("The Jetty server does not listen on any port");
+  }
+
   private WebResourceURIGenerator resolveURIGenerator() {
     Object uriGeneratorAttribute = WebResourceUtil
         .getUriGeneratorsOfServletContext(this.servletContext);
@@ -72,6 +269,7 @@ public class WebResourceTest {
    */
   @ServiceRef(defaultValue = "")
   public void setServer(final Server server) {
+    this.server = server;
 
     ContextHandlerCollection contextHandlerCollection =
         (ContextHandlerCollection) server.getHandler();
@@ -79,13 +277,565 @@ public class WebResourceTest {
     Handler[] handlers = contextHandlerCollection.getHandlers();
     for (Handler handler : handlers) {
       if (handler instanceof ServletContextHandler) {
-        this.servletContext = ((ServletContextHandler) handler).getServletContext();
+        ServletContextHandler servletContextHandler = (ServletContextHandler) handler;
+        this.servletContext = servletContextHandler.getServletContext();
+        String handlerContextPath = servletContextHandler.getContextPath();
+        this.contextPath = "/".equals(handlerContextPath) ? "" : handlerContextPath;
         return;
       }
     }
     throw new IllegalArgumentException("Failed to retrieve the ServletContext");
   }
 
+  @ServiceRef(defaultValue = "")
+  public void setWebResourceContainer(final WebResourceContainer webResourceContainer) {
+    this.webResourceContainer = webResourceContainer;
+  }
+
+  /**
+   * Requests the same webresource in every encoding and checks that the compressed responses
+   * restore the content of the bundle with the JDK decoders. If compressed-only storage is
+   * enabled, the GZIP and Deflate responses are views of the same compressed data and the RAW
+   * responses are inflated from it until the RAW content is cached.
+   */
+  @Test
+  public void testCompressedContentRoundTrip() throws IOException {
+    byte[] expected = WebResourceTest.readFully(WebResourceTest.class.getClassLoader()
+        .getResourceAsStream("META-INF/resources/lib1/css/main.css"));
+    WebResourceHandler handler = new WebResourceHandler(this.webResourceContainer);
+
+    InMemoryWebResourceResponse gzipResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/foo/bar/css/main.css")
+        .header("Accept-Encoding", "gzip"), gzipResponse);
+    Assert.assertEquals("gzip", gzipResponse.getHeader("Content-Encoding"));
+    ByteArrayOutputStream gzipHeader = new ByteArrayOutputStream();
+    new GZIPOutputStream(gzipHeader).close();
+    Assert.assertArrayEquals(
+        Arrays.copyOf(gzipHeader.toByteArray(), WebResourceTest.GZIP_HEADER_SIZE),
+        Arrays.copyOf(gzipResponse.getBodyBytes(), WebResourceTest.GZIP_HEADER_SIZE));
+    Assert.assertArrayEquals(expected, WebResourceTest.readFully(
+        new GZIPInputStream(new ByteArrayInputStream(gzipResponse.getBodyBytes()))));
+
+    InMemoryWebResourceResponse deflateResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/foo/bar/css/main.css")
+        .header("Accept-Encoding", "deflate"), deflateResponse);
+    Assert.assertEquals("deflate", deflateResponse.getHeader("Content-Encoding"));
+    Assert.assertArrayEquals(expected, WebResourceTest.readFully(
+        new InflaterInputStream(new ByteArrayInputStream(deflateResponse.getBodyBytes()))));
+
+    InMemoryWebResourceResponse headResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("HEAD", "/foo/bar/css/main.css"),
+        headResponse);
+    Assert.assertEquals(expected.length, headResponse.getContentLength());
+    Assert.assertEquals(0, headResponse.getBodyBytes().length);
+
+    // More requests than the default RAW promotion threshold, so inflated and cached RAW content
+    // is checked as well
+    for (int i = 0; i < WebResourceTest.RAW_REQUEST_COUNT; i++) {
+      InMemoryWebResourceResponse rawResponse = new InMemoryWebResourceResponse();
+      handler.handle(new InMemoryWebResourceRequest("GET", "/foo/bar/css/main.css"),
+          rawResponse);
+      Assert.assertNull(rawResponse.getHeader("Content-Encoding"));
+      Assert.assertEquals(expected.length, rawResponse.getContentLength());
+      Assert.assertArrayEquals(expected, rawResponse.getBodyBytes());
+    }
+  }
+
+  /**
+   * Registers an additional encoding and one that replaces GZIP, and checks that the negotiation
+   * follows the changes and falls back to the built-in encodings when they are unregistered.
+   */
+  @Test
+  public void testContentEncoderRegistration() throws IOException {
+    ContentEncoder testEncoder = new ContentEncoder() {
+      @Override
+      public OutputStream createEncoderStream(final OutputStream out) {
+        return out;
+      }
+
+      @Override
+      public int getPreference() {
+        return ContentEncoding.PREFERENCE_GZIP + 1;
+      }
+
+      @Override
+      public String getToken() {
+        return "X-Test";
+      }
+    };
+    ContentEncoder gzipReplacement = new ContentEncoder() {
+      @Override
+      public OutputStream createEncoderStream(final OutputStream out) {
+        return out;
+      }
+
+      @Override
+      public int getPreference() {
+        return ContentEncoding.PREFERENCE_DEFLATE - 1;
+      }
+
+      @Override
+      public String getToken() {
+        return "gzip";
+      }
+    };
+
+    ContentEncoding testEncoding = ContentEncoding.register(testEncoder);
+    try {
+      Assert.assertEquals("x-test", testEncoding.getHeaderValue());
+      Assert.assertEquals(Optional.of(testEncoding), ContentEncoding.forToken("x-test"));
+      Assert.assertEquals(testEncoding, ContentEncoding.values()[0]);
+      Assert.assertEquals(testEncoding, ContentEncoding.resolveEncoding("gzip, x-test"));
+      Assert.assertEquals(ContentEncoding.GZIP,
+          ContentEncoding.resolveEncoding("gzip, x-test;q=0"));
+
+      ContentEncoding.register(gzipReplacement);
+      try {
+        Assert.assertEquals(ContentEncoding.PREFERENCE_DEFLATE - 1,
+            ContentEncoding.forToken("gzip").get().getPreference());
+        Assert.assertEquals(ContentEncoding.DEFLATE,
+            ContentEncoding.resolveEncoding("gzip, deflate"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertSame(out, ContentEncoding.forToken("gzip").get().createEncoderStream(out));
+      } finally {
+        Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.unregister(gzipReplacement));
+      }
+      Assert.assertEquals(ContentEncoding.PREFERENCE_GZIP,
+          ContentEncoding.forToken("gzip").get().getPreference());
+      Assert.assertEquals(ContentEncoding.GZIP,
+          ContentEncoding.resolveEncoding("gzip, deflate"));
+    } finally {
+      ContentEncoding.unregister(testEncoder);
+    }
+    Assert.assertFalse(ContentEncoding.forToken("x-test").isPresent());
+    Assert.assertEquals(ContentEncoding.RAW, ContentEncoding.resolveEncoding("x-test"));
+
+    try {
+      ContentEncoding.register(new ContentEncoder() {
+        @Override
+        public OutputStream createEncoderStream(final OutputStream out) {
+          return out;
+        }
+
+        @Override
+        public int getPreference() {
+          return 0;
+        }
+
+        @Override
+        public String getToken() {
+          return "raw";
+        }
+      });
+      Assert.fail("The RAW encoding must not be replaceable");
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals(ContentEncoding.RAW, ContentEncoding.forToken("raw").get());
+    }
+  }
+
+  @Test
+  public void testContentEncodingResolution() {
+    Assert.assertEquals(ContentEncoding.RAW, ContentEncoding.resolveEncoding((String) null));
+    Assert.assertEquals(ContentEncoding.RAW, ContentEncoding.resolveEncoding(""));
+    Assert.assertEquals(ContentEncoding.RAW, ContentEncoding.resolveEncoding("identity"));
+    Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.resolveEncoding("gzip"));
+    Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.resolveEncoding(" GZIP "));
+    Assert.assertEquals(ContentEncoding.DEFLATE, ContentEncoding.resolveEncoding("deflate"));
+
+    // The preference of the server decides, not the order of the header
+    Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.resolveEncoding("deflate, gzip"));
+    Assert.assertEquals(ContentEncoding.GZIP,
+        ContentEncoding.resolveEncoding("deflate, gzip;q=0.5"));
+
+    // Zero quality rejects an encoding, also if it is written differently
+    Assert.assertEquals(ContentEncoding.DEFLATE,
+        ContentEncoding.resolveEncoding("gzip;q=0, deflate"));
+    Assert.assertEquals(ContentEncoding.DEFLATE,
+        ContentEncoding.resolveEncoding("gzip; q=0.000, deflate"));
+    Assert.assertEquals(ContentEncoding.RAW, ContentEncoding.resolveEncoding("gzip;q=0"));
+
+    // The wildcard accepts every encoding that is not listed explicitly
+    Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.resolveEncoding("*"));
+    Assert.assertEquals(ContentEncoding.DEFLATE,
+        ContentEncoding.resolveEncoding("*, gzip;q=0"));
+    Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.resolveEncoding("*;q=0, gzip"));
+    Assert.assertEquals(ContentEncoding.RAW, ContentEncoding.resolveEncoding("*;q=0"));
+  }
+
+  @Test
+  public void testHandlerWithInMemoryExchange() throws IOException {
+    WebResourceHandler handler = new WebResourceHandler(this.webResourceContainer);
+
+    InMemoryWebResourceResponse response = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/foo/bar/css/main.css")
+        .header("Accept-Encoding", "gzip"), response);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+    Assert.assertEquals(response.getContentLength(), response.getBodyBytes().length);
+
+    InMemoryWebResourceResponse conditionalResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/foo/bar/css/main.css")
+        .header("If-None-Match", response.getHeader("ETag")), conditionalResponse);
+    Assert.assertEquals(304, conditionalResponse.getStatus());
+    Assert.assertEquals(0, conditionalResponse.getBodyBytes().length);
+
+    InMemoryWebResourceResponse notFoundResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/foo/bar/css/nonexistent.css"),
+        notFoundResponse);
+    Assert.assertEquals(404, notFoundResponse.getStatus());
+
+    // Conditional and HEAD requests are answered without reading the content into the cache
+    WebResourceProviderContainer container = new WebResourceProviderContainer();
+    byte[] content = WebResourceTest.toBytes("var headtest = 1;");
+    container.addProvider(new InMemoryWebResourceProvider("test", "headtest",
+        new Version(1, 0, 0)).addEntry("app.js", content));
+    WebResource webResource =
+        container.findWebResource("headtest", "app.js", Optional.empty()).get();
+    WebResourceHandler headHandler = new WebResourceHandler(container);
+
+    InMemoryWebResourceResponse notModifiedResponse = new InMemoryWebResourceResponse();
+    headHandler.handle(new InMemoryWebResourceRequest("GET", "/headtest/app.js")
+        .header("Accept-Encoding", "gzip")
+        .header("If-None-Match", webResource.getETagHeaderValue()), notModifiedResponse);
+    Assert.assertEquals(304, notModifiedResponse.getStatus());
+
+    InMemoryWebResourceResponse headResponse = new InMemoryWebResourceResponse();
+    headHandler.handle(new InMemoryWebResourceRequest("HEAD", "/headtest/app.js"), headResponse);
+    Assert.assertEquals(200, headResponse.getStatus());
+    Assert.assertEquals(content.length, headResponse.getContentLength());
+    Assert.assertNull(headResponse.getHeader("Server-Timing"));
+    Assert.assertTrue(webResource.getCacheState().toString(),
+        webResource.getCacheState().isEmpty());
+
+    Predicate<WebResourceRequest> serverTimingFilter = (req) -> true;
+    InMemoryWebResourceResponse timedResponse = new InMemoryWebResourceResponse();
+    headHandler.handle(new InMemoryWebResourceRequest("GET", "/headtest/app.js")
+        .attribute(WebResourceHandler.REQUEST_ATTR_SERVER_TIMING_FILTER, serverTimingFilter),
+        timedResponse);
+    Assert.assertArrayEquals(content, timedResponse.getBodyBytes());
+    Assert.assertTrue(timedResponse.getHeader("Server-Timing"),
+        timedResponse.getHeader("Server-Timing").startsWith("wr-lookup;dur="));
+  }
+
+  /**
+   * Optimizes SVG images in the background and checks that only content that became smaller
+   * replaces the original one together with its ETag, and that a resource that fails with a
+   * runtime exception during the optimization neither breaks the optimization of the others nor
+   * its own serving.
+   */
+  @Test
+  public void testImageOptimization() throws IOException, InterruptedException {
+    AtomicBoolean sourceFailing = new AtomicBoolean();
+    InMemoryWebResourceProvider provider =
+        new InMemoryWebResourceProvider("optimizer", "optimized", new Version(1, 0, 0)) {
+          @Override
+          public Map<String, URL> listEntries() {
+            Map<String, URL> entries = super.listEntries();
+            URL brokenURL = entries.get("img/broken.svg");
+            try {
+              entries.put("img/broken.svg", new URL(null, brokenURL.toExternalForm(),
+                  new URLStreamHandler() {
+                    @Override
+                    protected URLConnection openConnection(final URL u) throws IOException {
+                      if (sourceFailing.get()) {
+                        throw new IllegalStateException("Simulated failure of the source");
+                      }
+                      return brokenURL.openConnection();
+                    }
+                  }));
+            } catch (MalformedURLException e) {
+              throw new UncheckedIOException(e);
+            }
+            return entries;
+          }
+        };
+    byte[] brokenSVG = WebResourceTest.toBytes("<svg> <!-- broken --> <rect/> </svg>");
+    byte[] commentedSVG = WebResourceTest.toBytes("<svg> <!-- comment --> <rect/> </svg>");
+    byte[] minimalSVG = WebResourceTest.toBytes("<svg><rect/></svg>");
+    provider.addEntry("img/broken.svg", brokenSVG).addEntry("img/commented.svg", commentedSVG)
+        .addEntry("img/minimal.svg", minimalSVG);
+
+    List<Throwable> uncaughtExceptions = new CopyOnWriteArrayList<>();
+    ExecutorService optimizerExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>()) {
+      @Override
+      protected void afterExecute(final Runnable r, final Throwable t) {
+        if (t != null) {
+          uncaughtExceptions.add(t);
+        }
+      }
+    };
+    CountDownLatch optimizationStartLatch = new CountDownLatch(1);
+    // The optimizations are queued behind this task, so the source fails only while they run
+    optimizerExecutor.execute(() -> {
+      try {
+        optimizationStartLatch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    WebResourceProviderContainer container = new WebResourceProviderContainer(optimizerExecutor);
+    Assert.assertTrue(container.addProvider(provider));
+    Map<String, String> originalETags = new HashMap<>();
+    for (String fileName : Arrays.asList("broken.svg", "commented.svg", "minimal.svg")) {
+      originalETags.put(fileName, container
+          .findWebResource("optimized/img", fileName, Optional.empty()).get()
+          .getETagHeaderValue());
+    }
+
+    sourceFailing.set(true);
+    optimizationStartLatch.countDown();
+    optimizerExecutor.shutdown();
+    Assert.assertTrue(optimizerExecutor.awaitTermination(1, TimeUnit.MINUTES));
+    sourceFailing.set(false);
+    Assert.assertEquals(Collections.emptyList(), uncaughtExceptions);
+
+    WebResourceHandler handler = new WebResourceHandler(container);
+    InMemoryWebResourceResponse commentedResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/optimized/img/commented.svg"),
+        commentedResponse);
+    Assert.assertEquals("<svg><rect/></svg>",
+        new String(commentedResponse.getBodyBytes(), StandardCharsets.UTF_8));
+    Assert.assertNotEquals(originalETags.get("commented.svg"),
+        commentedResponse.getHeader("ETag"));
+
+    InMemoryWebResourceResponse minimalResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/optimized/img/minimal.svg"),
+        minimalResponse);
+    Assert.assertArrayEquals(minimalSVG, minimalResponse.getBodyBytes());
+    Assert.assertEquals(originalETags.get("minimal.svg"), minimalResponse.getHeader("ETag"));
+
+    InMemoryWebResourceResponse brokenResponse = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/optimized/img/broken.svg"),
+        brokenResponse);
+    Assert.assertEquals(200, brokenResponse.getStatus());
+    Assert.assertArrayEquals(brokenSVG, brokenResponse.getBodyBytes());
+    Assert.assertEquals(originalETags.get("broken.svg"), brokenResponse.getHeader("ETag"));
+  }
+
+  /**
+   * Installs a bundle with the same image in different formats and checks which variant is
+   * served for different Accept headers and which resources are grouped as variants.
+   */
+  @Test
+  public void testImageVariantSelection() throws IOException, BundleException {
+    Bundle bundle = new TestBundleBuilder("org.everit.osgi.webresource.tests.variant",
+        "everit.webresource;resourceFolder=/META-INF/varianttest;libraryPrefix=varianttest")
+            .addEntry("META-INF/varianttest/img/logo.png", new byte[WebResourceTest.PNG_SIZE])
+            .addEntry("META-INF/varianttest/img/logo.avif", new byte[WebResourceTest.AVIF_SIZE])
+            .addEntry("META-INF/varianttest/img/logo.webp", new byte[WebResourceTest.WEBP_SIZE])
+            .addEntry("META-INF/varianttest/img/logo.css", WebResourceTest.toBytes("a {}"))
+            .addEntry("META-INF/varianttest/other/logo.webp", new byte[1])
+            .install();
+    try {
+      // Grouped by the name without the extension in the same library, ordered by size
+      WebResource png = this.webResourceContainer
+          .findWebResource("varianttest/img", "logo.png", Optional.empty()).get();
+      Assert.assertEquals(Arrays.asList("logo.webp", "logo.avif", "logo.png"),
+          png.getVariants().stream().map(WebResource::getFileName)
+              .collect(Collectors.toList()));
+      Assert.assertTrue(this.webResourceContainer
+          .findWebResource("varianttest/img", "logo.css", Optional.empty()).get()
+          .getVariants().isEmpty());
+      Assert.assertTrue(this.webResourceContainer
+          .findWebResource("varianttest/other", "logo.webp", Optional.empty()).get()
+          .getVariants().isEmpty());
+
+      String path = "/varianttest/img/logo.png";
+      InMemoryWebResourceResponse response = requestVariant(path, null);
+      Assert.assertEquals("image/png", response.getHeader("Content-Type"));
+      Assert.assertEquals("Accept", response.getHeader("Vary"));
+      Assert.assertEquals(WebResourceTest.PNG_SIZE, response.getBodyBytes().length);
+
+      // The smallest of the explicitly listed formats
+      Assert.assertEquals("image/webp",
+          requestVariant(path, "image/avif,image/webp,image/*,*/*;q=0.8")
+              .getHeader("Content-Type"));
+      // Rejected formats are never served
+      Assert.assertEquals("image/avif",
+          requestVariant(path, "image/avif,image/webp;q=0").getHeader("Content-Type"));
+      Assert.assertEquals("image/png",
+          requestVariant(path, "image/webp;q=0,image/*").getHeader("Content-Type"));
+      // A wildcard alone does not replace the requested format, but a higher quality does
+      Assert.assertEquals("image/png", requestVariant(path, "image/*").getHeader("Content-Type"));
+      Assert.assertEquals("image/png",
+          requestVariant(path, "image/png,image/webp;q=0.5").getHeader("Content-Type"));
+      Assert.assertEquals("image/webp",
+          requestVariant(path, "image/png;q=0.5,image/*").getHeader("Content-Type"));
+      // The requested format is the fallback if nothing is accepted
+      Assert.assertEquals("image/png",
+          requestVariant(path, "text/html").getHeader("Content-Type"));
+
+      Assert.assertNull(requestVariant("/varianttest/img/logo.css", "image/webp")
+          .getHeader("Vary"));
+    } finally {
+      bundle.uninstall();
+    }
+  }
+
+  /**
+   * Installs a bundle whose webresources depend on each other transitively and in a cycle and
+   * checks the preload <code>Link</code> headers. A second bundle adds a dependency to the page
+   * that must disappear when the second bundle is uninstalled.
+   */
+  @Test
+  public void testPreloadLinksOfDependencyGraph() throws IOException, BundleException {
+    Bundle bundle = new TestBundleBuilder("org.everit.osgi.webresource.tests.preload",
+        WebResourceTest.PRELOAD_CAPABILITY)
+            .addEntry("META-INF/preloadtest/page.html", WebResourceTest.toBytes("<html/>"))
+            .addEntry("META-INF/preloadtest/js/app.js", WebResourceTest.toBytes("var a;"))
+            .addEntry("META-INF/preloadtest/css/style.css", WebResourceTest.toBytes("a {}"))
+            .addEntry("META-INF/preloadtest/img/logo.png", new byte[] { 1, 2, 3 })
+            .install();
+    try {
+      long appLastModified = resolveLastModified("preloadtest/js", "app.js");
+      long styleLastModified = resolveLastModified("preloadtest/css", "style.css");
+      long logoLastModified = resolveLastModified("preloadtest/img", "logo.png");
+
+      String pageLinks = "<js/app.js?t=" + appLastModified + ">; rel=preload; as=script, "
+          + "<css/style.css?t=" + styleLastModified + ">; rel=preload; as=style, "
+          + "<img/logo.png?t=" + logoLastModified + ">; rel=preload; as=image";
+      Assert.assertEquals(pageLinks, findPreloadLinkHeader("/preloadtest/page.html"));
+
+      // The cycle back to app.js is cut, so the script does not preload itself
+      Assert.assertEquals("<../css/style.css?t=" + styleLastModified
+          + ">; rel=preload; as=style, <../img/logo.png?t=" + logoLastModified
+          + ">; rel=preload; as=image", findPreloadLinkHeader("/preloadtest/js/app.js"));
+      Assert.assertEquals("<../img/logo.png?t=" + logoLastModified
+          + ">; rel=preload; as=image, <../js/app.js?t=" + appLastModified
+          + ">; rel=preload; as=script", findPreloadLinkHeader("/preloadtest/css/style.css"));
+      Assert.assertNull(findPreloadLinkHeader("/preloadtest/img/logo.png"));
+
+      // Resolving the link against the URI of the page gives the URI that is generated for the
+      // dependency
+      WebResourceURIGenerator uriGenerator = resolveURIGenerator();
+      URI pageURI = URI.create(
+          uriGenerator.generateURI("preloadtest", "page.html", Optional.empty()).get());
+      Assert.assertEquals(
+          uriGenerator.generateURI("preloadtest/css", "style.css", Optional.empty()).get(),
+          pageURI.resolve("css/style.css?t=" + styleLastModified).toString());
+
+      Bundle extraBundle = new TestBundleBuilder("org.everit.osgi.webresource.tests.preload.extra",
+          "everit.webresource;resourceFolder=/META-INF/extra;libraryPrefix=preloadtest/extra;"
+              + "preload=\"preloadtest/page.html=preloadtest/extra/extra.js\"")
+                  .addEntry("META-INF/extra/extra.js", WebResourceTest.toBytes("var b;"))
+                  .install();
+      try {
+        Assert.assertTrue(findPreloadLinkHeader("/preloadtest/page.html")
+            .contains("<extra/extra.js?t="));
+      } finally {
+        extraBundle.uninstall();
+      }
+      Assert.assertEquals(pageLinks, findPreloadLinkHeader("/preloadtest/page.html"));
+    } finally {
+      bundle.uninstall();
+    }
+    Assert.assertFalse(this.webResourceContainer
+        .findWebResource("preloadtest", "page.html", Optional.empty()).isPresent());
+  }
+
+  @Test
+  public void testProviderContainer() throws IOException {
+    WebResourceProviderContainer container = new WebResourceProviderContainer();
+    InMemoryWebResourceProvider provider =
+        new InMemoryWebResourceProvider("test", "provided", new Version(1, 0, 0))
+            .addEntry("js/app.js", "var a = 1;".getBytes(StandardCharsets.UTF_8));
+    Assert.assertTrue(container.addProvider(provider));
+    Assert.assertTrue(
+        container.findWebResource("provided/js", "app.js", Optional.of("[1.0.0,2.0.0)"))
+            .isPresent());
+
+    WebResourceHandler handler = new WebResourceHandler(container);
+    InMemoryWebResourceResponse response = new InMemoryWebResourceResponse();
+    handler.handle(new InMemoryWebResourceRequest("GET", "/provided/js/app.js"), response);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("var a = 1;",
+        new String(response.getBodyBytes(), StandardCharsets.UTF_8));
+
+    container.removeProvider(provider);
+    Assert.assertFalse(
+        container.findWebResource("provided/js", "app.js", Optional.empty()).isPresent());
+  }
+
+  /**
+   * Downloads a cached and a streamed webresource with a client that reads slowly and with one
+   * that stops reading. The downloads of the slow client take several times longer than the idle
+   * timeout of the asynchronous transfers in the test environments, but they must not be aborted
+   * as the client makes progress all the time. The transfers to the stalled client are aborted.
+   */
+  @Test
+  public void testSlowConsumerOfAsyncTransfer()
+      throws IOException, BundleException, InterruptedException {
+    long idleTimeout = Long.getLong(WebResourceConstants.SYSTEM_PROPERTY_ASYNC_IDLE_TIMEOUT, 0);
+    Assert.assertTrue("No idle timeout in the test environment", idleTimeout > 0);
+
+    Random random = new Random(1);
+    byte[] cachedContent = new byte[WebResourceTest.SLOW_CONSUMER_CACHED_SIZE];
+    random.nextBytes(cachedContent);
+    byte[] streamedContent = new byte[WebResourceTest.SLOW_CONSUMER_STREAMED_SIZE];
+    random.nextBytes(streamedContent);
+
+    Bundle bundle = new TestBundleBuilder("slowconsumertest",
+        WebResourceTest.SLOW_CONSUMER_CAPABILITY)
+            .addEntry("META-INF/slowconsumertest/cached.bin", cachedContent)
+            .addEntry("META-INF/slowconsumertest/streamed.bin", streamedContent)
+            .install();
+    try {
+      Assert.assertFalse(this.webResourceContainer
+          .findWebResource("slowconsumertest", "cached.bin", Optional.empty()).get()
+          .getContent(ContentEncoding.RAW).isStreamed());
+      Assert.assertTrue(this.webResourceContainer
+          .findWebResource("slowconsumertest", "streamed.bin", Optional.empty()).get()
+          .getContent(ContentEncoding.RAW).isStreamed());
+
+      for (String fileName : new String[] { "cached.bin", "streamed.bin" }) {
+        byte[] content = "cached.bin".equals(fileName) ? cachedContent : streamedContent;
+        String path = "/slowconsumertest/" + fileName;
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream(content.length);
+        try (Socket socket = openRawRequest(path)) {
+          InputStream in = socket.getInputStream();
+          Assert.assertEquals(content.length, readResponseHead(in));
+          byte[] buffer = new byte[WebResourceTest.READ_BUFFER_SIZE];
+          int readSincePause = 0;
+          int r = in.read(buffer);
+          while (r >= 0) {
+            received.write(buffer, 0, r);
+            readSincePause += r;
+            if (readSincePause >= WebResourceTest.SLOW_CONSUMER_PAUSE_BYTES) {
+              Thread.sleep(idleTimeout / 4);
+              readSincePause = 0;
+            }
+            r = in.read(buffer);
+          }
+        }
+        Assert.assertArrayEquals(path, content, received.toByteArray());
+
+        long receivedOfStalled = 0;
+        try (Socket socket = openRawRequest(path)) {
+          InputStream in = socket.getInputStream();
+          Assert.assertEquals(content.length, readResponseHead(in));
+          Thread.sleep(idleTimeout * 3);
+          byte[] buffer = new byte[WebResourceTest.READ_BUFFER_SIZE];
+          try {
+            int r = in.read(buffer);
+            while (r >= 0) {
+              receivedOfStalled += r;
+              r = in.read(buffer);
+            }
+          } catch (IOException e) {
+            // The container may reset the connection of the aborted response or keep it open
+            // without sending anything
+          }
+        }
+        Assert.assertTrue(path + ": " + receivedOfStalled,
+            receivedOfStalled < content.length);
+      }
+    } finally {
+      bundle.uninstall();
+    }
+  }
+
   @Test
   public void testURIGeneratorForExistingWebResource() {
     WebResourceURIGenerator uriGenerator = resolveURIGenerator();